@@ -35,9 +35,16 @@ import java.io.PrintWriter;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -67,6 +74,19 @@ public abstract class AdminServletBase extends HttpServlet {
 
   private static Logger logger = Logger.getLogger(AdminServletBase.class);
 
+  // shared by all admin pages to fetch the xml documents a page is built from in parallel
+
+  private static final ExecutorService httpGetPool =
+      Executors.newCachedThreadPool(
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, "AdminServletHttpGet");
+              t.setDaemon(true);
+              return t;
+            }
+          });
+
   protected boolean isAuthenticated(HttpServletRequest request) {
 
     HttpSession session = request.getSession(true);
@@ -290,6 +310,41 @@ public abstract class AdminServletBase extends HttpServlet {
     }
   }
 
+  /**
+   * Fetch several urls at the same time, a failed fetch yields an empty string like httpGet()
+   *
+   * @param urlStrings
+   * @return documents in the order of the urls
+   */
+  protected List<String> httpGetAll(List<String> urlStrings) {
+
+    List<Future<String>> futures = new ArrayList<Future<String>>();
+
+    for (final String urlString : urlStrings) {
+      futures.add(
+          httpGetPool.submit(
+              new Callable<String>() {
+                @Override
+                public String call() {
+                  return httpGet(urlString);
+                }
+              }));
+    }
+
+    List<String> docs = new ArrayList<String>();
+
+    for (int i = 0; i < futures.size(); i++) {
+      try {
+        docs.add(futures.get(i).get());
+      } catch (Exception ex) {
+        logger.error("event=http_get url=" + urlStrings.get(i), ex);
+        docs.add("");
+      }
+    }
+
+    return docs;
+  }
+
   protected String httpGet(String urlString) {
 
     URL url;
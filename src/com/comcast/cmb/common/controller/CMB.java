@@ -85,7 +85,7 @@ public class CMB {
               + " cl_write="
               + CMBProperties.getInstance().getWriteConsistencyLevel());
 
-      CQSControllerServlet.writeHeartBeat();
+      CMBHeartbeatService.register(CMBHeartbeatService.Role.CQSAPIServer);
 
       if (CMBProperties.getInstance().isCQSLongPollEnabled()) {
         CQSLongPollReceiver.listen();
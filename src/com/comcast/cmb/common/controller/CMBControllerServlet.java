@@ -19,6 +19,7 @@ import com.comcast.cmb.common.model.User;
 import com.comcast.cmb.common.model.UserAuthModule;
 import com.comcast.cmb.common.persistence.IUserPersistence;
 import com.comcast.cmb.common.persistence.PersistenceFactory;
+import com.comcast.cmb.common.util.ApiLatencyStats;
 import com.comcast.cmb.common.util.CMBErrorCodes;
 import com.comcast.cmb.common.util.CMBException;
 import com.comcast.cmb.common.util.CMBProperties;
@@ -38,10 +39,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.servlet.AsyncContext;
 import javax.servlet.AsyncEvent;
@@ -83,25 +84,10 @@ public abstract class CMBControllerServlet extends HttpServlet {
   public static volatile ConcurrentHashMap<String, AtomicLong> callStats;
   public static volatile ConcurrentHashMap<String, AtomicLong> callFailureStats;
 
-  public static final int NUM_MINUTES = 60;
-  public static final int NUM_BUCKETS = 10;
+  /** number of most recent minutes summarized in percentiles exposed through jmx */
+  public static final int LATENCY_SUMMARY_MINUTES = 5;
 
-  public static volatile AtomicLong[][] callResponseTimes1MS =
-      new AtomicLong[NUM_MINUTES][NUM_BUCKETS];
-  public static volatile AtomicLong[][] callResponseTimes10MS =
-      new AtomicLong[NUM_MINUTES][NUM_BUCKETS];
-  public static volatile AtomicLong[][] callResponseTimes100MS =
-      new AtomicLong[NUM_MINUTES][NUM_BUCKETS];
-  public static volatile AtomicLong[][] callResponseTimes1000MS =
-      new AtomicLong[NUM_MINUTES][NUM_BUCKETS];
-  public static volatile AtomicLong[][] callResponseTimesRedisMS =
-      new AtomicLong[NUM_MINUTES][NUM_BUCKETS];
-  public static volatile AtomicLong[][] callResponseTimesCassandraMS =
-      new AtomicLong[NUM_MINUTES][NUM_BUCKETS];
-
-  public static volatile ConcurrentHashMap<String, AtomicLong[][]> callResponseTimesByApi;
-
-  public static volatile AtomicInteger currentMinute;
+  public static volatile ConcurrentHashMap<String, ApiLatencyStats> callLatencyByApi;
 
   public static volatile String[] recentErrors = new String[10];
   public static volatile int recentErrorIdx = -1;
@@ -140,26 +126,7 @@ public abstract class CMBControllerServlet extends HttpServlet {
     callStats = new ConcurrentHashMap<String, AtomicLong>();
     callFailureStats = new ConcurrentHashMap<String, AtomicLong>();
 
-    callResponseTimes1MS = new AtomicLong[NUM_MINUTES][NUM_BUCKETS];
-    callResponseTimes10MS = new AtomicLong[NUM_MINUTES][NUM_BUCKETS];
-    callResponseTimes100MS = new AtomicLong[NUM_MINUTES][NUM_BUCKETS];
-    callResponseTimes1000MS = new AtomicLong[NUM_MINUTES][NUM_BUCKETS];
-    callResponseTimesRedisMS = new AtomicLong[NUM_MINUTES][NUM_BUCKETS];
-    callResponseTimesCassandraMS = new AtomicLong[NUM_MINUTES][NUM_BUCKETS];
-    callResponseTimesByApi = new ConcurrentHashMap<String, AtomicLong[][]>();
-
-    for (int i = 0; i < NUM_MINUTES; i++) {
-      for (int k = 0; k < NUM_BUCKETS; k++) {
-        callResponseTimes1MS[i][k] = new AtomicLong();
-        callResponseTimes10MS[i][k] = new AtomicLong();
-        callResponseTimes100MS[i][k] = new AtomicLong();
-        callResponseTimes1000MS[i][k] = new AtomicLong();
-        callResponseTimesRedisMS[i][k] = new AtomicLong();
-        callResponseTimesCassandraMS[i][k] = new AtomicLong();
-      }
-    }
-
-    currentMinute = new AtomicInteger(new Date(System.currentTimeMillis()).getMinutes());
+    callLatencyByApi = new ConcurrentHashMap<String, ApiLatencyStats>();
 
     recentErrors = new String[10];
     recentErrorIdx = -1;
@@ -277,8 +244,32 @@ public abstract class CMBControllerServlet extends HttpServlet {
     return params.toString();
   }
 
+  /**
+   * Get percentile summaries of the recent latency histograms of every api action
+   *
+   * @param minutes number of most recent minutes to include
+   * @return summary by action, see ApiLatencyStats.getPercentiles()
+   */
+  public static Map<String, Map<String, Long>> getCallLatencyPercentiles(int minutes) {
+
+    Map<String, Map<String, Long>> percentiles = new TreeMap<String, Map<String, Long>>();
+
+    if (callLatencyByApi != null) {
+      for (Map.Entry<String, ApiLatencyStats> entry : callLatencyByApi.entrySet()) {
+        percentiles.put(entry.getKey(), entry.getValue().getPercentiles(minutes));
+      }
+    }
+
+    return percentiles;
+  }
+
   private void logStats(
-      String action, long responseTimeMS, long redisTimeMS, long cassandraTimeMS) {
+      String action,
+      long responseTimeMS,
+      long redisTimeMS,
+      long cassandraTimeMS,
+      long authTimeMS,
+      long asyncQueueTimeMS) {
 
     try {
 
@@ -294,108 +285,15 @@ public abstract class CMBControllerServlet extends HttpServlet {
           callStats = new ConcurrentHashMap<String, AtomicLong>();
         }
 
-        int newMinute = new Date(System.currentTimeMillis()).getMinutes();
-        int oldMinute = currentMinute.getAndSet(newMinute);
-
-        if (newMinute != oldMinute) {
-          int eraseIdx = (newMinute + 1) % 60;
-          for (int i = 0; i < NUM_BUCKETS; i++) {
-            callResponseTimes1MS[eraseIdx][i].set(0);
-            callResponseTimes10MS[eraseIdx][i].set(0);
-            callResponseTimes100MS[eraseIdx][i].set(0);
-            callResponseTimes1000MS[eraseIdx][i].set(0);
-            callResponseTimesRedisMS[eraseIdx][i].set(0);
-            callResponseTimesCassandraMS[eraseIdx][i].set(0);
-            for (String ac : callResponseTimesByApi.keySet()) {
-              callResponseTimesByApi.get(ac)[eraseIdx][i].set(0);
-            }
-          }
-        }
-
-        int responseTimeIdx;
-
-        // response time percentiles
-
-        responseTimeIdx = (int) (responseTimeMS) / 1;
-
-        if (responseTimeIdx > NUM_BUCKETS - 1) {
-          responseTimeIdx = NUM_BUCKETS - 1;
-        } else if (responseTimeIdx < 0) {
-          responseTimeIdx = 0;
-        }
-
-        callResponseTimes1MS[newMinute][responseTimeIdx].incrementAndGet();
-
-        responseTimeIdx = (int) (responseTimeMS) / 10;
-
-        if (responseTimeIdx > NUM_BUCKETS - 1) {
-          responseTimeIdx = NUM_BUCKETS - 1;
-        } else if (responseTimeIdx < 0) {
-          responseTimeIdx = 0;
-        }
-
-        callResponseTimes10MS[newMinute][responseTimeIdx].incrementAndGet();
-
-        responseTimeIdx = (int) (responseTimeMS) / 100;
+        ApiLatencyStats latencyStats = callLatencyByApi.get(action);
 
-        if (responseTimeIdx > NUM_BUCKETS - 1) {
-          responseTimeIdx = NUM_BUCKETS - 1;
-        } else if (responseTimeIdx < 0) {
-          responseTimeIdx = 0;
+        if (latencyStats == null) {
+          callLatencyByApi.putIfAbsent(action, new ApiLatencyStats());
+          latencyStats = callLatencyByApi.get(action);
         }
 
-        callResponseTimes100MS[newMinute][responseTimeIdx].incrementAndGet();
-
-        responseTimeIdx = (int) (responseTimeMS) / 1000;
-
-        if (responseTimeIdx > NUM_BUCKETS - 1) {
-          responseTimeIdx = NUM_BUCKETS - 1;
-        } else if (responseTimeIdx < 0) {
-          responseTimeIdx = 0;
-        }
-
-        callResponseTimes1000MS[newMinute][responseTimeIdx].incrementAndGet();
-
-        AtomicLong[][] callResponseTimes = callResponseTimesByApi.get(action);
-
-        if (callResponseTimes != null) {
-
-          // resolution for the api specific response time array is always 10 ms
-
-          responseTimeIdx = (int) (responseTimeMS) / 10;
-
-          if (responseTimeIdx > NUM_BUCKETS - 1) {
-            responseTimeIdx = NUM_BUCKETS - 1;
-          } else if (responseTimeIdx < 0) {
-            responseTimeIdx = 0;
-          }
-
-          callResponseTimes[newMinute][responseTimeIdx].incrementAndGet();
-        }
-
-        // redis time
-
-        responseTimeIdx = (int) (redisTimeMS) / 1;
-
-        if (responseTimeIdx > NUM_BUCKETS - 1) {
-          responseTimeIdx = NUM_BUCKETS - 1;
-        } else if (responseTimeIdx < 0) {
-          responseTimeIdx = 0;
-        }
-
-        callResponseTimesRedisMS[newMinute][responseTimeIdx].incrementAndGet();
-
-        // cassandra time
-
-        responseTimeIdx = (int) (cassandraTimeMS) / 1;
-
-        if (responseTimeIdx > NUM_BUCKETS - 1) {
-          responseTimeIdx = NUM_BUCKETS - 1;
-        } else if (responseTimeIdx < 0) {
-          responseTimeIdx = 0;
-        }
-
-        callResponseTimesCassandraMS[newMinute][responseTimeIdx].incrementAndGet();
+        latencyStats.record(
+            responseTimeMS, redisTimeMS, cassandraTimeMS, authTimeMS, asyncQueueTimeMS);
       }
     } catch (Exception ex) {
       logger.warn("event=failed_to_log_stats", ex);
@@ -559,7 +457,9 @@ public abstract class CMBControllerServlet extends HttpServlet {
             action,
             ts2 - ts1,
             valueAccumulator.getCounter(AccumulatorName.RedisTime),
-            valueAccumulator.getCounter(AccumulatorName.CassandraTime));
+            valueAccumulator.getCounter(AccumulatorName.CassandraTime),
+            valueAccumulator.getCounter(AccumulatorName.CMBControllerPreHandleAction),
+            valueAccumulator.getCounter(AccumulatorName.AsyncQueueTime));
       }
 
     } catch (Exception ex) {
@@ -701,6 +601,10 @@ public abstract class CMBControllerServlet extends HttpServlet {
                 && action.equals("ReceiveMessage")
                 && request.getAttribute("lp") != null) {
 
+              if (request.getQueue() != null) {
+                CQSLongPollReceiver.removeContext(request.getQueue().getArn(), asyncContext);
+              }
+
               User user = authModule.getUserByRequest(request);
               Object lp_ms = request.getAttribute("lp_ms");
               String logLine = null;
@@ -747,12 +651,7 @@ public abstract class CMBControllerServlet extends HttpServlet {
 
               logger.info("event=on_error queue_url=" + queue.getAbsoluteUrl());
 
-              ConcurrentLinkedQueue<AsyncContext> queueContextsList =
-                  CQSLongPollReceiver.contextQueues.get(queue.getArn());
-
-              if (queueContextsList != null && asyncContext != null) {
-                queueContextsList.remove(asyncContext);
-              }
+              CQSLongPollReceiver.removeContext(queue.getArn(), asyncContext);
 
             } else {
               logger.info("event=on_error");
@@ -788,12 +687,7 @@ public abstract class CMBControllerServlet extends HttpServlet {
               if (queue != null) {
 
                 logger.debug("event=on_timeout queue_url=" + queue.getAbsoluteUrl());
-                ConcurrentLinkedQueue<AsyncContext> queueContextsList =
-                    CQSLongPollReceiver.contextQueues.get(queue.getArn());
-
-                if (queueContextsList != null && asyncContext != null) {
-                  queueContextsList.remove(asyncContext);
-                }
+                CQSLongPollReceiver.removeContext(queue.getArn(), asyncContext);
 
               } else {
                 logger.debug("event=on_timeout");
@@ -834,12 +728,7 @@ public abstract class CMBControllerServlet extends HttpServlet {
             if (queue != null) {
 
               logger.error("event=on_timeout queue_url=" + queue.getAbsoluteUrl());
-              ConcurrentLinkedQueue<AsyncContext> queueContextsList =
-                  CQSLongPollReceiver.contextQueues.get(queue.getArn());
-
-              if (queueContextsList != null && asyncContext != null) {
-                queueContextsList.remove(asyncContext);
-              }
+              CQSLongPollReceiver.removeContext(queue.getArn(), asyncContext);
 
             } else {
               logger.error(
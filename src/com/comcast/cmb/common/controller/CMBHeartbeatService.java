@@ -0,0 +1,326 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cmb.common.controller;
+
+import com.comcast.cmb.common.persistence.AbstractDurablePersistence;
+import com.comcast.cmb.common.persistence.AbstractDurablePersistence.CMB_SERIALIZER;
+import com.comcast.cmb.common.persistence.AbstractDurablePersistence.CmbRow;
+import com.comcast.cmb.common.persistence.DurablePersistenceFactory;
+import com.comcast.cmb.common.util.CMBProperties;
+import com.comcast.cmb.common.util.PersistenceException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+
+/**
+ * Publishes the heartbeat rows of this jvm (CQSAPIServers, CNSAPIServers, CNSWorkers) from a single
+ * background thread and keeps an in-memory copy of the cluster tables other components read, so
+ * that neither api requests nor publisher jobs ever wait on a cassandra write or a local host
+ * lookup to announce themselves.
+ *
+ * <p>Cns workers only report the last time their producer or consumer loop actually ran, so a
+ * stuck worker still shows up as stale even though the heartbeat thread itself is alive.
+ */
+public class CMBHeartbeatService {
+
+  private static Logger logger = Logger.getLogger(CMBHeartbeatService.class);
+
+  public enum Role {
+    CQSAPIServer,
+    CNSAPIServer,
+    CNSProducer,
+    CNSConsumer
+  }
+
+  public static final String CQS_API_SERVERS = "CQSAPIServers";
+  public static final String CNS_API_SERVERS = "CNSAPIServers";
+  public static final String CNS_WORKERS = "CNSWorkers";
+
+  // roles running in this jvm mapped to the last time they were seen alive
+
+  private static final ConcurrentHashMap<Role, AtomicLong> roles =
+      new ConcurrentHashMap<Role, AtomicLong>();
+
+  // cached cluster tables keyed by keyspace and column family name
+
+  private static final ConcurrentHashMap<String, List<CmbRow<String, String, String>>> views =
+      new ConcurrentHashMap<String, List<CmbRow<String, String, String>>>();
+
+  private static volatile ScheduledThreadPoolExecutor scheduler;
+  private static volatile String hostAddress;
+
+  /**
+   * Announce a role running in this jvm. Starts the heartbeat thread on first use and publishes an
+   * initial heartbeat right away without waiting for it.
+   *
+   * @param role
+   */
+  public static void register(Role role) {
+
+    if (roles.putIfAbsent(role, new AtomicLong(System.currentTimeMillis())) == null) {
+      logger.info("event=heartbeat_role_registered role=" + role);
+      getScheduler().execute(new HeartbeatTask());
+    }
+  }
+
+  /**
+   * Record that a registered role is making progress, a single volatile write
+   *
+   * @param role
+   */
+  public static void markAlive(Role role) {
+
+    AtomicLong lastActive = roles.get(role);
+
+    if (lastActive == null) {
+      register(role);
+    } else {
+      lastActive.set(System.currentTimeMillis());
+    }
+  }
+
+  /**
+   * Get the cached rows of a cluster table. The first call for a table reads it from cassandra,
+   * after that it is refreshed in the background on every heartbeat.
+   *
+   * @param keyspace
+   * @param columnFamily
+   * @return rows, never null
+   * @throws PersistenceException
+   */
+  public static List<CmbRow<String, String, String>> getClusterView(
+      String keyspace, String columnFamily) throws PersistenceException {
+
+    String key = keyspace + "/" + columnFamily;
+    List<CmbRow<String, String, String>> rows = views.get(key);
+
+    if (rows == null) {
+      rows = readView(keyspace, columnFamily);
+      views.putIfAbsent(key, rows);
+      getScheduler();
+    }
+
+    return rows;
+  }
+
+  public static void shutdown() {
+
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  private static ScheduledThreadPoolExecutor getScheduler() {
+
+    if (scheduler == null) {
+
+      synchronized (CMBHeartbeatService.class) {
+
+        if (scheduler == null) {
+
+          ScheduledThreadPoolExecutor executor =
+              new ScheduledThreadPoolExecutor(
+                  1,
+                  new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                      Thread t = new Thread(r, "CMBHeartbeatService");
+                      t.setDaemon(true);
+                      return t;
+                    }
+                  });
+
+          int intervalSec = CMBProperties.getInstance().getHeartbeatIntervalSeconds();
+          executor.scheduleWithFixedDelay(
+              new HeartbeatTask(), intervalSec, intervalSec, TimeUnit.SECONDS);
+          scheduler = executor;
+        }
+      }
+    }
+
+    return scheduler;
+  }
+
+  private static List<CmbRow<String, String, String>> readView(
+      String keyspace, String columnFamily) throws PersistenceException {
+
+    List<CmbRow<String, String, String>> rows =
+        DurablePersistenceFactory.getInstance()
+            .readAllRows(
+                keyspace,
+                columnFamily,
+                1000,
+                10,
+                CMB_SERIALIZER.STRING_SERIALIZER,
+                CMB_SERIALIZER.STRING_SERIALIZER,
+                CMB_SERIALIZER.STRING_SERIALIZER);
+
+    if (rows == null) {
+      return Collections.emptyList();
+    }
+
+    return Collections.unmodifiableList(new ArrayList<CmbRow<String, String, String>>(rows));
+  }
+
+  private static class HeartbeatTask implements Runnable {
+
+    @Override
+    public void run() {
+
+      try {
+        publish();
+      } catch (Exception ex) {
+        logger.warn("event=ping_failed", ex);
+      }
+
+      for (String key : views.keySet()) {
+
+        String keyspace = key.substring(0, key.indexOf("/"));
+        String columnFamily = key.substring(key.indexOf("/") + 1);
+
+        try {
+          views.put(key, readView(keyspace, columnFamily));
+        } catch (Exception ex) {
+          logger.warn("event=cluster_view_refresh_failed column_family=" + columnFamily, ex);
+        }
+      }
+    }
+
+    private void publish() throws Exception {
+
+      if (roles.isEmpty()) {
+        return;
+      }
+
+      if (hostAddress == null) {
+        hostAddress = InetAddress.getLocalHost().getHostAddress();
+      }
+
+      long now = System.currentTimeMillis();
+      String jmxPort = System.getProperty("com.sun.management.jmxremote.port", "0");
+      String dataCenter = CMBProperties.getInstance().getCMBDataCenter();
+
+      if (roles.containsKey(Role.CQSAPIServer)) {
+
+        String serverPort = CMBProperties.getInstance().getCQSServerPort() + "";
+        logger.info(
+            "event=ping version="
+                + CMBControllerServlet.VERSION
+                + " ip="
+                + hostAddress
+                + " port="
+                + serverPort);
+
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("timestamp", now + "");
+        values.put("port", CMBProperties.getInstance().getCQSLongPollPort() + "");
+        values.put("jmxport", jmxPort);
+        values.put("dataCenter", dataCenter);
+        values.put("serviceUrl", CMBProperties.getInstance().getCQSServiceUrl());
+        values.put("redisServerList", CMBProperties.getInstance().getRedisServerList());
+
+        insert(
+            AbstractDurablePersistence.CQS_KEYSPACE,
+            hostAddress + ":" + serverPort,
+            CQS_API_SERVERS,
+            values);
+      }
+
+      if (roles.containsKey(Role.CNSAPIServer)) {
+
+        String serverPort = CMBProperties.getInstance().getCNSServerPort() + "";
+        logger.info(
+            "event=ping version="
+                + CMBControllerServlet.VERSION
+                + " ip="
+                + hostAddress
+                + " port="
+                + serverPort);
+
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("timestamp", now + "");
+        values.put("jmxport", jmxPort);
+        values.put("dataCenter", dataCenter);
+        values.put("serviceUrl", CMBProperties.getInstance().getCNSServiceUrl());
+
+        insert(
+            AbstractDurablePersistence.CNS_KEYSPACE,
+            hostAddress + ":" + serverPort,
+            CNS_API_SERVERS,
+            values);
+      }
+
+      AtomicLong producer = roles.get(Role.CNSProducer);
+      AtomicLong consumer = roles.get(Role.CNSConsumer);
+
+      if (producer != null || consumer != null) {
+
+        logger.info("event=ping version=" + CMBControllerServlet.VERSION + " ip=" + hostAddress);
+
+        Map<String, String> values = new HashMap<String, String>();
+
+        if (producer != null) {
+          values.put("producerTimestamp", producer.get() + "");
+        }
+
+        if (consumer != null) {
+          values.put("consumerTimestamp", consumer.get() + "");
+        }
+
+        values.put("jmxport", jmxPort);
+        values.put("mode", getWorkerModeString(producer != null, consumer != null));
+        values.put("dataCenter", dataCenter);
+
+        insert(AbstractDurablePersistence.CNS_KEYSPACE, hostAddress, CNS_WORKERS, values);
+      }
+    }
+
+    private void insert(
+        String keyspace, String key, String columnFamily, Map<String, String> values)
+        throws PersistenceException {
+
+      DurablePersistenceFactory.getInstance()
+          .insertRow(
+              keyspace,
+              key,
+              columnFamily,
+              values,
+              CMB_SERIALIZER.STRING_SERIALIZER,
+              CMB_SERIALIZER.STRING_SERIALIZER,
+              CMB_SERIALIZER.STRING_SERIALIZER,
+              null);
+    }
+  }
+
+  private static String getWorkerModeString(boolean producer, boolean consumer) {
+
+    if (producer && consumer) {
+      return "Producer,Consumer";
+    } else if (producer) {
+      return "Producer";
+    } else {
+      return "Consumer";
+    }
+  }
+}
@@ -1,11 +1,14 @@
 package com.comcast.cmb.common.controller;
 
+import com.comcast.cmb.common.util.ApiLatencyStats;
+import com.comcast.cmb.common.util.ApiLatencyStats.LatencyType;
 import com.comcast.cmb.common.util.CMBProperties;
+import com.comcast.cmb.common.util.LatencyHistogram;
+import com.comcast.cmb.common.util.RollingLatencyHistogram;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Date;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicLong;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -42,12 +45,6 @@ public class CMBStatsServlet extends AdminServletBase {
       return;
     }
 
-    int rs = 10;
-
-    if (parameters.containsKey("rs")) {
-      rs = Integer.parseInt(request.getParameter("rs"));
-    }
-
     String ac = null;
 
     if (CMBControllerServlet.callStats.containsKey("ReceiveMessage")) {
@@ -60,18 +57,8 @@ public class CMBStatsServlet extends AdminServletBase {
       ac = request.getParameter("ac");
     }
 
-    out.println("<h2 align='left'>API Response Time Percentiles [" + rs + " MS]</h2>");
-    out.println(
-        "<p><a href='?rs=1&ac="
-            + ac
-            + "'>1ms</a>&nbsp;<a href='?rs=10&ac="
-            + ac
-            + "'>10ms</a>&nbsp;<a href='?rs=100&ac="
-            + ac
-            + "'>100ms</a>&nbsp;<a href='?rs=1000&ac="
-            + ac
-            + "'>1000ms</a></p>");
-    out.println("<p><img src='/webui/cmbvisualizer/responsetimeimg?rs=" + rs + "'></p>");
+    out.println("<h2 align='left'>API Response Time Percentiles</h2>");
+    out.println("<p><img src='/webui/cmbvisualizer/responsetimeimg'></p>");
 
     out.println("<h2 align='left'>Redis Response Time Percentiles</h2>");
     out.println("<p><img src='/webui/cmbvisualizer/responsetimeimg?redis=true'></p>");
@@ -79,10 +66,16 @@ public class CMBStatsServlet extends AdminServletBase {
     out.println("<h2 align='left'>Cassandra Response Time Percentiles</h2>");
     out.println("<p><img src='/webui/cmbvisualizer/responsetimeimg?cassandra=true'></p>");
 
+    out.println("<h2 align='left'>Auth Time Percentiles</h2>");
+    out.println("<p><img src='/webui/cmbvisualizer/responsetimeimg?lt=Auth'></p>");
+
+    out.println("<h2 align='left'>Async Queue Time Percentiles</h2>");
+    out.println("<p><img src='/webui/cmbvisualizer/responsetimeimg?lt=AsyncQueue'></p>");
+
     out.println("<h2 align='left'>API Response Time Percentiles [" + ac + "]</h2>");
     out.print("<p>");
     for (String a : CMBControllerServlet.callStats.keySet()) {
-      out.print("<a href='?ac=" + a + "&rs=" + rs + "'>" + a + "</a>&nbsp;");
+      out.print("<a href='?ac=" + a + "'>" + a + "</a>&nbsp;");
     }
     out.println("</p>");
     out.println("<p><img src='/webui/cmbvisualizer/responsetimeimg?ac=" + ac + "'></p>");
@@ -99,22 +92,33 @@ public class CMBStatsServlet extends AdminServletBase {
       out.println(
           "<tr><th>API</th><th>Since "
               + new Date(CMBControllerServlet.startTime)
-              + "</th><th>Last Hour</th></tr>");
+              + "</th><th>Last Hour</th><th>p50</th><th>p90</th><th>p99</th><th>p99.9</th>"
+              + "<th>Max</th></tr>");
       for (String action : CMBControllerServlet.callStats.keySet()) {
-        AtomicLong[][] rt = CMBControllerServlet.callResponseTimesByApi.get(action);
-        long total = 0;
-        for (int i = 0; i < rt.length; i++) {
-          for (int k = 0; k < rt[0].length; k++) {
-            total += rt[i][k].longValue();
-          }
-        }
+        ApiLatencyStats stats = CMBControllerServlet.callLatencyByApi.get(action);
+        LatencyHistogram rt =
+            stats == null
+                ? new LatencyHistogram()
+                : stats
+                    .get(LatencyType.Total)
+                    .getWindow(RollingLatencyHistogram.NUM_MINUTES);
         out.println(
             "<tr><td>"
                 + action
                 + "</td><td>"
                 + CMBControllerServlet.callStats.get(action)
                 + "</td><td>"
-                + total
+                + rt.getCount()
+                + "</td><td>"
+                + rt.getValueAtPercentile(50)
+                + "</td><td>"
+                + rt.getValueAtPercentile(90)
+                + "</td><td>"
+                + rt.getValueAtPercentile(99)
+                + "</td><td>"
+                + rt.getValueAtPercentile(99.9)
+                + "</td><td>"
+                + rt.getMax()
                 + "</td></tr>");
       }
       out.println("</table></span>");
@@ -1,13 +1,19 @@
 package com.comcast.cmb.common.controller;
 
+import com.comcast.cmb.common.util.ApiLatencyStats;
+import com.comcast.cmb.common.util.ApiLatencyStats.LatencyType;
+import com.comcast.cmb.common.util.LatencyHistogram;
+import com.comcast.cmb.common.util.RollingLatencyHistogram;
 import java.awt.Color;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicLong;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -24,9 +30,9 @@ import org.jfree.chart.labels.StandardXYItemLabelGenerator;
 import org.jfree.chart.plot.PiePlot;
 import org.jfree.chart.plot.XYPlot;
 import org.jfree.chart.renderer.xy.StackedXYBarRenderer;
+import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
 import org.jfree.chart.title.LegendTitle;
 import org.jfree.data.general.DefaultPieDataset;
-import org.jfree.data.time.Hour;
 import org.jfree.data.time.Minute;
 import org.jfree.data.time.TimeTableXYDataset;
 import org.jfree.ui.RectangleEdge;
@@ -35,6 +41,9 @@ public class CMBVisualizerServlet extends HttpServlet {
 
   private static final long serialVersionUID = 1L;
 
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+  private static final String[] PERCENTILE_LABELS = {"p50", "p90", "p99", "p99.9"};
+
   @Override
   protected void doPost(HttpServletRequest request, HttpServletResponse response)
       throws ServletException, IOException {
@@ -63,26 +72,30 @@ public class CMBVisualizerServlet extends HttpServlet {
   protected void doResponseTimeChart(HttpServletRequest request, HttpServletResponse response)
       throws ServletException, IOException {
 
-    int resolutionMS = 10;
     String action = null;
-    boolean redisOnly = false;
-    boolean cassandraOnly = false;
+    LatencyType type = LatencyType.Total;
 
     if (request.getParameter("redis") != null) {
-      redisOnly = Boolean.parseBoolean(request.getParameter("redis"));
-      resolutionMS = 1;
+      if (Boolean.parseBoolean(request.getParameter("redis"))) {
+        type = LatencyType.Redis;
+      }
     } else if (request.getParameter("cassandra") != null) {
-      cassandraOnly = Boolean.parseBoolean(request.getParameter("cassandra"));
-      resolutionMS = 1;
-    } else if (request.getParameter("ac") != null) {
+      if (Boolean.parseBoolean(request.getParameter("cassandra"))) {
+        type = LatencyType.Cassandra;
+      }
+    } else if (request.getParameter("lt") != null) {
+      try {
+        type = LatencyType.valueOf(request.getParameter("lt"));
+      } catch (IllegalArgumentException ex) {
+        type = LatencyType.Total;
+      }
+    }
+
+    if (request.getParameter("ac") != null) {
       action = request.getParameter("ac");
-      resolutionMS = 10;
-    } else if (request.getParameter("rs") != null) {
-      resolutionMS = Integer.parseInt(request.getParameter("rs"));
     }
-    ;
 
-    byte b[] = generateResponseTimeChart(resolutionMS, action, redisOnly, cassandraOnly);
+    byte b[] = generateResponseTimeChart(action, type);
 
     response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
     response.setHeader("Pragma", "no-cache");
@@ -130,13 +143,15 @@ public class CMBVisualizerServlet extends HttpServlet {
     long topCount = 0;
 
     for (String api : CMBControllerServlet.callStats.keySet()) {
-      AtomicLong[][] rt = CMBControllerServlet.callResponseTimesByApi.get(api);
-      long count = 0;
-      for (int i = 0; i < rt.length; i++) {
-        for (int k = 0; k < rt[0].length; k++) {
-          count += rt[i][k].longValue();
-        }
+      ApiLatencyStats stats = CMBControllerServlet.callLatencyByApi.get(api);
+      if (stats == null) {
+        continue;
       }
+      long count =
+          stats
+              .get(LatencyType.Total)
+              .getWindow(RollingLatencyHistogram.NUM_MINUTES)
+              .getCount();
       total += count;
       apiCounts.put(api, count);
       if (count > topCount) {
@@ -195,81 +210,52 @@ public class CMBVisualizerServlet extends HttpServlet {
     return bos.toByteArray();
   }
 
-  private byte[] generateResponseTimeChart(
-      int resolutionMS, String action, boolean showRedisOnly, boolean showCassandraOnly)
-      throws IOException {
-
-    String label = "";
-
-    AtomicLong[][] responseTimesMS;
+  private byte[] generateResponseTimeChart(String action, LatencyType type) throws IOException {
 
-    if (showRedisOnly) {
-
-      label = "Redis Percentiles 1 MS";
-      responseTimesMS = CMBControllerServlet.callResponseTimesRedisMS;
-
-    } else if (showCassandraOnly) {
-
-      label = "Cassandra Percentiles 1 MS";
-      responseTimesMS = CMBControllerServlet.callResponseTimesCassandraMS;
-
-    } else if (action != null) {
-
-      label = action + " Percentiles 10 MS";
-      responseTimesMS = CMBControllerServlet.callResponseTimesByApi.get(action);
+    Collection<ApiLatencyStats> stats;
+    String label;
 
+    if (action != null) {
+      ApiLatencyStats apiStats = CMBControllerServlet.callLatencyByApi.get(action);
+      stats =
+          apiStats == null
+              ? new ArrayList<ApiLatencyStats>()
+              : Collections.singletonList(apiStats);
+      label = action + " " + type + " Percentiles";
     } else {
-
-      if (resolutionMS == 1) {
-        label = "API Percentiles 1 MS";
-        responseTimesMS = CMBControllerServlet.callResponseTimes1MS;
-      } else if (resolutionMS == 100) {
-        label = "API Percentiles 100 MS";
-        responseTimesMS = CMBControllerServlet.callResponseTimes100MS;
-      } else if (resolutionMS == 1000) {
-        label = "API Percentiles 1000 MS";
-        responseTimesMS = CMBControllerServlet.callResponseTimes1000MS;
-      } else {
-        label = "API Percentiles 10 MS";
-        responseTimesMS = CMBControllerServlet.callResponseTimes10MS;
-      }
+      stats = CMBControllerServlet.callLatencyByApi.values();
+      label = "API " + type + " Percentiles";
     }
 
-    // clone and normalize data
+    // merge each minute across apis and read off percentiles
 
-    long[][] rt = new long[CMBControllerServlet.NUM_MINUTES][CMBControllerServlet.NUM_BUCKETS];
-    long[] totals = new long[CMBControllerServlet.NUM_MINUTES];
+    TimeTableXYDataset dataset = new TimeTableXYDataset();
+    long now = System.currentTimeMillis() / (60 * 1000);
     long grandTotal = 0;
     int activeMinutes = 0;
+    long p999Max = 0;
 
-    for (int i = 0; i < CMBControllerServlet.NUM_MINUTES; i++) {
-      for (int k = 0; k < CMBControllerServlet.NUM_BUCKETS; k++) {
-        rt[i][k] = responseTimesMS[i][k].longValue();
-        totals[i] += rt[i][k];
-      }
-      if (totals[i] > 0) {
-        grandTotal += totals[i];
-        activeMinutes++;
-      }
-    }
+    for (long minute = now - RollingLatencyHistogram.NUM_MINUTES + 1; minute <= now; minute++) {
 
-    for (int i = 0; i < CMBControllerServlet.NUM_MINUTES; i++) {
-      for (int k = 0; k < CMBControllerServlet.NUM_BUCKETS; k++) {
-        if (totals[i] == 0) {
-          rt[i][k] = 0;
-        } else {
-          rt[i][k] = 100 * rt[i][k] / totals[i];
+      LatencyHistogram histogram = new LatencyHistogram();
+
+      for (ApiLatencyStats s : stats) {
+        LatencyHistogram h = s.get(type).getMinute(minute);
+        if (h != null) {
+          histogram.add(h);
         }
       }
-    }
 
-    // convert data for rendering
+      if (histogram.getCount() > 0) {
+        grandTotal += histogram.getCount();
+        activeMinutes++;
+        p999Max = Math.max(p999Max, histogram.getValueAtPercentile(99.9));
+      }
 
-    TimeTableXYDataset dataset = new TimeTableXYDataset();
+      Minute m = new Minute(new Date(minute * 60 * 1000));
 
-    for (int i = 0; i < CMBControllerServlet.NUM_MINUTES; i++) {
-      for (int k = 0; k < CMBControllerServlet.NUM_BUCKETS; k++) {
-        dataset.add(new Minute(i, new Hour()), rt[i][k], (resolutionMS * k) + "ms");
+      for (int i = 0; i < PERCENTILES.length; i++) {
+        dataset.add(m, histogram.getValueAtPercentile(PERCENTILES[i]), PERCENTILE_LABELS[i]);
       }
     }
 
@@ -279,33 +265,15 @@ public class CMBVisualizerServlet extends HttpServlet {
     domainAxis.setTickMarkPosition(DateTickMarkPosition.MIDDLE);
     domainAxis.setLowerMargin(0.01);
     domainAxis.setUpperMargin(0.01);
-    NumberAxis rangeAxis = new NumberAxis("Response Time");
+    NumberAxis rangeAxis = new NumberAxis("Response Time MS");
     rangeAxis.setStandardTickUnits(NumberAxis.createIntegerTickUnits());
     rangeAxis.setUpperMargin(0.10); // leave some space for item labels
-    StackedXYBarRenderer renderer = new StackedXYBarRenderer(0.15);
-    renderer.setDrawBarOutline(true);
-    renderer.setBaseItemLabelsVisible(true);
-    renderer.setBaseItemLabelGenerator(new StandardXYItemLabelGenerator());
-
-    /*int r=0, g=200, b=0;
-    int inc = 200 / CMBControllerServlet.NUM_BUCKETS;
-
-    for (int i=0; i<CMBControllerServlet.NUM_BUCKETS; i++) {
-    	renderer.setSeriesPaint(i, new Color(r,g,b));
-    	r+=inc;
-    	g-=inc;
-    }*/
+    XYLineAndShapeRenderer renderer = new XYLineAndShapeRenderer(true, true);
 
     renderer.setSeriesPaint(0, new Color(47, 133, 18));
-    renderer.setSeriesPaint(1, new Color(151, 195, 30));
-    renderer.setSeriesPaint(2, new Color(253, 249, 50));
-    renderer.setSeriesPaint(3, new Color(253, 191, 35));
-    renderer.setSeriesPaint(4, new Color(253, 123, 26));
-    renderer.setSeriesPaint(5, new Color(216, 106, 20));
-    renderer.setSeriesPaint(6, new Color(181, 97, 28));
-    renderer.setSeriesPaint(7, new Color(208, 56, 20));
-    renderer.setSeriesPaint(8, new Color(253, 30, 19));
-    renderer.setSeriesPaint(9, new Color(120, 54, 210));
+    renderer.setSeriesPaint(1, new Color(253, 191, 35));
+    renderer.setSeriesPaint(2, new Color(253, 30, 19));
+    renderer.setSeriesPaint(3, new Color(120, 54, 210));
 
     XYPlot plot = new XYPlot(dataset, domainAxis, rangeAxis, renderer);
     String title = "Response Time Percentiles";
@@ -319,7 +287,9 @@ public class CMBVisualizerServlet extends HttpServlet {
               + activeMinutes
               + " mins "
               + grandTotal
-              + " calls]";
+              + " calls max p99.9 "
+              + p999Max
+              + " ms]";
     }
 
     JFreeChart chart = new JFreeChart(title, plot);
@@ -343,14 +313,17 @@ public class CMBVisualizerServlet extends HttpServlet {
 
     TimeTableXYDataset dataset = new TimeTableXYDataset();
 
-    for (String ac : CMBControllerServlet.callResponseTimesByApi.keySet()) {
-      AtomicLong[][] responseTimesMS = CMBControllerServlet.callResponseTimesByApi.get(ac);
-      for (int i = 0; i < CMBControllerServlet.NUM_MINUTES; i++) {
-        long total = 0;
-        for (int k = 0; k < CMBControllerServlet.NUM_BUCKETS; k++) {
-          total += responseTimesMS[i][k].longValue();
-        }
-        dataset.add(new Minute(i, new Hour()), total, ac);
+    long now = System.currentTimeMillis() / (60 * 1000);
+
+    for (String ac : CMBControllerServlet.callLatencyByApi.keySet()) {
+      RollingLatencyHistogram responseTimesMS =
+          CMBControllerServlet.callLatencyByApi.get(ac).get(LatencyType.Total);
+      for (long minute = now - RollingLatencyHistogram.NUM_MINUTES + 1; minute <= now; minute++) {
+        LatencyHistogram histogram = responseTimesMS.getMinute(minute);
+        dataset.add(
+            new Minute(new Date(minute * 60 * 1000)),
+            histogram == null ? 0 : histogram.getCount(),
+            ac);
       }
     }
 
@@ -17,8 +17,10 @@ import com.comcast.cmb.common.util.CMBErrorCodes;
 import com.comcast.cmb.common.util.CMBException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -80,6 +82,16 @@ public class CMBPolicy {
   protected String id;
   protected String version;
 
+  // lookup tables of "action principal" pairs compiled from the statements on first use, reset
+  // whenever the statements change
+
+  private volatile CompiledStatements compiled = null;
+
+  private static class CompiledStatements {
+    private final Set<String> allow = new HashSet<String>();
+    private final Set<String> deny = new HashSet<String>();
+  }
+
   /** construct a new policy */
   public CMBPolicy() {
 
@@ -150,6 +162,7 @@ public class CMBPolicy {
 
     this.statements.add(
         new CMBStatement(sid, effect, userList, normalizedActionList, resource, condition));
+    this.compiled = null;
 
     return true;
   }
@@ -164,6 +177,7 @@ public class CMBPolicy {
         CMBStatement stmt = it.next();
         if (stmt.getSid().equals(sid)) {
           it.remove();
+          this.compiled = null;
           return true;
         }
       }
@@ -190,25 +204,51 @@ public class CMBPolicy {
       return false;
     }
 
-    boolean allow = false;
-    String actionPrefix = action.substring(0, action.lastIndexOf(':') + 1);
+    CompiledStatements lookup = compile();
 
-    for (CMBStatement stmt : statements) {
+    String actionWildcard = action.substring(0, action.lastIndexOf(':') + 1) + "*";
+    String userId = user.getUserId();
 
-      if (stmt.getAction().contains(action) || stmt.getAction().contains(actionPrefix + "*")) {
+    if (matches(lookup.deny, action, actionWildcard, userId)) {
+      return false;
+    }
 
-        if (stmt.getPrincipal().contains(user.getUserId()) || stmt.getPrincipal().contains("*")) {
+    return matches(lookup.allow, action, actionWildcard, userId);
+  }
 
-          if (stmt.getEffect() == CMBStatement.EFFECT.Deny) {
-            return false;
-          } else {
-            allow = true;
-          }
+  private static boolean matches(
+      Set<String> lookup, String action, String actionWildcard, String userId) {
+    return lookup.contains(action + " " + userId)
+        || lookup.contains(action + " *")
+        || lookup.contains(actionWildcard + " " + userId)
+        || lookup.contains(actionWildcard + " *");
+  }
+
+  private CompiledStatements compile() {
+
+    CompiledStatements lookup = compiled;
+
+    if (lookup != null) {
+      return lookup;
+    }
+
+    lookup = new CompiledStatements();
+
+    for (CMBStatement stmt : statements) {
+
+      Set<String> target =
+          stmt.getEffect() == CMBStatement.EFFECT.Deny ? lookup.deny : lookup.allow;
+
+      for (String action : stmt.getAction()) {
+        for (String principal : stmt.getPrincipal()) {
+          target.add(action + " " + principal);
         }
       }
     }
 
-    return allow;
+    compiled = lookup;
+
+    return lookup;
   }
 
   @Override
@@ -285,6 +325,7 @@ public class CMBPolicy {
     // parse content
 
     this.statements = new ArrayList<CMBStatement>();
+    this.compiled = null;
 
     if (json.has("Id")) {
       id = json.getString("Id");
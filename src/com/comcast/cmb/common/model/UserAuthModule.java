@@ -17,11 +17,10 @@ import com.comcast.cmb.common.persistence.IUserPersistence;
 import com.comcast.cmb.common.persistence.PersistenceFactory;
 import com.comcast.cmb.common.util.AuthUtil;
 import com.comcast.cmb.common.util.AuthenticationException;
+import com.comcast.cmb.common.util.BoundedCache;
 import com.comcast.cmb.common.util.CMBErrorCodes;
 import com.comcast.cmb.common.util.CMBException;
 import com.comcast.cmb.common.util.CMBProperties;
-import com.comcast.cmb.common.util.ExpiringCache;
-import com.comcast.cmb.common.util.ExpiringCache.CacheFullException;
 import java.net.URL;
 import java.util.Arrays;
 import java.util.Enumeration;
@@ -40,10 +39,10 @@ import org.apache.log4j.Logger;
 public class UserAuthModule implements IAuthModule {
 
   private IUserPersistence userPersistence;
-  private static ExpiringCache<String, User> userCacheByAccessKey =
-      new ExpiringCache<String, User>(CMBProperties.getInstance().getUserCacheSizeLimit());
-  private static ExpiringCache<String, User> userCacheByUserId =
-      new ExpiringCache<String, User>(CMBProperties.getInstance().getUserCacheSizeLimit());
+  private static BoundedCache<String, User> userCacheByAccessKey =
+      new BoundedCache<String, User>(CMBProperties.getInstance().getUserCacheSizeLimit());
+  private static BoundedCache<String, User> userCacheByUserId =
+      new BoundedCache<String, User>(CMBProperties.getInstance().getUserCacheSizeLimit());
 
   private static final Logger logger = Logger.getLogger(UserAuthModule.class);
 
@@ -99,23 +98,10 @@ public class UserAuthModule implements IAuthModule {
     return parameters;
   }
 
-  private Map<String, String> getAllHeaders(HttpServletRequest requestUrl) {
-
-    Enumeration<String> enumeration = requestUrl.getHeaderNames();
-    Map<String, String> parameters = new HashMap<String, String>();
-
-    while (enumeration.hasMoreElements()) {
-      String name = enumeration.nextElement();
-      parameters.put(name, requestUrl.getHeader(name));
-    }
-
-    return parameters;
-  }
-
   @Override
   public User authenticateByRequest(HttpServletRequest request) throws CMBException {
 
-    Map<String, String> parameters = getAllParameters(request);
+    // only copy parameters into a map when needed for a version 1 or 2 signature
 
     // sample header
 
@@ -132,9 +118,8 @@ public class UserAuthModule implements IAuthModule {
     // Signature=f4afd88c15fc41aacae2dc8b7d014673a0a51b4bfc7f2932993329be65c3f2fd
     // x-amz-content-sha256=48a38266faf90970d6c7fea9b15e6ba366e5f6397c2970fc893f8a7b5e207bd0
 
-    String accessKey = parameters.get("AWSAccessKeyId");
+    String accessKey = request.getParameter("AWSAccessKeyId");
     String authorizationHeader = request.getHeader("authorization");
-    Map<String, String> headers = getAllHeaders(request);
 
     if (accessKey == null && authorizationHeader != null) {
 
@@ -156,15 +141,11 @@ public class UserAuthModule implements IAuthModule {
 
     try {
 
-      try {
-        user =
-            userCacheByAccessKey.getAndSetIfNotPresent(
-                accessKey,
-                new UserCallableByAccessKey(accessKey),
-                CMBProperties.getInstance().getUserCacheExpiring() * 1000);
-      } catch (CacheFullException e) {
-        user = new UserCallableByAccessKey(accessKey).call();
-      }
+      user =
+          userCacheByAccessKey.getAndSetIfNotPresent(
+              accessKey,
+              new UserCallableByAccessKey(accessKey),
+              CMBProperties.getInstance().getUserCacheExpiring() * 1000);
 
       if (user == null) {
         logger.error(
@@ -181,7 +162,7 @@ public class UserAuthModule implements IAuthModule {
 
     // admin actions do not require signatures but can only be performed by admin user
 
-    if (ADMIN_ACTIONS.contains(parameters.get("Action"))) {
+    if (ADMIN_ACTIONS.contains(request.getParameter("Action"))) {
       if (CMBProperties.getInstance().getCNSUserName().equals(user.getUserName())) {
         logger.debug("event=authenticate action=admin_action");
         return user;
@@ -202,7 +183,7 @@ public class UserAuthModule implements IAuthModule {
     }
 
     // version 1 and 2 is from parameters
-    String version = parameters.get("SignatureVersion");
+    String version = request.getParameter("SignatureVersion");
 
     // version 4 is recommended from header
     if ((version == null) && (authorizationHeader != null)) {
@@ -222,6 +203,7 @@ public class UserAuthModule implements IAuthModule {
 
     // validate signature for version 1 and 2
     if (version.equals("1") || version.equals("2")) {
+      Map<String, String> parameters = getAllParameters(request);
       String signatureToCheck = parameters.get("Signature");
 
       if (signatureToCheck == null) {
@@ -318,27 +300,20 @@ public class UserAuthModule implements IAuthModule {
             "Signature method " + signatureMethod + " is not supported");
       }
 
-      URL url = null;
       String signature = null;
 
       try {
-        String urlOriginal = request.getRequestURL().toString();
-        if (urlOriginal == null || urlOriginal.length() == 0) {
-          urlOriginal = "/";
-        }
-        url = new URL(urlOriginal);
         signature =
             AuthUtil.generateSignatureV4(
                 request,
-                url,
-                parameters,
-                headers,
-                version,
+                AuthUtil.encodeParameters(request),
                 signatureMethod,
+                accessKey,
                 user.getAccessSecret());
       } catch (Exception ex) {
-        logger.error("event=authenticate url=" + url + " error_code=invalid_url");
-        throw new AuthenticationException(CMBErrorCodes.InternalError, "Invalid Url " + url);
+        logger.error("event=authenticate error_code=signature_calculation_failed", ex);
+        throw new AuthenticationException(
+            CMBErrorCodes.InternalError, "Unable to calculate signature");
       }
 
       if (signature == null || !signature.equals(signatureToCheck)) {
@@ -389,9 +364,8 @@ public class UserAuthModule implements IAuthModule {
   }
 
   public User getUserByRequest(HttpServletRequest request) {
-    Map<String, String> parameters = getAllParameters(request);
     String authorizationHeader = request.getHeader("authorization");
-    String accessKey = parameters.get("AWSAccessKeyId");
+    String accessKey = request.getParameter("AWSAccessKeyId");
     if (accessKey == null && authorizationHeader != null) {
 
       if (authorizationHeader.contains("Credential=") && authorizationHeader.contains("/")) {
@@ -409,15 +383,11 @@ public class UserAuthModule implements IAuthModule {
 
     try {
 
-      try {
-        user =
-            userCacheByAccessKey.getAndSetIfNotPresent(
-                accessKey,
-                new UserCallableByAccessKey(accessKey),
-                CMBProperties.getInstance().getUserCacheExpiring() * 1000);
-      } catch (CacheFullException e) {
-        user = new UserCallableByAccessKey(accessKey).call();
-      }
+      user =
+          userCacheByAccessKey.getAndSetIfNotPresent(
+              accessKey,
+              new UserCallableByAccessKey(accessKey),
+              CMBProperties.getInstance().getUserCacheExpiring() * 1000);
 
       if (user == null) {
         logger.error(
@@ -441,15 +411,11 @@ public class UserAuthModule implements IAuthModule {
 
     try {
 
-      try {
-        user =
-            userCacheByUserId.getAndSetIfNotPresent(
-                userId,
-                new UserCallableByUserId(userId),
-                CMBProperties.getInstance().getUserCacheExpiring() * 1000);
-      } catch (CacheFullException e) {
-        user = new UserCallableByAccessKey(userId).call();
-      }
+      user =
+          userCacheByUserId.getAndSetIfNotPresent(
+              userId,
+              new UserCallableByUserId(userId),
+              CMBProperties.getInstance().getUserCacheExpiring() * 1000);
 
       if (user == null) {
         logger.error("event=get_user_by_userid userId=" + userId + " error_code=invalid_userid");
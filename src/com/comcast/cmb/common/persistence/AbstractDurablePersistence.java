@@ -18,6 +18,7 @@ import com.comcast.cmb.common.util.PersistenceException;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class AbstractDurablePersistence {
 
@@ -31,6 +32,7 @@ public abstract class AbstractDurablePersistence {
     public static final CmbStringSerializer STRING_SERIALIZER = new CmbStringSerializer();
     public static final CmbCompositeSerializer COMPOSITE_SERIALIZER = new CmbCompositeSerializer();
     public static final CmbLongSerializer LONG_SERIALIZER = new CmbLongSerializer();
+    public static final CmbBytesSerializer BYTES_SERIALIZER = new CmbBytesSerializer();
   };
 
   public static final String CNS_TOPICS = "CNSTopics";
@@ -61,6 +63,8 @@ public abstract class AbstractDurablePersistence {
 
   public static class CmbLongSerializer extends CmbSerializer {}
 
+  public static class CmbBytesSerializer extends CmbSerializer {}
+
   public abstract static class CmbComposite {
     public CmbComposite() {}
 
@@ -80,6 +84,14 @@ public abstract class AbstractDurablePersistence {
 
     public abstract V getValue();
 
+    /**
+     * Raw column value as stored in cassandra, independent of the value serializer used to read
+     * the column
+     *
+     * @return value bytes or null if the column has no value
+     */
+    public abstract byte[] getValueBytes();
+
     public abstract long getClock();
   }
 
@@ -104,9 +116,53 @@ public abstract class AbstractDurablePersistence {
   public static final String CLUSTER_NAME = CMBProperties.getInstance().getClusterName();
   public static final String CLUSTER_URL = CMBProperties.getInstance().getClusterUrl();
 
-  private static long counter = 0;
+  private static final long SEQUENCE_LIMIT = 1048575; // 20 bit sequence, 0 .. 1048574
+
+  // time of the most recently issued id in the upper 44 bits and its 20 bit sequence number in
+  // the lower 20 bits, updated with compare-and-set so that callers never block each other
+
+  private static final AtomicLong lastTimeAndSequence = new AtomicLong(SEQUENCE_LIMIT - 1);
+
+  /**
+   * Generate a time based id. The id is the time shifted left by 21 bits, with bit 21 set if the
+   * id is hidden and a 20 bit sequence number in the lowest 20 bits. The sequence number is shared
+   * by all callers. If it wraps around within the millisecond of the most recently issued id, that
+   * id and all following ids for the same millisecond are moved to the next millisecond so ids
+   * remain unique and ordered.
+   *
+   * @param t time in milliseconds
+   * @param isHidden
+   * @return time based id
+   */
+  public static long newTime(long t, boolean isHidden) {
+
+    long seq;
+
+    while (true) {
+
+      long last = lastTimeAndSequence.get();
+      long lastT = last >>> 20;
+
+      seq = (last & 0x00000000000FFFFFL) + 1;
+
+      if (t < lastT && lastT - t == 1) {
+        // the clock ticked or a wrap around moved the current millisecond forward since this
+        // caller read the time, so issue the id for the current millisecond to keep ids ordered
+        t = lastT;
+      }
+
+      if (seq == SEQUENCE_LIMIT) {
+        seq = 0;
+        if (t == lastT) {
+          t++;
+        }
+      }
+
+      if (lastTimeAndSequence.compareAndSet(last, (t << 20) | seq)) {
+        break;
+      }
+    }
 
-  public static synchronized long newTime(long t, boolean isHidden) {
     t = t << 21;
     // top 2 bits are 0. 64th and 63rd.
     // set 21st bit if hidden
@@ -114,10 +170,7 @@ public abstract class AbstractDurablePersistence {
       t |= 0x0000000000100000L;
     }
     // add 20 bit counter
-    if (counter == 1048575) {
-      counter = 0;
-    }
-    t += counter++;
+    t += seq;
     return t;
   }
 
@@ -205,6 +258,23 @@ public abstract class AbstractDurablePersistence {
       CmbSerializer valueSerializer)
       throws PersistenceException;
 
+  /**
+   * Read a set of named columns from each of several rows. The row queries are issued
+   * concurrently.
+   *
+   * @param columnNames the names of the columns to read keyed by row key
+   * @return column slices keyed by row key. Rows that do not contain any of the requested columns
+   *     are omitted.
+   */
+  public abstract <K, N, V> Map<K, CmbColumnSlice<N, V>> readColumnsByName(
+      String keyspace,
+      String columnFamily,
+      Map<K, List<N>> columnNames,
+      CmbSerializer keySerializer,
+      CmbSerializer columnNameSerializer,
+      CmbSerializer valueSerializer)
+      throws PersistenceException;
+
   public abstract <K, N, V> void insertRow(
       String keyspace,
       K rowKey,
@@ -285,6 +355,21 @@ public abstract class AbstractDurablePersistence {
       CmbSerializer columnNameSerializer)
       throws PersistenceException;
 
+  /**
+   * Read several counter columns of one row in a single round trip
+   *
+   * @param columnNames the counter columns to read
+   * @return counter values keyed by column name, missing counters are 0
+   */
+  public abstract <K, N> Map<N, Long> getCounters(
+      String keyspace,
+      String columnFamily,
+      K rowKey,
+      List<N> columnNames,
+      CmbSerializer keySerializer,
+      CmbSerializer columnNameSerializer)
+      throws PersistenceException;
+
   public abstract <K, N, V> CmbColumn<N, V> readColumn(
       String keyspace,
       String columnFamily,
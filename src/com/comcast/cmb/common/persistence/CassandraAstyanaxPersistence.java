@@ -18,6 +18,7 @@ import com.comcast.cmb.common.util.CMBErrorCodes;
 import com.comcast.cmb.common.util.CMBProperties;
 import com.comcast.cmb.common.util.PersistenceException;
 import com.comcast.cmb.common.util.ValueAccumulator.AccumulatorName;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.netflix.astyanax.AstyanaxContext;
 import com.netflix.astyanax.ColumnListMutation;
 import com.netflix.astyanax.Keyspace;
@@ -41,6 +42,7 @@ import com.netflix.astyanax.model.Row;
 import com.netflix.astyanax.model.Rows;
 import com.netflix.astyanax.query.IndexQuery;
 import com.netflix.astyanax.query.RowQuery;
+import com.netflix.astyanax.serializers.BytesArraySerializer;
 import com.netflix.astyanax.serializers.CompositeSerializer;
 import com.netflix.astyanax.serializers.LongSerializer;
 import com.netflix.astyanax.serializers.StringSerializer;
@@ -52,6 +54,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import org.apache.log4j.Logger;
 
 public class CassandraAstyanaxPersistence extends AbstractDurablePersistence {
@@ -140,6 +143,8 @@ public class CassandraAstyanaxPersistence extends AbstractDurablePersistence {
       return CompositeSerializer.get();
     } else if (s instanceof CmbLongSerializer) {
       return LongSerializer.get();
+    } else if (s instanceof CmbBytesSerializer) {
+      return BytesArraySerializer.get();
     }
     throw new PersistenceException(CMBErrorCodes.InternalError, "Unknown serializer " + s);
   }
@@ -246,6 +251,11 @@ public class CassandraAstyanaxPersistence extends AbstractDurablePersistence {
       return (V) astyanaxColumn.getValue(StringSerializer.get());
     }
 
+    @Override
+    public byte[] getValueBytes() {
+      return astyanaxColumn.getByteArrayValue();
+    }
+
     @Override
     public long getClock() {
       return astyanaxColumn.getTimestamp();
@@ -686,6 +696,73 @@ public class CassandraAstyanaxPersistence extends AbstractDurablePersistence {
     }
   }
 
+  @Override
+  public <K, N, V> Map<K, CmbColumnSlice<N, V>> readColumnsByName(
+      String keyspace,
+      String columnFamily,
+      Map<K, List<N>> columnNames,
+      CmbSerializer keySerializer,
+      CmbSerializer columnNameSerializer,
+      CmbSerializer valueSerializer)
+      throws PersistenceException {
+
+    long ts1 = System.currentTimeMillis();
+    logger.debug("event=read_columns_by_name cf=" + columnFamily + " keys=" + columnNames.keySet());
+
+    Map<K, CmbColumnSlice<N, V>> slices = new HashMap<K, CmbColumnSlice<N, V>>();
+
+    try {
+
+      // fire off all row queries before waiting for the first result
+
+      Map<K, ListenableFuture<OperationResult<ColumnList<N>>>> futures =
+          new HashMap<K, ListenableFuture<OperationResult<ColumnList<N>>>>();
+
+      for (Map.Entry<K, List<N>> entry : columnNames.entrySet()) {
+        RowQuery<K, N> rq =
+            getKeyspace(keyspace)
+                .prepareQuery((ColumnFamily<K, N>) getColumnFamily(columnFamily))
+                .getKey(entry.getKey())
+                .withColumnSlice((Collection<N>) getComposites(entry.getValue()));
+        futures.put(entry.getKey(), rq.executeAsync());
+      }
+
+      for (Map.Entry<K, ListenableFuture<OperationResult<ColumnList<N>>>> entry :
+          futures.entrySet()) {
+
+        ColumnList<N> columns = null;
+        CMBControllerServlet.valueAccumulator.addToCounter(AccumulatorName.CassandraRead, 1L);
+
+        try {
+          columns = entry.getValue().get().getResult();
+        } catch (ExecutionException ex) {
+          if (ex.getCause() instanceof NotFoundException) {
+            // ignore. This might happen when C* data expired.
+            continue;
+          }
+          throw new PersistenceException(
+              CMBErrorCodes.InternalError,
+              ex.getCause() != null ? ex.getCause().getMessage() : ex.getMessage());
+        }
+
+        if (columns != null && !columns.isEmpty()) {
+          slices.put(entry.getKey(), new CmbAstyanaxColumnSlice<N, V>(columns));
+        }
+      }
+
+      return slices;
+
+    } catch (ConnectionException ex) {
+      throw new PersistenceException(ex);
+    } catch (InterruptedException ex) {
+      throw new PersistenceException(ex);
+    } finally {
+      long ts2 = System.currentTimeMillis();
+      CMBControllerServlet.valueAccumulator.addToCounter(
+          AccumulatorName.CassandraTime, (ts2 - ts1));
+    }
+  }
+
   @Override
   public <K, N, V> void insertRow(
       String keyspace,
@@ -987,6 +1064,46 @@ public class CassandraAstyanaxPersistence extends AbstractDurablePersistence {
     }
   }
 
+  @Override
+  public <K, N> Map<N, Long> getCounters(
+      String keyspace,
+      String columnFamily,
+      K rowKey,
+      List<N> columnNames,
+      CmbSerializer keySerializer,
+      CmbSerializer columnNameSerializer)
+      throws PersistenceException {
+    long ts1 = System.currentTimeMillis();
+    logger.debug("event=get_counters column_family=" + columnFamily + " columns=" + columnNames);
+    Map<N, Long> counters = new HashMap<N, Long>();
+    try {
+      ColumnList<N> result =
+          getKeyspace(keyspace)
+              .prepareQuery((ColumnFamily<K, N>) getColumnFamily(columnFamily))
+              .getKey(rowKey)
+              .withColumnSlice(columnNames)
+              .execute()
+              .getResult();
+      for (N columnName : columnNames) {
+        Column<N> column = result.getColumnByName(columnName);
+        counters.put(columnName, column == null ? 0L : column.getLongValue());
+      }
+      return counters;
+    } catch (NotFoundException ex) {
+      for (N columnName : columnNames) {
+        counters.put(columnName, 0L);
+      }
+      return counters;
+    } catch (ConnectionException ex) {
+      throw new PersistenceException(ex);
+    } finally {
+      long ts2 = System.currentTimeMillis();
+      CMBControllerServlet.valueAccumulator.addToCounter(
+          AccumulatorName.CassandraTime, (ts2 - ts1));
+      CMBControllerServlet.valueAccumulator.addToCounter(AccumulatorName.CassandraRead, 1L);
+    }
+  }
+
   @Override
   public <K, N, V> CmbColumn<N, V> readColumn(
       String keyspace,
@@ -18,17 +18,26 @@ import com.comcast.cmb.common.util.CMBErrorCodes;
 import com.comcast.cmb.common.util.CMBProperties;
 import com.comcast.cmb.common.util.PersistenceException;
 import com.comcast.cmb.common.util.ValueAccumulator.AccumulatorName;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import me.prettyprint.cassandra.connection.DynamicLoadBalancingPolicy;
 import me.prettyprint.cassandra.connection.LeastActiveBalancingPolicy;
 import me.prettyprint.cassandra.connection.RoundRobinBalancingPolicy;
 import me.prettyprint.cassandra.model.IndexedSlicesQuery;
 import me.prettyprint.cassandra.model.MultigetCountQuery;
+import me.prettyprint.cassandra.serializers.BytesArraySerializer;
 import me.prettyprint.cassandra.serializers.CompositeSerializer;
 import me.prettyprint.cassandra.serializers.LongSerializer;
 import me.prettyprint.cassandra.serializers.StringSerializer;
@@ -41,6 +50,7 @@ import me.prettyprint.hector.api.Keyspace;
 import me.prettyprint.hector.api.Serializer;
 import me.prettyprint.hector.api.beans.ColumnSlice;
 import me.prettyprint.hector.api.beans.Composite;
+import me.prettyprint.hector.api.beans.CounterSlice;
 import me.prettyprint.hector.api.beans.HColumn;
 import me.prettyprint.hector.api.beans.HCounterColumn;
 import me.prettyprint.hector.api.beans.OrderedRows;
@@ -53,6 +63,7 @@ import me.prettyprint.hector.api.query.ColumnQuery;
 import me.prettyprint.hector.api.query.CounterQuery;
 import me.prettyprint.hector.api.query.QueryResult;
 import me.prettyprint.hector.api.query.RangeSlicesQuery;
+import me.prettyprint.hector.api.query.SliceCounterQuery;
 import me.prettyprint.hector.api.query.SliceQuery;
 import org.apache.log4j.Logger;
 
@@ -74,6 +85,21 @@ public class CassandraHectorPersistence extends AbstractDurablePersistence {
 
   private static Logger logger = Logger.getLogger(CassandraHectorPersistence.class);
 
+  private static final ExecutorService readExecutor =
+      Executors.newFixedThreadPool(
+          hectorPoolSize,
+          new ThreadFactory() {
+
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, "CassandraHectorReader-" + threadNumber.incrementAndGet());
+              t.setDaemon(true);
+              return t;
+            }
+          });
+
   private static class SimpleConsistencyPolicy implements ConsistencyLevelPolicy {
 
     private final HConsistencyLevel level;
@@ -185,6 +211,8 @@ public class CassandraHectorPersistence extends AbstractDurablePersistence {
       return CompositeSerializer.get();
     } else if (s instanceof CmbLongSerializer) {
       return LongSerializer.get();
+    } else if (s instanceof CmbBytesSerializer) {
+      return BytesArraySerializer.get();
     }
 
     throw new PersistenceException(CMBErrorCodes.InternalError, "Unknown serializer " + s);
@@ -291,6 +319,17 @@ public class CassandraHectorPersistence extends AbstractDurablePersistence {
       return hectorColumn.getValue();
     }
 
+    @Override
+    public byte[] getValueBytes() {
+      ByteBuffer valueBytes = hectorColumn.getValueBytes();
+      if (valueBytes == null) {
+        return null;
+      }
+      byte[] value = new byte[valueBytes.remaining()];
+      valueBytes.get(value);
+      return value;
+    }
+
     @Override
     public long getClock() {
       return hectorColumn.getClock();
@@ -663,6 +702,78 @@ public class CassandraHectorPersistence extends AbstractDurablePersistence {
     }
   }
 
+  @Override
+  public <K, N, V> Map<K, CmbColumnSlice<N, V>> readColumnsByName(
+      final String keyspace,
+      final String columnFamily,
+      Map<K, List<N>> columnNames,
+      final CmbSerializer keySerializer,
+      final CmbSerializer columnNameSerializer,
+      final CmbSerializer valueSerializer)
+      throws PersistenceException {
+
+    long ts1 = System.currentTimeMillis();
+    logger.debug("event=read_columns_by_name cf=" + columnFamily + " keys=" + columnNames.keySet());
+
+    Map<K, CmbColumnSlice<N, V>> slices = new HashMap<K, CmbColumnSlice<N, V>>();
+
+    try {
+
+      // hector has no async api, so fan out the row queries on our own executor
+
+      Map<K, Future<ColumnSlice<N, V>>> futures = new HashMap<K, Future<ColumnSlice<N, V>>>();
+
+      for (Map.Entry<K, List<N>> entry : columnNames.entrySet()) {
+
+        final SliceQuery<K, N, V> sliceQuery =
+            HFactory.createSliceQuery(
+                    getKeyspace(keyspace),
+                    getSerializer(keySerializer),
+                    getSerializer(columnNameSerializer),
+                    getSerializer(valueSerializer))
+                .setColumnFamily(columnFamily)
+                .setColumnNames((N[]) getComposites(entry.getValue()).toArray())
+                .setKey(entry.getKey());
+
+        futures.put(
+            entry.getKey(),
+            readExecutor.submit(
+                new Callable<ColumnSlice<N, V>>() {
+                  public ColumnSlice<N, V> call() {
+                    return sliceQuery.execute().get();
+                  }
+                }));
+      }
+
+      for (Map.Entry<K, Future<ColumnSlice<N, V>>> entry : futures.entrySet()) {
+
+        CMBControllerServlet.valueAccumulator.addToCounter(AccumulatorName.CassandraRead, 1L);
+        ColumnSlice<N, V> slice = null;
+
+        try {
+          slice = entry.getValue().get();
+        } catch (ExecutionException ex) {
+          throw new PersistenceException(
+              CMBErrorCodes.InternalError,
+              ex.getCause() != null ? ex.getCause().getMessage() : ex.getMessage());
+        }
+
+        if (slice != null && slice.getColumns() != null && !slice.getColumns().isEmpty()) {
+          slices.put(entry.getKey(), new CmbHectorColumnSlice<N, V>(slice));
+        }
+      }
+
+      return slices;
+
+    } catch (InterruptedException ex) {
+      throw new PersistenceException(ex);
+    } finally {
+      long ts2 = System.currentTimeMillis();
+      CMBControllerServlet.valueAccumulator.addToCounter(
+          AccumulatorName.CassandraTime, (ts2 - ts1));
+    }
+  }
+
   @Override
   public <K, N, V> void insertRow(
       String keyspace,
@@ -1033,4 +1144,49 @@ public class CassandraHectorPersistence extends AbstractDurablePersistence {
           AccumulatorName.CassandraTime, (ts2 - ts1));
     }
   }
+
+  @Override
+  public <K, N> Map<N, Long> getCounters(
+      String keyspace,
+      String columnFamily,
+      K rowKey,
+      List<N> columnNames,
+      CmbSerializer keySerializer,
+      CmbSerializer columnNameSerializer)
+      throws PersistenceException {
+
+    long ts1 = System.currentTimeMillis();
+    logger.debug(
+        "event=get_counters cf=" + columnFamily + " key=" + rowKey + " columns=" + columnNames);
+
+    try {
+
+      SliceCounterQuery<K, N> sliceQuery =
+          HFactory.createCounterSliceQuery(
+              getKeyspace(keyspace),
+              getSerializer(keySerializer),
+              getSerializer(columnNameSerializer));
+      sliceQuery
+          .setColumnFamily(columnFamily)
+          .setKey(rowKey)
+          .setColumnNames((N[]) columnNames.toArray());
+      CounterSlice<N> slice = sliceQuery.execute().get();
+
+      CMBControllerServlet.valueAccumulator.addToCounter(AccumulatorName.CassandraRead, 1L);
+
+      Map<N, Long> counters = new HashMap<N, Long>();
+
+      for (N columnName : columnNames) {
+        HCounterColumn<N> column = slice == null ? null : slice.getColumnByName(columnName);
+        counters.put(columnName, column == null ? 0L : column.getValue());
+      }
+
+      return counters;
+
+    } finally {
+      long ts2 = System.currentTimeMillis();
+      CMBControllerServlet.valueAccumulator.addToCounter(
+          AccumulatorName.CassandraTime, (ts2 - ts1));
+    }
+  }
 }
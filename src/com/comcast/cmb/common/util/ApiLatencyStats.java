@@ -0,0 +1,88 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cmb.common.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per minute latency histograms for a single api action, one for the overall response time and
+ * one for each of the components tracked by the ValueAccumulator.
+ *
+ * <p>Class is thread-safe
+ */
+public final class ApiLatencyStats {
+
+  public enum LatencyType {
+    Total,
+    Redis,
+    Cassandra,
+    Auth,
+    AsyncQueue
+  }
+
+  private final RollingLatencyHistogram[] histograms =
+      new RollingLatencyHistogram[LatencyType.values().length];
+
+  public ApiLatencyStats() {
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new RollingLatencyHistogram();
+    }
+  }
+
+  public void record(
+      long totalMS, long redisMS, long cassandraMS, long authMS, long asyncQueueMS) {
+
+    long now = System.currentTimeMillis();
+
+    histograms[LatencyType.Total.ordinal()].record(totalMS, now);
+    histograms[LatencyType.Redis.ordinal()].record(redisMS, now);
+    histograms[LatencyType.Cassandra.ordinal()].record(cassandraMS, now);
+    histograms[LatencyType.Auth.ordinal()].record(authMS, now);
+    histograms[LatencyType.AsyncQueue.ordinal()].record(asyncQueueMS, now);
+  }
+
+  public RollingLatencyHistogram get(LatencyType type) {
+    return histograms[type.ordinal()];
+  }
+
+  /**
+   * Summarize the most recent minutes as count plus p50, p90, p99, p999 and max for every latency
+   * type, keyed e.g. TotalP99 or RedisMax.
+   *
+   * @param minutes number of most recent minutes to include
+   * @return summary
+   */
+  public Map<String, Long> getPercentiles(int minutes) {
+
+    Map<String, Long> summary = new LinkedHashMap<String, Long>();
+
+    for (LatencyType type : LatencyType.values()) {
+
+      LatencyHistogram histogram = get(type).getWindow(minutes);
+
+      if (type == LatencyType.Total) {
+        summary.put("Count", histogram.getCount());
+      }
+
+      summary.put(type + "P50", histogram.getValueAtPercentile(50));
+      summary.put(type + "P90", histogram.getValueAtPercentile(90));
+      summary.put(type + "P99", histogram.getValueAtPercentile(99));
+      summary.put(type + "P999", histogram.getValueAtPercentile(99.9));
+      summary.put(type + "Max", histogram.getMax());
+    }
+
+    return summary;
+  }
+}
@@ -23,11 +23,12 @@ import java.math.BigInteger;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.Map.Entry;
+import java.util.concurrent.Callable;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import javax.servlet.http.HttpServletRequest;
@@ -49,6 +50,49 @@ public class AuthUtil {
   private static final Random rand = new SecureRandom();
   protected static final String DEFAULT_ENCODING = "UTF-8";
 
+  // Mac and MessageDigest instances are expensive to look up but not thread-safe, so keep one per
+  // thread and algorithm
+
+  private static final ThreadLocal<Map<String, Mac>> macs =
+      new ThreadLocal<Map<String, Mac>>() {
+        @Override
+        protected Map<String, Mac> initialValue() {
+          return new HashMap<String, Mac>();
+        }
+      };
+
+  private static final ThreadLocal<MessageDigest> sha256Digests =
+      new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+          try {
+            return MessageDigest.getInstance("SHA-256");
+          } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+          }
+        }
+      };
+
+  private static final int SIGNING_KEY_EXPIRATION_MS = 24 * 60 * 60 * 1000;
+
+  private static class SigningKey {
+
+    private final String accessSecret;
+    private final byte[] key;
+
+    public SigningKey(String accessSecret, byte[] key) {
+      this.accessSecret = accessSecret;
+      this.key = key;
+    }
+  }
+
+  // lazily initialized so password and v2 helpers do not depend on cmb properties
+
+  private static class SigningKeyCache {
+    private static final BoundedCache<String, SigningKey> signingKeys =
+        new BoundedCache<String, SigningKey>(CMBProperties.getInstance().getUserCacheSizeLimit());
+  }
+
   public static String hashPassword(String password) throws Exception {
 
     MessageDigest digest = MessageDigest.getInstance("MD5");
@@ -224,7 +268,7 @@ public class AuthUtil {
       return null;
     }
 
-    Mac mac = Mac.getInstance(algorithm);
+    Mac mac = getMac(algorithm);
     mac.init(new SecretKeySpec(accessSecret.getBytes("UTF-8"), algorithm));
     byte[] bytes = mac.doFinal(data.getBytes("UTF-8"));
     String signature = new String(Base64.encodeBase64(bytes));
@@ -232,56 +276,93 @@ public class AuthUtil {
     return signature;
   }
 
+  /**
+   * Calculate the version 4 signature of a request. The derived signing key is cached per access
+   * key and credential scope (date, region, service) and the canonical request is built in a single
+   * pass over the signed headers named in the authorization header.
+   *
+   * @param request
+   * @param payload url encoded post parameters, see encodeParameters()
+   * @param algorithm signing algorithm following "AWS4-", e.g. HMAC-SHA256
+   * @param accessKey
+   * @param accessSecret
+   * @return hex encoded signature
+   */
   public static String generateSignatureV4(
       HttpServletRequest request,
-      URL url,
-      Map<String, String> parameters,
-      Map<String, String> headers,
-      String version,
+      String payload,
       String algorithm,
-      String accessSecret)
-      throws Exception {
+      String accessKey,
+      String accessSecret) {
 
     /* Example of authorization header value
      * AWS4-HMAC-SHA256 Credential=XK1MWJAYYGQ41ECH06WG/20131126/us-east-1/us-east-1/aws4_request, SignedHeaders=host;user-agent;x-amz-date, Signature=18541c4db00d098414c0bae7394450d1deada902699a45de02849dbcb336f9e3
      */
     String authorizationHeader = request.getHeader("authorization");
-    String credentialPart =
-        authorizationHeader.substring(
-            authorizationHeader.indexOf("Credential=") + "Credential=".length());
-    String[] credentialPartArray = credentialPart.split("/");
-
-    String regionName = credentialPartArray[2];
-    String serviceName = credentialPartArray[3];
-
-    String dateTime = request.getHeader("X-Amz-Date");
-    String dateStamp = credentialPartArray[1];
-
+    int credentialStart = authorizationHeader.indexOf("Credential=") + "Credential=".length();
+    int scopeStart = authorizationHeader.indexOf('/', credentialStart) + 1;
     String scope =
-        credentialPart.substring(credentialPart.indexOf("/") + 1, credentialPart.indexOf(","));
+        authorizationHeader.substring(scopeStart, authorizationHeader.indexOf(',', scopeStart));
+    String dateTime = request.getHeader("X-Amz-Date");
 
-    String payloadString = getPayload(request);
-    String contentSha256 = BinaryUtils.toHex(hash(payloadString));
-    Map<String, String> filteredHeaders = filterHeader(headers);
+    String contentSha256 = BinaryUtils.toHex(hash(payload));
 
     String stringToSign =
         getStringToSign(
             "AWS4-" + algorithm,
             dateTime,
             scope,
-            getCanonicalRequest(request, contentSha256, parameters, filteredHeaders));
+            getCanonicalRequest(request, authorizationHeader, contentSha256));
 
-    byte[] secret = ("AWS4" + accessSecret).getBytes();
-    byte[] date = sign(dateStamp, secret, SigningAlgorithm.HmacSHA256);
-    byte[] region = sign(regionName, date, SigningAlgorithm.HmacSHA256);
-    byte[] service = sign(serviceName, region, SigningAlgorithm.HmacSHA256);
-    byte[] signing = sign("aws4_request", service, SigningAlgorithm.HmacSHA256);
+    byte[] signatureBytes =
+        sign(
+            stringToSign.getBytes(),
+            getSigningKey(accessKey, accessSecret, scope),
+            SigningAlgorithm.HmacSHA256);
 
-    byte[] signatureBytes = sign(stringToSign.getBytes(), signing, SigningAlgorithm.HmacSHA256);
+    return BinaryUtils.toHex(signatureBytes);
+  }
 
-    String signature = BinaryUtils.toHex(signatureBytes);
+  private static byte[] getSigningKey(
+      String accessKey, final String accessSecret, final String scope) {
 
-    return signature;
+    // scope is date/region/service/aws4_request
+
+    String cacheKey = accessKey + "/" + scope;
+
+    Callable<SigningKey> deriveSigningKey =
+        new Callable<SigningKey>() {
+          @Override
+          public SigningKey call() {
+            String[] scopeParts = scope.split("/");
+            byte[] secret = ("AWS4" + accessSecret).getBytes();
+            byte[] date = sign(scopeParts[0], secret, SigningAlgorithm.HmacSHA256);
+            byte[] region = sign(scopeParts[1], date, SigningAlgorithm.HmacSHA256);
+            byte[] service = sign(scopeParts[2], region, SigningAlgorithm.HmacSHA256);
+            return new SigningKey(
+                accessSecret, sign("aws4_request", service, SigningAlgorithm.HmacSHA256));
+          }
+        };
+
+    SigningKey signingKey =
+        SigningKeyCache.signingKeys.getAndSetIfNotPresent(
+            cacheKey, deriveSigningKey, SIGNING_KEY_EXPIRATION_MS);
+
+    if (!signingKey.accessSecret.equals(accessSecret)) {
+
+      // access secret changed since the key was derived
+
+      SigningKeyCache.signingKeys.remove(cacheKey);
+
+      try {
+        signingKey = deriveSigningKey.call();
+      } catch (Exception ex) {
+        throw new AmazonClientException(
+            "Unable to calculate a request signature: " + ex.getMessage(), ex);
+      }
+    }
+
+    return signingKey.key;
   }
 
   public static byte[] sign(String stringData, byte[] key, SigningAlgorithm algorithm)
@@ -298,7 +379,7 @@ public class AuthUtil {
   protected static byte[] sign(byte[] data, byte[] key, SigningAlgorithm algorithm)
       throws AmazonClientException {
     try {
-      Mac mac = Mac.getInstance(algorithm.toString());
+      Mac mac = getMac(algorithm.toString());
       mac.init(new SecretKeySpec(key, algorithm.toString()));
       return mac.doFinal(data);
     } catch (Exception e) {
@@ -307,6 +388,19 @@ public class AuthUtil {
     }
   }
 
+  private static Mac getMac(String algorithm) throws NoSuchAlgorithmException {
+
+    Map<String, Mac> threadMacs = macs.get();
+    Mac mac = threadMacs.get(algorithm);
+
+    if (mac == null) {
+      mac = Mac.getInstance(algorithm);
+      threadMacs.put(algorithm, mac);
+    }
+
+    return mac;
+  }
+
   protected static String getStringToSign(
       String algorithm, String dateTime, String scope, String canonicalRequest) {
     String stringToSign =
@@ -317,15 +411,15 @@ public class AuthUtil {
             + scope
             + "\n"
             + BinaryUtils.toHex(hash(canonicalRequest));
-    logger.debug("AWS4 String to Sign: '\"" + stringToSign + "\"");
+    if (logger.isDebugEnabled()) {
+      logger.debug("AWS4 String to Sign: '\"" + stringToSign + "\"");
+    }
     return stringToSign;
   }
 
   public static byte[] hash(String text) throws AmazonClientException {
     try {
-      MessageDigest md = MessageDigest.getInstance("SHA-256");
-      md.update(text.getBytes("UTF-8"));
-      return md.digest();
+      return sha256Digests.get().digest(text.getBytes("UTF-8"));
     } catch (Exception e) {
       throw new AmazonClientException(
           "Unable to compute hash while signing request: " + e.getMessage(), e);
@@ -333,32 +427,77 @@ public class AuthUtil {
   }
 
   protected static String getCanonicalRequest(
-      HttpServletRequest request,
-      String contentSha256,
-      Map<String, String> parameters,
-      Map<String, String> headers) {
+      HttpServletRequest request, String authorizationHeader, String contentSha256) {
 
-    String canonicalRequest = null;
-    canonicalRequest =
-        request.getMethod()
-            + "\n"
-            + getResourcePath(request)
-            + "\n"
-            + getCanonicalizedQueryString(request, parameters)
-            + "\n"
-            + getCanonicalizedHeaderString(headers)
-            + "\n"
-            + getSignedHeadersString(headers)
-            + "\n"
-            + contentSha256;
-    logger.debug("AWS4 Canonical Request: '\"" + canonicalRequest + "\"");
+    StringBuilder canonicalRequest = new StringBuilder(512);
+    canonicalRequest.append(request.getMethod()).append('\n');
+    canonicalRequest.append(getResourcePath(request)).append('\n');
+
+    // canonicalized query string is always empty
+
+    canonicalRequest.append('\n');
+
+    int signedHeadersStart =
+        authorizationHeader.indexOf("SignedHeaders=") + "SignedHeaders=".length();
+    String[] signedHeaderNames =
+        authorizationHeader
+            .substring(signedHeadersStart, authorizationHeader.indexOf(", Signature"))
+            .split(";");
+    Arrays.sort(signedHeaderNames, String.CASE_INSENSITIVE_ORDER);
+
+    StringBuilder signedHeaders = new StringBuilder(128);
+
+    for (String headerName : signedHeaderNames) {
+
+      headerName = headerName.trim();
+      String value = request.getHeader(headerName);
+
+      // only headers actually present on the request are signed
+
+      if (value == null) {
+        continue;
+      }
+
+      String lowerCaseName = headerName.toLowerCase();
+      appendCollapsingWhitespace(canonicalRequest, lowerCaseName);
+      canonicalRequest.append(':');
+      appendCollapsingWhitespace(canonicalRequest, value);
+      canonicalRequest.append('\n');
 
-    return canonicalRequest;
+      if (signedHeaders.length() > 0) {
+        signedHeaders.append(';');
+      }
+
+      signedHeaders.append(lowerCaseName);
+    }
+
+    canonicalRequest.append('\n').append(signedHeaders).append('\n').append(contentSha256);
+
+    if (logger.isDebugEnabled()) {
+      logger.debug("AWS4 Canonical Request: '\"" + canonicalRequest + "\"");
+    }
+
+    return canonicalRequest.toString();
   }
 
-  protected static String getCanonicalizedQueryString(
-      HttpServletRequest request, Map<String, String> parameters) {
-    return "";
+  private static void appendCollapsingWhitespace(StringBuilder sb, String value) {
+
+    boolean inWhitespace = false;
+
+    for (int i = 0; i < value.length(); i++) {
+
+      char c = value.charAt(i);
+
+      if (Character.isWhitespace(c)) {
+        if (!inWhitespace) {
+          sb.append(' ');
+        }
+        inWhitespace = true;
+      } else {
+        sb.append(c);
+        inWhitespace = false;
+      }
+    }
   }
 
   private static String getResourcePath(HttpServletRequest request) {
@@ -381,30 +520,6 @@ public class AuthUtil {
     return data.toString();
   }
 
-  private static Map<String, String> filterHeader(Map<String, String> headers) {
-    Map<String, String> filteredHeaders = new HashMap<String, String>();
-    String authorizationString = headers.get("Authorization");
-    String singnedHeadersString =
-        authorizationString.substring(
-            authorizationString.indexOf("SignedHeaders=") + new String("SignedHeaders=").length(),
-            authorizationString.indexOf(", Signature"));
-    String[] headersArray = singnedHeadersString.split(";");
-    // dealing with lower case letter
-    Map<String, String> lowerCaseHeaders = new HashMap<String, String>();
-    for (Entry<String, String> entry : headers.entrySet()) {
-      lowerCaseHeaders.put(entry.getKey().toLowerCase(), entry.getKey());
-    }
-
-    for (String currentHeaderName : headersArray) {
-      if (lowerCaseHeaders.containsKey(currentHeaderName.trim())) {
-        filteredHeaders.put(
-            lowerCaseHeaders.get(currentHeaderName.trim()),
-            headers.get(lowerCaseHeaders.get(currentHeaderName.trim())));
-      }
-    }
-    return filteredHeaders;
-  }
-
   private static String constructV2DataToSign(URL url, Map<String, String> parameters)
       throws UnsupportedEncodingException {
 
@@ -457,37 +572,6 @@ public class AuthUtil {
     }
   }
 
-  protected static String getCanonicalizedHeaderString(Map<String, String> headers) {
-    List<String> sortedHeaders = new ArrayList<String>();
-    sortedHeaders.addAll(headers.keySet());
-    Collections.sort(sortedHeaders, String.CASE_INSENSITIVE_ORDER);
-
-    StringBuilder buffer = new StringBuilder();
-    for (String header : sortedHeaders) {
-      buffer.append(
-          header.toLowerCase().replaceAll("\\s+", " ")
-              + ":"
-              + headers.get(header).replaceAll("\\s+", " "));
-      buffer.append("\n");
-    }
-
-    return buffer.toString();
-  }
-
-  protected static String getSignedHeadersString(Map<String, String> headers) {
-    List<String> sortedHeaders = new ArrayList<String>();
-    sortedHeaders.addAll(headers.keySet());
-    Collections.sort(sortedHeaders, String.CASE_INSENSITIVE_ORDER);
-
-    StringBuilder buffer = new StringBuilder();
-    for (String header : sortedHeaders) {
-      if (buffer.length() > 0) buffer.append(";");
-      buffer.append(header.toLowerCase());
-    }
-
-    return buffer.toString();
-  }
-
   private static String normalizeQueryString(Map<String, String> parameters)
       throws UnsupportedEncodingException {
 
@@ -514,11 +598,6 @@ public class AuthUtil {
     return builder.toString();
   }
 
-  private static String getPayload(HttpServletRequest reqeust) throws UnsupportedEncodingException {
-
-    return encodeParameters(reqeust);
-  }
-
   /**
    * Creates an encoded query string from all the parameters in the specified request.
    *
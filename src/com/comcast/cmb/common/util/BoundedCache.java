@@ -0,0 +1,321 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cmb.common.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.log4j.Logger;
+
+/**
+ * Thread-safe cache of key, value pairs with a per entry expiration and a maximum size. Unlike
+ * ExpiringCache it never refuses new keys: once the cache is full the least recently used entry is
+ * evicted. Entries read after refreshAheadPercent of their expiration time has passed are reloaded
+ * in the background so hot keys do not block callers when they expire. Concurrent misses on the
+ * same key share a single load. K - the key type V - the value type
+ */
+public final class BoundedCache<K, V> {
+
+  private static final Logger logger = Logger.getLogger(BoundedCache.class);
+
+  // shared by all caches, a refresh that cannot be queued is dropped and the entry is loaded by
+  // the caller once it expires
+
+  private static final ThreadPoolExecutor refreshExecutor =
+      new ThreadPoolExecutor(
+          2,
+          2,
+          60,
+          TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(1000),
+          new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, "BoundedCacheRefresh-" + count.incrementAndGet());
+              t.setDaemon(true);
+              return t;
+            }
+          });
+
+  private final int maximumSize;
+  private final int refreshAheadPercent;
+
+  private final ConcurrentHashMap<K, ValueContainer> cache =
+      new ConcurrentHashMap<K, ValueContainer>();
+
+  // keys in access order, least recently used first, guarded by evictionLock. reads only reorder
+  // keys if the lock is free so lookups never wait on each other. keys only leave the cache while
+  // holding the lock, so the two can't get out of step
+
+  private final LinkedHashMap<K, Boolean> accessOrder =
+      new LinkedHashMap<K, Boolean>(16, 0.75f, true);
+  private final ReentrantLock evictionLock = new ReentrantLock();
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+  private final AtomicLong refreshCount = new AtomicLong();
+
+  private class ValueContainer {
+    final FutureTask<V> future;
+    final long createdTimestamp;
+    final int exp;
+    final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+    public ValueContainer(FutureTask<V> val, long ts, int expP) {
+      future = val;
+      createdTimestamp = ts;
+      exp = expP;
+    }
+
+    boolean isExpired(long now) {
+      return createdTimestamp + exp < now;
+    }
+
+    boolean isRefreshDue(long now) {
+      return refreshAheadPercent > 0
+          && future.isDone()
+          && now - createdTimestamp >= (long) exp * refreshAheadPercent / 100;
+    }
+  }
+
+  /** @param maximumSize The maximum number of keys in the cache */
+  public BoundedCache(int maximumSize) {
+    this(maximumSize, CMBProperties.getInstance().getCacheRefreshAheadPercent());
+  }
+
+  /**
+   * @param maximumSize The maximum number of keys in the cache
+   * @param refreshAheadPercent Percentage of the expiration time after which a read triggers a
+   *     background reload, 0 to disable
+   */
+  public BoundedCache(int maximumSize, int refreshAheadPercent) {
+    this.maximumSize = maximumSize;
+    this.refreshAheadPercent = refreshAheadPercent;
+  }
+
+  /**
+   * @param key
+   * @return true if cache contains key whose value has not yet expired, false otherwise
+   */
+  public boolean containsKey(K key) {
+    ValueContainer valContainer = cache.get(key);
+    return valContainer != null && !valContainer.isExpired(System.currentTimeMillis());
+  }
+
+  /**
+   * Remove a key from the cache
+   *
+   * @param key
+   */
+  public void remove(K key) {
+    if (key == null) {
+      return;
+    }
+    evictionLock.lock();
+    try {
+      cache.remove(key);
+      accessOrder.remove(key);
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /** @return snapshot of the keys currently in the cache, including expired ones */
+  public List<K> getKeys() {
+    return new ArrayList<K>(cache.keySet());
+  }
+
+  /**
+   * @param key The key
+   * @param valueGetter The Callable that will get the V value if none is cached, if the previous
+   *     one expired or if the cached value is due for a refresh
+   * @param exp The expiration time in milliseconds
+   * @return The value V that was cached or that just got cached. Note: method will block if we need
+   *     to call valueGetter
+   * @throws IllegalStateException if valueGetter fails, with the ExecutionException as cause
+   */
+  public V getAndSetIfNotPresent(K key, Callable<V> valueGetter, int exp) {
+
+    long now = System.currentTimeMillis();
+    ValueContainer existingValContainer = cache.get(key);
+
+    if (existingValContainer != null) {
+
+      if (!existingValContainer.isExpired(now)) {
+
+        hitCount.incrementAndGet();
+        recordAccess(key);
+
+        if (existingValContainer.isRefreshDue(now)) {
+          refresh(key, existingValContainer, valueGetter, exp);
+        }
+
+        return getValue(key, existingValContainer);
+      }
+
+      ValueContainer valContainer =
+          new ValueContainer(new FutureTask<V>(valueGetter), now, exp);
+
+      if (cache.replace(key, existingValContainer, valContainer)) {
+        missCount.incrementAndGet();
+        recordAccess(key);
+        valContainer.future.run();
+        return getValue(key, valContainer);
+      }
+
+      // someone beat us to it, lets do this again
+
+      return getAndSetIfNotPresent(key, valueGetter, exp);
+    }
+
+    ValueContainer valContainer = new ValueContainer(new FutureTask<V>(valueGetter), now, exp);
+    existingValContainer = cache.putIfAbsent(key, valContainer);
+
+    if (existingValContainer != null) {
+      // another caller is loading the same key, wait for its value
+      hitCount.incrementAndGet();
+      return getValue(key, existingValContainer);
+    }
+
+    missCount.incrementAndGet();
+    recordInsert(key);
+    valContainer.future.run();
+
+    return getValue(key, valContainer);
+  }
+
+  public int size() {
+    return cache.size();
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  public long getRefreshCount() {
+    return refreshCount.get();
+  }
+
+  private V getValue(K key, ValueContainer valContainer) {
+    try {
+      return valContainer.future.get();
+    } catch (ExecutionException ex) {
+      // do not keep failed loads around, the next caller retries
+      evictionLock.lock();
+      try {
+        if (cache.remove(key, valContainer)) {
+          accessOrder.remove(key);
+        }
+      } finally {
+        evictionLock.unlock();
+      }
+      logger.error("event=no_value_getter key=" + key, ex);
+      throw new IllegalStateException("Could not get value from valueGetter", ex);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for value of " + key, ex);
+    }
+  }
+
+  private void recordAccess(K key) {
+    if (evictionLock.tryLock()) {
+      try {
+        accessOrder.get(key);
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+  }
+
+  private void recordInsert(K key) {
+    evictionLock.lock();
+    try {
+      // the key may have been removed again since it was put into the cache
+      if (!cache.containsKey(key)) {
+        return;
+      }
+      accessOrder.put(key, Boolean.TRUE);
+      Iterator<K> iter = accessOrder.keySet().iterator();
+      while (accessOrder.size() > maximumSize && iter.hasNext()) {
+        K eldest = iter.next();
+        iter.remove();
+        cache.remove(eldest);
+        evictionCount.incrementAndGet();
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  private void refresh(
+      final K key,
+      final ValueContainer valContainer,
+      final Callable<V> valueGetter,
+      final int exp) {
+
+    if (!valContainer.refreshing.compareAndSet(false, true)) {
+      return;
+    }
+
+    try {
+      refreshExecutor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              FutureTask<V> ft = new FutureTask<V>(valueGetter);
+              ft.run();
+              try {
+                ft.get();
+                ValueContainer refreshed =
+                    new ValueContainer(ft, System.currentTimeMillis(), exp);
+                if (cache.replace(key, valContainer, refreshed)) {
+                  refreshCount.incrementAndGet();
+                }
+              } catch (Exception ex) {
+                // keep serving the current value until it expires
+                logger.warn("event=cache_refresh_failed key=" + key, ex);
+                valContainer.refreshing.set(false);
+              }
+            }
+          });
+    } catch (RejectedExecutionException ex) {
+      valContainer.refreshing.set(false);
+    }
+  }
+}
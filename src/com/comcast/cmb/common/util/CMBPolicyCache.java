@@ -0,0 +1,85 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cmb.common.util;
+
+import com.comcast.cmb.common.model.CMBPolicy;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of parsed policies per queue or topic arn so authorization does not reparse the policy
+ * json on every request. An entry is only reused while the policy string it was built from is
+ * unchanged, so a stale queue or topic object can never authorize against a newer policy or vice
+ * versa. Cached policies are shared between threads and must not be modified by callers.
+ */
+public class CMBPolicyCache {
+
+  private static final ConcurrentHashMap<String, Entry> policies =
+      new ConcurrentHashMap<String, Entry>();
+
+  private static class Entry {
+
+    private final String policyString;
+    private final int policyHash;
+    private final CMBPolicy policy;
+
+    public Entry(String policyString, CMBPolicy policy) {
+      this.policyString = policyString;
+      this.policyHash = policyString.hashCode();
+      this.policy = policy;
+    }
+
+    public boolean isFor(String policyString) {
+      return policyHash == policyString.hashCode() && this.policyString.equals(policyString);
+    }
+  }
+
+  /**
+   * @param arn queue or topic arn
+   * @param policyString current policy of the queue or topic, may be null
+   * @return parsed policy, shared and read-only
+   * @throws Exception if the policy cannot be parsed
+   */
+  public static CMBPolicy getPolicy(String arn, String policyString) throws Exception {
+
+    if (policyString == null) {
+      policyString = "";
+    }
+
+    Entry entry = policies.get(arn);
+
+    if (entry != null && entry.isFor(policyString)) {
+      return entry.policy;
+    }
+
+    entry = new Entry(policyString, new CMBPolicy(policyString));
+    policies.put(arn, entry);
+
+    return entry.policy;
+  }
+
+  /**
+   * Drop the cached policy for a queue or topic whose policy was changed or which was deleted
+   *
+   * @param arn
+   */
+  public static void invalidate(String arn) {
+    if (arn != null) {
+      policies.remove(arn);
+    }
+  }
+
+  public static int size() {
+    return policies.size();
+  }
+}
@@ -70,10 +70,15 @@ public class CMBProperties {
 
   private final String cmbDataCenter;
 
+  private final int heartbeatIntervalSeconds;
+  private final int cnsWorkerStatsRefreshIntervalSeconds;
+
   private final IO_MODE cnsIOMode;
 
   private final int cqsLongPollPort;
   private final boolean cqsLongPollEnabled;
+  private final int cqsLongPollNotificationThreadCount;
+  private final int cqsLongPollNotificationQueueSize;
 
   private final int cnsMessageExpirationSeconds;
 
@@ -158,15 +163,21 @@ public class CMBProperties {
   private final int cqsCacheExpiring;
   private final int cqsCacheSizeLimit;
 
+  private final int cacheRefreshAheadPercent;
+
   private final int rollingWindowTimeSec;
 
   private final int redisConnectionsMaxTotal;
   private final String redisServerList;
   private final int redisFillerThreads;
+  private final int redisFillerScanThreads;
   private final int redisRevisibleThreads;
   private volatile int redisRevisibleFrequencySec;
   private final int redisRevisibleSetFrequencySec;
   private final int redisExpireTTLSec;
+  private final boolean redisPipelinedReceive;
+  private final int redisCacheStateLeaseMS;
+  private final int redisRevisibleBatchSize;
 
   private final int cassandraThriftSocketTimeOutMS;
   private final int astyanaxMaxConnectionsPerNode;
@@ -193,6 +204,12 @@ public class CMBProperties {
   private final int publishJobVTO;
   private final int EPPublishJobVTO;
   private final int maxSubscriptionsPerEPPublishJob;
+  private final int cnsPublisherCQSBatchSize;
+  private final int httpPublisherIOThreadCount;
+  private final int httpPublisherKeepAliveSeconds;
+  private final int httpPublisherMaxInFlightPerEndpoint;
+  private final int publisherMaxDeliveriesPerHostPerSecond;
+  private final int publisherMaxDeferredDeliveriesPerHost;
   private final int producerProcessingMaxDelay;
   private final int consumerProcessingMaxDelay;
   private volatile boolean useSubInfoCache;
@@ -261,6 +278,14 @@ public class CMBProperties {
 
       cmbDataCenter = props.getProperty("cmb.dc.name", "default");
 
+      heartbeatIntervalSeconds =
+          Math.max(1, Integer.parseInt(props.getProperty("cmb.heartbeat.intervalSeconds", "60")));
+      cnsWorkerStatsRefreshIntervalSeconds =
+          Math.max(
+              1,
+              Integer.parseInt(
+                  props.getProperty("cmb.cns.workerStats.refreshIntervalSeconds", "15")));
+
       maxMessagePayloadLogLength =
           Integer.parseInt(props.getProperty("cmb.log.maxMessagePayloadLogLength", "0"));
 
@@ -269,6 +294,10 @@ public class CMBProperties {
       cqsLongPollPort = Integer.parseInt(props.getProperty("cmb.cqs.longpoll.port", "5555"));
       cqsLongPollEnabled =
           Boolean.parseBoolean(props.getProperty("cmb.cqs.longpoll.enable", "true"));
+      cqsLongPollNotificationThreadCount =
+          Integer.parseInt(props.getProperty("cmb.cqs.longpoll.notificationThreadCount", "4"));
+      cqsLongPollNotificationQueueSize =
+          Integer.parseInt(props.getProperty("cmb.cqs.longpoll.notificationQueueSize", "10000"));
 
       cnsServiceUrl = props.getProperty("cmb.cns.service.url", "http://localhost:6061/");
       cqsServiceUrl = props.getProperty("cmb.cqs.service.url", "http://localhost:6059/");
@@ -380,6 +409,20 @@ public class CMBProperties {
               props.getProperty("cmb.cns.publisher.http.acceptableStatusCodes", "").split(","));
       cnsIOMode =
           IO_MODE.valueOf(props.getProperty("cmb.cns.publisher.http.iomode", "sync").toUpperCase());
+      httpPublisherIOThreadCount =
+          Math.max(
+              1, Integer.parseInt(props.getProperty("cmb.cns.publisher.http.ioThreadCount", "2")));
+      httpPublisherKeepAliveSeconds =
+          Integer.parseInt(props.getProperty("cmb.cns.publisher.http.keepAliveSeconds", "60"));
+      httpPublisherMaxInFlightPerEndpoint =
+          Integer.parseInt(
+              props.getProperty("cmb.cns.publisher.http.maxInFlightPerEndpoint", "100"));
+      publisherMaxDeliveriesPerHostPerSecond =
+          Integer.parseInt(
+              props.getProperty("cmb.cns.publisher.maxDeliveriesPerHostPerSecond", "0"));
+      publisherMaxDeferredDeliveriesPerHost =
+          Integer.parseInt(
+              props.getProperty("cmb.cns.publisher.maxDeferredDeliveriesPerHost", "1000"));
 
       cnsCacheExpiring =
           Integer.parseInt(props.getProperty("cmb.cns.cacheExpiringInSeconds", "60"));
@@ -389,6 +432,9 @@ public class CMBProperties {
           Integer.parseInt(props.getProperty("cmb.cqs.cacheExpiringInSeconds", "60"));
       cqsCacheSizeLimit = Integer.parseInt(props.getProperty("cmb.cqs.cacheSizeLimit", "1000"));
 
+      cacheRefreshAheadPercent =
+          Integer.parseInt(props.getProperty("cmb.cache.refreshAheadPercent", "75"));
+
       cqsNumberOfQueuePartitions =
           Integer.parseInt(props.getProperty("cmb.cqs.numberOfQueuePartitions", "100"));
 
@@ -398,6 +444,8 @@ public class CMBProperties {
           Integer.parseInt(props.getProperty("cmb.redis.connectionsMaxTotal", "100"));
       redisServerList = props.getProperty("cmb.redis.serverList");
       redisFillerThreads = Integer.parseInt(props.getProperty("cmb.redis.fillerThreads", "5"));
+      redisFillerScanThreads =
+          Integer.parseInt(props.getProperty("cmb.redis.fillerScanThreads", "16"));
       redisRevisibleThreads =
           Integer.parseInt(props.getProperty("cmb.redis.revisibleThreads", "3"));
       redisExpireTTLSec = Integer.parseInt(props.getProperty("cmb.redis.expireTTLSec", "1209600"));
@@ -405,6 +453,12 @@ public class CMBProperties {
           Integer.parseInt(props.getProperty("cmb.redis.revisibleFrequencySec", "10"));
       redisRevisibleSetFrequencySec =
           Integer.parseInt(props.getProperty("cmb.redis.revisibleSetFrequencySec", "1"));
+      redisPipelinedReceive =
+          Boolean.parseBoolean(props.getProperty("cmb.redis.pipelinedReceive", "true"));
+      redisRevisibleBatchSize =
+          Integer.parseInt(props.getProperty("cmb.redis.revisibleBatchSize", "1000"));
+      redisCacheStateLeaseMS =
+          Integer.parseInt(props.getProperty("cmb.redis.cacheStateLeaseMS", "500"));
 
       cassandraThriftSocketTimeOutMS =
           Integer.parseInt(props.getProperty("cmb.cassandra.thriftSocketTimeOutMS", "10000"));
@@ -437,6 +491,12 @@ public class CMBProperties {
       maxSubscriptionsPerEPPublishJob =
           Integer.parseInt(
               props.getProperty("cmb.cns.publisher.maxSubscriptionsPerEPPublishJob", "100"));
+      cnsPublisherCQSBatchSize =
+          Math.max(
+              1,
+              Math.min(
+                  10,
+                  Integer.parseInt(props.getProperty("cmb.cns.publisher.cqsBatchSize", "10"))));
       producerProcessingMaxDelay =
           Integer.parseInt(
               props.getProperty("cmb.cns.publisher.producerProcessingMaxDelay", "1000"));
@@ -678,6 +738,10 @@ public class CMBProperties {
     return cqsCacheSizeLimit;
   }
 
+  public int getCacheRefreshAheadPercent() {
+    return cacheRefreshAheadPercent;
+  }
+
   public String getHectorBalancingPolicy() {
     return hectorBalancingPolicy;
   }
@@ -690,6 +754,10 @@ public class CMBProperties {
     return redisFillerThreads;
   }
 
+  public int getRedisFillerScanThreads() {
+    return redisFillerScanThreads;
+  }
+
   public int getCassandraThriftSocketTimeOutMS() {
     return cassandraThriftSocketTimeOutMS;
   }
@@ -766,6 +834,10 @@ public class CMBProperties {
     return maxSubscriptionsPerEPPublishJob;
   }
 
+  public int getCNSPublisherCQSBatchSize() {
+    return cnsPublisherCQSBatchSize;
+  }
+
   public int getCNSReDeliveryHandlerJobQueueLimit() {
     return reDeliveryHandlerJobQueueLimit;
   }
@@ -806,6 +878,18 @@ public class CMBProperties {
     return redisExpireTTLSec;
   }
 
+  public boolean isRedisPipelinedReceive() {
+    return redisPipelinedReceive;
+  }
+
+  public int getRedisCacheStateLeaseMS() {
+    return redisCacheStateLeaseMS;
+  }
+
+  public int getRedisRevisibleBatchSize() {
+    return redisRevisibleBatchSize;
+  }
+
   public int getRedisRevisibleThreads() {
     return redisRevisibleThreads;
   }
@@ -834,6 +918,26 @@ public class CMBProperties {
     return httpTimeoutSeconds;
   }
 
+  public int getCNSPublisherHttpIOThreadCount() {
+    return httpPublisherIOThreadCount;
+  }
+
+  public int getCNSPublisherHttpKeepAliveSeconds() {
+    return httpPublisherKeepAliveSeconds;
+  }
+
+  public int getCNSPublisherHttpMaxInFlightPerEndpoint() {
+    return httpPublisherMaxInFlightPerEndpoint;
+  }
+
+  public int getCNSPublisherMaxDeliveriesPerHostPerSecond() {
+    return publisherMaxDeliveriesPerHostPerSecond;
+  }
+
+  public int getCNSPublisherMaxDeferredDeliveriesPerHost() {
+    return publisherMaxDeferredDeliveriesPerHost;
+  }
+
   public List<String> getCNSPublisherAcceptableHttpStatusCodes() {
     return acceptableHttpStatusCodes;
   }
@@ -854,10 +958,26 @@ public class CMBProperties {
     return cqsLongPollEnabled;
   }
 
+  public int getCQSLongPollNotificationThreadCount() {
+    return cqsLongPollNotificationThreadCount;
+  }
+
+  public int getCQSLongPollNotificationQueueSize() {
+    return cqsLongPollNotificationQueueSize;
+  }
+
   public String getCMBDataCenter() {
     return cmbDataCenter;
   }
 
+  public int getHeartbeatIntervalSeconds() {
+    return heartbeatIntervalSeconds;
+  }
+
+  public int getCNSWorkerStatsRefreshIntervalSeconds() {
+    return cnsWorkerStatsRefreshIntervalSeconds;
+  }
+
   public int getCNSMaxMessageSize() {
     return cnsMaxMsgSize;
   }
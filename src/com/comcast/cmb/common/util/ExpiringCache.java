@@ -25,7 +25,9 @@ import org.apache.log4j.Logger;
  * value. The class is thread-safe K - the key type V - the Value type
  *
  * @author aseem Class ia thread-safe
+ * @deprecated throws CacheFullException instead of evicting when full, use {@link BoundedCache}
  */
+@Deprecated
 public final class ExpiringCache<K, V> {
 
   private static final Logger logger = Logger.getLogger(ExpiringCache.class);
@@ -0,0 +1,144 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cmb.common.util;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps one jmx connector per remote host and port open across calls. Setting up an rmi connector
+ * costs a registry lookup and several round trips, which dominated the time it took to collect
+ * stats from other api servers and cns workers. Callers must invalidate a connection after a
+ * failed call so that the next call reconnects. Connecting and waiting for a response are bounded
+ * so that a hung remote host cannot block a caller forever.
+ *
+ * <p>Class is thread-safe
+ */
+public class JMXConnectionPool {
+
+  private static Logger logger = Logger.getLogger(JMXConnectionPool.class);
+
+  private static final ConcurrentHashMap<String, JMXConnector> connectors =
+      new ConcurrentHashMap<String, JMXConnector>();
+
+  private static final int CONNECT_TIMEOUT_MS = 5000;
+  private static final int RESPONSE_TIMEOUT_MS = 10000;
+
+  static {
+
+    // rmi calls on an open connector have no timeout of their own, only this jvm wide one. don't
+    // override a value set on the command line
+
+    if (System.getProperty("sun.rmi.transport.tcp.responseTimeout") == null) {
+      System.setProperty(
+          "sun.rmi.transport.tcp.responseTimeout", String.valueOf(RESPONSE_TIMEOUT_MS));
+    }
+  }
+
+  // sockets for the registry lookup done when connecting
+
+  private static class TimeoutSocketFactory implements RMIClientSocketFactory {
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+
+      Socket socket = new Socket();
+
+      try {
+        socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+        socket.setSoTimeout(RESPONSE_TIMEOUT_MS);
+      } catch (IOException ex) {
+        socket.close();
+        throw ex;
+      }
+
+      return socket;
+    }
+  }
+
+  public static String getUrl(String host, long port) {
+    return "service:jmx:rmi:///jndi/rmi://" + host + ":" + port + "/jmxrmi";
+  }
+
+  /**
+   * Get a connection to a remote mbean server, connecting on first use
+   *
+   * @param host
+   * @param port
+   * @return connection
+   * @throws IOException
+   */
+  public static MBeanServerConnection getConnection(String host, long port) throws IOException {
+
+    String url = getUrl(host, port);
+    JMXConnector connector = connectors.get(url);
+
+    if (connector == null) {
+
+      Map<String, Object> env = new HashMap<String, Object>();
+      env.put("com.sun.jndi.rmi.factory.socket", new TimeoutSocketFactory());
+
+      JMXConnector fresh = JMXConnectorFactory.connect(new JMXServiceURL(url), env);
+      connector = connectors.putIfAbsent(url, fresh);
+
+      if (connector == null) {
+        connector = fresh;
+        logger.info("event=jmx_connection_opened url=" + url);
+      } else {
+        close(fresh);
+      }
+    }
+
+    try {
+      return connector.getMBeanServerConnection();
+    } catch (IOException ex) {
+      invalidate(host, port);
+      throw ex;
+    }
+  }
+
+  /**
+   * Close and forget the connection to a remote mbean server
+   *
+   * @param host
+   * @param port
+   */
+  public static void invalidate(String host, long port) {
+
+    JMXConnector connector = connectors.remove(getUrl(host, port));
+
+    if (connector != null) {
+      close(connector);
+      logger.info("event=jmx_connection_closed url=" + getUrl(host, port));
+    }
+  }
+
+  private static void close(JMXConnector connector) {
+    try {
+      connector.close();
+    } catch (IOException ex) {
+      logger.debug("event=failed_to_close_jmx_connection", ex);
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cmb.common.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear latency histogram in the spirit of HdrHistogram. Values below 16 are counted exactly,
+ * above that every power of two is split into 16 linear sub-buckets, so any reported percentile is
+ * within 1/16 of the recorded value. Recording is a single atomic increment and never blocks.
+ * Values above MAX_TRACKABLE_VALUE are counted in the top bucket, the exact maximum is kept
+ * separately.
+ *
+ * <p>Class is thread-safe
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  /** Largest value with its own bucket, about 4.6 hours when recording milliseconds */
+  public static final long MAX_TRACKABLE_VALUE = (1L << 24) - 1;
+
+  private static final int BUCKET_COUNT = getIndex(MAX_TRACKABLE_VALUE) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong totalCount = new AtomicLong();
+  private final AtomicLong totalSum = new AtomicLong();
+  private final AtomicLong maxValue = new AtomicLong();
+
+  /**
+   * Record a single value, negative values are recorded as 0
+   *
+   * @param value
+   */
+  public void record(long value) {
+
+    if (value < 0) {
+      value = 0;
+    }
+
+    counts.incrementAndGet(getIndex(Math.min(value, MAX_TRACKABLE_VALUE)));
+    totalCount.incrementAndGet();
+    totalSum.addAndGet(value);
+
+    long max = maxValue.get();
+
+    while (value > max && !maxValue.compareAndSet(max, value)) {
+      max = maxValue.get();
+    }
+  }
+
+  /**
+   * Add all values recorded in another histogram to this one
+   *
+   * @param other
+   */
+  public void add(LatencyHistogram other) {
+
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      long count = other.counts.get(i);
+      if (count > 0) {
+        counts.addAndGet(i, count);
+      }
+    }
+
+    totalCount.addAndGet(other.totalCount.get());
+    totalSum.addAndGet(other.totalSum.get());
+
+    long otherMax = other.maxValue.get();
+    long max = maxValue.get();
+
+    while (otherMax > max && !maxValue.compareAndSet(max, otherMax)) {
+      max = maxValue.get();
+    }
+  }
+
+  public long getCount() {
+    return totalCount.get();
+  }
+
+  public long getMax() {
+    return maxValue.get();
+  }
+
+  public double getMean() {
+    long count = totalCount.get();
+    return count == 0 ? 0 : (double) totalSum.get() / count;
+  }
+
+  /**
+   * Get the value at a given percentile. The result is the highest value that falls into the same
+   * bucket as the value at the requested rank, capped by the largest value recorded.
+   *
+   * @param percentile between 0 and 100, e.g. 99.9
+   * @return value at percentile or 0 if nothing has been recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+
+    long count = totalCount.get();
+
+    if (count == 0) {
+      return 0;
+    }
+
+    double p = Math.min(Math.max(percentile, 0), 100);
+
+    // small epsilon so that e.g. 99.9 of 1000 is rank 999 and not 1000 due to rounding
+
+    long rank = Math.max(1, (long) Math.ceil(p / 100 * count - 1e-9));
+    long seen = 0;
+
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts.get(i);
+      if (seen >= rank && i < BUCKET_COUNT - 1) {
+        return Math.min(getHighestValue(i), maxValue.get());
+      }
+    }
+
+    // rank falls into the overflow bucket, the best answer available is the max
+
+    return maxValue.get();
+  }
+
+  private static int getIndex(long value) {
+
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+
+    return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+  }
+
+  private static long getHighestValue(int index) {
+
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+
+    int shift = index / SUB_BUCKET_COUNT - 1;
+    long mantissa = SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT;
+
+    return ((mantissa + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cmb.common.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * One LatencyHistogram per minute for the last hour. Minutes roll over lazily: the first value
+ * recorded in a new minute swaps a fresh histogram into that minute's slot, nothing is ever cleared
+ * in place and there is no background thread. Slots that are not touched in a minute stay empty
+ * so memory is only used for minutes that actually saw traffic.
+ *
+ * <p>Class is thread-safe
+ */
+public final class RollingLatencyHistogram {
+
+  public static final int NUM_MINUTES = 60;
+
+  private static final class Slot {
+    private final long minute;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    private Slot(long minute) {
+      this.minute = minute;
+    }
+  }
+
+  private final AtomicReferenceArray<Slot> slots = new AtomicReferenceArray<Slot>(NUM_MINUTES);
+
+  public void record(long value) {
+    record(value, System.currentTimeMillis());
+  }
+
+  public void record(long value, long timestampMS) {
+
+    long minute = timestampMS / (60 * 1000);
+    int idx = (int) (minute % NUM_MINUTES);
+    Slot slot = slots.get(idx);
+
+    while (slot == null || slot.minute < minute) {
+      Slot fresh = new Slot(minute);
+      if (slots.compareAndSet(idx, slot, fresh)) {
+        slot = fresh;
+      } else {
+        slot = slots.get(idx);
+      }
+    }
+
+    // a value arriving late for a minute that has already been recycled is dropped
+
+    if (slot.minute == minute) {
+      slot.histogram.record(value);
+    }
+  }
+
+  /**
+   * @param minute minutes since epoch
+   * @return histogram for that minute or null if nothing was recorded in it during the last hour
+   */
+  public LatencyHistogram getMinute(long minute) {
+
+    Slot slot = slots.get((int) (minute % NUM_MINUTES));
+
+    if (slot == null
+        || slot.minute != minute
+        || minute <= System.currentTimeMillis() / (60 * 1000) - NUM_MINUTES) {
+      return null;
+    }
+
+    return slot.histogram;
+  }
+
+  /**
+   * Merge the most recent minutes into a new histogram
+   *
+   * @param minutes number of minutes including the current one, at most NUM_MINUTES
+   * @return merged histogram, never null
+   */
+  public LatencyHistogram getWindow(int minutes) {
+
+    LatencyHistogram merged = new LatencyHistogram();
+    long now = System.currentTimeMillis() / (60 * 1000);
+
+    for (long minute = now - Math.min(minutes, NUM_MINUTES) + 1; minute <= now; minute++) {
+      LatencyHistogram histogram = getMinute(minute);
+      if (histogram != null) {
+        merged.add(histogram);
+      }
+    }
+
+    return merged;
+  }
+}
@@ -14,45 +14,35 @@
 package com.comcast.cmb.common.util;
 
 import java.util.Iterator;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicInteger;
-import org.apache.log4j.Logger;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- * A utility class used to capture objects in a rolling window fashion Note: This class should not
- * be used if there are a lot of adding of events instead callers should get the latest node and
- * modify that in most cases
+ * A utility class used to capture objects in a rolling window fashion. Payloads are kept in a
+ * fixed ring of per-second buckets so adding is a lock-free O(1) append and expired seconds are
+ * dropped by simply overwriting their slot, no copying or removal of individual nodes.
  *
  * @author aseem Class is thread-safe
  */
 public final class RollingWindowCapture<T extends RollingWindowCapture.PayLoad> {
 
-  private static Logger logger = Logger.getLogger(RollingWindowCapture.class);
+  private final int _windowSizeSec;
 
-  private final long _windowSizeSec;
-  private final int _tolerance;
-  private final AtomicInteger _toleranceCount;
+  private class Bucket {
+    private final long _second;
+    private final ConcurrentLinkedQueue<T> _payLoads = new ConcurrentLinkedQueue<T>();
 
-  private class PayLoadNode {
-    public final T _payLoad;
-    private final long _captureTime;
-
-    public PayLoadNode(T payload, long captureTime) {
-      _payLoad = payload;
-      _captureTime = captureTime;
+    public Bucket(long second) {
+      _second = second;
     }
   }
 
-  // internally we used a CopyOnWriteArrayList to implement the rolling window in chronological
-  // order.
-  // First node is the oldest node
-  // We use CopyOnWriteArrayList since its the only standard data-structure provided that offers
-  // concurrent
-  // access to its elements and provides the List interface, specifically get(index) method. We need
-  // this
-  // method to return the tail of the rollingwindow.
+  // one slot per second of the window, slot for a given second is (second % window size). a slot
+  // holding a bucket for an older second is stale and gets replaced on the next add
+
+  private final AtomicReferenceArray<Bucket> _buckets;
 
-  private CopyOnWriteArrayList<PayLoadNode> _queue = new CopyOnWriteArrayList<PayLoadNode>();
+  private volatile T _latestPayLoad;
 
   public static interface Visitor<T> {
     public void processNode(T n);
@@ -63,73 +53,60 @@ public final class RollingWindowCapture<T extends RollingWindowCapture.PayLoad>
 
   /**
    * @param windowSizeSec the size of rolling window in seconds
-   * @param tolerance the number of adds you can go over before must reduce the window
+   * @param tolerance no longer used, expired buckets are recycled on add
    */
   public RollingWindowCapture(int windowSizeSec, int tolerance) {
-    _windowSizeSec = windowSizeSec;
-    _tolerance = tolerance;
-    _toleranceCount = new AtomicInteger();
+    _windowSizeSec = Math.max(1, windowSizeSec);
+    _buckets = new AtomicReferenceArray<Bucket>(_windowSizeSec);
   }
 
   /**
-   * Method would traverse the entire list of elements in the window and call the visitor on each
-   * node
+   * Method would traverse the entire list of elements in the window in chronological order and
+   * call the visitor on each node
    *
    * @param v the Visitor impl
    */
   public void visitAllNodes(Visitor<T> v) {
-    cleanupWindow();
-    Iterator<PayLoadNode> it = _queue.iterator();
-    while (it.hasNext()) {
-      PayLoadNode node = it.next();
-      v.processNode(node._payLoad);
+    long now = System.currentTimeMillis() / 1000;
+    for (long second = now - _windowSizeSec + 1; second <= now; second++) {
+      Bucket bucket = _buckets.get(getIndex(second));
+      if (bucket == null || bucket._second != second) {
+        continue;
+      }
+      Iterator<T> it = bucket._payLoads.iterator();
+      while (it.hasNext()) {
+        v.processNode(it.next());
+      }
     }
   }
 
-  /**
-   * Add current time to the header of list Note: This is an expensive operation O(n) complexity
-   * where n is the number of elements in the list
-   */
+  /** Add payload to the bucket of the current second */
   public void addNow(T payLoad) {
-    PayLoadNode node = new PayLoadNode(payLoad, System.currentTimeMillis());
-    _queue.add(node);
-    if (_toleranceCount.incrementAndGet() >= _tolerance) {
-      cleanupWindow();
-    }
+    getBucket(System.currentTimeMillis() / 1000)._payLoads.add(payLoad);
+    _latestPayLoad = payLoad;
   }
 
   /** @return The last added payload or null if no element */
   public T getLatestPayload() {
-    boolean success = false;
-    while (!success) {
-      if (_queue.size() == 0) return null;
-      try {
-        PayLoadNode head = _queue.get(_queue.size() - 1);
-        success = true;
-        return head._payLoad;
-      } catch (IndexOutOfBoundsException e) {
-      }
-    }
-    return null;
+    return _latestPayLoad;
   }
 
-  /** Go through the beginning of the queue and remove all expired nodes */
-  private void cleanupWindow() {
-    long now = System.currentTimeMillis();
-    Iterator<PayLoadNode> it = _queue.iterator();
-    while (it.hasNext()) {
-      PayLoadNode node = it.next();
-      if (node._captureTime + (_windowSizeSec * 1000) < now) {
-        if (!_queue.remove(node)) {
-          logger.debug(
-              "event=cleanup_window status=queue_did_not_change info=node_may_have_been_deleted");
-        }
-      } else {
-        // found the first node in the capture window. we are done
-        _toleranceCount.set(0);
-        return;
+  private int getIndex(long second) {
+    return (int) (second % _windowSizeSec);
+  }
+
+  private Bucket getBucket(long second) {
+    int index = getIndex(second);
+    while (true) {
+      Bucket bucket = _buckets.get(index);
+      // a newer bucket means another thread already moved on, fold into it rather than rewind
+      if (bucket != null && bucket._second >= second) {
+        return bucket;
+      }
+      Bucket fresh = new Bucket(second);
+      if (_buckets.compareAndSet(index, bucket, fresh)) {
+        return fresh;
       }
     }
-    _toleranceCount.set(0);
   }
 }
@@ -19,6 +19,7 @@ import com.comcast.cmb.common.persistence.IUserPersistence;
 import com.comcast.cmb.common.persistence.PersistenceFactory;
 import com.comcast.cmb.common.util.CMBErrorCodes;
 import com.comcast.cmb.common.util.CMBException;
+import com.comcast.cmb.common.util.CMBPolicyCache;
 import com.comcast.cmb.common.util.CMBProperties;
 import com.comcast.cns.io.CNSAttributePopulator;
 import com.comcast.cns.model.CNSTopic;
@@ -146,6 +147,7 @@ public class CNSAddPermissionAction extends CNSAction {
         CMBPolicy.SERVICE.CNS, label, "Allow", userList, actionList, topicArn, null)) {
       attributes.setPolicy(policy.toString());
       PersistenceFactory.getCNSAttributePersistence().setTopicAttributes(attributes, topicArn);
+      CMBPolicyCache.invalidate(topicArn);
     } else {
       throw new CMBException(
           CMBErrorCodes.InvalidParameterValue,
@@ -14,18 +14,23 @@
 package com.comcast.cns.controller;
 
 import com.comcast.cmb.common.persistence.PersistenceFactory;
+import com.comcast.cmb.common.util.CMBErrorCodes;
+import com.comcast.cmb.common.util.CMBException;
 import com.comcast.cmb.common.util.CMBProperties;
-import com.comcast.cmb.common.util.ExpiringCache;
-import com.comcast.cmb.common.util.ExpiringCache.CacheFullException;
+import com.comcast.cmb.common.util.BoundedCache;
 import com.comcast.cns.model.CNSSubscription;
+import com.comcast.cns.model.CNSSubscriptionAttributes;
+import com.comcast.cns.model.CNSSubscriptionDeliveryPolicy;
 import com.comcast.cns.model.CNSTopic;
 import com.comcast.cns.model.CNSTopicAttributes;
 import com.comcast.cns.persistence.ICNSAttributesPersistence;
 import com.comcast.cns.persistence.ICNSSubscriptionPersistence;
 import com.comcast.cns.persistence.ICNSTopicPersistence;
+import com.comcast.cns.util.Util;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Utility class that contains most of the caches the rest of the code uses
@@ -34,20 +39,24 @@ import java.util.concurrent.Callable;
  */
 public class CNSCache {
 
-  private static volatile ExpiringCache<String, CNSTopicAttributes> attributeCache =
-      new ExpiringCache<String, CNSTopicAttributes>(
+  private static volatile BoundedCache<String, CNSTopicAttributes> attributeCache =
+      new BoundedCache<String, CNSTopicAttributes>(
           CMBProperties.getInstance().getCNSCacheSizeLimit());
   private static volatile ICNSAttributesPersistence attributeHandler =
       PersistenceFactory.getCNSAttributePersistence();
 
-  private static volatile ExpiringCache<String, List<CNSSubscription>> confirmedSubscriptionsCache =
-      new ExpiringCache<String, List<CNSSubscription>>(
+  private static volatile BoundedCache<String, List<CNSSubscription>> confirmedSubscriptionsCache =
+      new BoundedCache<String, List<CNSSubscription>>(
           CMBProperties.getInstance().getCNSCacheSizeLimit());
   private static volatile ICNSSubscriptionPersistence subscriptionHandler =
       PersistenceFactory.getSubscriptionPersistence();
 
-  private static ExpiringCache<String, CNSTopic> topicCache =
-      new ExpiringCache<String, CNSTopic>(CMBProperties.getInstance().getCNSCacheSizeLimit());
+  private static volatile BoundedCache<String, CNSSubscriptionDeliveryPolicy> deliveryPolicyCache =
+      new BoundedCache<String, CNSSubscriptionDeliveryPolicy>(
+          CMBProperties.getInstance().getCNSCacheSizeLimit());
+
+  private static BoundedCache<String, CNSTopic> topicCache =
+      new BoundedCache<String, CNSTopic>(CMBProperties.getInstance().getCNSCacheSizeLimit());
   private static ICNSTopicPersistence topicHandler = PersistenceFactory.getTopicPersistence();
 
   private static class CNSTopicCallable implements Callable<CNSTopic> {
@@ -105,6 +114,7 @@ public class CNSCache {
     confirmedSubscriptionsCache.remove(topicArn);
     attributeCache.remove(topicArn);
     topicCache.remove(topicArn);
+    removeEffectiveDeliveryPolicies(topicArn);
   }
 
   /**
@@ -130,6 +140,82 @@ public class CNSCache {
     attributeCache.remove(topicArn);
   }
 
+  private static class DeliveryPolicyCallable implements Callable<CNSSubscriptionDeliveryPolicy> {
+
+    String subscriptionArn = null;
+
+    public DeliveryPolicyCallable(String key) {
+      this.subscriptionArn = key;
+    }
+
+    @Override
+    public CNSSubscriptionDeliveryPolicy call() throws Exception {
+
+      CNSSubscriptionAttributes attributes =
+          attributeHandler.getSubscriptionAttributes(this.subscriptionArn);
+
+      if (attributes == null) {
+        throw new CMBException(
+            CMBErrorCodes.InternalError,
+            "Could not get subscription delivery policy for subscripiton " + subscriptionArn);
+      }
+
+      return attributes.getEffectiveDeliveryPolicy();
+    }
+  }
+
+  /**
+   * Get the effective delivery policy of a subscription, which is the topic's default policy if
+   * the subscription has none or overrides are disabled. Retries of failed deliveries look this up
+   * every time, so the parsed policy is cached.
+   *
+   * @param subscriptionArn
+   * @return effective delivery policy
+   * @throws Exception SubscriberNotFoundException if the subscription does not exist
+   */
+  public static CNSSubscriptionDeliveryPolicy getEffectiveDeliveryPolicy(String subscriptionArn)
+      throws Exception {
+
+    try {
+      return deliveryPolicyCache.getAndSetIfNotPresent(
+          subscriptionArn,
+          new DeliveryPolicyCallable(subscriptionArn),
+          CMBProperties.getInstance().getCNSCacheExpiring() * 1000);
+    } catch (IllegalStateException ex) {
+      // hand the original error to the caller
+      if (ex.getCause() instanceof ExecutionException
+          && ex.getCause().getCause() instanceof Exception) {
+        throw (Exception) ex.getCause().getCause();
+      }
+      throw ex;
+    }
+  }
+
+  /** @param subscriptionArn */
+  public static void removeEffectiveDeliveryPolicy(String subscriptionArn) {
+    if (subscriptionArn == null) {
+      return;
+    }
+    deliveryPolicyCache.remove(subscriptionArn);
+  }
+
+  /**
+   * Forget the effective delivery policies of all subscriptions of a topic, e.g. after the topic's
+   * delivery policy changed
+   *
+   * @param topicArn
+   */
+  public static void removeEffectiveDeliveryPolicies(String topicArn) {
+    if (topicArn == null) {
+      return;
+    }
+    for (String subscriptionArn : deliveryPolicyCache.getKeys()) {
+      if (topicArn.equals(Util.getCnsTopicArn(subscriptionArn))) {
+        deliveryPolicyCache.remove(subscriptionArn);
+      }
+    }
+  }
+
   private static class SubscriptionCallable implements Callable<List<CNSSubscription>> {
 
     String topicArn = null;
@@ -180,9 +266,7 @@ public class CNSCache {
               topicArn,
               new SubscriptionCallable(topicArn),
               CMBProperties.getInstance().getCNSCacheExpiring() * 1000);
-    } catch (CacheFullException ex1) {
-      subscriptions = new SubscriptionCallable(topicArn).call();
-    } catch (Exception ex2) {
+    } catch (Exception ex) {
       subscriptions = null;
     }
 
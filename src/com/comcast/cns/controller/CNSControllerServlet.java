@@ -15,25 +15,23 @@ package com.comcast.cns.controller;
 
 import com.comcast.cmb.common.controller.Action;
 import com.comcast.cmb.common.controller.CMBControllerServlet;
+import com.comcast.cmb.common.controller.CMBHeartbeatService;
+import com.comcast.cmb.common.controller.CMBHeartbeatService.Role;
 import com.comcast.cmb.common.controller.HealthCheckShallow;
 import com.comcast.cmb.common.model.CMBPolicy;
 import com.comcast.cmb.common.model.User;
-import com.comcast.cmb.common.persistence.AbstractDurablePersistence;
-import com.comcast.cmb.common.persistence.AbstractDurablePersistence.CMB_SERIALIZER;
-import com.comcast.cmb.common.persistence.DurablePersistenceFactory;
 import com.comcast.cmb.common.persistence.PersistenceFactory;
+import com.comcast.cmb.common.util.ApiLatencyStats;
 import com.comcast.cmb.common.util.CMBErrorCodes;
 import com.comcast.cmb.common.util.CMBException;
+import com.comcast.cmb.common.util.CMBPolicyCache;
 import com.comcast.cmb.common.util.CMBProperties;
 import com.comcast.cns.model.CNSTopicAttributes;
 import com.comcast.cns.persistence.ICNSSubscriptionPersistence;
 import com.comcast.cns.persistence.ICNSTopicPersistence;
 import java.lang.management.ManagementFactory;
-import java.net.InetAddress;
 import java.util.HashMap;
-import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicLong;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 import javax.servlet.AsyncContext;
@@ -53,11 +51,8 @@ public class CNSControllerServlet extends CMBControllerServlet {
   private static volatile ICNSSubscriptionPersistence subscriptionHandler;
   private static volatile HashMap<String, Action> actionMap;
 
-  public static volatile AtomicLong lastCNSPingMinute = new AtomicLong(0);
-
   private static Logger logger = Logger.getLogger(CNSControllerServlet.class);
 
-  private static final String CNS_API_SERVERS = "CNSAPIServers";
   /**
    * NodeName global constant is used to identify this process uniquely across all API servers and
    * is used to identify creators of recovery logs
@@ -113,6 +108,8 @@ public class CNSControllerServlet extends CMBControllerServlet {
     topicHandler = PersistenceFactory.getTopicPersistence();
     subscriptionHandler = PersistenceFactory.getSubscriptionPersistence();
 
+    CMBHeartbeatService.register(Role.CNSAPIServer);
+
     final CNSConfirmSubscriptionAction confirmSubscription = new CNSConfirmSubscriptionAction();
     final CNSPublishAction publish = new CNSPublishAction();
     final CNSCreateTopicAction createTopic = new CNSCreateTopicAction();
@@ -163,13 +160,7 @@ public class CNSControllerServlet extends CMBControllerServlet {
         };
 
     for (String action : actionMap.keySet()) {
-      callResponseTimesByApi.putIfAbsent(action, new AtomicLong[NUM_MINUTES][NUM_BUCKETS]);
-      AtomicLong[][] callResponseTimes = callResponseTimesByApi.get(action);
-      for (int i = 0; i < NUM_MINUTES; i++) {
-        for (int k = 0; k < NUM_BUCKETS; k++) {
-          callResponseTimes[i][k] = new AtomicLong();
-        }
-      }
+      callLatencyByApi.putIfAbsent(action, new ApiLatencyStats());
     }
   }
 
@@ -188,49 +179,6 @@ public class CNSControllerServlet extends CMBControllerServlet {
 
     HttpServletRequest request = (HttpServletRequest) asyncContext.getRequest();
 
-    long now = System.currentTimeMillis();
-
-    if (lastCNSPingMinute.getAndSet(now / (1000 * 60)) != now / (1000 * 60)) {
-
-      try {
-
-        AbstractDurablePersistence cassandraHandler = DurablePersistenceFactory.getInstance();
-
-        // write ping
-
-        String serverIp = InetAddress.getLocalHost().getHostAddress();
-        String serverPort = CMBProperties.getInstance().getCNSServerPort() + "";
-
-        logger.info(
-            "event=ping version="
-                + CMBControllerServlet.VERSION
-                + " ip="
-                + serverIp
-                + " port="
-                + serverPort);
-
-        Map<String, String> values = new HashMap<String, String>();
-
-        values.put("timestamp", now + "");
-        values.put("jmxport", System.getProperty("com.sun.management.jmxremote.port", "0"));
-        values.put("dataCenter", CMBProperties.getInstance().getCMBDataCenter());
-        values.put("serviceUrl", CMBProperties.getInstance().getCNSServiceUrl());
-
-        cassandraHandler.insertRow(
-            AbstractDurablePersistence.CNS_KEYSPACE,
-            serverIp + ":" + serverPort,
-            CNS_API_SERVERS,
-            values,
-            CMB_SERIALIZER.STRING_SERIALIZER,
-            CMB_SERIALIZER.STRING_SERIALIZER,
-            CMB_SERIALIZER.STRING_SERIALIZER,
-            null);
-
-      } catch (Exception ex) {
-        logger.warn("event=ping_failed", ex);
-      }
-    }
-
     if (!CMBProperties.getInstance().getCNSServiceEnabled()) {
       throw new CMBException(CMBErrorCodes.InternalError, "CNS service is disabled");
     }
@@ -247,7 +195,8 @@ public class CNSControllerServlet extends CMBControllerServlet {
       if (attributes != null) {
         if (!actionMap
             .get(action)
-            .isActionAllowed(user, request, "CNS", new CMBPolicy(attributes.getPolicy()))) {
+            .isActionAllowed(
+                user, request, "CNS", CMBPolicyCache.getPolicy(topicArn, attributes.getPolicy()))) {
           throw new CMBException(
               CMBErrorCodes.AccessDenied,
               "You don't have permission for " + actionMap.get(action).getName());
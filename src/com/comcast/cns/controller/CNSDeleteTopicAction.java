@@ -16,6 +16,7 @@ package com.comcast.cns.controller;
 import com.comcast.cmb.common.model.User;
 import com.comcast.cmb.common.persistence.PersistenceFactory;
 import com.comcast.cmb.common.util.CMBException;
+import com.comcast.cmb.common.util.CMBPolicyCache;
 import com.comcast.cns.io.CNSTopicPopulator;
 import com.comcast.cns.util.CNSErrorCodes;
 import javax.servlet.AsyncContext;
@@ -65,6 +66,7 @@ public class CNSDeleteTopicAction extends CNSAction {
     }
 
     PersistenceFactory.getTopicPersistence().deleteTopic(arn);
+    CMBPolicyCache.invalidate(arn);
     String out = CNSTopicPopulator.getDeleteTopicResponse();
     writeResponse(out, response);
     return true;
@@ -19,17 +19,12 @@ import com.comcast.cmb.common.util.PersistenceException;
 import com.comcast.cns.io.CNSWorkerStatsPopulator;
 import com.comcast.cns.model.CNSWorkerStats;
 import com.comcast.cns.tools.CNSWorkerMonitor;
-import com.comcast.cns.util.CNSWorkerStatWrapper;
-import java.io.IOException;
+import com.comcast.cns.util.CNSWorkerStatsCollector;
+import com.comcast.cns.util.CNSWorkerStatsCollector.Snapshot;
 import java.lang.management.ManagementFactory;
 import java.util.List;
-import java.util.Map;
 import javax.management.MBeanServer;
-import javax.management.MBeanServerConnection;
 import javax.management.ObjectName;
-import javax.management.remote.JMXConnector;
-import javax.management.remote.JMXConnectorFactory;
-import javax.management.remote.JMXServiceURL;
 import javax.servlet.AsyncContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -68,87 +63,17 @@ public class CNSGetWorkerStatsAction extends CNSAction {
     return true;
   }
 
+  /**
+   * Get the stats of active cns workers from the snapshot kept up to date by the background
+   * collector, never waits for jmx calls to the workers except on first use
+   *
+   * @param dataCenter data center or null for all
+   * @return stats
+   * @throws PersistenceException
+   */
   public static List<CNSWorkerStats> getWorkerStats(String dataCenter)
-      throws IOException, PersistenceException {
-
-    List<CNSWorkerStats> statsList = null;
-
-    if (dataCenter == null || dataCenter.length() == 0) {
-      statsList = CNSWorkerStatWrapper.getCassandraWorkerStats();
-    } else {
-      statsList = CNSWorkerStatWrapper.getCassandraWorkerStatsByDataCenter(dataCenter);
-    }
-    for (CNSWorkerStats stats : statsList) {
-
-      long now = System.currentTimeMillis();
-
-      if (stats.getJmxPort() > 0
-          && (now - stats.getConsumerTimestamp() < 5 * 60 * 1000
-              || now - stats.getProducerTimestamp() < 5 * 60 * 1000)) {
-
-        JMXConnector jmxConnector = null;
-        String url = null;
-
-        try {
-
-          String host = stats.getIpAddress();
-          long port = stats.getJmxPort();
-          url = "service:jmx:rmi:///jndi/rmi://" + host + ":" + port + "/jmxrmi";
-
-          JMXServiceURL serviceUrl = new JMXServiceURL(url);
-          jmxConnector = JMXConnectorFactory.connect(serviceUrl);
-
-          MBeanServerConnection mbeanConn = jmxConnector.getMBeanServerConnection();
-
-          // Set<ObjectName> beanSet = mbeanConn.queryNames(null, null);
-
-          ObjectName cnsWorkerMonitor =
-              new ObjectName("com.comcast.cns.tools:type=CNSWorkerMonitorMBean");
-
-          Integer deliveryQueueSize =
-              (Integer) mbeanConn.getAttribute(cnsWorkerMonitor, "DeliveryQueueSize");
-          stats.setDeliveryQueueSize(deliveryQueueSize);
-
-          Integer redeliveryQueueSize =
-              (Integer) mbeanConn.getAttribute(cnsWorkerMonitor, "RedeliveryQueueSize");
-          stats.setRedeliveryQueueSize(redeliveryQueueSize);
-
-          Boolean consumerOverloaded =
-              (Boolean) mbeanConn.getAttribute(cnsWorkerMonitor, "ConsumerOverloaded");
-          stats.setConsumerOverloaded(consumerOverloaded);
-
-          Integer numPublishedMessages =
-              (Integer) mbeanConn.getAttribute(cnsWorkerMonitor, "RecentNumberOfPublishedMessages");
-          stats.setNumPublishedMessages(numPublishedMessages);
-
-          @SuppressWarnings("unchecked")
-          Map<String, Integer> errorCountForEndpoints =
-              (Map<String, Integer>)
-                  mbeanConn.getAttribute(cnsWorkerMonitor, "RecentErrorCountForEndpoints");
-          stats.setErrorCountForEndpoints(errorCountForEndpoints);
-
-          Boolean cqsServiceAvailable =
-              (Boolean) mbeanConn.getAttribute(cnsWorkerMonitor, "CQSServiceAvailable");
-          stats.setCqsServiceAvailable(cqsServiceAvailable);
-
-          Integer numPooledHttpConnections =
-              (Integer) mbeanConn.getAttribute(cnsWorkerMonitor, "PublishHttpPoolSize");
-          stats.setNumPooledHttpConnections(numPooledHttpConnections);
-
-        } catch (Exception ex) {
-
-          logger.warn("event=failed_to_connect_to_jmx_server url=" + url, ex);
-
-        } finally {
-
-          if (jmxConnector != null) {
-            jmxConnector.close();
-          }
-        }
-      }
-    }
-
-    return statsList;
+      throws PersistenceException {
+    return CNSWorkerStatsCollector.getSnapshot().getStats(dataCenter);
   }
 
   /**
@@ -163,8 +88,10 @@ public class CNSGetWorkerStatsAction extends CNSAction {
     HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
     HttpServletRequest request = (HttpServletRequest) asyncContext.getRequest();
     String dataCenter = request.getParameter("DataCenter");
-    List<CNSWorkerStats> statsList = getWorkerStats(dataCenter);
-    String out = CNSWorkerStatsPopulator.getGetWorkerStatsResponse(statsList);
+    Snapshot snapshot = CNSWorkerStatsCollector.getSnapshot();
+    String out =
+        CNSWorkerStatsPopulator.getGetWorkerStatsResponse(
+            snapshot.getStats(dataCenter), snapshot.getTimestamp());
     writeResponse(out, response);
 
     return true;
@@ -42,6 +42,12 @@ public class CNSMonitor implements CNSMonitorMBean {
     return CMBControllerServlet.callFailureStats;
   }
 
+  @Override
+  public Map<String, Map<String, Long>> getCallLatencyPercentiles() {
+    return CMBControllerServlet.getCallLatencyPercentiles(
+        CMBControllerServlet.LATENCY_SUMMARY_MINUTES);
+  }
+
   @Override
   public void resetCallStats() {
     CMBControllerServlet.initStats();
@@ -29,6 +29,9 @@ public interface CNSMonitorMBean {
   /** @return */
   public Map<String, AtomicLong> getCallFailureStats();
 
+  /** @return latency percentiles by api action over the last few minutes */
+  public Map<String, Map<String, Long>> getCallLatencyPercentiles();
+
   /** */
   public void resetCallStats();
 }
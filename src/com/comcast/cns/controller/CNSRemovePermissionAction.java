@@ -17,6 +17,7 @@ import com.comcast.cmb.common.model.CMBPolicy;
 import com.comcast.cmb.common.model.User;
 import com.comcast.cmb.common.persistence.PersistenceFactory;
 import com.comcast.cmb.common.util.CMBException;
+import com.comcast.cmb.common.util.CMBPolicyCache;
 import com.comcast.cmb.common.util.CMBProperties;
 import com.comcast.cns.io.CNSAttributePopulator;
 import com.comcast.cns.model.CNSTopic;
@@ -89,6 +90,7 @@ public class CNSRemovePermissionAction extends CNSAction {
       if (policy.removeStatement(label)) {
         attributes.setPolicy(policy.toString());
         PersistenceFactory.getCNSAttributePersistence().setTopicAttributes(attributes, topicArn);
+        CMBPolicyCache.invalidate(topicArn);
       }
     }
 
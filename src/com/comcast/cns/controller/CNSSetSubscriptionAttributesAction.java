@@ -111,6 +111,7 @@ public class CNSSetSubscriptionAttributesAction extends CNSAction {
 
     PersistenceFactory.getCNSAttributePersistence()
         .setSubscriptionAttributes(subscriptionAttributes, subscriptionArn);
+    CNSCache.removeEffectiveDeliveryPolicy(subscriptionArn);
 
     String out = CNSAttributePopulator.getSetSubscriptionAttributesResponse();
     logger.debug(
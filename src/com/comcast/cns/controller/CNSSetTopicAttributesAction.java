@@ -17,6 +17,7 @@ import com.comcast.cmb.common.model.CMBPolicy;
 import com.comcast.cmb.common.model.User;
 import com.comcast.cmb.common.persistence.PersistenceFactory;
 import com.comcast.cmb.common.util.CMBException;
+import com.comcast.cmb.common.util.CMBPolicyCache;
 import com.comcast.cns.io.CNSAttributePopulator;
 import com.comcast.cns.model.CNSTopicAttributes;
 import com.comcast.cns.model.CNSTopicDeliveryPolicy;
@@ -144,6 +145,10 @@ public class CNSSetTopicAttributesAction extends CNSAction {
     }
 
     PersistenceFactory.getCNSAttributePersistence().setTopicAttributes(topicAttributes, topicArn);
+
+    if (attributeName.equals("Policy")) {
+      CMBPolicyCache.invalidate(topicArn);
+    }
     String out = CNSAttributePopulator.getSetTopicAttributesResponse();
     logger.debug(
         "event=cns_set_topic_attributes attribute_name="
@@ -24,6 +24,7 @@ import com.comcast.cmb.common.util.XmlUtil;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -158,6 +159,28 @@ public class CNSWorkerStatePageServlet extends AdminServletBase {
       currentDataCenter = CMBProperties.getInstance().getCMBDataCenter();
     }
 
+    // fetch everything the page shows at once instead of one request after the other
+
+    String dataCenterUrl =
+        cnsServiceBaseUrl
+            + "?Action=GetAPIStats&SubTask=GetDataCenter&AWSAccessKeyId="
+            + cnsAdminUser.getAccessKey();
+    String workerStatsUrl =
+        cnsServiceBaseUrl
+            + "?Action=GetWorkerStats&DataCenter="
+            + currentDataCenter
+            + "&AWSAccessKeyId="
+            + cnsAdminUser.getAccessKey();
+    String apiStatsUrl =
+        cnsServiceBaseUrl
+            + "?Action=GetAPIStats&DataCenter="
+            + currentDataCenter
+            + "&AWSAccessKeyId="
+            + cnsAdminUser.getAccessKey();
+
+    List<String> docs =
+        httpGetAll(Arrays.asList(new String[] {dataCenterUrl, workerStatsUrl, apiStatsUrl}));
+
     out.println("<html>");
 
     this.header(request, out, "CNS Worker State");
@@ -167,11 +190,8 @@ public class CNSWorkerStatePageServlet extends AdminServletBase {
     // show drop down box for data center at the top
     String url = null;
     try {
-      url =
-          cnsServiceBaseUrl
-              + "?Action=GetAPIStats&SubTask=GetDataCenter&AWSAccessKeyId="
-              + cnsAdminUser.getAccessKey();
-      String workerStateXml = httpGet(url);
+      url = dataCenterUrl;
+      String workerStateXml = docs.get(0);
 
       Element root = XmlUtil.buildDoc(workerStateXml);
 
@@ -208,22 +228,27 @@ public class CNSWorkerStatePageServlet extends AdminServletBase {
 
     try {
 
-      url =
-          cnsServiceBaseUrl
-              + "?Action=GetWorkerStats&DataCenter="
-              + currentDataCenter
-              + "&AWSAccessKeyId="
-              + cnsAdminUser.getAccessKey();
-      String workerStateXml = httpGet(url);
+      url = workerStatsUrl;
+      String workerStateXml = docs.get(1);
 
       Element root = XmlUtil.buildDoc(workerStateXml);
 
-      List<Element> statsList =
-          XmlUtil.getCurrentLevelChildNodes(
-              XmlUtil.getCurrentLevelChildNodes(root, "GetWorkerStatsResult").get(0), "Stats");
+      Element workerStatsResult =
+          XmlUtil.getCurrentLevelChildNodes(root, "GetWorkerStatsResult").get(0);
+      List<Element> statsList = XmlUtil.getCurrentLevelChildNodes(workerStatsResult, "Stats");
 
       out.println("<h2 align='left'>CNS Worker Stats</h2>");
 
+      String snapshotTimestamp =
+          XmlUtil.getCurrentLevelTextValue(workerStatsResult, "SnapshotTimestamp");
+
+      if (snapshotTimestamp != null && snapshotTimestamp.length() > 0) {
+        out.println(
+            "<p>Collected "
+                + (System.currentTimeMillis() - Long.parseLong(snapshotTimestamp)) / 1000
+                + " seconds ago</p>");
+      }
+
       out.println("<span class='simple'><table border='1'>");
       out.println(
           "<tr><th>Host</th><th>Jmx Port</th><th>Mode</th><th>Data Center</th><th>Msg Published</th>");
@@ -389,13 +414,8 @@ public class CNSWorkerStatePageServlet extends AdminServletBase {
 
       // api call stats
 
-      url =
-          cnsServiceBaseUrl
-              + "?Action=GetAPIStats&DataCenter="
-              + currentDataCenter
-              + "&AWSAccessKeyId="
-              + cnsAdminUser.getAccessKey();
-      String apiStateXml = httpGet(url);
+      url = apiStatsUrl;
+      String apiStateXml = docs.get(2);
 
       root = XmlUtil.buildDoc(apiStateXml);
 
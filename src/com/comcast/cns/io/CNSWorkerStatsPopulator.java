@@ -18,11 +18,18 @@ import java.util.List;
 
 public class CNSWorkerStatsPopulator {
 
-  public static String getGetWorkerStatsResponse(List<CNSWorkerStats> statsList) {
+  /**
+   * @param statsList
+   * @param snapshotTimestamp time the stats were collected
+   * @return xml response
+   */
+  public static String getGetWorkerStatsResponse(
+      List<CNSWorkerStats> statsList, long snapshotTimestamp) {
 
     String out = "";
     out += "<GetWorkerStatsResponse>\n";
     out += "\t<GetWorkerStatsResult>\n";
+    out += "\t\t<SnapshotTimestamp>" + snapshotTimestamp + "</SnapshotTimestamp>\n";
 
     for (CNSWorkerStats stats : statsList) {
       out += "\t\t<Stats>\n";
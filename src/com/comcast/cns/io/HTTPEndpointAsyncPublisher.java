@@ -21,6 +21,12 @@ import com.comcast.cns.model.CNSSubscription.CnsSubscriptionProtocol;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
@@ -29,6 +35,7 @@ import org.apache.http.impl.DefaultConnectionReuseStrategy;
 import org.apache.http.impl.nio.DefaultHttpClientIODispatch;
 import org.apache.http.impl.nio.pool.BasicNIOConnPool;
 import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.apache.http.message.BasicHttpEntityEnclosingRequest;
 import org.apache.http.nio.entity.NStringEntity;
 import org.apache.http.nio.protocol.BasicAsyncRequestProducer;
@@ -42,6 +49,7 @@ import org.apache.http.params.CoreConnectionPNames;
 import org.apache.http.params.CoreProtocolPNames;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.SyncBasicHttpParams;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpProcessor;
 import org.apache.http.protocol.ImmutableHttpProcessor;
@@ -53,10 +61,10 @@ import org.apache.http.protocol.RequestUserAgent;
 import org.apache.log4j.Logger;
 
 /**
- * Asynchronous HTTP/1.1 client.
- *
- * <p>This example demonstrates how HttpCore NIO can be used to execute multiple HTTP requests
- * asynchronously using only one I/O thread.
+ * Asynchronous HTTP/1.1 publisher. All instances share one non-blocking connection pool driven by
+ * a configurable number of I/O dispatch threads. Connections are kept alive and reused per route
+ * and idle connections are closed after the configured keep-alive period. The number of requests
+ * in flight to a single endpoint host is capped so a slow subscriber cannot monopolize the pool.
  */
 public class HTTPEndpointAsyncPublisher extends AbstractEndpointPublisher {
 
@@ -65,20 +73,23 @@ public class HTTPEndpointAsyncPublisher extends AbstractEndpointPublisher {
   private static HttpProcessor httpProcessor;
   private static HttpParams httpParams;
   private static BasicNIOConnPool connectionPool;
+  private static HttpAsyncRequester requester;
+
+  private static final ConcurrentHashMap<HttpHost, AtomicInteger> inFlightRequests =
+      new ConcurrentHashMap<HttpHost, AtomicInteger>();
+  private static final AtomicLong rejectedRequests = new AtomicLong(0);
 
   private static Logger logger = Logger.getLogger(HTTPEndpointAsyncPublisher.class);
 
   static {
     try {
 
+      int timeoutMillis = CMBProperties.getInstance().getCNSPublisherHttpTimeoutSeconds() * 1000;
+
       httpParams = new SyncBasicHttpParams();
       httpParams
-          .setIntParameter(
-              CoreConnectionPNames.SO_TIMEOUT,
-              CMBProperties.getInstance().getCNSPublisherHttpTimeoutSeconds() * 1000)
-          .setIntParameter(
-              CoreConnectionPNames.CONNECTION_TIMEOUT,
-              CMBProperties.getInstance().getCNSPublisherHttpTimeoutSeconds() * 1000)
+          .setIntParameter(CoreConnectionPNames.SO_TIMEOUT, timeoutMillis)
+          .setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, timeoutMillis)
           .setIntParameter(CoreConnectionPNames.SOCKET_BUFFER_SIZE, 8 * 1024)
           .setParameter(CoreProtocolPNames.USER_AGENT, "CNS/" + CMBControllerServlet.VERSION);
 
@@ -92,14 +103,27 @@ public class HTTPEndpointAsyncPublisher extends AbstractEndpointPublisher {
                 new RequestExpectContinue()
               });
 
+      requester =
+          new HttpAsyncRequester(httpProcessor, new DefaultConnectionReuseStrategy(), httpParams);
+
+      IOReactorConfig ioReactorConfig = new IOReactorConfig();
+      ioReactorConfig.setIoThreadCount(
+          CMBProperties.getInstance().getCNSPublisherHttpIOThreadCount());
+      ioReactorConfig.setConnectTimeout(timeoutMillis);
+      ioReactorConfig.setSoTimeout(timeoutMillis);
+      ioReactorConfig.setSoKeepalive(true);
+      ioReactorConfig.setTcpNoDelay(true);
+
       HttpAsyncRequestExecutor protocolHandler = new HttpAsyncRequestExecutor();
       final IOEventDispatch ioEventDispatch =
           new DefaultHttpClientIODispatch(protocolHandler, httpParams);
-      final ConnectingIOReactor ioReactor = new DefaultConnectingIOReactor();
+      final ConnectingIOReactor ioReactor = new DefaultConnectingIOReactor(ioReactorConfig);
 
       connectionPool = new BasicNIOConnPool(ioReactor, httpParams);
-      connectionPool.setDefaultMaxPerRoute(2); // maybe adjust pool size
-      connectionPool.setMaxTotal(8);
+      connectionPool.setMaxTotal(
+          CMBProperties.getInstance().getCNSPublisherHttpEndpointConnectionPoolSize());
+      connectionPool.setDefaultMaxPerRoute(
+          CMBProperties.getInstance().getCNSPublisherHttpEndpointConnectionsPerRouteSize());
 
       Thread t =
           new Thread(
@@ -118,6 +142,46 @@ public class HTTPEndpointAsyncPublisher extends AbstractEndpointPublisher {
 
       t.start();
 
+      // evict connections that have been idle longer than the keep-alive period
+
+      Thread idleConnectionMonitor =
+          new Thread(
+              new Runnable() {
+
+                public void run() {
+
+                  long keepAliveMillis =
+                      CMBProperties.getInstance().getCNSPublisherHttpKeepAliveSeconds() * 1000L;
+
+                  while (true) {
+
+                    try {
+                      Thread.sleep(Math.max(1000L, keepAliveMillis / 2));
+                      connectionPool.closeExpired();
+                      connectionPool.closeIdle(keepAliveMillis, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException ex) {
+                      return;
+                    } catch (Exception ex) {
+                      logger.warn("event=failed_to_close_idle_connections", ex);
+                    }
+                  }
+                }
+              },
+              "CNSAsyncHttpIdleConnectionMonitor");
+
+      idleConnectionMonitor.setDaemon(true);
+      idleConnectionMonitor.start();
+
+      logger.info(
+          "event=initialized_async_http_client io_threads="
+              + ioReactorConfig.getIoThreadCount()
+              + " max_total="
+              + connectionPool.getMaxTotal()
+              + " max_per_route="
+              + connectionPool.getDefaultMaxPerRoute()
+              + " max_in_flight_per_endpoint="
+              + CMBProperties.getInstance().getCNSPublisherHttpMaxInFlightPerEndpoint());
+
     } catch (IOReactorException ex) {
       logger.error("event=failed_to_initialize_async_http_client action=exiting", ex);
     }
@@ -127,11 +191,45 @@ public class HTTPEndpointAsyncPublisher extends AbstractEndpointPublisher {
     this.callback = callback;
   }
 
+  /** @return leased, pending and available connections of the whole pool */
+  public static PoolStats getTotalPoolStats() {
+    return connectionPool.getTotalStats();
+  }
+
+  /** @return map of endpoint host -> leased, pending and available connections and in flight */
+  public static Map<String, String> getPoolStatsByRoute() {
+
+    Map<String, String> stats = new HashMap<String, String>();
+
+    for (Map.Entry<HttpHost, AtomicInteger> entry : inFlightRequests.entrySet()) {
+
+      PoolStats routeStats = connectionPool.getStats(entry.getKey());
+
+      stats.put(
+          entry.getKey().toURI(),
+          "leased="
+              + routeStats.getLeased()
+              + ",pending="
+              + routeStats.getPending()
+              + ",available="
+              + routeStats.getAvailable()
+              + ",max="
+              + routeStats.getMax()
+              + ",inFlight="
+              + Math.max(entry.getValue().get(), 0));
+    }
+
+    return stats;
+  }
+
+  /** @return number of sends rejected because the endpoint was at its in flight limit */
+  public static long getRejectedRequestCount() {
+    return rejectedRequests.get();
+  }
+
   @Override
   public void send() throws Exception {
 
-    HttpAsyncRequester requester =
-        new HttpAsyncRequester(httpProcessor, new DefaultConnectionReuseStrategy(), httpParams);
     final URL url = new URL(endpoint);
     final HttpHost target = new HttpHost(url.getHost(), url.getPort(), url.getProtocol());
 
@@ -157,6 +255,75 @@ public class HTTPEndpointAsyncPublisher extends AbstractEndpointPublisher {
 
     request.setEntity(new NStringEntity(msg));
 
+    final AtomicInteger inFlight = acquireInFlight(target);
+    int maxInFlight = CMBProperties.getInstance().getCNSPublisherHttpMaxInFlightPerEndpoint();
+
+    if (inFlight.get() > maxInFlight && maxInFlight > 0) {
+
+      // endpoint is saturated, hand message to the retry policy instead of queueing unbounded
+
+      releaseInFlight(target, inFlight);
+      rejectedRequests.incrementAndGet();
+      logger.warn("event=endpoint_in_flight_limit_reached endpoint=" + endpoint);
+      callback.onFailure(0);
+      return;
+    }
+
+    try {
+      execute(url, target, request, inFlight);
+    } catch (RuntimeException ex) {
+      releaseInFlight(target, inFlight);
+      throw ex;
+    }
+  }
+
+  /**
+   * Count one more request in flight to the host. Counters are dropped once their host has no
+   * requests in flight so the map only holds hosts currently being sent to, a dropped counter is
+   * marked with -1 so that nobody counts on it after it was taken out of the map.
+   *
+   * @param target endpoint host
+   * @return counter of the host, already incremented
+   */
+  private static AtomicInteger acquireInFlight(HttpHost target) {
+
+    while (true) {
+
+      AtomicInteger inFlight = inFlightRequests.get(target);
+
+      if (inFlight == null) {
+
+        AtomicInteger fresh = new AtomicInteger(1);
+        inFlight = inFlightRequests.putIfAbsent(target, fresh);
+
+        if (inFlight == null) {
+          return fresh;
+        }
+      }
+
+      int count = inFlight.get();
+
+      if (count < 0) {
+        inFlightRequests.remove(target, inFlight);
+      } else if (inFlight.compareAndSet(count, count + 1)) {
+        return inFlight;
+      }
+    }
+  }
+
+  private static void releaseInFlight(HttpHost target, AtomicInteger inFlight) {
+
+    if (inFlight.decrementAndGet() == 0 && inFlight.compareAndSet(0, -1)) {
+      inFlightRequests.remove(target, inFlight);
+    }
+  }
+
+  private void execute(
+      final URL url,
+      final HttpHost target,
+      BasicHttpEntityEnclosingRequest request,
+      final AtomicInteger inFlight) {
+
     requester.execute(
         new BasicAsyncRequestProducer(target, request),
         new BasicAsyncResponseConsumer(),
@@ -166,6 +333,8 @@ public class HTTPEndpointAsyncPublisher extends AbstractEndpointPublisher {
 
           public void completed(final HttpResponse response) {
 
+            releaseInFlight(target, inFlight);
+
             int statusCode = response.getStatusLine().getStatusCode();
 
             // accept all 2xx status codes
@@ -186,11 +355,13 @@ public class HTTPEndpointAsyncPublisher extends AbstractEndpointPublisher {
           }
 
           public void failed(final Exception ex) {
+            releaseInFlight(target, inFlight);
             logger.warn(target + " " + url.getPath() + " " + url.getQuery(), ex);
             callback.onFailure(0);
           }
 
           public void cancelled() {
+            releaseInFlight(target, inFlight);
             logger.warn(target + " " + url.getPath() + " " + url.getQuery() + " -> " + "cancelled");
             callback.onFailure(1);
           }
@@ -22,10 +22,20 @@ import com.comcast.cns.controller.CNSCache;
 import com.comcast.cns.model.CNSSubscription;
 import com.comcast.cns.model.CNSSubscriptionAttributes;
 import com.comcast.cns.model.CNSSubscriptionDeliveryPolicy;
+import com.comcast.cns.model.CNSTopic;
 import com.comcast.cns.model.CNSTopicAttributes;
 import com.comcast.cns.model.CNSTopicDeliveryPolicy;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.log4j.Logger;
 import org.json.JSONObject;
 
@@ -43,6 +53,31 @@ public class CNSAttributesCassandraPersistence implements ICNSAttributesPersiste
   private static final AbstractDurablePersistence cassandraHandler =
       DurablePersistenceFactory.getInstance();
 
+  // reads beyond the thread limit run in the calling thread instead of queueing up
+
+  private static final int READ_THREADS = 16;
+
+  private static final ExecutorService readExecutor =
+      new ThreadPoolExecutor(
+          0,
+          READ_THREADS,
+          60,
+          TimeUnit.SECONDS,
+          new SynchronousQueue<Runnable>(),
+          new ThreadFactory() {
+
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread t =
+                  new Thread(r, "CNSTopicAttributesReader-" + threadNumber.incrementAndGet());
+              t.setDaemon(true);
+              return t;
+            }
+          },
+          new ThreadPoolExecutor.CallerRunsPolicy());
+
   public CNSAttributesCassandraPersistence() {}
 
   @Override
@@ -65,6 +100,10 @@ public class CNSAttributesCassandraPersistence implements ICNSAttributesPersiste
     }
 
     CNSCache.removeTopicAttributes(topicArn);
+
+    if (topicAttributes.getDeliveryPolicy() != null) {
+      CNSCache.removeEffectiveDeliveryPolicies(topicArn);
+    }
   }
 
   private Map<String, String> getColumnValues(CNSTopicAttributes topicAttributes) {
@@ -110,11 +149,47 @@ public class CNSAttributesCassandraPersistence implements ICNSAttributesPersiste
   }
 
   @Override
-  public CNSTopicAttributes getTopicAttributes(String topicArn) throws Exception {
+  public CNSTopicAttributes getTopicAttributes(final String topicArn) throws Exception {
 
     CNSTopicAttributes topicAttributes = new CNSTopicAttributes();
     topicAttributes.setTopicArn(topicArn);
 
+    // display name and subscription counters are fetched alongside the attribute slice, the
+    // counters with a single query and only if they are not cached locally
+
+    Future<CNSTopic> topicFuture =
+        readExecutor.submit(
+            new Callable<CNSTopic>() {
+              @Override
+              public CNSTopic call() throws Exception {
+                return CNSCache.getTopic(topicArn);
+              }
+            });
+
+    Map<String, Long> counters = CNSTopicStatsCache.get(topicArn);
+    Future<Map<String, Long>> countersFuture = null;
+    final long loadVersion = CNSTopicStatsCache.beginLoad();
+
+    if (counters == null) {
+      countersFuture =
+          readExecutor.submit(
+              new Callable<Map<String, Long>>() {
+                @Override
+                public Map<String, Long> call() throws Exception {
+                  Map<String, Long> counters =
+                      cassandraHandler.getCounters(
+                          AbstractDurablePersistence.CNS_KEYSPACE,
+                          columnFamilyTopicStats,
+                          topicArn,
+                          CNSTopicStatsCache.COUNTER_NAMES,
+                          CMB_SERIALIZER.STRING_SERIALIZER,
+                          CMB_SERIALIZER.STRING_SERIALIZER);
+                  CNSTopicStatsCache.put(topicArn, counters, loadVersion);
+                  return counters;
+                }
+              });
+    }
+
     CmbColumnSlice<String, String> slice =
         cassandraHandler.readColumnSlice(
             AbstractDurablePersistence.CNS_KEYSPACE,
@@ -150,43 +225,36 @@ public class CNSAttributesCassandraPersistence implements ICNSAttributesPersiste
         topicAttributes.setUserId(slice.getColumnByName("userId").getValue());
       }
 
-      topicAttributes.setDisplayName(
-          PersistenceFactory.getTopicPersistence().getTopic(topicArn).getDisplayName());
-    }
+      CNSTopic topic = await(topicFuture);
 
-    long subscriptionConfirmedCount =
-        cassandraHandler.getCounter(
-            AbstractDurablePersistence.CNS_KEYSPACE,
-            columnFamilyTopicStats,
-            topicArn,
-            "subscriptionConfirmed",
-            CMB_SERIALIZER.STRING_SERIALIZER,
-            CMB_SERIALIZER.STRING_SERIALIZER);
-    topicAttributes.setSubscriptionsConfirmed(subscriptionConfirmedCount);
+      if (topic != null) {
+        topicAttributes.setDisplayName(topic.getDisplayName());
+      }
+    }
 
-    long subscriptionPendingCount =
-        cassandraHandler.getCounter(
-            AbstractDurablePersistence.CNS_KEYSPACE,
-            columnFamilyTopicStats,
-            topicArn,
-            "subscriptionPending",
-            CMB_SERIALIZER.STRING_SERIALIZER,
-            CMB_SERIALIZER.STRING_SERIALIZER);
-    topicAttributes.setSubscriptionsPending(subscriptionPendingCount);
+    if (countersFuture != null) {
+      counters = await(countersFuture);
+    }
 
-    long subscriptionDeletedCount =
-        cassandraHandler.getCounter(
-            AbstractDurablePersistence.CNS_KEYSPACE,
-            columnFamilyTopicStats,
-            topicArn,
-            "subscriptionDeleted",
-            CMB_SERIALIZER.STRING_SERIALIZER,
-            CMB_SERIALIZER.STRING_SERIALIZER);
-    topicAttributes.setSubscriptionsDeleted(subscriptionDeletedCount);
+    topicAttributes.setSubscriptionsConfirmed(
+        counters.get(CNSTopicStatsCache.SUBSCRIPTION_CONFIRMED));
+    topicAttributes.setSubscriptionsPending(counters.get(CNSTopicStatsCache.SUBSCRIPTION_PENDING));
+    topicAttributes.setSubscriptionsDeleted(counters.get(CNSTopicStatsCache.SUBSCRIPTION_DELETED));
 
     return topicAttributes;
   }
 
+  private static <T> T await(Future<T> future) throws Exception {
+    try {
+      return future.get();
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof Exception) {
+        throw (Exception) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
   @Override
   public void setSubscriptionAttributes(
       CNSSubscriptionAttributes subscriptionAtributes, String subscriptionArn) throws Exception {
@@ -16,8 +16,7 @@ package com.comcast.cns.persistence;
 import com.comcast.cmb.common.persistence.PersistenceFactory;
 import com.comcast.cmb.common.util.CMBErrorCodes;
 import com.comcast.cmb.common.util.CMBException;
-import com.comcast.cmb.common.util.ExpiringCache;
-import com.comcast.cmb.common.util.ExpiringCache.CacheFullException;
+import com.comcast.cmb.common.util.BoundedCache;
 import com.comcast.cns.model.CNSEndpointPublishJob;
 import com.comcast.cns.model.CNSMessage;
 import com.comcast.cns.model.CNSSubscription;
@@ -43,10 +42,10 @@ import org.apache.log4j.Logger;
 public class CNSCachedEndpointPublishJob extends CNSEndpointPublishJob {
 
   private static Logger logger = Logger.getLogger(CNSCachedEndpointPublishJob.class);
-  private static final ExpiringCache<
+  private static final BoundedCache<
           String, LinkedHashMap<String, CNSCachedEndpointSubscriptionInfo>>
       cache =
-          new ExpiringCache<String, LinkedHashMap<String, CNSCachedEndpointSubscriptionInfo>>(1000);
+          new BoundedCache<String, LinkedHashMap<String, CNSCachedEndpointSubscriptionInfo>>(1000);
 
   /**
    * @param topicArn
@@ -58,8 +57,6 @@ public class CNSCachedEndpointPublishJob extends CNSEndpointPublishJob {
     LinkedHashMap<String, CNSCachedEndpointSubscriptionInfo> arnToSubInfo;
     try {
       arnToSubInfo = cache.getAndSetIfNotPresent(topicArn, new CachePopulator(topicArn), 60000);
-    } catch (CacheFullException e) {
-      arnToSubInfo = new CachePopulator(topicArn).call();
     } catch (IllegalStateException e) {
       if ((e.getCause() instanceof ExecutionException)
           && (e.getCause().getCause() instanceof TopicNotFoundException)) {
@@ -111,8 +108,6 @@ public class CNSCachedEndpointPublishJob extends CNSEndpointPublishJob {
         HashMap<String, CNSCachedEndpointSubscriptionInfo> arnToSubInfo;
         try {
           arnToSubInfo = cache.getAndSetIfNotPresent(topicArn, new CachePopulator(topicArn), 60000);
-        } catch (CacheFullException e) {
-          arnToSubInfo = new CachePopulator(topicArn).call();
         } catch (IllegalStateException e) {
           if ((e.getCause() instanceof ExecutionException)
               && (e.getCause().getCause() instanceof TopicNotFoundException)) {
@@ -177,31 +172,25 @@ public class CNSCachedEndpointPublishJob extends CNSEndpointPublishJob {
       long ts1 = System.currentTimeMillis();
       ICNSSubscriptionPersistence subscriptionPersistence =
           PersistenceFactory.getSubscriptionPersistence();
-      List<CNSSubscription> subs = null;
-      String nextToken = null;
       LinkedHashMap<String, CNSCachedEndpointSubscriptionInfo> val =
           new LinkedHashMap<
               String, CNSCachedEndpointPublishJob.CNSCachedEndpointSubscriptionInfo>();
-      while (true) {
-        // get subscription by page
-        subs = subscriptionPersistence.listSubscriptionsByTopic(nextToken, topicArn, null, 1000);
+      ICNSSubscriptionCursor cursor =
+          subscriptionPersistence.getConfirmedSubscriptionCursor(topicArn, 1000);
+      List<CNSSubscription> subs = cursor.nextPage();
 
-        if (subs == null || subs.size() == 0) {
-          break;
-        }
+      while (subs.size() > 0) {
 
         for (CNSSubscription sub : subs) {
-          if (!sub.getArn().equals("PendingConfirmation")) {
-            val.put(
-                sub.getArn(),
-                new CNSCachedEndpointSubscriptionInfo(
-                    sub.getProtocol(),
-                    sub.getEndpoint(),
-                    sub.getArn(),
-                    sub.getRawMessageDelivery()));
-            nextToken = sub.getArn();
-          }
+          val.put(
+              sub.getArn(),
+              new CNSCachedEndpointSubscriptionInfo(
+                  sub.getProtocol(), sub.getEndpoint(), sub.getArn(), sub.getRawMessageDelivery()));
         }
+
+        // get subscription by page
+
+        subs = cursor.nextPage();
       }
 
       long ts2 = System.currentTimeMillis();
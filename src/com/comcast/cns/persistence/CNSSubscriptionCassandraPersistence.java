@@ -24,6 +24,7 @@ import com.comcast.cmb.common.util.CMBErrorCodes;
 import com.comcast.cmb.common.util.CMBException;
 import com.comcast.cmb.common.util.CMBProperties;
 import com.comcast.cmb.common.util.PersistenceException;
+import com.comcast.cns.controller.CNSCache;
 import com.comcast.cns.model.CNSSubscription;
 import com.comcast.cns.model.CNSSubscription.CnsSubscriptionProtocol;
 import com.comcast.cns.model.CNSSubscriptionAttributes;
@@ -343,6 +344,7 @@ public class CNSSubscriptionCassandraPersistence implements ICNSSubscriptionPers
       insertOrUpdateSubsAndIndexes(subscription, null);
 
       if (retrievedSubscription == null) {
+        long statsVersion = CNSTopicStatsCache.beginChange();
         cassandraHandler.incrementCounter(
             AbstractDurablePersistence.CNS_KEYSPACE,
             columnFamilyTopicStats,
@@ -351,6 +353,8 @@ public class CNSSubscriptionCassandraPersistence implements ICNSSubscriptionPers
             1,
             CMB_SERIALIZER.STRING_SERIALIZER,
             CMB_SERIALIZER.STRING_SERIALIZER);
+        CNSTopicStatsCache.add(
+            subscription.getTopicArn(), CNSTopicStatsCache.SUBSCRIPTION_CONFIRMED, 1, statsVersion);
       }
 
     } else {
@@ -374,6 +378,7 @@ public class CNSSubscriptionCassandraPersistence implements ICNSSubscriptionPers
 
           insertOrUpdateSubsAndIndexes(subscription, null);
           if (retrievedSubscription == null) {
+            long statsVersion = CNSTopicStatsCache.beginChange();
             cassandraHandler.incrementCounter(
                 AbstractDurablePersistence.CNS_KEYSPACE,
                 columnFamilyTopicStats,
@@ -382,12 +387,18 @@ public class CNSSubscriptionCassandraPersistence implements ICNSSubscriptionPers
                 1,
                 CMB_SERIALIZER.STRING_SERIALIZER,
                 CMB_SERIALIZER.STRING_SERIALIZER);
+            CNSTopicStatsCache.add(
+                subscription.getTopicArn(),
+                CNSTopicStatsCache.SUBSCRIPTION_CONFIRMED,
+                1,
+                statsVersion);
           }
         } else {
 
           // use cassandra ttl to implement expiration after 3 days
           insertOrUpdateSubsAndIndexes(subscription, 3 * 24 * 60 * 60);
           if (retrievedSubscription == null) {
+            long statsVersion = CNSTopicStatsCache.beginChange();
             cassandraHandler.incrementCounter(
                 AbstractDurablePersistence.CNS_KEYSPACE,
                 columnFamilyTopicStats,
@@ -396,6 +407,11 @@ public class CNSSubscriptionCassandraPersistence implements ICNSSubscriptionPers
                 1,
                 CMB_SERIALIZER.STRING_SERIALIZER,
                 CMB_SERIALIZER.STRING_SERIALIZER);
+            CNSTopicStatsCache.add(
+                subscription.getTopicArn(),
+                CNSTopicStatsCache.SUBSCRIPTION_PENDING,
+                1,
+                statsVersion);
           }
         }
 
@@ -404,6 +420,7 @@ public class CNSSubscriptionCassandraPersistence implements ICNSSubscriptionPers
         // use cassandra ttl to implement expiration after 3 days
         insertOrUpdateSubsAndIndexes(subscription, 3 * 24 * 60 * 60);
         if (retrievedSubscription == null) {
+          long statsVersion = CNSTopicStatsCache.beginChange();
           cassandraHandler.incrementCounter(
               AbstractDurablePersistence.CNS_KEYSPACE,
               columnFamilyTopicStats,
@@ -412,6 +429,8 @@ public class CNSSubscriptionCassandraPersistence implements ICNSSubscriptionPers
               1,
               CMB_SERIALIZER.STRING_SERIALIZER,
               CMB_SERIALIZER.STRING_SERIALIZER);
+          CNSTopicStatsCache.add(
+              subscription.getTopicArn(), CNSTopicStatsCache.SUBSCRIPTION_PENDING, 1, statsVersion);
         }
       }
     }
@@ -789,6 +808,139 @@ public class CNSSubscriptionCassandraPersistence implements ICNSSubscriptionPers
     return listSubscriptionsByTopic(nextToken, topicArn, protocol, 100, false);
   }
 
+  @Override
+  public ICNSSubscriptionCursor getConfirmedSubscriptionCursor(String topicArn, int pageSize)
+      throws Exception {
+    return getConfirmedSubscriptionCursor(topicArn, pageSize, null);
+  }
+
+  @Override
+  public ICNSSubscriptionCursor getConfirmedSubscriptionCursor(
+      String topicArn, int pageSize, String position) throws Exception {
+
+    if (PersistenceFactory.getTopicPersistence().getTopic(topicArn) == null) {
+      throw new TopicNotFoundException("Resource not found.");
+    }
+
+    ConfirmedSubscriptionCursor cursor = new ConfirmedSubscriptionCursor(topicArn, pageSize);
+
+    // position is <protocol>:<endpoint>, the two parts of the subscription column name
+
+    if (position != null) {
+
+      int idx = position.indexOf(':');
+
+      if (idx < 0) {
+        throw new IllegalArgumentException("Bad subscription cursor position: " + position);
+      }
+
+      cursor.lastColumnName =
+          cassandraHandler.getCmbComposite(
+              position.substring(idx + 1), position.substring(0, idx));
+    }
+
+    return cursor;
+  }
+
+  /**
+   * Reads the subscription columns of a topic row in slices, each slice starting at the last
+   * column name read. Keeps no state other than that column name, which only advances once a
+   * whole page was read so a failed page can be read again.
+   */
+  private static class ConfirmedSubscriptionCursor implements ICNSSubscriptionCursor {
+
+    private final String topicArn;
+    private final int pageSize;
+
+    private CmbComposite lastColumnName;
+    private boolean exhausted;
+
+    private ConfirmedSubscriptionCursor(String topicArn, int pageSize) {
+      this.topicArn = topicArn;
+      this.pageSize = pageSize;
+    }
+
+    @Override
+    public String getPosition() {
+
+      if (lastColumnName == null) {
+        return null;
+      }
+
+      return lastColumnName.get(1) + ":" + lastColumnName.get(0);
+    }
+
+    @Override
+    public List<CNSSubscription> nextPage() throws Exception {
+
+      List<CNSSubscription> page = new ArrayList<CNSSubscription>();
+      CmbComposite pageEnd = lastColumnName;
+      boolean pageExhausted = exhausted;
+
+      while (!pageExhausted && page.size() < pageSize) {
+
+        // slices include their start column, which was the last column of the previous slice
+
+        CmbComposite startColumnName = pageEnd;
+        int count = pageSize - page.size() + (startColumnName == null ? 0 : 1);
+
+        CmbColumnSlice<CmbComposite, String> cols =
+            cassandraHandler.readColumnSlice(
+                AbstractDurablePersistence.CNS_KEYSPACE,
+                columnFamilySubscriptions,
+                topicArn,
+                startColumnName,
+                null,
+                count,
+                CMB_SERIALIZER.STRING_SERIALIZER,
+                CMB_SERIALIZER.COMPOSITE_SERIALIZER,
+                CMB_SERIALIZER.STRING_SERIALIZER);
+
+        if (cols == null || cols.size() < count) {
+          pageExhausted = true;
+        }
+
+        if (cols == null) {
+          break;
+        }
+
+        for (CmbColumn<CmbComposite, String> col : cols.getColumns()) {
+
+          if (startColumnName != null && col.getName().compareTo(startColumnName) == 0) {
+            continue;
+          }
+
+          // the start column may have been deleted since, leaving one column too many
+
+          if (page.size() == pageSize) {
+            break;
+          }
+
+          pageEnd = col.getName();
+          CNSSubscription sub = extractSubscriptionFromColumn(col, topicArn);
+
+          // ignore invalid subscriptions coming from Cassandra
+
+          try {
+            sub.checkIsValid();
+          } catch (CMBException ex) {
+            logger.error("event=invalid_subscription " + sub.toString(), ex);
+            continue;
+          }
+
+          if (sub.isConfirmed()) {
+            page.add(sub);
+          }
+        }
+      }
+
+      lastColumnName = pageEnd;
+      exhausted = pageExhausted;
+
+      return page;
+    }
+  }
+
   @Override
   public CNSSubscription confirmSubscription(
       boolean authenticateOnUnsubscribe, String token, String topicArn) throws Exception {
@@ -828,6 +980,7 @@ public class CNSSubscriptionCassandraPersistence implements ICNSSubscriptionPers
     // re-insert with no TTL. will clobber the old one which had ttl
     insertOrUpdateSubsAndIndexes(s, null);
 
+    long statsVersion = CNSTopicStatsCache.beginChange();
     cassandraHandler.decrementCounter(
         AbstractDurablePersistence.CNS_KEYSPACE,
         columnFamilyTopicStats,
@@ -836,6 +989,8 @@ public class CNSSubscriptionCassandraPersistence implements ICNSSubscriptionPers
         1,
         CMB_SERIALIZER.STRING_SERIALIZER,
         CMB_SERIALIZER.STRING_SERIALIZER);
+    CNSTopicStatsCache.add(
+        s.getTopicArn(), CNSTopicStatsCache.SUBSCRIPTION_PENDING, -1, statsVersion);
     cassandraHandler.incrementCounter(
         AbstractDurablePersistence.CNS_KEYSPACE,
         columnFamilyTopicStats,
@@ -844,6 +999,8 @@ public class CNSSubscriptionCassandraPersistence implements ICNSSubscriptionPers
         1,
         CMB_SERIALIZER.STRING_SERIALIZER,
         CMB_SERIALIZER.STRING_SERIALIZER);
+    CNSTopicStatsCache.add(
+        s.getTopicArn(), CNSTopicStatsCache.SUBSCRIPTION_CONFIRMED, 1, statsVersion);
 
     return s;
   }
@@ -924,6 +1081,8 @@ public class CNSSubscriptionCassandraPersistence implements ICNSSubscriptionPers
           CMB_SERIALIZER.STRING_SERIALIZER,
           CMB_SERIALIZER.COMPOSITE_SERIALIZER);
 
+      long statsVersion = CNSTopicStatsCache.beginChange();
+
       if (s.isConfirmed()) {
         cassandraHandler.decrementCounter(
             AbstractDurablePersistence.CNS_KEYSPACE,
@@ -933,6 +1092,8 @@ public class CNSSubscriptionCassandraPersistence implements ICNSSubscriptionPers
             1,
             CMB_SERIALIZER.STRING_SERIALIZER,
             CMB_SERIALIZER.STRING_SERIALIZER);
+        CNSTopicStatsCache.add(
+            s.getTopicArn(), CNSTopicStatsCache.SUBSCRIPTION_CONFIRMED, -1, statsVersion);
       } else {
         cassandraHandler.decrementCounter(
             AbstractDurablePersistence.CNS_KEYSPACE,
@@ -942,6 +1103,8 @@ public class CNSSubscriptionCassandraPersistence implements ICNSSubscriptionPers
             1,
             CMB_SERIALIZER.STRING_SERIALIZER,
             CMB_SERIALIZER.STRING_SERIALIZER);
+        CNSTopicStatsCache.add(
+            s.getTopicArn(), CNSTopicStatsCache.SUBSCRIPTION_PENDING, -1, statsVersion);
       }
 
       cassandraHandler.incrementCounter(
@@ -952,7 +1115,11 @@ public class CNSSubscriptionCassandraPersistence implements ICNSSubscriptionPers
           1,
           CMB_SERIALIZER.STRING_SERIALIZER,
           CMB_SERIALIZER.STRING_SERIALIZER);
+      CNSTopicStatsCache.add(
+          s.getTopicArn(), CNSTopicStatsCache.SUBSCRIPTION_DELETED, 1, statsVersion);
     }
+
+    CNSCache.removeEffectiveDeliveryPolicy(arn);
   }
 
   public long getCountSubscription(String topicArn, String columnName) throws Exception {
@@ -982,6 +1149,7 @@ public class CNSSubscriptionCassandraPersistence implements ICNSSubscriptionPers
 
       if (subs.size() < pageSize) {
         deleteIndexesAll(subs);
+        long statsVersion = CNSTopicStatsCache.beginChange();
         cassandraHandler.incrementCounter(
             AbstractDurablePersistence.CNS_KEYSPACE,
             columnFamilyTopicStats,
@@ -990,6 +1158,8 @@ public class CNSSubscriptionCassandraPersistence implements ICNSSubscriptionPers
             subs.size(),
             CMB_SERIALIZER.STRING_SERIALIZER,
             CMB_SERIALIZER.STRING_SERIALIZER);
+        CNSTopicStatsCache.add(
+            topicArn, CNSTopicStatsCache.SUBSCRIPTION_DELETED, subs.size(), statsVersion);
         break;
       } else {
         // keep the last subscription for pagination purpose.
@@ -999,6 +1169,7 @@ public class CNSSubscriptionCassandraPersistence implements ICNSSubscriptionPers
         deleteIndexesAll(subs);
         subs = listSubscriptionsByTopic(nextToken, topicArn, null, pageSize, false);
         deleteIndexes(nextTokenSub.getArn(), nextTokenSub.getUserId(), nextTokenSub.getToken());
+        long statsVersion = CNSTopicStatsCache.beginChange();
         cassandraHandler.incrementCounter(
             AbstractDurablePersistence.CNS_KEYSPACE,
             columnFamilyTopicStats,
@@ -1007,6 +1178,8 @@ public class CNSSubscriptionCassandraPersistence implements ICNSSubscriptionPers
             subs.size(),
             CMB_SERIALIZER.STRING_SERIALIZER,
             CMB_SERIALIZER.STRING_SERIALIZER);
+        CNSTopicStatsCache.add(
+            topicArn, CNSTopicStatsCache.SUBSCRIPTION_DELETED, subs.size(), statsVersion);
       }
     }
 
@@ -1057,6 +1230,8 @@ public class CNSSubscriptionCassandraPersistence implements ICNSSubscriptionPers
         null,
         CMB_SERIALIZER.STRING_SERIALIZER,
         CMB_SERIALIZER.STRING_SERIALIZER);
+
+    CNSTopicStatsCache.remove(topicArn);
   }
 
   @Override
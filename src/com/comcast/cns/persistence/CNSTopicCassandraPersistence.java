@@ -191,6 +191,8 @@ public class CNSTopicCassandraPersistence implements ICNSTopicPersistence {
             CMB_SERIALIZER.STRING_SERIALIZER);
       }
 
+      CNSTopicStatsCache.remove(arn);
+
       // cassandraHandler.incrementCounter(AbstractDurablePersistence.CNS_KEYSPACE,
       // columnFamilyTopicStats, arn, "subscriptionConfirmed", 0, CMB_SERIALIZER.STRING_SERIALIZER,
       // CMB_SERIALIZER.STRING_SERIALIZER);
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cns.persistence;
+
+import com.comcast.cmb.common.util.CMBProperties;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory copy of the subscription counters of a topic (CNSTopicStats). Subscribe, confirm and
+ * unsubscribe on this node call beginChange() before writing Cassandra and apply the delta with
+ * add() right after, so reading topic attributes does not need a counter read on every cache miss.
+ * Changes made by other nodes show up once an entry expires after the regular cns cache
+ * expiration.
+ *
+ * <p>Class is thread-safe
+ */
+public class CNSTopicStatsCache {
+
+  public static final String SUBSCRIPTION_CONFIRMED = "subscriptionConfirmed";
+  public static final String SUBSCRIPTION_PENDING = "subscriptionPending";
+  public static final String SUBSCRIPTION_DELETED = "subscriptionDeleted";
+
+  public static final List<String> COUNTER_NAMES =
+      Collections.unmodifiableList(
+          Arrays.asList(SUBSCRIPTION_CONFIRMED, SUBSCRIPTION_PENDING, SUBSCRIPTION_DELETED));
+
+  private static class Counters {
+
+    private final Map<String, AtomicLong> values = new HashMap<String, AtomicLong>();
+    private final long loadedAt = System.currentTimeMillis();
+    private final long loadVersion;
+
+    private Counters(Map<String, Long> counters, long loadVersion) {
+      this.loadVersion = loadVersion;
+      for (String name : COUNTER_NAMES) {
+        Long value = counters.get(name);
+        values.put(name, new AtomicLong(value == null ? 0 : value));
+      }
+    }
+  }
+
+  private static final ConcurrentHashMap<String, Counters> cache =
+      new ConcurrentHashMap<String, Counters>();
+
+  // bumped when a local counter change begins and ends, a load that overlapped either is not
+  // cached
+
+  private static final AtomicLong version = new AtomicLong();
+
+  /**
+   * @param topicArn
+   * @return cached counters keyed by counter name or null if not cached or expired
+   */
+  public static Map<String, Long> get(String topicArn) {
+
+    Counters counters = cache.get(topicArn);
+
+    if (counters == null) {
+      return null;
+    }
+
+    if (System.currentTimeMillis() - counters.loadedAt > getExpirationMillis()) {
+      cache.remove(topicArn, counters);
+      return null;
+    }
+
+    Map<String, Long> values = new HashMap<String, Long>();
+
+    for (Map.Entry<String, AtomicLong> entry : counters.values.entrySet()) {
+      values.put(entry.getKey(), entry.getValue().get());
+    }
+
+    return values;
+  }
+
+  /**
+   * Call before reading the counters from Cassandra and pass the result to put()
+   *
+   * @return current version of the cache
+   */
+  public static long beginLoad() {
+    return version.get();
+  }
+
+  /**
+   * Cache counters read from Cassandra unless they were changed locally during the read
+   *
+   * @param topicArn
+   * @param counters counter values keyed by counter name
+   * @param loadVersion value of beginLoad() taken before the read
+   */
+  public static void put(String topicArn, Map<String, Long> counters, long loadVersion) {
+
+    if (cache.size() >= CMBProperties.getInstance().getCNSCacheSizeLimit()) {
+      cache.clear();
+    }
+
+    Counters fresh = new Counters(counters, loadVersion);
+    Counters current = cache.putIfAbsent(topicArn, fresh);
+
+    if (current != null && System.currentTimeMillis() - current.loadedAt > getExpirationMillis()) {
+      cache.replace(topicArn, current, fresh);
+    }
+
+    if (version.get() != loadVersion) {
+      cache.remove(topicArn, fresh);
+    }
+  }
+
+  /**
+   * Call before writing a counter change to Cassandra and pass the result to add()
+   *
+   * @return version of the change
+   */
+  public static long beginChange() {
+    return version.incrementAndGet();
+  }
+
+  /**
+   * Apply a counter change that was just written to Cassandra. Counters loaded before the change
+   * began cannot contain it and get the delta, counters loaded since may already contain it and
+   * are dropped.
+   *
+   * @param topicArn
+   * @param counterName
+   * @param delta
+   * @param changeVersion value of beginChange() taken before the write
+   */
+  public static void add(String topicArn, String counterName, long delta, long changeVersion) {
+
+    version.incrementAndGet();
+    Counters counters = cache.get(topicArn);
+
+    if (counters == null) {
+      return;
+    }
+
+    if (counters.loadVersion >= changeVersion) {
+      cache.remove(topicArn, counters);
+      return;
+    }
+
+    AtomicLong value = counters.values.get(counterName);
+
+    if (value != null) {
+      value.addAndGet(delta);
+    }
+  }
+
+  /**
+   * Forget the counters of a topic, e.g. after they were reset
+   *
+   * @param topicArn
+   */
+  public static void remove(String topicArn) {
+    version.incrementAndGet();
+    cache.remove(topicArn);
+  }
+
+  private static long getExpirationMillis() {
+    return CMBProperties.getInstance().getCNSCacheExpiring() * 1000L;
+  }
+}
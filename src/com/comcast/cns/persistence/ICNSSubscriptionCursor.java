@@ -0,0 +1,41 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cns.persistence;
+
+import com.comcast.cns.model.CNSSubscription;
+import java.util.List;
+
+/**
+ * Forward only cursor over the confirmed subscriptions of a topic. Each page continues where the
+ * previous one ended, so a topic can be fanned out page by page without holding all of its
+ * subscriptions in memory.
+ */
+public interface ICNSSubscriptionCursor {
+
+  /**
+   * Read the next page of confirmed subscriptions
+   *
+   * @return next page of subscriptions, empty once all subscriptions were returned
+   * @throws Exception
+   */
+  public List<CNSSubscription> nextPage() throws Exception;
+
+  /**
+   * Position after the last subscription returned. A page that failed to read does not move the
+   * position, so nextPage() can be called again or a new cursor opened at this position.
+   *
+   * @return opaque position or null if no page was read yet
+   */
+  public String getPosition();
+}
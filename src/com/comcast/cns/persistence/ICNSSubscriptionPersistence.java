@@ -121,6 +121,32 @@ public interface ICNSSubscriptionPersistence {
   public List<CNSSubscription> listAllSubscriptionsByTopic(
       String nextToken, String topicArn, CnsSubscriptionProtocol protocol) throws Exception;
 
+  /**
+   * Open a cursor over all confirmed subscriptions of a topic. Unlike listSubscriptionsByTopic
+   * the cursor does not look up the last subscription of a page again to read the next one. Not
+   * part of official AWS API.
+   *
+   * @param topicArn topic arn
+   * @param pageSize maximum number of subscriptions per page
+   * @return cursor positioned before the first subscription
+   * @throws Exception if the topic does not exist
+   */
+  public ICNSSubscriptionCursor getConfirmedSubscriptionCursor(String topicArn, int pageSize)
+      throws Exception;
+
+  /**
+   * Open a cursor over the confirmed subscriptions of a topic that resumes after a position
+   * returned by ICNSSubscriptionCursor.getPosition(). Not part of official AWS API.
+   *
+   * @param topicArn topic arn
+   * @param pageSize maximum number of subscriptions per page
+   * @param position position to resume after, null to start with the first subscription
+   * @return cursor positioned after the given position
+   * @throws Exception if the topic does not exist
+   */
+  public ICNSSubscriptionCursor getConfirmedSubscriptionCursor(
+      String topicArn, int pageSize, String position) throws Exception;
+
   /**
    * Confirm subscription to make it active. Only confirmed subscriptions will receive messages.
    *
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cns.tools;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket rate limiter keyed by subscription arn or endpoint host. Each bucket holds one
+ * second worth of tokens and is represented by the time at which it will be full again, so taking
+ * a token is a single compare-and-set. Callers that cannot get a token right away reserve the next
+ * free one and are told how long to wait for it.
+ *
+ * <p>Class is thread-safe
+ */
+public class CNSDeliveryRateLimiter {
+
+  private static final long BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  // idle buckets are dropped once there are this many buckets, by at most one sweep per interval
+  // so new keys do not pay for a scan of the whole map
+
+  private static final int MAX_BUCKETS = 10000;
+  private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final ConcurrentHashMap<String, AtomicLong> buckets =
+      new ConcurrentHashMap<String, AtomicLong>();
+  private final AtomicLong lastSweep = new AtomicLong(System.nanoTime() - SWEEP_INTERVAL_NANOS);
+
+  /**
+   * Reserve the next delivery slot for a key
+   *
+   * @param key subscription arn or endpoint host
+   * @param maxPerSecond max deliveries per second, 0 or less for no limit
+   * @return milliseconds to wait before the delivery may be sent, 0 if it may be sent now
+   */
+  public long reserve(String key, int maxPerSecond) {
+
+    if (key == null || maxPerSecond <= 0) {
+      return 0;
+    }
+
+    AtomicLong bucket = buckets.get(key);
+
+    if (bucket == null) {
+
+      if (buckets.size() >= MAX_BUCKETS) {
+        removeIdleBuckets();
+      }
+
+      AtomicLong fresh = new AtomicLong(System.nanoTime());
+      bucket = buckets.putIfAbsent(key, fresh);
+
+      if (bucket == null) {
+        bucket = fresh;
+      }
+    }
+
+    long intervalNanos = BURST_NANOS / maxPerSecond;
+
+    while (true) {
+
+      long now = System.nanoTime();
+      long full = bucket.get();
+      long next = Math.max(full, now) + intervalNanos;
+
+      if (bucket.compareAndSet(full, next)) {
+        long waitNanos = next - now - BURST_NANOS;
+        return waitNanos <= 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1;
+      }
+    }
+  }
+
+  public int size() {
+    return buckets.size();
+  }
+
+  private void removeIdleBuckets() {
+
+    long now = System.nanoTime();
+    long last = lastSweep.get();
+
+    if (now - last < SWEEP_INTERVAL_NANOS || !lastSweep.compareAndSet(last, now)) {
+      return;
+    }
+
+    for (Iterator<Map.Entry<String, AtomicLong>> it = buckets.entrySet().iterator();
+        it.hasNext(); ) {
+      if (it.next().getValue().get() - now <= 0) {
+        it.remove();
+      }
+    }
+  }
+}
@@ -14,27 +14,36 @@
 package com.comcast.cns.tools;
 
 import com.comcast.cmb.common.controller.CMBControllerServlet;
+import com.comcast.cmb.common.controller.CMBHeartbeatService;
+import com.comcast.cmb.common.controller.CMBHeartbeatService.Role;
 import com.comcast.cmb.common.model.User;
 import com.comcast.cmb.common.model.UserAuthModule;
-import com.comcast.cmb.common.persistence.AbstractDurablePersistence.CMB_SERIALIZER;
 import com.comcast.cmb.common.util.CMBProperties;
 import com.comcast.cmb.common.util.CMBProperties.IO_MODE;
 import com.comcast.cmb.common.util.PersistenceException;
 import com.comcast.cmb.common.util.RollingWindowCapture;
 import com.comcast.cmb.common.util.ValueAccumulator.AccumulatorName;
+import com.comcast.cns.controller.CNSCache;
 import com.comcast.cns.model.CNSEndpointPublishJob;
 import com.comcast.cns.model.CNSEndpointPublishJob.CNSEndpointSubscriptionInfo;
 import com.comcast.cns.model.CNSMessage;
+import com.comcast.cns.model.CNSSubscription.CnsSubscriptionProtocol;
+import com.comcast.cns.model.CNSThrottlePolicy;
+import com.comcast.cns.model.CNSTopicAttributes;
 import com.comcast.cns.persistence.CNSCachedEndpointPublishJob;
 import com.comcast.cns.persistence.TopicNotFoundException;
 import com.comcast.cqs.model.CQSMessage;
-import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.log4j.Logger;
 
 /**
@@ -107,6 +116,20 @@ public class CNSEndpointPublisherJobConsumer implements CNSPublisherPartitionRun
 
   private static volatile Integer testQueueLimit = null;
 
+  // shared by all consumer threads, deliveries over the rate are deferred on reDeliveryHandlers
+
+  private static final CNSDeliveryRateLimiter subscriptionRateLimiter =
+      new CNSDeliveryRateLimiter();
+  private static final CNSDeliveryRateLimiter hostRateLimiter = new CNSDeliveryRateLimiter();
+  private static final AtomicLong throttledDeliveries = new AtomicLong();
+
+  // number of deferred deliveries currently parked on reDeliveryHandlers per endpoint host
+
+  private static final ConcurrentHashMap<String, AtomicInteger> deferredDeliveries =
+      new ConcurrentHashMap<String, AtomicInteger>();
+
+  private static final int SATURATED_HOST_RETRY_DELAY_SECONDS = 5;
+
   public static class MonitoringInterface {
 
     public static int getDeliveryHandlersQueueSize() {
@@ -116,6 +139,10 @@ public class CNSEndpointPublisherJobConsumer implements CNSPublisherPartitionRun
     public static int getReDeliveryHandlersQueueSize() {
       return reDeliveryHandlers.getQueue().size();
     }
+
+    public static long getThrottledDeliveryCount() {
+      return throttledDeliveries.get();
+    }
   }
 
   public static void submitForReDelivery(Runnable job, long delay, TimeUnit unit) {
@@ -211,32 +238,7 @@ public class CNSEndpointPublisherJobConsumer implements CNSPublisherPartitionRun
 
     try {
 
-      long ts1 = System.currentTimeMillis();
-
-      if (CNSPublisher.lastConsumerMinute.getAndSet(ts1 / (1000 * 60)) != ts1 / (1000 * 60)) {
-
-        String hostAddress = InetAddress.getLocalHost().getHostAddress();
-        logger.info("event=ping version=" + CMBControllerServlet.VERSION + " ip=" + hostAddress);
-
-        try {
-          Map<String, String> values = new HashMap<String, String>();
-          values.put("consumerTimestamp", System.currentTimeMillis() + "");
-          values.put("jmxport", System.getProperty("com.sun.management.jmxremote.port", "0"));
-          values.put("mode", CNSPublisher.getModeString());
-          values.put("dataCenter", CMBProperties.getInstance().getCMBDataCenter());
-          CNSPublisher.cassandraHandler.insertRow(
-              CMBProperties.getInstance().getCNSKeyspace(),
-              hostAddress,
-              "CNSWorkers",
-              values,
-              CMB_SERIALIZER.STRING_SERIALIZER,
-              CMB_SERIALIZER.STRING_SERIALIZER,
-              CMB_SERIALIZER.STRING_SERIALIZER,
-              null);
-        } catch (Exception ex) {
-          logger.warn("event=ping_glitch", ex);
-        }
-      }
+      CMBHeartbeatService.markAlive(Role.CNSConsumer);
 
       if (isOverloaded()) {
 
@@ -254,22 +256,19 @@ public class CNSEndpointPublisherJobConsumer implements CNSPublisherPartitionRun
 
       String queueName = CNS_CONSUMER_QUEUE_NAME_PREFIX + partition;
       String queueUrl = CQSHandler.getRelativeCnsInternalQueueUrl(queueName);
-      CQSMessage msg = null;
       int waitTimeSecs = 0;
 
       if (CMBProperties.getInstance().isCQSLongPollEnabled()) {
         waitTimeSecs = CMBProperties.getInstance().getCMBRequestTimeoutSec();
       }
 
-      List<CQSMessage> l = CQSHandler.receiveMessage(queueUrl, waitTimeSecs, 1);
-
-      if (l.size() > 0) {
-        msg = l.get(0);
-      }
+      List<CQSMessage> l =
+          CQSHandler.receiveMessage(
+              queueUrl, waitTimeSecs, CMBProperties.getInstance().getCNSPublisherCQSBatchSize());
 
       CNSWorkerMonitor.getInstance().registerCQSServiceAvailable(true);
 
-      if (msg != null) {
+      if (l.size() > 0) {
 
         // if long polling disabled and message found reset exponential backoff
 
@@ -278,65 +277,22 @@ public class CNSEndpointPublisherJobConsumer implements CNSPublisherPartitionRun
         }
 
         messageFound = true;
+        List<String> topicNotFoundReceiptHandles = new ArrayList<String>();
 
-        try {
+        for (CQSMessage msg : l) {
 
-          CNSEndpointPublishJob endpointPublishJob =
-              (CMBProperties.getInstance().isCNSUseSubInfoCache())
-                  ? CNSCachedEndpointPublishJob.parseInstance(msg.getBody())
-                  : CNSEndpointPublishJob.parseInstance(msg.getBody());
-          logger.debug("endpoint_publish_job=" + endpointPublishJob.toString());
-          User pubUser =
-              (new UserAuthModule()).getUserByUserId(endpointPublishJob.getMessage().getUserId());
-          List<? extends CNSEndpointSubscriptionInfo> subs = endpointPublishJob.getSubInfos();
-
-          CNSWorkerMonitor.getInstance()
-              .registerSendsRemaining(endpointPublishJob.getMessage().getMessageId(), subs.size());
-
-          AtomicInteger endpointPublishJobCount = new AtomicInteger(subs.size());
-
-          for (CNSEndpointSubscriptionInfo sub : subs) {
-
-            Runnable publishJob = null;
-            CNSMessage message = endpointPublishJob.getMessage();
-            message.setSubscriptionArn(sub.subArn);
-
-            if (CMBProperties.getInstance().getCNSIOMode() == IO_MODE.SYNC) {
-              publishJob =
-                  new CNSPublishJob(
-                      message,
-                      pubUser,
-                      sub.protocol,
-                      sub.endpoint,
-                      sub.subArn,
-                      sub.rawDelivery,
-                      queueUrl,
-                      msg.getReceiptHandle(),
-                      endpointPublishJobCount,
-                      msg.getMessageAttributes());
-            } else {
-              publishJob =
-                  new CNSAsyncPublishJob(
-                      message,
-                      pubUser,
-                      sub.protocol,
-                      sub.endpoint,
-                      sub.subArn,
-                      sub.rawDelivery,
-                      queueUrl,
-                      msg.getReceiptHandle(),
-                      endpointPublishJobCount,
-                      msg.getMessageAttributes());
-            }
-
-            deliveryHandlers.submit(publishJob);
+          try {
+            submitEndpointPublishJob(queueUrl, msg);
+          } catch (TopicNotFoundException e) {
+            logger.error("event=topic_not_found action=skip_job");
+            topicNotFoundReceiptHandles.add(msg.getReceiptHandle());
+          } catch (Exception e) {
+            logger.error("event=job_consumer_exception action=wait_for_revisibility", e);
           }
+        }
 
-        } catch (TopicNotFoundException e) {
-          logger.error("event=topic_not_found action=skip_job");
-          CQSHandler.deleteMessage(queueUrl, msg.getReceiptHandle());
-        } catch (Exception e) {
-          logger.error("event=job_consumer_exception action=wait_for_revisibility", e);
+        if (topicNotFoundReceiptHandles.size() > 0) {
+          CQSHandler.deleteMessageBatch(queueUrl, topicNotFoundReceiptHandles);
         }
 
         long tsFinal = System.currentTimeMillis();
@@ -373,4 +329,229 @@ public class CNSEndpointPublisherJobConsumer implements CNSPublisherPartitionRun
     CMBControllerServlet.valueAccumulator.deleteAllCounters();
     return messageFound;
   }
+
+  private void submitEndpointPublishJob(String queueUrl, CQSMessage msg) throws Exception {
+
+    CNSEndpointPublishJob endpointPublishJob =
+        (CMBProperties.getInstance().isCNSUseSubInfoCache())
+            ? CNSCachedEndpointPublishJob.parseInstance(msg.getBody())
+            : CNSEndpointPublishJob.parseInstance(msg.getBody());
+    logger.debug("endpoint_publish_job=" + endpointPublishJob.toString());
+    User pubUser =
+        (new UserAuthModule()).getUserByUserId(endpointPublishJob.getMessage().getUserId());
+    List<CNSEndpointSubscriptionInfo> subs = new ArrayList<CNSEndpointSubscriptionInfo>();
+    List<CNSEndpointSubscriptionInfo> saturatedSubs = new ArrayList<CNSEndpointSubscriptionInfo>();
+
+    // rather than parking more deliveries for a host that already has too many waiting, hand its
+    // subscriptions to a new job that is picked up again after a delay
+
+    int maxDeferred = CMBProperties.getInstance().getCNSPublisherMaxDeferredDeliveriesPerHost();
+
+    for (CNSEndpointSubscriptionInfo sub : endpointPublishJob.getSubInfos()) {
+      if (maxDeferred > 0
+          && getDeferredDeliveryCount(getDeliveryTarget(sub)).get() >= maxDeferred) {
+        saturatedSubs.add(sub);
+      } else {
+        subs.add(sub);
+      }
+    }
+
+    if (saturatedSubs.size() > 0) {
+
+      CNSEndpointPublishJob saturatedJob =
+          (CMBProperties.getInstance().isCNSUseSubInfoCache())
+              ? new CNSCachedEndpointPublishJob(endpointPublishJob.getMessage(), saturatedSubs)
+              : new CNSEndpointPublishJob(endpointPublishJob.getMessage(), saturatedSubs);
+      CQSHandler.sendMessage(
+          queueUrl,
+          saturatedJob.serialize(),
+          SATURATED_HOST_RETRY_DELAY_SECONDS,
+          msg.getMessageAttributes());
+      logger.info(
+          "event=deferred_delivery_limit num_subs="
+              + saturatedSubs.size()
+              + " action=requeue delay_secs="
+              + SATURATED_HOST_RETRY_DELAY_SECONDS);
+
+      if (subs.size() == 0) {
+        CQSHandler.deleteMessage(queueUrl, msg.getReceiptHandle());
+        return;
+      }
+    }
+
+    CNSThrottlePolicy topicThrottlePolicy =
+        getTopicThrottlePolicy(endpointPublishJob.getMessage().getTopicArn());
+
+    CNSWorkerMonitor.getInstance()
+        .registerSendsRemaining(endpointPublishJob.getMessage().getMessageId(), subs.size());
+
+    AtomicInteger endpointPublishJobCount = new AtomicInteger(subs.size());
+    long maxThrottleDelayMillis = 0;
+
+    for (CNSEndpointSubscriptionInfo sub : subs) {
+
+      Runnable publishJob = null;
+      CNSMessage message = endpointPublishJob.getMessage();
+      message.setSubscriptionArn(sub.subArn);
+
+      if (CMBProperties.getInstance().getCNSIOMode() == IO_MODE.SYNC) {
+        publishJob =
+            new CNSPublishJob(
+                message,
+                pubUser,
+                sub.protocol,
+                sub.endpoint,
+                sub.subArn,
+                sub.rawDelivery,
+                queueUrl,
+                msg.getReceiptHandle(),
+                endpointPublishJobCount,
+                msg.getMessageAttributes());
+      } else {
+        publishJob =
+            new CNSAsyncPublishJob(
+                message,
+                pubUser,
+                sub.protocol,
+                sub.endpoint,
+                sub.subArn,
+                sub.rawDelivery,
+                queueUrl,
+                msg.getReceiptHandle(),
+                endpointPublishJobCount,
+                msg.getMessageAttributes());
+      }
+
+      String target = getDeliveryTarget(sub);
+      long throttleDelayMillis = getThrottleDelayMillis(sub, target, topicThrottlePolicy);
+
+      if (throttleDelayMillis > 0) {
+        logger.debug(
+            "event=delivery_throttled sub_arn=" + sub.subArn + " delay_ms=" + throttleDelayMillis);
+        throttledDeliveries.incrementAndGet();
+        maxThrottleDelayMillis = Math.max(maxThrottleDelayMillis, throttleDelayMillis);
+        final AtomicInteger deferredCount = getDeferredDeliveryCount(target);
+        final Runnable deferredJob = publishJob;
+        deferredCount.incrementAndGet();
+        submitForReDelivery(
+            new Runnable() {
+              @Override
+              public void run() {
+                deferredCount.decrementAndGet();
+                deferredJob.run();
+              }
+            },
+            throttleDelayMillis,
+            TimeUnit.MILLISECONDS);
+      } else {
+        deliveryHandlers.submit(publishJob);
+      }
+    }
+
+    // keep the job invisible until the last deferred delivery had a chance to go out
+
+    int visibilityTimeout = (int) (maxThrottleDelayMillis / 1000) + 6;
+
+    if (maxThrottleDelayMillis > 0
+        && visibilityTimeout
+            > CMBProperties.getInstance().getCNSEndpointPublishJobVisibilityTimeout()) {
+      CQSHandler.changeMessageVisibility(queueUrl, msg.getReceiptHandle(), visibilityTimeout);
+    }
+  }
+
+  /**
+   * @param sub
+   * @return host of http(s) endpoints, the endpoint itself for all other protocols
+   */
+  private static String getDeliveryTarget(CNSEndpointSubscriptionInfo sub) {
+
+    if (sub.protocol == CnsSubscriptionProtocol.http
+        || sub.protocol == CnsSubscriptionProtocol.https) {
+
+      try {
+        return new URL(sub.endpoint).getHost();
+      } catch (MalformedURLException ex) {
+        logger.debug("event=invalid_endpoint endpoint=" + sub.endpoint);
+      }
+    }
+
+    return sub.endpoint;
+  }
+
+  private static AtomicInteger getDeferredDeliveryCount(String target) {
+
+    AtomicInteger count = deferredDeliveries.get(target);
+
+    if (count == null) {
+      AtomicInteger fresh = new AtomicInteger();
+      count = deferredDeliveries.putIfAbsent(target, fresh);
+      if (count == null) {
+        count = fresh;
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Default throttle policy of the topic, read from the cached topic attributes so the delivery
+   * path costs at most one attribute read per topic rather than one per subscriber
+   *
+   * @param topicArn
+   * @return throttle policy or null if the topic has none
+   */
+  private static CNSThrottlePolicy getTopicThrottlePolicy(String topicArn) {
+
+    try {
+
+      CNSTopicAttributes attributes = CNSCache.getTopicAttributes(topicArn);
+
+      if (attributes != null && attributes.getEffectiveDeliveryPolicy() != null) {
+        return attributes.getEffectiveDeliveryPolicy().getDefaultThrottlePolicy();
+      }
+
+    } catch (Exception ex) {
+      logger.debug("event=no_throttle_policy topic_arn=" + topicArn, ex);
+    }
+
+    return null;
+  }
+
+  /**
+   * Reserve a delivery slot with the throttle policy of the subscription and the per host limit.
+   * The subscription's effective delivery policy comes from the cns cache, the topic's default
+   * throttle policy is used if it cannot be looked up.
+   *
+   * @param sub
+   * @param target host or endpoint the delivery goes to
+   * @param topicThrottlePolicy default throttle policy of the topic, may be null
+   * @return milliseconds the delivery has to be deferred, 0 if it can be sent right away
+   */
+  private long getThrottleDelayMillis(
+      CNSEndpointSubscriptionInfo sub, String target, CNSThrottlePolicy topicThrottlePolicy) {
+
+    long delayMillis = 0;
+    CNSThrottlePolicy throttlePolicy = topicThrottlePolicy;
+
+    try {
+      throttlePolicy = CNSCache.getEffectiveDeliveryPolicy(sub.subArn).getThrottlePolicy();
+    } catch (Exception ex) {
+      logger.debug("event=no_throttle_policy sub_arn=" + sub.subArn, ex);
+    }
+
+    if (throttlePolicy != null && throttlePolicy.getMaxReceivesPerSecond() != null) {
+      delayMillis =
+          subscriptionRateLimiter.reserve(sub.subArn, throttlePolicy.getMaxReceivesPerSecond());
+    }
+
+    int maxPerHost = CMBProperties.getInstance().getCNSPublisherMaxDeliveriesPerHostPerSecond();
+
+    if (maxPerHost > 0
+        && (sub.protocol == CnsSubscriptionProtocol.http
+            || sub.protocol == CnsSubscriptionProtocol.https)) {
+      delayMillis = Math.max(delayMillis, hostRateLimiter.reserve(target, maxPerHost));
+    }
+
+    return delayMillis;
+  }
 }
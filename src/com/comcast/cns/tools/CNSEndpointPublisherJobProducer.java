@@ -14,7 +14,8 @@
 package com.comcast.cns.tools;
 
 import com.comcast.cmb.common.controller.CMBControllerServlet;
-import com.comcast.cmb.common.persistence.AbstractDurablePersistence.CMB_SERIALIZER;
+import com.comcast.cmb.common.controller.CMBHeartbeatService;
+import com.comcast.cmb.common.controller.CMBHeartbeatService.Role;
 import com.comcast.cmb.common.persistence.PersistenceFactory;
 import com.comcast.cmb.common.util.CMBProperties;
 import com.comcast.cmb.common.util.PersistenceException;
@@ -24,10 +25,11 @@ import com.comcast.cns.model.CNSEndpointPublishJob.CNSEndpointSubscriptionInfo;
 import com.comcast.cns.model.CNSMessage;
 import com.comcast.cns.model.CNSSubscription;
 import com.comcast.cns.persistence.CNSCachedEndpointPublishJob;
+import com.comcast.cns.persistence.ICNSSubscriptionCursor;
 import com.comcast.cns.persistence.ICNSSubscriptionPersistence;
 import com.comcast.cns.persistence.TopicNotFoundException;
 import com.comcast.cqs.model.CQSMessage;
-import java.net.InetAddress;
+import com.comcast.cqs.model.CQSMessageAttribute;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -54,6 +56,13 @@ public class CNSEndpointPublisherJobProducer implements CNSPublisherPartitionRun
   private static volatile ICNSSubscriptionPersistence subscriptionPersistence =
       PersistenceFactory.getSubscriptionPersistence();
 
+  // a publish job continuing the fan-out of an earlier one carries the subscription cursor
+  // position in this message attribute, it is not passed on to the endpoint publish jobs
+
+  public static final String CURSOR_POSITION_ATTRIBUTE = "CNSSubscriptionCursorPosition";
+
+  private static final int MAX_PAGE_READ_ATTEMPTS = 3;
+
   private long processingDelayMillis = 10;
 
   /*
@@ -93,50 +102,24 @@ public class CNSEndpointPublisherJobProducer implements CNSPublisherPartitionRun
 
     try {
 
-      if (CNSPublisher.lastProducerMinute.getAndSet(ts1 / (1000 * 60)) != ts1 / (1000 * 60)) {
-
-        String hostAddress = InetAddress.getLocalHost().getHostAddress();
-        logger.info("event=ping version=" + CMBControllerServlet.VERSION + " ip=" + hostAddress);
-
-        try {
-          Map<String, String> values = new HashMap<String, String>();
-          values.put("producerTimestamp", System.currentTimeMillis() + "");
-          values.put("jmxport", System.getProperty("com.sun.management.jmxremote.port", "0"));
-          values.put("mode", CNSPublisher.getModeString());
-          values.put("dataCenter", CMBProperties.getInstance().getCMBDataCenter());
-          CNSPublisher.cassandraHandler.insertRow(
-              CMBProperties.getInstance().getCNSKeyspace(),
-              hostAddress,
-              "CNSWorkers",
-              values,
-              CMB_SERIALIZER.STRING_SERIALIZER,
-              CMB_SERIALIZER.STRING_SERIALIZER,
-              CMB_SERIALIZER.STRING_SERIALIZER,
-              null);
-        } catch (Exception ex) {
-          logger.warn("event=ping_glitch", ex);
-        }
-      }
+      CMBHeartbeatService.markAlive(Role.CNSProducer);
 
       String publishJobQName = CNS_PRODUCER_QUEUE_NAME_PREFIX + partition;
       String queueUrl = CQSHandler.getRelativeCnsInternalQueueUrl(publishJobQName);
 
-      CQSMessage msg = null;
       int waitTimeSecs = 0;
 
       if (CMBProperties.getInstance().isCQSLongPollEnabled()) {
         waitTimeSecs = CMBProperties.getInstance().getCMBRequestTimeoutSec();
       }
 
-      List<CQSMessage> l = CQSHandler.receiveMessage(queueUrl, waitTimeSecs, 1);
-
-      if (l.size() > 0) {
-        msg = l.get(0);
-      }
+      List<CQSMessage> l =
+          CQSHandler.receiveMessage(
+              queueUrl, waitTimeSecs, CMBProperties.getInstance().getCNSPublisherCQSBatchSize());
 
       CNSWorkerMonitor.getInstance().registerCQSServiceAvailable(true);
 
-      if (msg != null) {
+      if (l.size() > 0) {
 
         // if long polling disabled and message found reset exponential backoff
 
@@ -144,70 +127,54 @@ public class CNSEndpointPublisherJobProducer implements CNSPublisherPartitionRun
           processingDelayMillis = 10;
         }
 
-        CNSMessage publishMessage = CNSMessage.parseInstance(msg.getBody());
+        messageFound = true;
+        List<String> processedReceiptHandles = new ArrayList<String>();
 
-        int messageExpirationSeconds = CMBProperties.getInstance().getCNSMessageExpirationSeconds();
+        long receiveTime = System.currentTimeMillis();
+        int visibilityTimeout = CMBProperties.getInstance().getCNSPublishJobVisibilityTimeout();
 
-        if (messageExpirationSeconds != 0
-            && System.currentTimeMillis() - publishMessage.getTimestamp().getTime()
-                > messageExpirationSeconds * 1000) {
-          logger.error(
-              "event=deleting_publish_job reason=message_too_old topic_arn="
-                  + publishMessage.getTopicArn());
-          CQSHandler.deleteMessage(queueUrl, msg.getReceiptHandle());
-          CMBControllerServlet.valueAccumulator.deleteAllCounters();
-          return true; // return true to avoid backoff
-        }
+        try {
+          for (CQSMessage msg : l) {
 
-        List<CNSEndpointPublishJob.CNSEndpointSubscriptionInfo> subscriptions = null;
+            // jobs wait for the ones received before them, once half of their visibility timeout
+            // is used up give them a new one so they don't become visible and get fanned out twice
 
-        long t1 = System.currentTimeMillis();
+            try {
 
-        try {
-          subscriptions = getSubscriptionsForTopic(publishMessage.getTopicArn());
-        } catch (TopicNotFoundException e) {
-
-          // delete this message/job since the topic was deleted.
-
-          logger.error(
-              "event=deleting_publish_job reason=topic_not_found topic_arn="
-                  + publishMessage.getTopicArn());
-          CQSHandler.deleteMessage(queueUrl, msg.getReceiptHandle());
-          CMBControllerServlet.valueAccumulator.deleteAllCounters();
-          return true; // return true to avoid backoff
-
-        } catch (Exception ex) {
-          logger.error("event=skipping_publish_job reason=error_fetching_subscriptions", ex);
-          CMBControllerServlet.valueAccumulator.deleteAllCounters();
-          return true; // return true to avoid backoff
-        }
+              if (System.currentTimeMillis() - receiveTime > visibilityTimeout * 1000L / 2) {
+                CQSHandler.changeMessageVisibility(
+                    queueUrl, msg.getReceiptHandle(), visibilityTimeout);
+              }
+
+              if (processPublishJob(queueUrl, msg)) {
+                processedReceiptHandles.add(msg.getReceiptHandle());
+              }
 
-        logger.debug("event=get_subscription_list ms=" + (System.currentTimeMillis() - t1));
+            } catch (Exception ex) {
 
-        if (subscriptions != null && subscriptions.size() > 0) {
+              // leave only this job undeleted, it becomes visible again after its visibility
+              // timeout, and go on with the rest of the batch
 
-          messageFound = true;
-          List<CNSEndpointPublishJob> epPublishJobs =
-              createEndpointPublishJobs(publishMessage, subscriptions);
+              logger.error(
+                  "event=publish_job_failed receipt_handle=" + msg.getReceiptHandle(), ex);
+            }
+          }
+        } finally {
 
-          for (CNSEndpointPublishJob epPublishJob : epPublishJobs) {
+          // delete whatever was processed even if the loop ended early, the remaining jobs
+          // become visible again after their visibility timeout
 
-            String epQueueName =
-                CMBProperties.getInstance().getCNSEndpointPublishQueueNamePrefix()
-                    + ((new Random())
-                        .nextInt(CMBProperties.getInstance().getCNSNumEndpointPublishJobQueues()));
-            String epQueueUrl = CQSHandler.getRelativeCnsInternalQueueUrl(epQueueName);
-            CQSHandler.sendMessage(
-                epQueueUrl, epPublishJob.serialize(), msg.getMessageAttributes());
+          if (processedReceiptHandles.size() > 0) {
+            CQSHandler.deleteMessageBatch(queueUrl, processedReceiptHandles);
           }
         }
 
-        CQSHandler.deleteMessage(queueUrl, msg.getReceiptHandle());
-
         long ts2 = System.currentTimeMillis();
 
         logger.debug(
-            "event=processed_producer_job cns_cqs_ms="
+            "event=processed_producer_jobs num_jobs="
+                + l.size()
+                + " cns_cqs_ms="
                 + CMBControllerServlet.valueAccumulator.getCounter(AccumulatorName.CNSCQSTime)
                 + " resp_ms="
                 + (ts2 - ts1));
@@ -238,6 +205,217 @@ public class CNSEndpointPublisherJobProducer implements CNSPublisherPartitionRun
     return messageFound;
   }
 
+  /**
+   * Partition the subscribers of a publish job into endpoint publish jobs and enqueue them. If
+   * reading or enqueueing a page of subscribers fails after some pages were fanned out, the rest of
+   * the fan-out is handed to a continuation publish job starting at the failed page.
+   *
+   * @param queueUrl publish job queue
+   * @param msg publish job
+   * @return true if the publish job is done and should be deleted, false if it should become
+   *     visible again to be retried
+   * @throws Exception if endpoint publish jobs could not be enqueued
+   */
+  private boolean processPublishJob(String queueUrl, CQSMessage msg) throws Exception {
+
+    CNSMessage publishMessage = CNSMessage.parseInstance(msg.getBody());
+
+    int messageExpirationSeconds = CMBProperties.getInstance().getCNSMessageExpirationSeconds();
+
+    if (messageExpirationSeconds != 0
+        && System.currentTimeMillis() - publishMessage.getTimestamp().getTime()
+            > messageExpirationSeconds * 1000) {
+      logger.error(
+          "event=deleting_publish_job reason=message_too_old topic_arn="
+              + publishMessage.getTopicArn());
+      return true;
+    }
+
+    List<CNSEndpointPublishJob.CNSEndpointSubscriptionInfo> subscriptions = null;
+    ICNSSubscriptionCursor cursor = null;
+
+    long t1 = System.currentTimeMillis();
+
+    try {
+
+      if (CMBProperties.getInstance().isCNSUseSubInfoCache()) {
+        subscriptions =
+            new ArrayList<CNSEndpointPublishJob.CNSEndpointSubscriptionInfo>(
+                CNSCachedEndpointPublishJob.getSubInfos(publishMessage.getTopicArn()));
+      } else {
+
+        // stream the subscriptions so that fan-out starts after the first page, each page fills
+        // exactly one batch of endpoint publish jobs
+
+        int pageSize =
+            CMBProperties.getInstance().getCNSMaxSubscriptionsPerEndpointPublishJob()
+                * CMBProperties.getInstance().getCNSPublisherCQSBatchSize();
+        cursor =
+            subscriptionPersistence.getConfirmedSubscriptionCursor(
+                publishMessage.getTopicArn(), pageSize, getCursorPosition(msg));
+        subscriptions = getSubscriptionInfos(cursor.nextPage());
+      }
+
+    } catch (TopicNotFoundException e) {
+
+      // delete this message/job since the topic was deleted.
+
+      logger.error(
+          "event=deleting_publish_job reason=topic_not_found topic_arn="
+              + publishMessage.getTopicArn());
+      return true;
+
+    } catch (Exception ex) {
+      logger.error("event=skipping_publish_job reason=error_fetching_subscriptions", ex);
+      return false;
+    }
+
+    logger.debug("event=get_subscription_list ms=" + (System.currentTimeMillis() - t1));
+
+    // cursor position in front of the current page, where a continuation has to pick up
+
+    String pagePosition = getCursorPosition(msg);
+    boolean firstPage = true;
+
+    while (subscriptions.size() > 0) {
+
+      try {
+        enqueueEndpointPublishJobs(msg, publishMessage, subscriptions);
+      } catch (Exception ex) {
+
+        if (firstPage) {
+          throw ex;
+        }
+
+        // retrying the whole job would deliver to the subscriptions of earlier pages twice
+
+        logger.error(
+            "event=continuing_publish_job reason=error_enqueueing_endpoint_publish_jobs topic_arn="
+                + publishMessage.getTopicArn()
+                + " position="
+                + pagePosition,
+            ex);
+        enqueueContinuation(queueUrl, msg, pagePosition);
+        return true;
+      }
+
+      if (cursor == null) {
+        break;
+      }
+
+      firstPage = false;
+      pagePosition = cursor.getPosition();
+
+      try {
+        subscriptions = getSubscriptionInfos(readNextPage(cursor));
+      } catch (Exception ex) {
+
+        // retrying the whole job would deliver to the subscriptions of earlier pages twice
+
+        logger.error(
+            "event=continuing_publish_job reason=error_fetching_subscriptions topic_arn="
+                + publishMessage.getTopicArn()
+                + " position="
+                + pagePosition,
+            ex);
+        enqueueContinuation(queueUrl, msg, pagePosition);
+        return true;
+      }
+    }
+
+    return true;
+  }
+
+  private static List<CNSSubscription> readNextPage(ICNSSubscriptionCursor cursor)
+      throws Exception {
+
+    for (int attempt = 1; ; attempt++) {
+
+      try {
+        return cursor.nextPage();
+      } catch (Exception ex) {
+
+        if (attempt >= MAX_PAGE_READ_ATTEMPTS) {
+          throw ex;
+        }
+
+        logger.warn("event=retrying_subscription_page_read attempt=" + attempt, ex);
+      }
+    }
+  }
+
+  private static String getCursorPosition(CQSMessage msg) {
+
+    if (msg.getMessageAttributes() == null
+        || !msg.getMessageAttributes().containsKey(CURSOR_POSITION_ATTRIBUTE)) {
+      return null;
+    }
+
+    return msg.getMessageAttributes().get(CURSOR_POSITION_ATTRIBUTE).getStringValue();
+  }
+
+  /** @return message attributes of the publish job without the cursor position */
+  private static Map<String, CQSMessageAttribute> getPublishedMessageAttributes(CQSMessage msg) {
+
+    if (msg.getMessageAttributes() == null
+        || !msg.getMessageAttributes().containsKey(CURSOR_POSITION_ATTRIBUTE)) {
+      return msg.getMessageAttributes();
+    }
+
+    Map<String, CQSMessageAttribute> attributes =
+        new HashMap<String, CQSMessageAttribute>(msg.getMessageAttributes());
+    attributes.remove(CURSOR_POSITION_ATTRIBUTE);
+
+    return attributes;
+  }
+
+  private static void enqueueContinuation(String queueUrl, CQSMessage msg, String position)
+      throws Exception {
+
+    Map<String, CQSMessageAttribute> attributes = new HashMap<String, CQSMessageAttribute>();
+
+    if (msg.getMessageAttributes() != null) {
+      attributes.putAll(msg.getMessageAttributes());
+    }
+
+    if (position == null) {
+      attributes.remove(CURSOR_POSITION_ATTRIBUTE);
+    } else {
+      attributes.put(CURSOR_POSITION_ATTRIBUTE, new CQSMessageAttribute(position, "String"));
+    }
+
+    CQSHandler.sendMessage(queueUrl, msg.getBody(), attributes);
+  }
+
+  private void enqueueEndpointPublishJobs(
+      CQSMessage msg,
+      CNSMessage publishMessage,
+      List<CNSEndpointPublishJob.CNSEndpointSubscriptionInfo> subscriptions)
+      throws Exception {
+
+    List<CNSEndpointPublishJob> epPublishJobs =
+        createEndpointPublishJobs(publishMessage, subscriptions);
+    int batchSize = CMBProperties.getInstance().getCNSPublisherCQSBatchSize();
+
+    // each batch goes to a randomly selected endpoint publish job queue
+
+    for (int i = 0; i < epPublishJobs.size(); i += batchSize) {
+
+      List<String> batch = new ArrayList<String>();
+
+      for (int j = i; j < i + batchSize && j < epPublishJobs.size(); j++) {
+        batch.add(epPublishJobs.get(j).serialize());
+      }
+
+      String epQueueName =
+          CMBProperties.getInstance().getCNSEndpointPublishQueueNamePrefix()
+              + ((new Random())
+                  .nextInt(CMBProperties.getInstance().getCNSNumEndpointPublishJobQueues()));
+      String epQueueUrl = CQSHandler.getRelativeCnsInternalQueueUrl(epQueueName);
+      CQSHandler.sendMessageBatch(epQueueUrl, batch, getPublishedMessageAttributes(msg));
+    }
+  }
+
   public static List<CNSEndpointPublishJob.CNSEndpointSubscriptionInfo> getSubscriptionsForTopic(
       String topicArn) throws Exception {
 
@@ -248,37 +426,32 @@ public class CNSEndpointPublisherJobProducer implements CNSPublisherPartitionRun
       subInfoList.addAll(CNSCachedEndpointPublishJob.getSubInfos(topicArn));
     } else {
 
-      String nextToken = null;
-
-      while (true) {
+      ICNSSubscriptionCursor cursor =
+          subscriptionPersistence.getConfirmedSubscriptionCursor(topicArn, 1000);
+      List<CNSSubscription> subscriptions = cursor.nextPage();
 
-        List<CNSSubscription> subscriptions =
-            subscriptionPersistence.listSubscriptionsByTopic(nextToken, topicArn, null, 1000);
-
-        if (subscriptions == null || subscriptions.size() == 0) {
-          break;
-        }
-
-        boolean allPendingConfirmation = true;
+      while (subscriptions.size() > 0) {
+        subInfoList.addAll(getSubscriptionInfos(subscriptions));
+        subscriptions = cursor.nextPage();
+      }
+    }
 
-        for (CNSSubscription subscription : subscriptions) {
+    return subInfoList;
+  }
 
-          if (!subscription.getArn().equals("PendingConfirmation")) {
-            allPendingConfirmation = false;
-            subInfoList.add(
-                new CNSEndpointPublishJob.CNSEndpointSubscriptionInfo(
-                    subscription.getProtocol(),
-                    subscription.getEndpoint(),
-                    subscription.getArn(),
-                    subscription.getRawMessageDelivery()));
-            nextToken = subscription.getArn();
-          }
-        }
+  private static List<CNSEndpointPublishJob.CNSEndpointSubscriptionInfo> getSubscriptionInfos(
+      List<CNSSubscription> subscriptions) {
 
-        if (allPendingConfirmation) {
-          break;
-        }
-      }
+    List<CNSEndpointPublishJob.CNSEndpointSubscriptionInfo> subInfoList =
+        new ArrayList<CNSEndpointPublishJob.CNSEndpointSubscriptionInfo>(subscriptions.size());
+
+    for (CNSSubscription subscription : subscriptions) {
+      subInfoList.add(
+          new CNSEndpointPublishJob.CNSEndpointSubscriptionInfo(
+              subscription.getProtocol(),
+              subscription.getEndpoint(),
+              subscription.getArn(),
+              subscription.getRawMessageDelivery()));
     }
 
     return subInfoList;
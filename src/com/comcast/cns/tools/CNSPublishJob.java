@@ -15,19 +15,16 @@ package com.comcast.cns.tools;
 
 import com.comcast.cmb.common.controller.CMBControllerServlet;
 import com.comcast.cmb.common.model.User;
-import com.comcast.cmb.common.persistence.PersistenceFactory;
-import com.comcast.cmb.common.util.CMBErrorCodes;
 import com.comcast.cmb.common.util.CMBException;
 import com.comcast.cmb.common.util.CMBProperties;
 import com.comcast.cmb.common.util.ValueAccumulator.AccumulatorName;
+import com.comcast.cns.controller.CNSCache;
 import com.comcast.cns.io.EndpointPublisherFactory;
 import com.comcast.cns.io.IEndpointPublisher;
 import com.comcast.cns.model.CNSMessage;
 import com.comcast.cns.model.CNSRetryPolicy;
 import com.comcast.cns.model.CNSSubscription.CnsSubscriptionProtocol;
-import com.comcast.cns.model.CNSSubscriptionAttributes;
 import com.comcast.cns.model.CNSSubscriptionDeliveryPolicy;
-import com.comcast.cns.persistence.ICNSAttributesPersistence;
 import com.comcast.cns.persistence.SubscriberNotFoundException;
 import com.comcast.cns.util.Util;
 import com.comcast.cqs.model.CQSMessageAttribute;
@@ -99,16 +96,7 @@ public class CNSPublishJob implements Runnable {
 
     try {
 
-      ICNSAttributesPersistence attributePers = PersistenceFactory.getCNSAttributePersistence();
-      CNSSubscriptionAttributes subAttr = attributePers.getSubscriptionAttributes(subArn);
-
-      if (subAttr == null) {
-        throw new CMBException(
-            CMBErrorCodes.InternalError,
-            "Could not get subscription delivery policy for subscripiton " + subArn);
-      }
-
-      CNSSubscriptionDeliveryPolicy deliveryPolicy = subAttr.getEffectiveDeliveryPolicy();
+      CNSSubscriptionDeliveryPolicy deliveryPolicy = CNSCache.getEffectiveDeliveryPolicy(subArn);
       CNSRetryPolicy retryPolicy = deliveryPolicy.getHealthyRetryPolicy();
 
       logger.debug("retry_policy=" + retryPolicy + "sub_arn=" + subArn);
@@ -14,15 +14,14 @@
 package com.comcast.cns.tools;
 
 import com.comcast.cmb.common.controller.CMBControllerServlet;
-import com.comcast.cmb.common.persistence.AbstractDurablePersistence;
-import com.comcast.cmb.common.persistence.DurablePersistenceFactory;
+import com.comcast.cmb.common.controller.CMBHeartbeatService;
+import com.comcast.cmb.common.controller.CMBHeartbeatService.Role;
 import com.comcast.cmb.common.util.CMBProperties;
 import com.comcast.cmb.common.util.PersistenceException;
 import com.comcast.cmb.common.util.Util;
 import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.util.EnumSet;
-import java.util.concurrent.atomic.AtomicLong;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 import org.apache.log4j.Logger;
@@ -46,14 +45,6 @@ public class CNSPublisher {
   static volatile CNSPublisherJobThread[] jobProducers = null;
   static volatile CNSPublisherJobThread[] consumers = null;
 
-  // used for ping
-
-  public static volatile AtomicLong lastProducerMinute = new AtomicLong(0);
-  public static volatile AtomicLong lastConsumerMinute = new AtomicLong(0);
-
-  public static volatile AbstractDurablePersistence cassandraHandler =
-      DurablePersistenceFactory.getInstance();
-
   private static void printUsage() {
     System.out.println(
         "java <opts> com.comcast.cns.tools.CNSPublisher -role=<comma separated list of roles>");
@@ -122,6 +113,7 @@ public class CNSPublisher {
     if (modes.contains(Mode.Producer)) {
 
       CNSEndpointPublisherJobProducer.initialize();
+      CMBHeartbeatService.register(Role.CNSProducer);
       jobProducers =
           new CNSPublisherJobThread
               [CMBProperties.getInstance().getCNSNumEndpointPublisherJobProducers()
@@ -144,6 +136,7 @@ public class CNSPublisher {
     if (modes.contains(Mode.Consumer)) {
 
       CNSEndpointPublisherJobConsumer.initialize();
+      CMBHeartbeatService.register(Role.CNSConsumer);
       consumers =
           new CNSPublisherJobThread
               [CMBProperties.getInstance().getCNSNumEndpointPublisherJobConsumers()
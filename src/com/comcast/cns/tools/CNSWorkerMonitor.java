@@ -14,8 +14,10 @@
 package com.comcast.cns.tools;
 
 import com.comcast.cmb.common.util.CMBProperties;
+import com.comcast.cmb.common.util.CMBProperties.IO_MODE;
 import com.comcast.cmb.common.util.PersistenceException;
 import com.comcast.cmb.common.util.RollingWindowCapture;
+import com.comcast.cns.io.HTTPEndpointAsyncPublisher;
 import com.comcast.cns.io.HTTPEndpointSyncPublisher;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -83,6 +85,57 @@ public class CNSWorkerMonitor implements CNSWorkerMonitorMBean {
     return HTTPEndpointSyncPublisher.getNumConnectionsInPool();
   }
 
+  // avoid spinning up the async http client just to report on it when it is not in use
+
+  private boolean isAsyncIOMode() {
+    return CMBProperties.getInstance().getCNSIOMode() == IO_MODE.ASYNC;
+  }
+
+  @Override
+  public int getAsyncPublishHttpPoolLeased() {
+    if (!isAsyncIOMode()) {
+      return 0;
+    }
+
+    return HTTPEndpointAsyncPublisher.getTotalPoolStats().getLeased();
+  }
+
+  @Override
+  public int getAsyncPublishHttpPoolPending() {
+    if (!isAsyncIOMode()) {
+      return 0;
+    }
+
+    return HTTPEndpointAsyncPublisher.getTotalPoolStats().getPending();
+  }
+
+  @Override
+  public int getAsyncPublishHttpPoolAvailable() {
+    if (!isAsyncIOMode()) {
+      return 0;
+    }
+
+    return HTTPEndpointAsyncPublisher.getTotalPoolStats().getAvailable();
+  }
+
+  @Override
+  public Map<String, String> getAsyncPublishHttpPoolStatsByRoute() {
+    if (!isAsyncIOMode()) {
+      return new HashMap<String, String>();
+    }
+
+    return HTTPEndpointAsyncPublisher.getPoolStatsByRoute();
+  }
+
+  @Override
+  public long getAsyncPublishHttpRejectedCount() {
+    if (!isAsyncIOMode()) {
+      return 0;
+    }
+
+    return HTTPEndpointAsyncPublisher.getRejectedRequestCount();
+  }
+
   public void registerPublishMessage() {
     GenericEvent currentHead = publishMsgRW.getLatestPayload();
     if (currentHead == null || System.currentTimeMillis() - currentHead.timeStamp > 60000L) {
@@ -215,6 +268,11 @@ public class CNSWorkerMonitor implements CNSWorkerMonitorMBean {
     return CNSEndpointPublisherJobConsumer.MonitoringInterface.getDeliveryHandlersQueueSize();
   }
 
+  @Override
+  public long getThrottledDeliveryCount() {
+    return CNSEndpointPublisherJobConsumer.MonitoringInterface.getThrottledDeliveryCount();
+  }
+
   @Override
   public int getRedeliveryQueueSize() {
     return CNSEndpointPublisherJobConsumer.MonitoringInterface.getReDeliveryHandlersQueueSize();
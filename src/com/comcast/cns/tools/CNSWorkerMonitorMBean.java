@@ -28,6 +28,21 @@ public interface CNSWorkerMonitorMBean {
   /** @return number of http connections in the pool for HTTP publisher */
   public int getPublishHttpPoolSize();
 
+  /** @return number of leased connections in the pool for async HTTP publisher */
+  public int getAsyncPublishHttpPoolLeased();
+
+  /** @return number of connection requests waiting for the pool for async HTTP publisher */
+  public int getAsyncPublishHttpPoolPending();
+
+  /** @return number of idle connections in the pool for async HTTP publisher */
+  public int getAsyncPublishHttpPoolAvailable();
+
+  /** @return map of endpoint host -> leased, pending, available, max and in flight requests */
+  public Map<String, String> getAsyncPublishHttpPoolStatsByRoute();
+
+  /** @return number of async HTTP sends rejected because endpoint was at its in flight limit */
+  public long getAsyncPublishHttpRejectedCount();
+
   /**
    * @return total number of publish jobs for which at least one endpoint is not yet succesfully
    *     published but we are still trying
@@ -46,6 +61,12 @@ public interface CNSWorkerMonitorMBean {
   /** @return size of redelivery handler queue */
   public int getRedeliveryQueueSize();
 
+  /**
+   * @return number of deliveries deferred because they were over the throttle policy rate of
+   *     their subscription or the delivery rate limit of their endpoint host
+   */
+  public long getThrottledDeliveryCount();
+
   /** */
   public boolean isCQSServiceAvailable();
 
@@ -16,27 +16,37 @@ package com.comcast.cns.tools;
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
 import com.amazonaws.services.sqs.model.ChangeMessageVisibilityRequest;
 import com.amazonaws.services.sqs.model.CreateQueueRequest;
 import com.amazonaws.services.sqs.model.CreateQueueResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
 import com.amazonaws.services.sqs.model.DeleteMessageRequest;
 import com.amazonaws.services.sqs.model.GetQueueUrlRequest;
 import com.amazonaws.services.sqs.model.Message;
 import com.amazonaws.services.sqs.model.MessageAttributeValue;
 import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
 import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
 import com.amazonaws.services.sqs.model.SendMessageRequest;
 import com.amazonaws.services.sqs.model.SendMessageResult;
 import com.comcast.cmb.common.controller.CMBControllerServlet;
 import com.comcast.cmb.common.model.User;
 import com.comcast.cmb.common.persistence.IUserPersistence;
 import com.comcast.cmb.common.persistence.PersistenceFactory;
+import com.comcast.cmb.common.util.CMBErrorCodes;
 import com.comcast.cmb.common.util.CMBException;
 import com.comcast.cmb.common.util.CMBProperties;
 import com.comcast.cmb.common.util.PersistenceException;
 import com.comcast.cmb.common.util.ValueAccumulator.AccumulatorName;
 import com.comcast.cqs.api.CQSAPI;
 import com.comcast.cqs.controller.CQSCache;
+import com.comcast.cqs.controller.CQSLongPollReceiver;
 import com.comcast.cqs.model.CQSMessage;
 import com.comcast.cqs.model.CQSMessageAttribute;
 import com.comcast.cqs.model.CQSQueue;
@@ -135,8 +145,6 @@ public class CQSHandler {
   public static List<CQSMessage> receiveMessage(
       String relativeQueueUrl, int waitTimeSeconds, int maxNumberOfMessages) throws Exception {
 
-    // TODO: inline calling for long polled receive not supported yet
-
     List<CQSMessage> messages = new ArrayList<CQSMessage>();
     long ts1 = System.currentTimeMillis();
 
@@ -146,6 +154,12 @@ public class CQSHandler {
           CQSAPI.receiveMessages(
               cnsInternal.getUserId(), relativeQueueUrl, maxNumberOfMessages, null);
 
+    } else if (useInlineApiCalls && CQSLongPollReceiver.isListening()) {
+
+      // long poll receiver runs in this jvm so we can wait for notifications directly
+
+      messages = receiveMessagesInline(relativeQueueUrl, waitTimeSeconds, maxNumberOfMessages);
+
     } else {
 
       String absoluteQueueUrl = Util.getAbsoluteQueueUrlForRelativeUrl(relativeQueueUrl);
@@ -172,6 +186,38 @@ public class CQSHandler {
     return messages;
   }
 
+  private static List<CQSMessage> receiveMessagesInline(
+      String relativeQueueUrl, int waitTimeSeconds, int maxNumberOfMessages) throws Exception {
+
+    CQSQueue queue = CQSCache.getCachedQueue(relativeQueueUrl);
+
+    if (queue == null) {
+      throw new CMBException(CMBErrorCodes.InternalError, "Unknown queue " + relativeQueueUrl);
+    }
+
+    long deadline = System.currentTimeMillis() + waitTimeSeconds * 1000L;
+
+    while (true) {
+
+      // snapshot before reading so a send between the read and the wait still wakes us up, this
+      // also keeps senders on other api servers routing notifications for the queue to us
+
+      long notificationCount = CQSLongPollReceiver.getNotificationCount(queue.getArn());
+
+      List<CQSMessage> messages =
+          CQSAPI.receiveMessages(
+              cnsInternal.getUserId(), relativeQueueUrl, maxNumberOfMessages, null);
+
+      long timeLeft = deadline - System.currentTimeMillis();
+
+      if (messages.size() > 0 || timeLeft <= 0) {
+        return messages;
+      }
+
+      CQSLongPollReceiver.awaitNotification(queue.getArn(), notificationCount, timeLeft);
+    }
+  }
+
   public static String getQueueUrl(String queueName) throws Exception {
 
     String queueUrl = null;
@@ -196,6 +242,23 @@ public class CQSHandler {
   public static String sendMessage(
       String relativeQueueUrl, String message, Map<String, CQSMessageAttribute> messageAttributes)
       throws Exception {
+    return sendMessage(relativeQueueUrl, message, null, messageAttributes);
+  }
+
+  /**
+   * @param relativeQueueUrl
+   * @param message message body
+   * @param delaySeconds seconds before the message becomes visible, null for the queue default
+   * @param messageAttributes may be null
+   * @return message id
+   * @throws Exception
+   */
+  public static String sendMessage(
+      String relativeQueueUrl,
+      String message,
+      Integer delaySeconds,
+      Map<String, CQSMessageAttribute> messageAttributes)
+      throws Exception {
 
     long ts1 = System.currentTimeMillis();
     String receiptHandle = null;
@@ -203,21 +266,13 @@ public class CQSHandler {
     if (useInlineApiCalls) {
       receiptHandle =
           CQSAPI.sendMessage(
-              cnsInternal.getUserId(), relativeQueueUrl, message, null, messageAttributes);
+              cnsInternal.getUserId(), relativeQueueUrl, message, delaySeconds, messageAttributes);
     } else {
       String absoluteQueueUrl = Util.getAbsoluteQueueUrlForRelativeUrl(relativeQueueUrl);
 
       SendMessageRequest sendMessageRequest = new SendMessageRequest(absoluteQueueUrl, message);
-
-      if (messageAttributes != null) {
-        for (String messageAttributeName : messageAttributes.keySet()) {
-          MessageAttributeValue value = new MessageAttributeValue();
-          value.setDataType(messageAttributes.get(messageAttributeName).getDataType());
-          value.setStringValue(messageAttributes.get(messageAttributeName).getStringValue());
-          sendMessageRequest.addMessageAttributesEntry(messageAttributeName, value);
-        }
-      }
-
+      sendMessageRequest.setMessageAttributes(getMessageAttributeValues(messageAttributes));
+      sendMessageRequest.setDelaySeconds(delaySeconds);
       SendMessageResult sendMessageResult = sqs.sendMessage(sendMessageRequest);
       receiptHandle = sendMessageResult.getMessageId();
     }
@@ -230,6 +285,102 @@ public class CQSHandler {
     return receiptHandle;
   }
 
+  /**
+   * Send messages sharing the same message attributes to a queue. Each cqs call sends at most
+   * cmb.cns.publisher.cqsBatchSize messages and at most cmb.cqs.maxMsgSizeBatch bytes.
+   *
+   * @param relativeQueueUrl
+   * @param messages message bodies
+   * @param messageAttributes attributes added to every message, may be null
+   * @return message ids in the order of messages
+   * @throws CMBException if any message of a batch could not be sent
+   */
+  public static List<String> sendMessageBatch(
+      String relativeQueueUrl,
+      List<String> messages,
+      Map<String, CQSMessageAttribute> messageAttributes)
+      throws Exception {
+
+    long ts1 = System.currentTimeMillis();
+    List<String> messageIds = new ArrayList<String>();
+
+    if (useInlineApiCalls) {
+
+      // inline calls do not go over http so there is nothing to gain from batching
+
+      for (String message : messages) {
+        messageIds.add(
+            CQSAPI.sendMessage(
+                cnsInternal.getUserId(), relativeQueueUrl, message, null, messageAttributes));
+      }
+
+    } else {
+
+      String absoluteQueueUrl = Util.getAbsoluteQueueUrlForRelativeUrl(relativeQueueUrl);
+      Map<String, MessageAttributeValue> attributeValues =
+          getMessageAttributeValues(messageAttributes);
+      int batchSize = CMBProperties.getInstance().getCNSPublisherCQSBatchSize();
+      int maxBatchBytes = CMBProperties.getInstance().getCQSMaxMessageSizeBatch();
+      int attributesSize = getMessageAttributesSize(messageAttributes);
+
+      List<SendMessageBatchRequestEntry> entries = new ArrayList<SendMessageBatchRequestEntry>();
+      int entriesSize = 0;
+      String[] ids = new String[messages.size()];
+
+      for (int i = 0; i < messages.size(); i++) {
+
+        int size = messages.get(i).length() + attributesSize;
+
+        // cqs rejects the whole batch if its messages are longer than cmb.cqs.maxMsgSizeBatch
+
+        if (entries.size() == batchSize
+            || (entries.size() > 0 && entriesSize + size > maxBatchBytes)) {
+          sendBatch(absoluteQueueUrl, entries, ids);
+          entries = new ArrayList<SendMessageBatchRequestEntry>();
+          entriesSize = 0;
+        }
+
+        SendMessageBatchRequestEntry entry =
+            new SendMessageBatchRequestEntry("" + i, messages.get(i));
+        entry.setMessageAttributes(attributeValues);
+        entries.add(entry);
+        entriesSize += size;
+      }
+
+      if (entries.size() > 0) {
+        sendBatch(absoluteQueueUrl, entries, ids);
+      }
+
+      messageIds.addAll(Arrays.asList(ids));
+    }
+
+    long ts2 = System.currentTimeMillis();
+
+    CMBControllerServlet.valueAccumulator.addToCounter(AccumulatorName.CNSCQSTime, ts2 - ts1);
+    logger.debug("event=send_message_batch num_messages=" + messages.size());
+
+    return messageIds;
+  }
+
+  /**
+   * @param absoluteQueueUrl
+   * @param entries batch entries whose ids are indexes into messageIds
+   * @param messageIds receives the message ids of the sent messages
+   * @throws CMBException if any message of the batch could not be sent
+   */
+  private static void sendBatch(
+      String absoluteQueueUrl, List<SendMessageBatchRequestEntry> entries, String[] messageIds)
+      throws CMBException {
+
+    SendMessageBatchResult sendMessageBatchResult =
+        sqs.sendMessageBatch(new SendMessageBatchRequest(absoluteQueueUrl, entries));
+    checkBatchFailures("send_message_batch", sendMessageBatchResult.getFailed());
+
+    for (SendMessageBatchResultEntry entry : sendMessageBatchResult.getSuccessful()) {
+      messageIds[Integer.parseInt(entry.getId())] = entry.getMessageId();
+    }
+  }
+
   public static void deleteMessage(String relativeQueueUrl, String receiptHandle) throws Exception {
 
     long ts1 = System.currentTimeMillis();
@@ -247,6 +398,107 @@ public class CQSHandler {
     logger.debug("event=delete_message receipt_handle=" + receiptHandle);
   }
 
+  /**
+   * Delete messages from a queue, using one cqs call for every cmb.cns.publisher.cqsBatchSize
+   * receipt handles
+   *
+   * @param relativeQueueUrl
+   * @param receiptHandles
+   * @throws CMBException if any message of a batch could not be deleted
+   */
+  public static void deleteMessageBatch(String relativeQueueUrl, List<String> receiptHandles)
+      throws Exception {
+
+    long ts1 = System.currentTimeMillis();
+
+    if (useInlineApiCalls) {
+
+      for (String receiptHandle : receiptHandles) {
+        CQSAPI.deleteMessage(cnsInternal.getUserId(), relativeQueueUrl, receiptHandle);
+      }
+
+    } else {
+
+      String absoluteQueueUrl = Util.getAbsoluteQueueUrlForRelativeUrl(relativeQueueUrl);
+      int batchSize = CMBProperties.getInstance().getCNSPublisherCQSBatchSize();
+
+      for (int i = 0; i < receiptHandles.size(); i += batchSize) {
+
+        List<DeleteMessageBatchRequestEntry> entries =
+            new ArrayList<DeleteMessageBatchRequestEntry>();
+
+        for (int j = i; j < i + batchSize && j < receiptHandles.size(); j++) {
+          entries.add(new DeleteMessageBatchRequestEntry("" + j, receiptHandles.get(j)));
+        }
+
+        DeleteMessageBatchResult deleteMessageBatchResult =
+            sqs.deleteMessageBatch(new DeleteMessageBatchRequest(absoluteQueueUrl, entries));
+        checkBatchFailures("delete_message_batch", deleteMessageBatchResult.getFailed());
+      }
+    }
+
+    long ts2 = System.currentTimeMillis();
+
+    CMBControllerServlet.valueAccumulator.addToCounter(AccumulatorName.CNSCQSTime, ts2 - ts1);
+    logger.debug("event=delete_message_batch receipt_handles=" + receiptHandles);
+  }
+
+  private static void checkBatchFailures(String event, List<BatchResultErrorEntry> failed)
+      throws CMBException {
+
+    if (failed == null || failed.size() == 0) {
+      return;
+    }
+
+    for (BatchResultErrorEntry entry : failed) {
+      logger.error(
+          "event="
+              + event
+              + " error_code="
+              + entry.getCode()
+              + " id="
+              + entry.getId()
+              + " message="
+              + entry.getMessage());
+    }
+
+    throw new CMBException(
+        CMBErrorCodes.InternalError, failed.size() + " batch entries failed: " + event);
+  }
+
+  /** @return size of the message attributes the way cqs counts it towards the batch size */
+  private static int getMessageAttributesSize(Map<String, CQSMessageAttribute> messageAttributes) {
+
+    int size = 0;
+
+    if (messageAttributes != null) {
+      for (CQSMessageAttribute messageAttribute : messageAttributes.values()) {
+        if (messageAttribute.getStringValue() != null) {
+          size += messageAttribute.getStringValue().length();
+        }
+      }
+    }
+
+    return size;
+  }
+
+  private static Map<String, MessageAttributeValue> getMessageAttributeValues(
+      Map<String, CQSMessageAttribute> messageAttributes) {
+
+    Map<String, MessageAttributeValue> values = new HashMap<String, MessageAttributeValue>();
+
+    if (messageAttributes != null) {
+      for (String messageAttributeName : messageAttributes.keySet()) {
+        MessageAttributeValue value = new MessageAttributeValue();
+        value.setDataType(messageAttributes.get(messageAttributeName).getDataType());
+        value.setStringValue(messageAttributes.get(messageAttributeName).getStringValue());
+        values.put(messageAttributeName, value);
+      }
+    }
+
+    return values;
+  }
+
   public static synchronized void ensureQueuesExist(String queueNamePrefix, int numShards) {
 
     for (int i = 0; i < numShards; i++) {
@@ -13,10 +13,9 @@
  */
 package com.comcast.cns.util;
 
+import com.comcast.cmb.common.controller.CMBHeartbeatService;
 import com.comcast.cmb.common.persistence.AbstractDurablePersistence;
-import com.comcast.cmb.common.persistence.AbstractDurablePersistence.CMB_SERIALIZER;
 import com.comcast.cmb.common.persistence.AbstractDurablePersistence.CmbRow;
-import com.comcast.cmb.common.persistence.DurablePersistenceFactory;
 import com.comcast.cmb.common.util.CMBErrorCodes;
 import com.comcast.cmb.common.util.CMBException;
 import com.comcast.cmb.common.util.PersistenceException;
@@ -38,21 +37,12 @@ import org.apache.log4j.Logger;
 public class CNSWorkerStatWrapper {
 
   private static Logger logger = Logger.getLogger(CNSWorkerStatWrapper.class);
-  private static AbstractDurablePersistence cassandraHandler =
-      DurablePersistenceFactory.getInstance();
   private static final String CNS_WORKERS = "CNSWorkers";
 
   public static List<CNSWorkerStats> getCassandraWorkerStats() throws PersistenceException {
 
     List<CmbRow<String, String, String>> rows =
-        cassandraHandler.readAllRows(
-            AbstractDurablePersistence.CNS_KEYSPACE,
-            CNS_WORKERS,
-            1000,
-            10,
-            CMB_SERIALIZER.STRING_SERIALIZER,
-            CMB_SERIALIZER.STRING_SERIALIZER,
-            CMB_SERIALIZER.STRING_SERIALIZER);
+        CMBHeartbeatService.getClusterView(AbstractDurablePersistence.CNS_KEYSPACE, CNS_WORKERS);
     List<CNSWorkerStats> statsList = new ArrayList<CNSWorkerStats>();
 
     if (rows != null) {
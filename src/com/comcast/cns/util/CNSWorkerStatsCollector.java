@@ -0,0 +1,337 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cns.util;
+
+import com.comcast.cmb.common.util.CMBProperties;
+import com.comcast.cmb.common.util.JMXConnectionPool;
+import com.comcast.cmb.common.util.PersistenceException;
+import com.comcast.cns.model.CNSWorkerStats;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import org.apache.log4j.Logger;
+
+/**
+ * Collects the jmx stats of all active cns workers in the background and keeps the last snapshot
+ * for GetWorkerStats. Workers are polled concurrently over pooled jmx connections with a deadline,
+ * so a dead or slow worker costs at most one deadline per refresh instead of holding up every
+ * dashboard request. Collection starts on first use and pauses while nobody asks for stats.
+ *
+ * <p>Class is thread-safe
+ */
+public class CNSWorkerStatsCollector {
+
+  private static Logger logger = Logger.getLogger(CNSWorkerStatsCollector.class);
+
+  private static final String[] ATTRIBUTES = {
+    "DeliveryQueueSize",
+    "RedeliveryQueueSize",
+    "ConsumerOverloaded",
+    "RecentNumberOfPublishedMessages",
+    "RecentErrorCountForEndpoints",
+    "CQSServiceAvailable",
+    "PublishHttpPoolSize"
+  };
+
+  private static final int POLL_THREAD_COUNT = 16;
+
+  // stop refreshing if nobody asked for stats for this long
+
+  private static final long IDLE_TIMEOUT_MS = 10 * 60 * 1000;
+
+  public static class Snapshot {
+
+    private final List<CNSWorkerStats> stats;
+    private final long timestamp;
+
+    private Snapshot(List<CNSWorkerStats> stats, long timestamp) {
+      this.stats = Collections.unmodifiableList(stats);
+      this.timestamp = timestamp;
+    }
+
+    public List<CNSWorkerStats> getStats() {
+      return stats;
+    }
+
+    /**
+     * @param dataCenter data center or null for all
+     * @return stats of the workers in the data center
+     */
+    public List<CNSWorkerStats> getStats(String dataCenter) {
+
+      if (dataCenter == null || dataCenter.length() == 0) {
+        return stats;
+      }
+
+      List<CNSWorkerStats> statsByDataCenter = new ArrayList<CNSWorkerStats>();
+
+      for (CNSWorkerStats s : stats) {
+        if (dataCenter.equals(s.getDataCenter())) {
+          statsByDataCenter.add(s);
+        }
+      }
+
+      return statsByDataCenter;
+    }
+
+    /** @return time the snapshot was taken */
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    public long getAgeMillis() {
+      return System.currentTimeMillis() - timestamp;
+    }
+  }
+
+  private static volatile Snapshot snapshot;
+  private static volatile long lastRequested;
+
+  private static volatile ScheduledExecutorService scheduler;
+  private static volatile ExecutorService pollers;
+
+  /**
+   * Get the most recent stats of all cns workers. The cached snapshot is returned right away
+   * unless there is none yet or it is stale because collection was paused while idle, in which
+   * case the call waits for a collection. Background refreshes that run into the deadline keep a
+   * snapshot at most three refresh intervals old, anything older counts as stale.
+   *
+   * @return snapshot, never null
+   * @throws PersistenceException
+   */
+  public static Snapshot getSnapshot() throws PersistenceException {
+
+    lastRequested = System.currentTimeMillis();
+    start();
+
+    long maxAgeMillis =
+        3 * CMBProperties.getInstance().getCNSWorkerStatsRefreshIntervalSeconds() * 1000L;
+    Snapshot current = snapshot;
+
+    if (current == null || current.getAgeMillis() > maxAgeMillis) {
+
+      synchronized (CNSWorkerStatsCollector.class) {
+
+        if (snapshot == null || snapshot.getAgeMillis() > maxAgeMillis) {
+          snapshot = collect();
+        }
+
+        current = snapshot;
+      }
+    }
+
+    return current;
+  }
+
+  public static void shutdown() {
+
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+
+    if (pollers != null) {
+      pollers.shutdownNow();
+      pollers = null;
+    }
+  }
+
+  private static void start() {
+
+    if (scheduler != null) {
+      return;
+    }
+
+    synchronized (CNSWorkerStatsCollector.class) {
+
+      if (scheduler != null) {
+        return;
+      }
+
+      pollers = Executors.newFixedThreadPool(POLL_THREAD_COUNT, newThreadFactory("Poller"));
+
+      ScheduledExecutorService executor =
+          Executors.newSingleThreadScheduledExecutor(newThreadFactory("Scheduler"));
+      int intervalSec = CMBProperties.getInstance().getCNSWorkerStatsRefreshIntervalSeconds();
+
+      executor.scheduleWithFixedDelay(
+          new Runnable() {
+            @Override
+            public void run() {
+
+              if (System.currentTimeMillis() - lastRequested > IDLE_TIMEOUT_MS) {
+                return;
+              }
+
+              try {
+                snapshot = collect();
+              } catch (Exception ex) {
+                logger.warn("event=worker_stats_collection_failed", ex);
+              }
+            }
+          },
+          intervalSec,
+          intervalSec,
+          TimeUnit.SECONDS);
+
+      scheduler = executor;
+    }
+  }
+
+  private static ThreadFactory newThreadFactory(final String name) {
+
+    return new ThreadFactory() {
+
+      private final AtomicInteger threadNumber = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t =
+            new Thread(
+                r, "CNSWorkerStatsCollector" + name + "-" + threadNumber.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+
+  private static Snapshot collect() throws PersistenceException {
+
+    long start = System.currentTimeMillis();
+    List<CNSWorkerStats> statsList = CNSWorkerStatWrapper.getCassandraWorkerStats();
+    Map<CNSWorkerStats, Future<AttributeList>> pending =
+        new HashMap<CNSWorkerStats, Future<AttributeList>>();
+
+    for (final CNSWorkerStats stats : statsList) {
+
+      if (stats.getJmxPort() > 0
+          && (start - stats.getConsumerTimestamp() < 5 * 60 * 1000
+              || start - stats.getProducerTimestamp() < 5 * 60 * 1000)) {
+
+        pending.put(
+            stats,
+            pollers.submit(
+                new Callable<AttributeList>() {
+                  @Override
+                  public AttributeList call() throws Exception {
+                    return readAttributes(stats.getIpAddress(), stats.getJmxPort());
+                  }
+                }));
+      }
+    }
+
+    // wait for all workers together, one refresh interval at most
+
+    long deadline =
+        start + CMBProperties.getInstance().getCNSWorkerStatsRefreshIntervalSeconds() * 1000L;
+
+    for (Map.Entry<CNSWorkerStats, Future<AttributeList>> entry : pending.entrySet()) {
+
+      final CNSWorkerStats stats = entry.getKey();
+
+      try {
+        long timeLeft = Math.max(deadline - System.currentTimeMillis(), 0);
+        apply(stats, entry.getValue().get(timeLeft, TimeUnit.MILLISECONDS));
+      } catch (TimeoutException ex) {
+
+        // interrupting doesn't unblock a pending rmi call, so drop the pooled connection too.
+        // closing it may itself wait for the remote host, keep that off the collecting thread
+
+        entry.getValue().cancel(true);
+        pollers.submit(
+            new Runnable() {
+              @Override
+              public void run() {
+                JMXConnectionPool.invalidate(stats.getIpAddress(), stats.getJmxPort());
+              }
+            });
+        logger.warn("event=worker_stats_timeout host=" + stats.getIpAddress());
+      } catch (Exception ex) {
+        logger.warn(
+            "event=failed_to_connect_to_jmx_server url="
+                + JMXConnectionPool.getUrl(stats.getIpAddress(), stats.getJmxPort()),
+            ex);
+      }
+    }
+
+    logger.debug(
+        "event=worker_stats_collected num_workers="
+            + statsList.size()
+            + " num_polled="
+            + pending.size()
+            + " duration_ms="
+            + (System.currentTimeMillis() - start));
+
+    return new Snapshot(statsList, start);
+  }
+
+  private static AttributeList readAttributes(String host, long port) throws Exception {
+
+    try {
+
+      MBeanServerConnection mbeanConn = JMXConnectionPool.getConnection(host, port);
+      ObjectName cnsWorkerMonitor =
+          new ObjectName("com.comcast.cns.tools:type=CNSWorkerMonitorMBean");
+
+      // one round trip for all attributes instead of one each
+
+      return mbeanConn.getAttributes(cnsWorkerMonitor, ATTRIBUTES);
+
+    } catch (Exception ex) {
+      JMXConnectionPool.invalidate(host, port);
+      throw ex;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void apply(CNSWorkerStats stats, AttributeList attributes) {
+
+    for (Attribute attribute : attributes.asList()) {
+
+      String name = attribute.getName();
+      Object value = attribute.getValue();
+
+      if (name.equals("DeliveryQueueSize")) {
+        stats.setDeliveryQueueSize((Integer) value);
+      } else if (name.equals("RedeliveryQueueSize")) {
+        stats.setRedeliveryQueueSize((Integer) value);
+      } else if (name.equals("ConsumerOverloaded")) {
+        stats.setConsumerOverloaded((Boolean) value);
+      } else if (name.equals("RecentNumberOfPublishedMessages")) {
+        stats.setNumPublishedMessages((Integer) value);
+      } else if (name.equals("RecentErrorCountForEndpoints")) {
+        stats.setErrorCountForEndpoints((Map<String, Integer>) value);
+      } else if (name.equals("CQSServiceAvailable")) {
+        stats.setCqsServiceAvailable((Boolean) value);
+      } else if (name.equals("PublishHttpPoolSize")) {
+        stats.setNumPooledHttpConnections((Integer) value);
+      }
+    }
+  }
+}
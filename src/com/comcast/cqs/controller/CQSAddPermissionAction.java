@@ -19,6 +19,7 @@ import com.comcast.cmb.common.persistence.IUserPersistence;
 import com.comcast.cmb.common.persistence.PersistenceFactory;
 import com.comcast.cmb.common.util.CMBErrorCodes;
 import com.comcast.cmb.common.util.CMBException;
+import com.comcast.cmb.common.util.CMBPolicyCache;
 import com.comcast.cmb.common.util.CMBProperties;
 import com.comcast.cqs.io.CQSQueuePopulator;
 import com.comcast.cqs.model.CQSQueue;
@@ -119,6 +120,7 @@ public class CQSAddPermissionAction extends CQSAction {
       PersistenceFactory.getQueuePersistence()
           .updatePolicy(queue.getRelativeUrl(), policy.toString());
       queue.setPolicy(policy.toString());
+      CMBPolicyCache.invalidate(queue.getArn());
     } else {
       throw new CMBException(
           CMBErrorCodes.InvalidParameterValue,
@@ -2,9 +2,8 @@ package com.comcast.cqs.controller;
 
 import com.comcast.cmb.common.model.User;
 import com.comcast.cmb.common.persistence.PersistenceFactory;
+import com.comcast.cmb.common.util.BoundedCache;
 import com.comcast.cmb.common.util.CMBProperties;
-import com.comcast.cmb.common.util.ExpiringCache;
-import com.comcast.cmb.common.util.ExpiringCache.CacheFullException;
 import com.comcast.cmb.common.util.PersistenceException;
 import com.comcast.cqs.model.CQSQueue;
 import com.comcast.cqs.persistence.ICQSQueuePersistence;
@@ -16,8 +15,8 @@ import org.apache.log4j.Logger;
 
 public class CQSCache {
 
-  protected static ExpiringCache<String, CQSQueue> queueCache =
-      new ExpiringCache<String, CQSQueue>(CMBProperties.getInstance().getCQSCacheSizeLimit());
+  protected static BoundedCache<String, CQSQueue> queueCache =
+      new BoundedCache<String, CQSQueue>(CMBProperties.getInstance().getCQSCacheSizeLimit());
   protected static volatile ICQSQueuePersistence queuePersistence =
       PersistenceFactory.getQueuePersistence();
 
@@ -50,14 +49,14 @@ public class CQSCache {
    * @throws Exception
    */
   public static CQSQueue getCachedQueue(String relativeQueueUrl) throws Exception {
-    try {
-      return queueCache.getAndSetIfNotPresent(
-          relativeQueueUrl,
-          new QueueCallable(relativeQueueUrl),
-          CMBProperties.getInstance().getCQSCacheExpiring() * 1000);
-    } catch (CacheFullException e) {
-      return new QueueCallable(relativeQueueUrl).call();
-    }
+    return queueCache.getAndSetIfNotPresent(
+        relativeQueueUrl,
+        new QueueCallable(relativeQueueUrl),
+        CMBProperties.getInstance().getCQSCacheExpiring() * 1000);
+  }
+
+  public static BoundedCache<String, CQSQueue> getQueueCache() {
+    return queueCache;
   }
 
   /**
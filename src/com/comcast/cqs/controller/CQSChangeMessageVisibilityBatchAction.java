@@ -27,8 +27,10 @@ import com.comcast.cqs.util.Util;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.servlet.AsyncContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -54,6 +56,7 @@ public class CQSChangeMessageVisibilityBatchAction extends CQSAction {
     List<String> idList = new ArrayList<String>();
     List<CQSBatchResultErrorEntry> failedList = new ArrayList<CQSBatchResultErrorEntry>();
     Map<String, List<String>> idMap = new HashMap<String, List<String>>();
+    Set<String> receiptHandles = new HashSet<String>();
     int index = 1;
 
     String suppliedId =
@@ -99,6 +102,14 @@ public class CQSChangeMessageVisibilityBatchAction extends CQSAction {
                     + CQSConstants.RECEIPT_HANDLE));
       } else {
 
+        // timeouts are applied by receipt handle, a repeated one would silently lose all but one
+
+        if (!receiptHandles.add(receiptHandle)) {
+          throw new CMBException(
+              CMBErrorCodes.InvalidParameterValue,
+              "ReceiptHandle " + receiptHandle + " repeated");
+        }
+
         String visibilityTimeoutStr =
             request.getParameter(
                 this.actionName
@@ -141,13 +152,20 @@ public class CQSChangeMessageVisibilityBatchAction extends CQSAction {
           "Both user supplied message Id and receiptHandle are required");
     }
 
+    Map<String, Integer> visibilityTOs = new HashMap<String, Integer>();
+
+    for (List<String> entry : idMap.values()) {
+      visibilityTOs.put(entry.get(0), Integer.parseInt(entry.get(1)));
+    }
+
+    Set<String> changed =
+        PersistenceFactory.getCQSMessagePersistence()
+            .changeMessageVisibilityBatch(queue, visibilityTOs);
     List<String> successList = new ArrayList<String>();
 
     for (Map.Entry<String, List<String>> entry : idMap.entrySet()) {
 
-      if (PersistenceFactory.getCQSMessagePersistence()
-          .changeMessageVisibility(
-              queue, entry.getValue().get(0), Integer.parseInt(entry.getValue().get(1)))) {
+      if (changed.contains(entry.getValue().get(0))) {
         successList.add(entry.getKey());
       } else {
         failedList.add(
@@ -14,24 +14,22 @@
 package com.comcast.cqs.controller;
 
 import com.comcast.cmb.common.controller.CMBControllerServlet;
+import com.comcast.cmb.common.controller.CMBHeartbeatService;
+import com.comcast.cmb.common.controller.CMBHeartbeatService.Role;
 import com.comcast.cmb.common.controller.HealthCheckShallow;
 import com.comcast.cmb.common.model.CMBPolicy;
 import com.comcast.cmb.common.model.User;
-import com.comcast.cmb.common.persistence.AbstractDurablePersistence;
-import com.comcast.cmb.common.persistence.AbstractDurablePersistence.CMB_SERIALIZER;
-import com.comcast.cmb.common.persistence.DurablePersistenceFactory;
 import com.comcast.cmb.common.persistence.PersistenceFactory;
+import com.comcast.cmb.common.util.ApiLatencyStats;
 import com.comcast.cmb.common.util.CMBErrorCodes;
 import com.comcast.cmb.common.util.CMBException;
+import com.comcast.cmb.common.util.CMBPolicyCache;
 import com.comcast.cmb.common.util.CMBProperties;
 import com.comcast.cmb.common.util.ValueAccumulator.AccumulatorName;
 import com.comcast.cqs.model.CQSQueue;
 import com.comcast.cqs.persistence.ICQSMessagePersistence;
 import java.lang.management.ManagementFactory;
-import java.net.InetAddress;
 import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicLong;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 import javax.servlet.AsyncContext;
@@ -54,8 +52,6 @@ public class CQSControllerServlet extends CMBControllerServlet {
 
   protected static volatile ICQSMessagePersistence messagePersistence = null;
 
-  public static volatile AtomicLong lastCQSPingMinute = new AtomicLong(0);
-
   public void initPersistence() {
     messagePersistence = PersistenceFactory.getCQSMessagePersistence();
   }
@@ -81,6 +77,8 @@ public class CQSControllerServlet extends CMBControllerServlet {
       initPersistence();
       initActions();
 
+      CMBHeartbeatService.register(Role.CQSAPIServer);
+
       MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
       ObjectName name = new ObjectName("com.comcast.cqs.controller:type=CQSMonitorMBean");
 
@@ -149,61 +147,7 @@ public class CQSControllerServlet extends CMBControllerServlet {
         };
 
     for (String action : actionMap.keySet()) {
-      callResponseTimesByApi.putIfAbsent(action, new AtomicLong[NUM_MINUTES][NUM_BUCKETS]);
-      AtomicLong[][] callResponseTimes = callResponseTimesByApi.get(action);
-      for (int i = 0; i < NUM_MINUTES; i++) {
-        for (int k = 0; k < NUM_BUCKETS; k++) {
-          callResponseTimes[i][k] = new AtomicLong();
-        }
-      }
-    }
-  }
-
-  public static void writeHeartBeat() {
-
-    long now = System.currentTimeMillis();
-
-    if (lastCQSPingMinute.getAndSet(now / (1000 * 60)) != now / (1000 * 60)) {
-
-      try {
-
-        AbstractDurablePersistence cassandraHandler = DurablePersistenceFactory.getInstance();
-
-        // write ping
-
-        String serverIp = InetAddress.getLocalHost().getHostAddress();
-        String serverPort = CMBProperties.getInstance().getCQSServerPort() + "";
-
-        logger.info(
-            "event=ping version="
-                + CMBControllerServlet.VERSION
-                + " ip="
-                + serverIp
-                + " port="
-                + serverPort);
-
-        Map<String, String> values = new HashMap<String, String>();
-
-        values.put("timestamp", now + "");
-        values.put("port", CMBProperties.getInstance().getCQSLongPollPort() + "");
-        values.put("jmxport", System.getProperty("com.sun.management.jmxremote.port", "0"));
-        values.put("dataCenter", CMBProperties.getInstance().getCMBDataCenter());
-        values.put("serviceUrl", CMBProperties.getInstance().getCQSServiceUrl());
-        values.put("redisServerList", CMBProperties.getInstance().getRedisServerList());
-
-        cassandraHandler.insertRow(
-            AbstractDurablePersistence.CQS_KEYSPACE,
-            serverIp + ":" + serverPort,
-            CQS_API_SERVERS,
-            values,
-            CMB_SERIALIZER.STRING_SERIALIZER,
-            CMB_SERIALIZER.STRING_SERIALIZER,
-            CMB_SERIALIZER.STRING_SERIALIZER,
-            null);
-
-      } catch (Exception ex) {
-        logger.warn("event=ping_failed", ex);
-      }
+      callLatencyByApi.putIfAbsent(action, new ApiLatencyStats());
     }
   }
 
@@ -213,8 +157,6 @@ public class CQSControllerServlet extends CMBControllerServlet {
 
     HttpServletRequest request = (HttpServletRequest) asyncContext.getRequest();
 
-    writeHeartBeat();
-
     if (!CMBProperties.getInstance().getCQSServiceEnabled()) {
       throw new CMBException(CMBErrorCodes.InternalError, "CQS service is disabled");
     }
@@ -243,11 +185,10 @@ public class CQSControllerServlet extends CMBControllerServlet {
 
     if (isAuthenticationRequired(action)) {
 
-      CMBPolicy policy = new CMBPolicy();
-
-      if (queue != null) {
-        policy.fromString(queue.getPolicy());
-      }
+      CMBPolicy policy =
+          queue != null
+              ? CMBPolicyCache.getPolicy(queue.getArn(), queue.getPolicy())
+              : new CMBPolicy();
 
       if (!actionMap.get(action).isActionAllowed(user, request, "CQS", policy)) {
         throw new CMBException(
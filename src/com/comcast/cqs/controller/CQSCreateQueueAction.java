@@ -312,6 +312,21 @@ public class CQSCreateQueueAction extends CQSAction {
         boolean isCompressed = Boolean.parseBoolean(attributeValue);
         newQueue.setCompressed(isCompressed);
 
+      } else if (attributeName.equals(CQSConstants.MESSAGE_ENCODING)) {
+
+        if (!attributeValue.equals(CQSConstants.MESSAGE_ENCODING_JSON)
+            && !attributeValue.equals(CQSConstants.MESSAGE_ENCODING_BINARY)) {
+          throw new CMBException(
+              CMBErrorCodes.InvalidParameterValue,
+              CQSConstants.MESSAGE_ENCODING
+                  + " should be "
+                  + CQSConstants.MESSAGE_ENCODING_JSON
+                  + " or "
+                  + CQSConstants.MESSAGE_ENCODING_BINARY);
+        }
+
+        newQueue.setMessageEncoding(attributeValue);
+
       } else {
         throw new CMBException(
             CMBErrorCodes.InvalidRequest,
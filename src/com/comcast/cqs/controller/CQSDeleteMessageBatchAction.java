@@ -119,11 +119,8 @@ public class CQSDeleteMessageBatchAction extends CQSAction {
           "Both user supplied message Id and receiptHandle are required");
     }
 
-    for (Map.Entry<String, String> entry : idMap.entrySet()) {
-      receiptHandle = entry.getValue();
-      PersistenceFactory.getCQSMessagePersistence()
-          .deleteMessage(queue.getRelativeUrl(), receiptHandle);
-    }
+    PersistenceFactory.getCQSMessagePersistence()
+        .deleteMessageBatch(queue.getRelativeUrl(), new ArrayList<String>(idMap.values()));
 
     String out =
         CQSMessagePopulator.getDeleteMessageBatchResponse(
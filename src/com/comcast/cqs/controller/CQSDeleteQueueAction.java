@@ -15,6 +15,7 @@ package com.comcast.cqs.controller;
 
 import com.comcast.cmb.common.model.User;
 import com.comcast.cmb.common.persistence.PersistenceFactory;
+import com.comcast.cmb.common.util.CMBPolicyCache;
 import com.comcast.cqs.io.CQSQueuePopulator;
 import com.comcast.cqs.model.CQSQueue;
 import javax.servlet.AsyncContext;
@@ -43,6 +44,7 @@ public class CQSDeleteQueueAction extends CQSAction {
     int numberOfShards = queue.getNumberOfShards();
 
     PersistenceFactory.getQueuePersistence().deleteQueue(queue.getRelativeUrl());
+    CMBPolicyCache.invalidate(queue.getArn());
 
     // clear all shards in redis
 
@@ -67,6 +67,7 @@ public class CQSEditQueueAttributePage extends AdminServletBase {
       String numberOfPartitions = request.getParameter("numberOfPartitions");
       String numberOfShards = request.getParameter("numberOfShards");
       String isCompressed = request.getParameter("isCompressed");
+      String messageEncoding = request.getParameter("messageEncoding");
 
       try {
 
@@ -104,6 +105,10 @@ public class CQSEditQueueAttributePage extends AdminServletBase {
           attributes.put("IsCompressed", isCompressed);
         }
 
+        if (messageEncoding != null && !messageEncoding.equals("")) {
+          attributes.put("MessageEncoding", messageEncoding);
+        }
+
         SetQueueAttributesRequest setQueueAttributesRequest =
             new SetQueueAttributesRequest(queueUrl, attributes);
         sqs.setQueueAttributes(setQueueAttributesRequest);
@@ -128,6 +133,7 @@ public class CQSEditQueueAttributePage extends AdminServletBase {
       String numberOfPartitions = "";
       String numberOfShards = "";
       String isCompressed = "";
+      String messageEncoding = "";
 
       if (queueUrl != null) {
 
@@ -145,7 +151,8 @@ public class CQSEditQueueAttributePage extends AdminServletBase {
                   "ReceiveMessageWaitTimeSeconds",
                   "NumberOfPartitions",
                   "NumberOfShards",
-                  "IsCompressed"));
+                  "IsCompressed",
+                  "MessageEncoding"));
           GetQueueAttributesResult getQueueAttributesResult =
               sqs.getQueueAttributes(getQueueAttributesRequest);
           attributes = getQueueAttributesResult.getAttributes();
@@ -157,6 +164,7 @@ public class CQSEditQueueAttributePage extends AdminServletBase {
           numberOfPartitions = attributes.get("NumberOfPartitions");
           numberOfShards = attributes.get("NumberOfShards");
           isCompressed = attributes.get("IsCompressed");
+          messageEncoding = attributes.get("MessageEncoding");
         } catch (Exception ex) {
           logger.error("event=failed_to_get_attributes queue_url=" + queueUrl, ex);
           throw new ServletException(ex);
@@ -240,6 +248,13 @@ public class CQSEditQueueAttributePage extends AdminServletBase {
       out.println(
           "<tr><td>&nbsp;</td><td><I><font color='grey'>Valid values: true or false</font></I></td></tr>");
 
+      out.println(
+          "<tr><td>Message Encoding:</td><td><input type='text' name='messageEncoding' size='50' value='"
+              + messageEncoding
+              + "'></td></tr>");
+      out.println(
+          "<tr><td>&nbsp;</td><td><I><font color='grey'>Valid values: json or binary</font></I></td></tr>");
+
       out.println("<tr><td>&nbsp;</td><td>&nbsp;</td></tr>");
 
       out.println("<tr><td colspan=2><hr/></td></tr>");
@@ -18,6 +18,7 @@ import com.comcast.cmb.common.model.User;
 import com.comcast.cmb.common.persistence.AbstractDurablePersistence;
 import com.comcast.cmb.common.persistence.DurablePersistenceFactory;
 import com.comcast.cmb.common.persistence.PersistenceFactory;
+import com.comcast.cmb.common.util.JMXConnectionPool;
 import com.comcast.cqs.io.CQSAPIStatsPopulator;
 import com.comcast.cqs.model.CQSAPIStats;
 import com.comcast.cqs.util.CQSAPIStatWrapper;
@@ -25,12 +26,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
+import javax.management.AttributeNotFoundException;
 import javax.management.MBeanServerConnection;
 import javax.management.ObjectInstance;
 import javax.management.ObjectName;
-import javax.management.remote.JMXConnector;
-import javax.management.remote.JMXConnectorFactory;
-import javax.management.remote.JMXServiceURL;
 import javax.servlet.AsyncContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -93,24 +92,18 @@ public class CQSGetAPIStatsAction extends CQSAction {
 
       } else if (stats.getJmxPort() > 0) {
 
-        JMXConnector jmxConnector = null;
-        String url = null;
+        String host = stats.getIpAddress();
 
-        try {
-
-          String host = stats.getIpAddress();
-
-          if (host.contains(":")) {
-            host = host.substring(0, host.indexOf(":"));
-          }
+        if (host.contains(":")) {
+          host = host.substring(0, host.indexOf(":"));
+        }
 
-          long port = stats.getJmxPort();
-          url = "service:jmx:rmi:///jndi/rmi://" + host + ":" + port + "/jmxrmi";
+        long port = stats.getJmxPort();
+        String url = JMXConnectionPool.getUrl(host, port);
 
-          JMXServiceURL serviceUrl = new JMXServiceURL(url);
-          jmxConnector = JMXConnectorFactory.connect(serviceUrl, null);
+        try {
 
-          MBeanServerConnection mbeanConn = jmxConnector.getMBeanServerConnection();
+          MBeanServerConnection mbeanConn = JMXConnectionPool.getConnection(host, port);
 
           // String cassandraNodes = (String)mbeanConn.getAttribute(cqsAPIMonitor,
           // "CassandraNodes");
@@ -181,16 +174,26 @@ public class CQSGetAPIStatsAction extends CQSAction {
 
           stats.setCallFailureStats(callFailureStats);
 
-        } catch (Exception ex) {
+          // older api servers do not expose latency percentiles yet
 
-          logger.warn("event=failed_to_connect_to_jmx_server url=" + url, ex);
-          stats.addStatus("JMX UNAVAILABLE");
+          try {
+
+            @SuppressWarnings("unchecked")
+            Map<String, Map<String, Long>> callLatencyStats =
+                (Map<String, Map<String, Long>>)
+                    mbeanConn.getAttribute(cqsAPIMonitor, "CallLatencyPercentiles");
 
-        } finally {
+            stats.setCallLatencyStats(callLatencyStats);
 
-          if (jmxConnector != null) {
-            jmxConnector.close();
+          } catch (AttributeNotFoundException ex) {
+            logger.debug("event=call_latency_percentiles_unavailable url=" + url);
           }
+
+        } catch (Exception ex) {
+
+          logger.warn("event=failed_to_connect_to_jmx_server url=" + url, ex);
+          JMXConnectionPool.invalidate(host, port);
+          stats.addStatus("JMX UNAVAILABLE");
         }
 
         try {
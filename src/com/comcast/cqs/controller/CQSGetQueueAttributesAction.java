@@ -61,7 +61,8 @@ public class CQSGetQueueAttributesAction extends CQSAction {
           && !attribute.equals(CQSConstants.RECEIVE_MESSAGE_WAIT_TIME_SECONDS)
           && !attribute.equals(CQSConstants.NUMBER_OF_PARTITIONS)
           && !attribute.equals(CQSConstants.NUMBER_OF_SHARDS)
-          && !attribute.equals(CQSConstants.IS_COMPRESSED)) {
+          && !attribute.equals(CQSConstants.IS_COMPRESSED)
+          && !attribute.equals(CQSConstants.MESSAGE_ENCODING)) {
         throw new CMBException(
             CMBErrorCodes.InvalidAttributeName, "Unknown attribute " + attribute);
       }
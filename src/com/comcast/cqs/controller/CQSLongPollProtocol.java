@@ -0,0 +1,250 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cqs.controller;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.handler.codec.frame.DelimiterBasedFrameDecoder;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
+import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
+
+/**
+ * Wire format of the long poll notification channel. Every frame is a 4 byte length followed by a
+ * 2 byte entry count and the entries, each a 1 byte type, the queue arn as 2 byte length plus UTF-8
+ * bytes and a 4 byte message count. One frame carries any number of notifications and interest
+ * updates so a burst of sends costs one write per api server.
+ *
+ * <p>Older api servers send bare "arn;" strings. Since a frame always starts with a zero byte and
+ * an arn never does, receivers look at the first byte of a connection to pick the decoder, and
+ * senders keep using the old format until the receiver greets them with a HELLO frame.
+ */
+public final class CQSLongPollProtocol {
+
+  /** new messages available, count is the number of messages sent */
+  public static final byte NOTIFY = 1;
+
+  /** receiver has pending long poll receives for the queue */
+  public static final byte INTEREST_ADDED = 2;
+
+  /** receiver no longer has pending long poll receives for the queue */
+  public static final byte INTEREST_REMOVED = 3;
+
+  /** first frame from a receiver, it understands frames and routes by interest */
+  public static final byte HELLO = 4;
+
+  public static final int MAX_FRAME_LENGTH = 1024 * 1024;
+
+  // keeps frames well below MAX_FRAME_LENGTH and the entry count within its short
+
+  public static final int MAX_ENTRIES_PER_FRAME = 1000;
+
+  private static final int MAX_LEGACY_MESSAGE_LENGTH = 1024;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private CQSLongPollProtocol() {}
+
+  public static final class Entry {
+
+    private final byte type;
+    private final String queueArn;
+    private final int count;
+
+    public Entry(byte type, String queueArn, int count) {
+      this.type = type;
+      this.queueArn = queueArn;
+      this.count = count;
+    }
+
+    public byte getType() {
+      return type;
+    }
+
+    public String getQueueArn() {
+      return queueArn;
+    }
+
+    public int getCount() {
+      return count;
+    }
+  }
+
+  /**
+   * Encode entries into a single frame including its length prefix
+   *
+   * @param entries at most Short.MAX_VALUE entries
+   * @return frame
+   */
+  public static ChannelBuffer encode(List<Entry> entries) {
+
+    if (entries.size() > Short.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many entries for one frame: " + entries.size());
+    }
+
+    List<byte[]> arns = new ArrayList<byte[]>(entries.size());
+    int length = 2;
+
+    for (Entry entry : entries) {
+      byte[] arn = entry.getQueueArn() == null ? new byte[0] : entry.getQueueArn().getBytes(UTF8);
+      arns.add(arn);
+      length += 1 + 2 + arn.length + 4;
+    }
+
+    ChannelBuffer frame = ChannelBuffers.buffer(4 + length);
+    frame.writeInt(length);
+    frame.writeShort(entries.size());
+
+    for (int i = 0; i < entries.size(); i++) {
+      frame.writeByte(entries.get(i).getType());
+      frame.writeShort(arns.get(i).length);
+      frame.writeBytes(arns.get(i));
+      frame.writeInt(entries.get(i).getCount());
+    }
+
+    return frame;
+  }
+
+  public static ChannelBuffer encode(Entry entry) {
+    return encode(Collections.singletonList(entry));
+  }
+
+  /**
+   * Encode any number of entries into consecutive frames of at most MAX_ENTRIES_PER_FRAME
+   * entries each
+   *
+   * @param entries
+   * @return frames
+   */
+  public static ChannelBuffer encodeFrames(List<Entry> entries) {
+
+    List<ChannelBuffer> frames = new ArrayList<ChannelBuffer>();
+
+    for (int i = 0; i < entries.size(); i += MAX_ENTRIES_PER_FRAME) {
+      frames.add(encode(entries.subList(i, Math.min(i + MAX_ENTRIES_PER_FRAME, entries.size()))));
+    }
+
+    return ChannelBuffers.wrappedBuffer(frames.toArray(new ChannelBuffer[frames.size()]));
+  }
+
+  /**
+   * Encode notifications for receivers that predate framing
+   *
+   * @param queueArns
+   * @return buffer of ';' terminated queue arns
+   */
+  public static ChannelBuffer encodeLegacy(List<String> queueArns) {
+
+    StringBuilder sb = new StringBuilder();
+
+    for (String queueArn : queueArns) {
+      sb.append(queueArn).append(';');
+    }
+
+    return ChannelBuffers.copiedBuffer(sb.toString(), UTF8);
+  }
+
+  /**
+   * Decode the body of a frame whose length prefix has already been stripped
+   *
+   * @param frame
+   * @return entries
+   */
+  public static List<Entry> decode(ChannelBuffer frame) {
+
+    int size = frame.readUnsignedShort();
+    List<Entry> entries = new ArrayList<Entry>(size);
+
+    for (int i = 0; i < size; i++) {
+      byte type = frame.readByte();
+      byte[] arn = new byte[frame.readUnsignedShort()];
+      frame.readBytes(arn);
+      entries.add(new Entry(type, new String(arn, UTF8), frame.readInt()));
+    }
+
+    return entries;
+  }
+
+  /** @return decoder splitting the stream into frames, strips the length prefix */
+  public static FrameDecoder newFrameDecoder() {
+    return new LengthFieldBasedFrameDecoder(MAX_FRAME_LENGTH, 0, 4, 0, 4);
+  }
+
+  /** Turns frames into lists of entries */
+  public static class EntryDecoder extends OneToOneDecoder {
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, Object msg) {
+      if (!(msg instanceof ChannelBuffer)) {
+        return msg;
+      }
+      return CQSLongPollProtocol.decode((ChannelBuffer) msg);
+    }
+  }
+
+  /** Turns ';' delimited arns from older senders into single NOTIFY entries */
+  private static class LegacyEntryDecoder extends OneToOneDecoder {
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, Object msg) {
+      if (!(msg instanceof ChannelBuffer)) {
+        return msg;
+      }
+      String queueArn = ((ChannelBuffer) msg).toString(UTF8);
+      return Collections.singletonList(new Entry(NOTIFY, queueArn, 1));
+    }
+  }
+
+  /**
+   * First handler of a receiver pipeline. Looks at the first byte sent by a sender, installs
+   * either the frame or the legacy decoder in front of the next handler and removes itself.
+   */
+  public static class ProtocolDetector extends FrameDecoder {
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) {
+
+      if (buffer.readableBytes() < 1) {
+        return null;
+      }
+
+      ChannelPipeline pipeline = ctx.getPipeline();
+
+      if (buffer.getByte(buffer.readerIndex()) == 0) {
+        pipeline.addAfter(ctx.getName(), "framer", newFrameDecoder());
+        pipeline.addAfter("framer", "entries", new EntryDecoder());
+      } else {
+        pipeline.addAfter(
+            ctx.getName(),
+            "framer",
+            new DelimiterBasedFrameDecoder(
+                MAX_LEGACY_MESSAGE_LENGTH, ChannelBuffers.wrappedBuffer(new byte[] {';'})));
+        pipeline.addAfter("framer", "entries", new LegacyEntryDecoder());
+      }
+
+      pipeline.remove(this);
+
+      // forward what has been read so far to the newly installed decoders
+
+      return buffer.readBytes(buffer.readableBytes());
+    }
+  }
+}
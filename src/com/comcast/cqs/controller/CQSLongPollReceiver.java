@@ -17,29 +17,46 @@ import com.comcast.cmb.common.controller.Action;
 import com.comcast.cmb.common.controller.CMBControllerServlet;
 import com.comcast.cmb.common.persistence.PersistenceFactory;
 import com.comcast.cmb.common.util.CMBProperties;
+import com.comcast.cmb.common.util.LatencyHistogram;
+import com.comcast.cmb.common.util.RollingLatencyHistogram;
 import com.comcast.cmb.common.util.ValueAccumulator.AccumulatorName;
 import com.comcast.cqs.io.CQSMessagePopulator;
 import com.comcast.cqs.model.CQSMessage;
 import com.comcast.cqs.model.CQSQueue;
+import com.comcast.cqs.controller.CQSLongPollProtocol.Entry;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.servlet.AsyncContext;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.log4j.Logger;
 import org.jboss.netty.bootstrap.ServerBootstrap;
-import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
 
 public class CQSLongPollReceiver {
@@ -52,6 +69,105 @@ public class CQSLongPollReceiver {
   public static volatile ConcurrentHashMap<String, ConcurrentLinkedQueue<AsyncContext>>
       contextQueues;
 
+  // in-jvm waiters (e.g. co-located cns workers) keyed by queue arn, signaled on every
+  // notification so they can long poll without going through the http api
+
+  private static final ConcurrentHashMap<String, InProcessWaiter> inProcessWaiters =
+      new ConcurrentHashMap<String, InProcessWaiter>();
+
+  // queue arns this server has pending long poll receives for, or had within the last
+  // INTEREST_EXPIRY_MS, mapped to the last time a receive was queued. senders connected to our
+  // long poll port are told about every change so they only notify us for these queues
+
+  private static final long INTEREST_EXPIRY_MS = 60 * 1000;
+
+  private static final ConcurrentHashMap<String, Long> advertisedInterest =
+      new ConcurrentHashMap<String, Long>();
+
+  // adding or removing interest in a queue and writing the change to the senders happen under one
+  // of these locks, picked by queue arn, so that the senders see the changes in the order they
+  // were made
+
+  private static final Object[] interestLocks = new Object[64];
+
+  static {
+    for (int i = 0; i < interestLocks.length; i++) {
+      interestLocks[i] = new Object();
+    }
+  }
+
+  private static final ChannelGroup senderChannels = new DefaultChannelGroup("longpoll-senders");
+
+  private static volatile ScheduledThreadPoolExecutor sweeper;
+
+  // notifications are served off the netty i/o threads by a bounded pool. notifications for a
+  // queue that arrive while an earlier one is still waiting to be served are merged into it by
+  // adding up their message counts, a count of -1 means a task has claimed the entry
+
+  private static volatile ThreadPoolExecutor notificationExecutor;
+
+  private static final ConcurrentHashMap<String, AtomicInteger> pendingNotifications =
+      new ConcurrentHashMap<String, AtomicInteger>();
+
+  private static final AtomicLong notificationsRejected = new AtomicLong();
+
+  // time from taking a waiting receive off its queue to completing it with messages, and number
+  // of finished or outdated receives discarded from the queues
+
+  private static final RollingLatencyHistogram wakeLatency = new RollingLatencyHistogram();
+
+  private static final AtomicLong deadContextsRemoved = new AtomicLong();
+
+  // receives are completed by timeouts or errors without being taken off their queue, clean
+  // those up regularly instead of only when a notification happens to come across them
+
+  private static final long DEAD_CONTEXT_SWEEP_INTERVAL_MS = 5 * 1000;
+
+  private static class InProcessWaiter {
+
+    private long notificationCount = 0;
+    private int numWaiting = 0;
+
+    public synchronized long getNotificationCount() {
+      return notificationCount;
+    }
+
+    public synchronized boolean hasWaiters() {
+      return numWaiting > 0;
+    }
+
+    public synchronized void signal() {
+      notificationCount++;
+      notifyAll();
+    }
+
+    public synchronized boolean await(long lastNotificationCount, long timeoutMillis)
+        throws InterruptedException {
+
+      long deadline = System.currentTimeMillis() + timeoutMillis;
+      numWaiting++;
+
+      try {
+
+        while (notificationCount == lastNotificationCount) {
+
+          long timeLeft = deadline - System.currentTimeMillis();
+
+          if (timeLeft <= 0) {
+            return false;
+          }
+
+          wait(timeLeft);
+        }
+
+        return true;
+
+      } finally {
+        numWaiting--;
+      }
+    }
+  }
+
   //
   // current long poll design:
   //
@@ -85,7 +201,15 @@ public class CQSLongPollReceiver {
   // resue established netty channels instead of crerating new tcp connectiosn for every
   // sendmessage() call (done)
   // only send notifications to endpoints that are actually waiting for messages or have recently
-  // been waiting for messages
+  // been waiting for messages (done: receivers advertise interest back over the channel, a HELLO
+  // frame tells the sender the receiver supports this, older receivers get everything)
+  // length framed notifications batching many queue arns and message counts per write, see
+  // CQSLongPollProtocol (done, receivers still accept ";" delimited arns from older senders)
+  // never read from redis/cassandra on the netty i/o threads, notifications are handed to a
+  // bounded pool (done)
+  // wake up as many waiting receives as messages were sent instead of just one, and clean up
+  // finished or timed out receives right away rather than when a notification runs into them
+  // (done)
   // reestablishing connections only on failure or after a set period of time (e.g. 1 hr), or send
   // ping over connection every 60 sec
   // only send notifications if queue is empty or near empty (a full queue cannot have pending
@@ -113,35 +237,38 @@ public class CQSLongPollReceiver {
   // each long poll request occupies a waiting thread on the worker pool (only applies to old
   // design)
   // no short cut if send and receive happens on same api server (only applies to old design)
-  // receive broadcasts to all api servers regardless of whether they are actually listening or not
   // long poll receiver thread is single point of failure on api server
   //
 
   private static class LongPollServerHandler extends SimpleChannelHandler {
 
-    StringBuffer queueArn = new StringBuffer("");
-
     @Override
-    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
+    public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) {
 
-      ChannelBuffer buf = (ChannelBuffer) e.getMessage();
+      // new sender, tell it we speak frames and route by interest, and send a snapshot of what we
+      // are waiting for
 
-      while (buf.readable()) {
+      senderChannels.add(e.getChannel());
 
-        char c = ((char) buf.readByte());
+      List<Entry> snapshot = new ArrayList<Entry>();
+      snapshot.add(new Entry(CQSLongPollProtocol.HELLO, "", 0));
 
-        if (c == ';') {
+      for (String arn : advertisedInterest.keySet()) {
+        snapshot.add(new Entry(CQSLongPollProtocol.INTEREST_ADDED, arn, 0));
+      }
 
-          processNotification(
-              queueArn.toString(),
-              e.getRemoteAddress() != null ? e.getRemoteAddress().toString() : "");
+      e.getChannel().write(CQSLongPollProtocol.encodeFrames(snapshot));
+    }
 
-          // start reading new message
+    @Override
+    @SuppressWarnings("unchecked")
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
 
-          queueArn = new StringBuffer("");
+      String remoteAddress = e.getRemoteAddress() != null ? e.getRemoteAddress().toString() : "";
 
-        } else {
-          queueArn.append(c);
+      for (Entry entry : (List<Entry>) e.getMessage()) {
+        if (entry.getType() == CQSLongPollProtocol.NOTIFY) {
+          dispatchNotification(entry.getQueueArn(), entry.getCount(), remoteAddress);
         }
       }
     }
@@ -153,62 +280,180 @@ public class CQSLongPollReceiver {
     }
   }
 
-  public static int processNotification(String queueArn, String remoteAddress) {
+  /**
+   * Serve a notification received over the network on the notification pool. Merges with a
+   * notification for the same queue that has not been picked up yet.
+   *
+   * @param queueArn
+   * @param messageCount number of messages sent, at least 1
+   * @param remoteAddress
+   */
+  private static void dispatchNotification(
+      final String queueArn, int messageCount, final String remoteAddress) {
 
-    int messageCount = 0;
+    int count = Math.max(messageCount, 1);
 
-    long ts1 = System.currentTimeMillis();
-    CMBControllerServlet.valueAccumulator.initializeAllCounters();
+    while (true) {
 
-    contextQueues.putIfAbsent(queueArn, new ConcurrentLinkedQueue<AsyncContext>());
-    ConcurrentLinkedQueue<AsyncContext> contextQueue = contextQueues.get(queueArn);
+      AtomicInteger pending = pendingNotifications.get(queueArn);
 
-    AsyncContext asyncContext = contextQueue.poll();
+      if (pending == null) {
 
-    if (asyncContext == null) {
-      logger.debug(
-          "event=no_pending_receive queue_arn=" + queueArn + " remote_address=" + remoteAddress);
-      return messageCount;
+        final AtomicInteger fresh = new AtomicInteger(count);
+
+        if (pendingNotifications.putIfAbsent(queueArn, fresh) != null) {
+          continue;
+        }
+
+        try {
+          notificationExecutor.execute(
+              new Runnable() {
+                @Override
+                public void run() {
+                  serveNotification(queueArn, fresh, remoteAddress);
+                }
+              });
+        } catch (RejectedExecutionException ex) {
+          pendingNotifications.remove(queueArn, fresh);
+          notificationsRejected.incrementAndGet();
+          logger.warn("event=longpoll_notification_rejected queue_arn=" + queueArn);
+        }
+
+        return;
+      }
+
+      int current = pending.get();
+
+      // negative means a task is just claiming it and will remove it, retry until it is gone
+
+      if (current >= 0 && pending.compareAndSet(current, current + count)) {
+        return;
+      }
     }
+  }
 
-    if (asyncContext.getRequest() == null) {
-      logger.info(
-          "event=skipping_invalid_context queue_arn="
-              + queueArn
-              + " remote_address="
-              + remoteAddress);
-      return messageCount;
+  private static void serveNotification(
+      String queueArn, AtomicInteger pending, String remoteAddress) {
+
+    int messageCount = pending.getAndSet(-1);
+    pendingNotifications.remove(queueArn, pending);
+
+    processNotification(queueArn, remoteAddress, messageCount);
+  }
+
+  public static int processNotification(String queueArn, String remoteAddress) {
+    return processNotification(queueArn, remoteAddress, 1);
+  }
+
+  /**
+   * Hand out newly sent messages to waiting long poll receives. Wakes up waiters one after the
+   * other until as many messages as were sent have been returned or a waiter finds none, in which
+   * case it goes back on the queue. Finished or outdated receives found on the way are discarded.
+   *
+   * @param queueArn
+   * @param remoteAddress
+   * @param messageCount number of messages sent
+   * @return number of messages returned to waiting receives
+   */
+  public static int processNotification(String queueArn, String remoteAddress, int messageCount) {
+
+    InProcessWaiter waiter = inProcessWaiters.get(queueArn);
+
+    if (waiter != null) {
+      waiter.signal();
     }
 
-    if (!(asyncContext.getRequest() instanceof CQSHttpServletRequest)) {
-      logger.info(
-          "event=skipping_invalid_request queue_arn="
-              + queueArn
-              + " remote_address="
-              + remoteAddress);
-      return messageCount;
+    contextQueues.putIfAbsent(queueArn, new ConcurrentLinkedQueue<AsyncContext>());
+    ConcurrentLinkedQueue<AsyncContext> contextQueue = contextQueues.get(queueArn);
+
+    int found = 0;
+
+    while (found < messageCount) {
+
+      AsyncContext asyncContext = pollActiveContext(queueArn, contextQueue, remoteAddress);
+
+      if (asyncContext == null) {
+        logger.debug(
+            "event=no_pending_receive queue_arn=" + queueArn + " remote_address=" + remoteAddress);
+        break;
+      }
+
+      int messageReceiveCount = serveContext(queueArn, contextQueue, asyncContext, remoteAddress);
+
+      if (messageReceiveCount == 0) {
+        break;
+      }
+
+      found += messageReceiveCount;
     }
 
-    CQSHttpServletRequest request = (CQSHttpServletRequest) asyncContext.getRequest();
+    return found;
+  }
 
-    // skip if request is already finished or outdated
+  /** Take the next waiting receive off the queue, discarding any that are no longer waiting */
+  private static AsyncContext pollActiveContext(
+      String queueArn, ConcurrentLinkedQueue<AsyncContext> contextQueue, String remoteAddress) {
 
-    if (!request.isActive()
-        || System.currentTimeMillis() - request.getRequestReceivedTimestamp()
-            > request.getWaitTime()) {
-      logger.info(
-          "event=skipping_outdated_context queue_arn="
-              + queueArn
-              + " remote_address="
-              + remoteAddress);
-      return messageCount;
+    AsyncContext asyncContext;
+
+    while ((asyncContext = contextQueue.poll()) != null) {
+
+      if (asyncContext.getRequest() == null) {
+        logger.info(
+            "event=skipping_invalid_context queue_arn="
+                + queueArn
+                + " remote_address="
+                + remoteAddress);
+        deadContextsRemoved.incrementAndGet();
+        continue;
+      }
+
+      if (!(asyncContext.getRequest() instanceof CQSHttpServletRequest)) {
+        logger.info(
+            "event=skipping_invalid_request queue_arn="
+                + queueArn
+                + " remote_address="
+                + remoteAddress);
+        deadContextsRemoved.incrementAndGet();
+        continue;
+      }
+
+      CQSHttpServletRequest request = (CQSHttpServletRequest) asyncContext.getRequest();
+
+      // skip if request is already finished or outdated
+
+      if (isOutdated(request)) {
+        logger.info(
+            "event=skipping_outdated_context queue_arn="
+                + queueArn
+                + " remote_address="
+                + remoteAddress);
+        deadContextsRemoved.incrementAndGet();
+        continue;
+      }
+
+      return asyncContext;
     }
 
+    return null;
+  }
+
+  private static int serveContext(
+      String queueArn,
+      ConcurrentLinkedQueue<AsyncContext> contextQueue,
+      AsyncContext asyncContext,
+      String remoteAddress) {
+
+    int messageCount = 0;
+    CQSHttpServletRequest request = (CQSHttpServletRequest) asyncContext.getRequest();
+
+    long ts1 = System.currentTimeMillis();
+    CMBControllerServlet.valueAccumulator.initializeAllCounters();
+
     logger.debug(
         "event=notification_received queue_arn=" + queueArn + " remote_address=" + remoteAddress);
 
     try {
-
       CQSQueue queue = request.getQueue();
       List<CQSMessage> messageList =
           PersistenceFactory.getCQSMessagePersistence()
@@ -251,6 +496,7 @@ public class CQSLongPollReceiver {
             "io_ms", CQSControllerServlet.valueAccumulator.getCounter(AccumulatorName.IOTime));
 
         asyncContext.complete();
+        wakeLatency.record(System.currentTimeMillis() - ts1);
 
       } else {
 
@@ -282,6 +528,215 @@ public class CQSLongPollReceiver {
     return messageCount;
   }
 
+  private static boolean isOutdated(CQSHttpServletRequest request) {
+    return !request.isActive()
+        || System.currentTimeMillis() - request.getRequestReceivedTimestamp()
+            > request.getWaitTime();
+  }
+
+  /**
+   * Take a receive that has finished, timed out or failed off its queue right away
+   *
+   * @param queueArn
+   * @param asyncContext
+   */
+  public static void removeContext(String queueArn, AsyncContext asyncContext) {
+
+    if (asyncContext == null) {
+      return;
+    }
+
+    if (asyncContext.getRequest() instanceof CQSHttpServletRequest) {
+      ((CQSHttpServletRequest) asyncContext.getRequest()).setActive(false);
+    }
+
+    ConcurrentLinkedQueue<AsyncContext> contextQueue =
+        contextQueues != null && queueArn != null ? contextQueues.get(queueArn) : null;
+
+    if (contextQueue != null && contextQueue.remove(asyncContext)) {
+      deadContextsRemoved.incrementAndGet();
+    }
+  }
+
+  private static void sweepDeadContexts() {
+
+    for (ConcurrentLinkedQueue<AsyncContext> contextQueue : contextQueues.values()) {
+
+      Iterator<AsyncContext> iter = contextQueue.iterator();
+
+      while (iter.hasNext()) {
+
+        AsyncContext asyncContext = iter.next();
+
+        if (!(asyncContext.getRequest() instanceof CQSHttpServletRequest)
+            || isOutdated((CQSHttpServletRequest) asyncContext.getRequest())) {
+          iter.remove();
+          deadContextsRemoved.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  /** @return number of active long poll receives waiting per queue arn, idle queues omitted */
+  public static Map<String, Integer> getWaiterCounts() {
+
+    Map<String, Integer> waiterCounts = new TreeMap<String, Integer>();
+
+    if (contextQueues == null) {
+      return waiterCounts;
+    }
+
+    for (Map.Entry<String, ConcurrentLinkedQueue<AsyncContext>> entry : contextQueues.entrySet()) {
+
+      int count = 0;
+
+      for (AsyncContext asyncContext : entry.getValue()) {
+        if (asyncContext.getRequest() instanceof CQSHttpServletRequest
+            && !isOutdated((CQSHttpServletRequest) asyncContext.getRequest())) {
+          count++;
+        }
+      }
+
+      if (count > 0) {
+        waiterCounts.put(entry.getKey(), count);
+      }
+    }
+
+    return waiterCounts;
+  }
+
+  /**
+   * @param minutes number of most recent minutes to include
+   * @return count, p50, p90, p99 and max of the time it took to answer a woken up receive in ms
+   */
+  public static Map<String, Long> getWakeLatencyPercentiles(int minutes) {
+
+    LatencyHistogram histogram = wakeLatency.getWindow(minutes);
+    Map<String, Long> summary = new LinkedHashMap<String, Long>();
+
+    summary.put("Count", histogram.getCount());
+    summary.put("P50", histogram.getValueAtPercentile(50));
+    summary.put("P90", histogram.getValueAtPercentile(90));
+    summary.put("P99", histogram.getValueAtPercentile(99));
+    summary.put("Max", histogram.getMax());
+
+    return summary;
+  }
+
+  /** @return number of finished or outdated receives discarded from the queues so far */
+  public static long getDeadContextsRemovedCount() {
+    return deadContextsRemoved.get();
+  }
+
+  /**
+   * Advertise to all connected senders that this server has a long poll receive queued for a
+   * queue. Only the first registration after the interest expired goes over the wire.
+   *
+   * @param queueArn
+   */
+  public static void registerInterest(String queueArn) {
+
+    long now = System.currentTimeMillis();
+    Long lastRegistered = advertisedInterest.get(queueArn);
+
+    // already advertised, refreshing the timestamp keeps the sweeper from expiring it
+
+    if (lastRegistered != null && advertisedInterest.replace(queueArn, lastRegistered, now)) {
+      return;
+    }
+
+    synchronized (getInterestLock(queueArn)) {
+      if (advertisedInterest.put(queueArn, now) == null) {
+        writeToSenders(new Entry(CQSLongPollProtocol.INTEREST_ADDED, queueArn, 0));
+        logger.debug("event=longpoll_interest_added queue_arn=" + queueArn);
+      }
+    }
+  }
+
+  private static Object getInterestLock(String queueArn) {
+    return interestLocks[(queueArn.hashCode() & 0x7fffffff) % interestLocks.length];
+  }
+
+  /** @return number of queues this server currently advertises long poll interest for */
+  public static int getAdvertisedInterestCount() {
+    return advertisedInterest.size();
+  }
+
+  /** @return number of notifications waiting for a thread of the notification pool */
+  public static int getPendingNotificationCount() {
+    return notificationExecutor == null ? 0 : notificationExecutor.getQueue().size();
+  }
+
+  /** @return number of notifications dropped because the notification pool was saturated */
+  public static long getRejectedNotificationCount() {
+    return notificationsRejected.get();
+  }
+
+  private static void expireInterest() {
+
+    long now = System.currentTimeMillis();
+
+    for (Map.Entry<String, Long> entry : advertisedInterest.entrySet()) {
+
+      ConcurrentLinkedQueue<AsyncContext> contextQueue = contextQueues.get(entry.getKey());
+      InProcessWaiter waiter = inProcessWaiters.get(entry.getKey());
+
+      if ((contextQueue == null || contextQueue.isEmpty())
+          && (waiter == null || !waiter.hasWaiters())
+          && now - entry.getValue() > INTEREST_EXPIRY_MS) {
+
+        synchronized (getInterestLock(entry.getKey())) {
+          if (advertisedInterest.remove(entry.getKey(), entry.getValue())) {
+            writeToSenders(new Entry(CQSLongPollProtocol.INTEREST_REMOVED, entry.getKey(), 0));
+            logger.debug("event=longpoll_interest_removed queue_arn=" + entry.getKey());
+          }
+        }
+      }
+    }
+  }
+
+  private static void writeToSenders(Entry entry) {
+    if (!senderChannels.isEmpty()) {
+      senderChannels.write(CQSLongPollProtocol.encode(entry));
+    }
+  }
+
+  /**
+   * Returns the number of notifications seen so far for a queue. In-process receivers should take
+   * this snapshot before reading messages and pass it to awaitNotification() so that a
+   * notification arriving in between is not lost. Also advertises interest in the queue, so that
+   * senders on other api servers notify this one while the in-process receiver waits.
+   *
+   * @param queueArn
+   * @return notification count
+   */
+  public static long getNotificationCount(String queueArn) {
+    registerInterest(queueArn);
+    inProcessWaiters.putIfAbsent(queueArn, new InProcessWaiter());
+    return inProcessWaiters.get(queueArn).getNotificationCount();
+  }
+
+  /**
+   * Block until a new message available notification arrives for the queue or the timeout
+   * expires.
+   *
+   * @param queueArn
+   * @param lastNotificationCount snapshot obtained from getNotificationCount()
+   * @param timeoutMillis
+   * @return true if notified, false on timeout
+   * @throws InterruptedException
+   */
+  public static boolean awaitNotification(
+      String queueArn, long lastNotificationCount, long timeoutMillis)
+      throws InterruptedException {
+    inProcessWaiters.putIfAbsent(queueArn, new InProcessWaiter());
+    return inProcessWaiters.get(queueArn).await(lastNotificationCount, timeoutMillis);
+  }
+
+  public static boolean isListening() {
+    return initialized;
+  }
+
   public static void listen() {
 
     if (!initialized) {
@@ -297,15 +752,80 @@ public class CQSLongPollReceiver {
       serverBootstrap.setPipelineFactory(
           new ChannelPipelineFactory() {
             public ChannelPipeline getPipeline() {
-              return Channels.pipeline(new LongPollServerHandler());
+              return Channels.pipeline(
+                  new CQSLongPollProtocol.ProtocolDetector(), new LongPollServerHandler());
             }
           });
 
       serverBootstrap.setOption("child.tcpNoDelay", true);
       serverBootstrap.setOption("child.keepAlive", true);
 
+      int threadCount = CMBProperties.getInstance().getCQSLongPollNotificationThreadCount();
+
+      notificationExecutor =
+          new ThreadPoolExecutor(
+              threadCount,
+              threadCount,
+              60,
+              TimeUnit.SECONDS,
+              new LinkedBlockingQueue<Runnable>(
+                  CMBProperties.getInstance().getCQSLongPollNotificationQueueSize()),
+              new ThreadFactory() {
+                private final AtomicInteger threadNumber = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                  Thread t =
+                      new Thread(r, "CQSLongPollNotification-" + threadNumber.incrementAndGet());
+                  t.setDaemon(true);
+                  return t;
+                }
+              });
+
       serverBootstrap.bind(new InetSocketAddress(CMBProperties.getInstance().getCQSLongPollPort()));
 
+      sweeper =
+          new ScheduledThreadPoolExecutor(
+              1,
+              new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                  Thread t = new Thread(r, "CQSLongPollSweeper");
+                  t.setDaemon(true);
+                  return t;
+                }
+              });
+
+      sweeper.scheduleWithFixedDelay(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                expireInterest();
+              } catch (Exception ex) {
+                logger.warn("event=longpoll_interest_sweep_failed", ex);
+              }
+            }
+          },
+          INTEREST_EXPIRY_MS / 2,
+          INTEREST_EXPIRY_MS / 2,
+          TimeUnit.MILLISECONDS);
+
+      sweeper.scheduleWithFixedDelay(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                sweepDeadContexts();
+              } catch (Exception ex) {
+                logger.warn("event=longpoll_dead_context_sweep_failed", ex);
+              }
+            }
+          },
+          DEAD_CONTEXT_SWEEP_INTERVAL_MS,
+          DEAD_CONTEXT_SWEEP_INTERVAL_MS,
+          TimeUnit.MILLISECONDS);
+
       initialized = true;
 
       logger.info(
@@ -315,6 +835,12 @@ public class CQSLongPollReceiver {
   }
 
   public static void shutdown() {
+    if (sweeper != null) {
+      sweeper.shutdownNow();
+    }
+    if (notificationExecutor != null) {
+      notificationExecutor.shutdownNow();
+    }
     if (serverSocketChannelFactory != null) {
       serverSocketChannelFactory.releaseExternalResources();
     }
@@ -13,31 +13,33 @@
  */
 package com.comcast.cqs.controller;
 
+import com.comcast.cmb.common.controller.CMBHeartbeatService;
 import com.comcast.cmb.common.persistence.AbstractDurablePersistence;
-import com.comcast.cmb.common.persistence.AbstractDurablePersistence.CMB_SERIALIZER;
 import com.comcast.cmb.common.persistence.AbstractDurablePersistence.CmbRow;
-import com.comcast.cmb.common.persistence.DurablePersistenceFactory;
 import com.comcast.cmb.common.persistence.PersistenceFactory;
 import com.comcast.cmb.common.util.CMBProperties;
+import com.comcast.cqs.controller.CQSLongPollProtocol.Entry;
 import com.comcast.cqs.model.CQSAPIStats;
 import com.comcast.cqs.util.Util;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.URL;
 import java.net.UnknownHostException;
-import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import org.apache.log4j.Logger;
 import org.jboss.netty.bootstrap.ClientBootstrap;
-import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.ChannelFuture;
@@ -45,6 +47,7 @@ import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
@@ -74,10 +77,110 @@ public class CQSLongPollSender {
   private static ClientBootstrap clientBootstrap;
   private static ChannelFactory clientSocketChannelFactory;
 
+  // most notifications drained from the queue and sent to the api servers in one frame
+
+  private static final int MAX_BATCH_SIZE = 1000;
+
+  // how long notifications for a new connection are held back waiting for the receiver's HELLO
+  // before we give up and fall back to the legacy text protocol, and how often held
+  // notifications are checked while no new ones arrive
+
+  private static final long HELLO_WAIT_MILLIS = 2000;
+  private static final long HELD_POLL_MILLIS = 100;
+
+  // number of remote notifications written vs. skipped because the receiver had no interest
+
+  private static final AtomicLong notificationsSent = new AtomicLong();
+  private static final AtomicLong notificationsSkipped = new AtomicLong();
+
+  // state of a remote api server, attached to the channel connected to it. until the receiver
+  // greets us with a HELLO frame (older versions never do) it gets every notification as plain
+  // ';' delimited text
+
+  private static class RemoteInterest {
+
+    private volatile boolean targeted = false;
+    private final Set<String> queueArns =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final long connectedAt = System.currentTimeMillis();
+
+    // the receiver picks its decoder from the first bytes of a connection, so once we sent text
+    // we stick to it until the connection is replaced. to not pick text just because a send beat
+    // the HELLO frame, notifications are held until HELLO arrives or HELLO_WAIT_MILLIS passed.
+    // only touched by the sender thread
+
+    private boolean legacyWritten = false;
+    private final Map<String, Integer> held = new LinkedHashMap<String, Integer>();
+
+    private boolean isInterested(String queueArn) {
+      return !targeted || queueArns.contains(queueArn);
+    }
+
+    private boolean useFrames() {
+      return targeted && !legacyWritten;
+    }
+
+    private boolean awaitingHello(long now) {
+      return !targeted && !legacyWritten && now - connectedAt < HELLO_WAIT_MILLIS;
+    }
+
+    private void hold(List<Entry> entries) {
+      for (Entry entry : entries) {
+        Integer count = held.get(entry.getQueueArn());
+        held.put(
+            entry.getQueueArn(), count == null ? entry.getCount() : count + entry.getCount());
+      }
+    }
+
+    private List<Entry> releaseHeld(List<Entry> entries) {
+
+      if (held.isEmpty()) {
+        return entries;
+      }
+
+      List<Entry> released = new ArrayList<Entry>();
+
+      for (Map.Entry<String, Integer> e : held.entrySet()) {
+        if (isInterested(e.getKey())) {
+          released.add(new Entry(CQSLongPollProtocol.NOTIFY, e.getKey(), e.getValue()));
+        }
+      }
+
+      held.clear();
+      released.addAll(entries);
+
+      return released;
+    }
+  }
+
   private static class CQSLongPollClientHandler extends SimpleChannelHandler {
 
     @Override
-    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {}
+    public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) {
+      e.getChannel().setAttachment(new RemoteInterest());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
+
+      RemoteInterest interest = (RemoteInterest) e.getChannel().getAttachment();
+
+      if (interest == null) {
+        return;
+      }
+
+      for (Entry entry : (List<Entry>) e.getMessage()) {
+
+        if (entry.getType() == CQSLongPollProtocol.HELLO) {
+          interest.targeted = true;
+        } else if (entry.getType() == CQSLongPollProtocol.INTEREST_ADDED) {
+          interest.queueArns.add(entry.getQueueArn());
+        } else if (entry.getType() == CQSLongPollProtocol.INTEREST_REMOVED) {
+          interest.queueArns.remove(entry.getQueueArn());
+        }
+      }
+    }
 
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
@@ -107,7 +210,10 @@ public class CQSLongPollSender {
       clientBootstrap.setPipelineFactory(
           new ChannelPipelineFactory() {
             public ChannelPipeline getPipeline() {
-              return Channels.pipeline(new CQSLongPollClientHandler());
+              return Channels.pipeline(
+                  CQSLongPollProtocol.newFrameDecoder(),
+                  new CQSLongPollProtocol.EntryDecoder(),
+                  new CQSLongPollClientHandler());
             }
           });
 
@@ -152,18 +258,12 @@ public class CQSLongPollSender {
 
           long now = System.currentTimeMillis();
 
-          // read all other pings but ensure we are data-center local and looking at a cqs service
+          // read all other pings but ensure we are data-center local and looking at a cqs service,
+          // the rows come from the cluster view kept up to date by the heartbeat service
 
           List<CmbRow<String, String, String>> rows =
-              DurablePersistenceFactory.getInstance()
-                  .readAllRows(
-                      AbstractDurablePersistence.CQS_KEYSPACE,
-                      CQS_API_SERVERS,
-                      1000,
-                      10,
-                      CMB_SERIALIZER.STRING_SERIALIZER,
-                      CMB_SERIALIZER.STRING_SERIALIZER,
-                      CMB_SERIALIZER.STRING_SERIALIZER);
+              CMBHeartbeatService.getClusterView(
+                  AbstractDurablePersistence.CQS_KEYSPACE, CQS_API_SERVERS);
 
           Map<String, CQSAPIStats> cqsAPIServers = new HashMap<String, CQSAPIStats>();
 
@@ -234,6 +334,15 @@ public class CQSLongPollSender {
             final String dataCenter = cqsAPIServers.get(endpoint).getDataCenter();
             final Channel oldClientChannel = activeCQSApiServers.get(endpoint);
 
+            // keep healthy connections, replacing them would also throw away the interest state
+            // the receiver sent us on them
+
+            if (oldClientChannel != null
+                && oldClientChannel.isConnected()
+                && oldClientChannel.isOpen()) {
+              continue;
+            }
+
             ChannelFuture channelFuture =
                 clientBootstrap.connect(new InetSocketAddress(host, longpollPort));
 
@@ -256,7 +365,7 @@ public class CQSLongPollSender {
                               + " data_center="
                               + dataCenter);
 
-                      if (oldClientChannel != null && oldClientChannel.isConnected()) {
+                      if (oldClientChannel != null) {
 
                         oldClientChannel.close();
 
@@ -291,65 +400,113 @@ public class CQSLongPollSender {
 
     public void run() {
 
-      String queueArn = null;
-      String queueMessageNumberString = null;
-      int messageSendCount = 1;
-      int separatorIndex = -1;
+      List<String> batch = new ArrayList<String>();
+      boolean holding = false;
 
       while (true) {
 
-        // blocking wait for next pending notification
+        // blocking wait for next pending notification, then grab whatever else is queued up so a
+        // burst of sends goes out as one frame per api server. while notifications are held for a
+        // new connection we only wait briefly so they go out soon after its HELLO or timeout
+
+        batch.clear();
 
         try {
-          queueMessageNumberString = pendingNotifications.take();
+
+          if (holding) {
+
+            String notification =
+                pendingNotifications.poll(HELD_POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+            if (notification != null) {
+              batch.add(notification);
+            }
+
+          } else {
+            batch.add(pendingNotifications.take());
+          }
+
         } catch (InterruptedException ex) {
           logger.warn("event=taking_pending_notifcation_from_queue_failed");
-        }
-
-        if (queueMessageNumberString == null) {
 
           try {
             Thread.sleep(1000);
-          } catch (InterruptedException ex) {
-            logger.error("event=thread_interrupted", ex);
+          } catch (InterruptedException ex2) {
+            logger.error("event=thread_interrupted", ex2);
           }
 
           continue;
-        } else {
+        }
+
+        pendingNotifications.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+        // merge notifications for the same queue, keeping the order in which queues were first seen
+
+        Map<String, Integer> messageSendCounts = new LinkedHashMap<String, Integer>();
+
+        for (String queueMessageNumberString : batch) {
+
+          String queueArn;
+          int messageSendCount;
+
           // queueArn example: cmb:cqs:ccp:390328612038:test, this means a send with 1 message
           if (Util.isValidQueueArn(queueMessageNumberString)) {
             queueArn = queueMessageNumberString;
             messageSendCount = 1;
           } else { // send with multiple message
-            separatorIndex = queueMessageNumberString.lastIndexOf(":");
+            int separatorIndex = queueMessageNumberString.lastIndexOf(":");
             queueArn = queueMessageNumberString.substring(0, separatorIndex);
             messageSendCount =
                 Integer.parseInt(queueMessageNumberString.substring(separatorIndex + 1));
           }
+
+          Integer count = messageSendCounts.get(queueArn);
+          messageSendCounts.put(
+              queueArn, count == null ? messageSendCount : count + messageSendCount);
         }
 
-        // don't go through tcp stack for loopback
+        List<Entry> remoteNotifications = new ArrayList<Entry>();
 
-        int messageReceiveCount = CQSLongPollReceiver.processNotification(queueArn, "localhost");
-        logger.debug(
-            "event=longpoll_notification_sent endpoint=localhost queue_arn="
-                + queueArn
-                + " num_msg_found="
-                + messageReceiveCount);
+        for (Map.Entry<String, Integer> e : messageSendCounts.entrySet()) {
 
-        // if messageSendCound is already been received by local or empty queue, finish
-        try {
-          if (messageReceiveCount >= messageSendCount
-              || PersistenceFactory.getCQSMessagePersistence()
-                      .getQueueMessageCount(Util.getRelativeQueueUrlForArn(queueArn))
-                  == 0) {
-            continue;
+          String queueArn = e.getKey();
+          int messageSendCount = e.getValue();
+
+          // don't go through tcp stack for loopback
+
+          int messageReceiveCount =
+              CQSLongPollReceiver.processNotification(queueArn, "localhost", messageSendCount);
+          logger.debug(
+              "event=longpoll_notification_sent endpoint=localhost queue_arn="
+                  + queueArn
+                  + " num_msg_found="
+                  + messageReceiveCount);
+
+          // if messageSendCound is already been received by local or empty queue, finish
+          try {
+            if (messageReceiveCount >= messageSendCount
+                || PersistenceFactory.getCQSMessagePersistence()
+                        .getQueueMessageCount(Util.getRelativeQueueUrlForArn(queueArn))
+                    == 0) {
+              continue;
+            }
+          } catch (Exception ex) {
+            logger.error("event=error_check_queue_depth", ex);
           }
-        } catch (Exception ex) {
-          logger.error("event=error_check_queue_depth", ex);
+
+          remoteNotifications.add(
+              new Entry(
+                  CQSLongPollProtocol.NOTIFY, queueArn, messageSendCount - messageReceiveCount));
+        }
+
+        if (remoteNotifications.isEmpty() && !holding) {
+          continue;
         }
 
-        // send notification on all other established channels to remote cqs api servers
+        // send notifications on all other established channels to remote cqs api servers
+
+        long now = System.currentTimeMillis();
+        holding = false;
 
         for (String endpoint : activeCQSApiServers.keySet()) {
 
@@ -357,9 +514,56 @@ public class CQSLongPollSender {
 
           if (clientChannel.isConnected() && clientChannel.isOpen() && clientChannel.isWritable()) {
 
-            ChannelBuffer buf =
-                ChannelBuffers.copiedBuffer(queueArn + ";", Charset.forName("UTF-8"));
-            clientChannel.write(buf);
+            RemoteInterest interest = (RemoteInterest) clientChannel.getAttachment();
+            List<Entry> entries = new ArrayList<Entry>();
+
+            for (Entry entry : remoteNotifications) {
+              if (interest != null && !interest.isInterested(entry.getQueueArn())) {
+                notificationsSkipped.incrementAndGet();
+              } else {
+                entries.add(entry);
+              }
+            }
+
+            if (interest != null) {
+
+              if (interest.awaitingHello(now)) {
+                interest.hold(entries);
+                holding |= !interest.held.isEmpty();
+                continue;
+              }
+
+              entries = interest.releaseHeld(entries);
+            }
+
+            if (entries.isEmpty()) {
+              continue;
+            }
+
+            if (interest != null && interest.useFrames()) {
+              clientChannel.write(CQSLongPollProtocol.encode(entries));
+            } else {
+
+              List<String> queueArns = new ArrayList<String>();
+
+              for (Entry entry : entries) {
+                queueArns.add(entry.getQueueArn());
+              }
+
+              if (interest != null) {
+                interest.legacyWritten = true;
+              }
+
+              clientChannel.write(CQSLongPollProtocol.encodeLegacy(queueArns));
+            }
+
+            notificationsSent.addAndGet(entries.size());
+
+            logger.debug(
+                "event=longpoll_notification_sent endpoint="
+                    + endpoint
+                    + " num_queues="
+                    + entries.size());
 
           } else {
 
@@ -387,23 +591,25 @@ public class CQSLongPollSender {
                               + host
                               + " port="
                               + longpollPort);
-
-                      ChannelBuffer buf =
-                          ChannelBuffers.copiedBuffer(
-                              newClientChannel + ";", Charset.forName("UTF-8"));
-                      newClientChannel.write(buf);
                     }
                   }
                 });
           }
-
-          logger.debug(
-              "event=longpoll_notification_sent endpoint=" + endpoint + " queue_arn=" + queueArn);
         }
       }
     }
   }
 
+  /** @return number of notifications written to remote api servers */
+  public static long getNotificationsSentCount() {
+    return notificationsSent.get();
+  }
+
+  /** @return number of remote notifications not sent since the receiver was not waiting */
+  public static long getNotificationsSkippedCount() {
+    return notificationsSkipped.get();
+  }
+
   public static void send(String queueArn) {
 
     if (!initialized) {
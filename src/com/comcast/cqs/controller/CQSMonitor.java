@@ -20,10 +20,13 @@ import com.comcast.cmb.common.util.CMBProperties;
 import com.comcast.cmb.common.util.PersistenceException;
 import com.comcast.cmb.common.util.RollingWindowCapture;
 import com.comcast.cmb.common.util.RollingWindowCapture.PayLoad;
+import com.comcast.cqs.persistence.RedisSortedSetPersistence;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.servlet.AsyncContext;
@@ -52,6 +55,62 @@ public class CQSMonitor implements CQSMonitorMBean {
     PayloadCache;
   }
 
+  /** Progress of a cache filler warming up the redis cache of a queue shard */
+  public static class CacheFillProgress {
+
+    private final int numPartitions;
+    private final long startTime = System.currentTimeMillis();
+    private final AtomicLong idsLoaded = new AtomicLong();
+    private final AtomicInteger partitionsDone = new AtomicInteger();
+
+    private CacheFillProgress(int numPartitions) {
+      this.numPartitions = numPartitions;
+    }
+
+    public void addIdsLoaded(int num) {
+      idsLoaded.addAndGet(num);
+      totalCacheFillIdsLoaded.addAndGet(num);
+    }
+
+    public void partitionDone() {
+      partitionsDone.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+
+      long elapsedMS = Math.max(System.currentTimeMillis() - startTime, 1);
+      long ids = idsLoaded.get();
+      int done = partitionsDone.get();
+
+      // messages are spread evenly over partitions, so finished partitions predict the rest
+
+      String eta = "unknown";
+
+      if (done > 0) {
+        eta = "" + (elapsedMS * (numPartitions - done) / done / 1000);
+      }
+
+      return "ids_loaded="
+          + ids
+          + " partitions_done="
+          + done
+          + "/"
+          + numPartitions
+          + " ids_per_sec="
+          + (ids * 1000 / elapsedMS)
+          + " elapsed_sec="
+          + (elapsedMS / 1000)
+          + " eta_sec="
+          + eta;
+    }
+  }
+
+  private static final AtomicLong totalCacheFillIdsLoaded = new AtomicLong();
+
+  private final ConcurrentHashMap<String, CacheFillProgress> cacheFills =
+      new ConcurrentHashMap<String, CacheFillProgress>();
+
   static class MessageNumberDynamicPayLoad extends PayLoad {
 
     public final AtomicInteger numMessages;
@@ -91,6 +150,14 @@ public class CQSMonitor implements CQSMonitorMBean {
       new ConcurrentHashMap<String, RollingWindowCapture<MessageNumberDynamicPayLoad>>();
   ConcurrentHashMap<String, RollingWindowCapture<MessageNumberDynamicPayLoad>> numEmptyRespRW =
       new ConcurrentHashMap<String, RollingWindowCapture<MessageNumberDynamicPayLoad>>();
+  ConcurrentHashMap<String, RollingWindowCapture<MessageNumberDynamicPayLoad>> numRevisibleRW =
+      new ConcurrentHashMap<String, RollingWindowCapture<MessageNumberDynamicPayLoad>>();
+
+  private final AtomicLong numRevisibilitySweeps = new AtomicLong();
+  private final AtomicLong numMessagesMadeRevisible = new AtomicLong();
+  private final AtomicLong revisibilitySweepTimeMS = new AtomicLong();
+  private final AtomicLong maxRevisibilitySweepTimeMS = new AtomicLong();
+  private volatile long lastRevisibilitySweepTimeMS = 0;
 
   /** Note should only be called by unit-tests */
   public void clearAllState() {
@@ -100,6 +167,7 @@ public class CQSMonitor implements CQSMonitorMBean {
     pCacheHitRatioRW.clear();
     numMessagesRw.clear();
     numMessagesDeleted.clear();
+    numRevisibleRW.clear();
   }
 
   class CountMessagesDynamicVisitor
@@ -192,6 +260,11 @@ public class CQSMonitor implements CQSMonitorMBean {
     return PersistenceFactory.getCQSMessagePersistence().getNumConnections();
   }
 
+  @Override
+  public long getNumberOfCacheStateLeaseHits() {
+    return RedisSortedSetPersistence.getCacheStateLeaseHitCount();
+  }
+
   /**
    * Add in buckets of 1 minute. Rolling window would get rid of an entire bucket
    *
@@ -277,6 +350,115 @@ public class CQSMonitor implements CQSMonitorMBean {
     addNumberOfMessages(queueUrl, num, numEmptyRespRW);
   }
 
+  /**
+   * Record the outcome of a single sweep of the hidden set of a queue shard
+   *
+   * @param queueUrl
+   * @param numMadeRevisible number of message ids moved from the hidden set back to the queue
+   * @param durationMS duration of the sweep in milliseconds
+   */
+  public void registerRevisibilitySweep(String queueUrl, long numMadeRevisible, long durationMS) {
+
+    numRevisibilitySweeps.incrementAndGet();
+    numMessagesMadeRevisible.addAndGet(numMadeRevisible);
+    revisibilitySweepTimeMS.addAndGet(durationMS);
+    lastRevisibilitySweepTimeMS = durationMS;
+
+    long max = maxRevisibilitySweepTimeMS.get();
+
+    while (durationMS > max && !maxRevisibilitySweepTimeMS.compareAndSet(max, durationMS)) {
+      max = maxRevisibilitySweepTimeMS.get();
+    }
+
+    if (numMadeRevisible > 0) {
+      addNumberOfMessages(queueUrl, (int) numMadeRevisible, numRevisibleRW);
+    }
+  }
+
+  @Override
+  public int getRecentNumberOfMessagesMadeRevisible(String queueUrl) {
+    return getNumberOfMessages(queueUrl, numRevisibleRW);
+  }
+
+  @Override
+  public long getNumberOfRevisibilitySweeps() {
+    return numRevisibilitySweeps.get();
+  }
+
+  @Override
+  public long getNumberOfMessagesMadeRevisible() {
+    return numMessagesMadeRevisible.get();
+  }
+
+  @Override
+  public long getAverageRevisibilitySweepTimeMS() {
+    long num = numRevisibilitySweeps.get();
+    return num == 0 ? 0 : revisibilitySweepTimeMS.get() / num;
+  }
+
+  @Override
+  public long getMaxRevisibilitySweepTimeMS() {
+    return maxRevisibilitySweepTimeMS.get();
+  }
+
+  @Override
+  public long getLastRevisibilitySweepTimeMS() {
+    return lastRevisibilitySweepTimeMS;
+  }
+
+  /**
+   * @param queueUrl
+   * @param shard
+   * @param numPartitions number of partitions the filler is going to scan
+   * @return progress the filler updates as it goes
+   */
+  public CacheFillProgress registerCacheFillStarted(String queueUrl, int shard, int numPartitions) {
+    CacheFillProgress progress = new CacheFillProgress(numPartitions);
+    cacheFills.put(queueUrl + "-" + shard, progress);
+    return progress;
+  }
+
+  public void registerCacheFillFinished(String queueUrl, int shard) {
+    cacheFills.remove(queueUrl + "-" + shard);
+  }
+
+  @Override
+  public Map<String, String> getCacheFillProgress() {
+
+    Map<String, String> progress = new TreeMap<String, String>();
+
+    for (Map.Entry<String, CacheFillProgress> entry : cacheFills.entrySet()) {
+      progress.put(entry.getKey(), entry.getValue().toString());
+    }
+
+    return progress;
+  }
+
+  @Override
+  public long getNumberOfIdsLoadedByCacheFillers() {
+    return totalCacheFillIdsLoaded.get();
+  }
+
+  @Override
+  public long getQueueCacheHitCount() {
+    return CQSCache.getQueueCache().getHitCount();
+  }
+
+  @Override
+  public long getQueueCacheMissCount() {
+    return CQSCache.getQueueCache().getMissCount();
+  }
+
+  @Override
+  public long getQueueCacheEvictionCount() {
+    return CQSCache.getQueueCache().getEvictionCount();
+  }
+
+  @Override
+  public long getQueueCacheRefreshCount() {
+    return CQSCache.getQueueCache().getRefreshCount();
+  }
+
   @Override
   public Long getOldestAvailableMessageTS(String queueUrl) {
 
@@ -331,6 +513,31 @@ public class CQSMonitor implements CQSMonitorMBean {
     return count;
   }
 
+  @Override
+  public int getNumberOfLongPollInterestQueues() {
+    return CQSLongPollReceiver.getAdvertisedInterestCount();
+  }
+
+  @Override
+  public long getNumberOfLongPollNotificationsSent() {
+    return CQSLongPollSender.getNotificationsSentCount();
+  }
+
+  @Override
+  public long getNumberOfLongPollNotificationsSkipped() {
+    return CQSLongPollSender.getNotificationsSkippedCount();
+  }
+
+  @Override
+  public int getNumberOfPendingLongPollNotifications() {
+    return CQSLongPollReceiver.getPendingNotificationCount();
+  }
+
+  @Override
+  public long getNumberOfRejectedLongPollNotifications() {
+    return CQSLongPollReceiver.getRejectedNotificationCount();
+  }
+
   @Override
   public long getNumberOfLongPollReceives() {
 
@@ -387,7 +594,26 @@ public class CQSMonitor implements CQSMonitorMBean {
       return 0;
     }
 
-    return CQSLongPollReceiver.contextQueues.get(queueArn).size();
+    ConcurrentLinkedQueue<AsyncContext> contextQueue =
+        CQSLongPollReceiver.contextQueues.get(queueArn);
+
+    return contextQueue == null ? 0 : contextQueue.size();
+  }
+
+  @Override
+  public Map<String, Integer> getLongPollWaiterCounts() {
+    return CQSLongPollReceiver.getWaiterCounts();
+  }
+
+  @Override
+  public Map<String, Long> getLongPollWakeLatencyPercentiles() {
+    return CQSLongPollReceiver.getWakeLatencyPercentiles(
+        CMBControllerServlet.LATENCY_SUMMARY_MINUTES);
+  }
+
+  @Override
+  public long getNumberOfDeadLongPollReceivesRemoved() {
+    return CQSLongPollReceiver.getDeadContextsRemovedCount();
   }
 
   @Override
@@ -415,6 +641,12 @@ public class CQSMonitor implements CQSMonitorMBean {
     return CMBControllerServlet.callFailureStats;
   }
 
+  @Override
+  public Map<String, Map<String, Long>> getCallLatencyPercentiles() {
+    return CMBControllerServlet.getCallLatencyPercentiles(
+        CMBControllerServlet.LATENCY_SUMMARY_MINUTES);
+  }
+
   @Override
   public void resetCallStats() {
     CMBControllerServlet.initStats();
@@ -55,11 +55,57 @@ public interface CQSMonitorMBean {
    */
   public int getRecentNumberOfEmptyReceives(String queueUrl);
 
+  /**
+   * @param queueUrl
+   * @return number of hidden messages made re-visible by the revisibility processor in a rolling
+   *     window
+   */
+  public int getRecentNumberOfMessagesMadeRevisible(String queueUrl);
+
   // ----------End of rolling window metrics
 
+  /** @return number of hidden set sweeps performed by the revisibility processor */
+  public long getNumberOfRevisibilitySweeps();
+
+  /** @return total number of hidden messages made re-visible by the revisibility processor */
+  public long getNumberOfMessagesMadeRevisible();
+
+  /** @return average duration of a hidden set sweep in milliseconds */
+  public long getAverageRevisibilitySweepTimeMS();
+
+  /** @return maximum duration of a hidden set sweep in milliseconds */
+  public long getMaxRevisibilitySweepTimeMS();
+
+  /** @return duration of the most recent hidden set sweep in milliseconds */
+  public long getLastRevisibilitySweepTimeMS();
+
+  /**
+   * @return progress of the cache fillers currently warming up queue shards keyed by queue url and
+   *     shard, with ids loaded, partitions scanned, load rate and estimated time left
+   */
+  public Map<String, String> getCacheFillProgress();
+
+  /** @return number of message ids loaded into redis by cache fillers since startup */
+  public long getNumberOfIdsLoadedByCacheFillers();
+
+  /** @return number of queue lookups served from the in memory queue cache */
+  public long getQueueCacheHitCount();
+
+  /** @return number of queue lookups that had to load the queue from cassandra */
+  public long getQueueCacheMissCount();
+
+  /** @return number of queues evicted from the queue cache because it was full */
+  public long getQueueCacheEvictionCount();
+
+  /** @return number of queues reloaded in the background before their cache entry expired */
+  public long getQueueCacheRefreshCount();
+
   /** @return number of open connections to redis */
   public int getNumberOpenRedisConnections();
 
+  /** @return number of redis cache state reads saved by cache state leases */
+  public long getNumberOfCacheStateLeaseHits();
+
   /**
    * @param queueUrl
    * @return The timestamp in milliseconds of the oldest message in queue or null if none exists
@@ -81,6 +127,30 @@ public interface CQSMonitorMBean {
    */
   public long getNumberOfLongPollReceivesForQueue(String queueArn);
 
+  /** @return Number of active long poll receives waiting per queue arn */
+  public Map<String, Integer> getLongPollWaiterCounts();
+
+  /** @return Count and percentiles in ms of answering a woken up long poll receive, last 5 min */
+  public Map<String, Long> getLongPollWakeLatencyPercentiles();
+
+  /** @return Number of finished or outdated long poll receives cleaned up so far */
+  public long getNumberOfDeadLongPollReceivesRemoved();
+
+  /** @return Number of queues this server advertises pending long poll receives for */
+  public int getNumberOfLongPollInterestQueues();
+
+  /** @return Number of long poll notifications sent to other api servers */
+  public long getNumberOfLongPollNotificationsSent();
+
+  /** @return Number of long poll notifications not sent because the api server was not waiting */
+  public long getNumberOfLongPollNotificationsSkipped();
+
+  /** @return Number of received long poll notifications waiting to be served */
+  public int getNumberOfPendingLongPollNotifications();
+
+  /** @return Number of received long poll notifications dropped because the pool was full */
+  public long getNumberOfRejectedLongPollNotifications();
+
   /** @return Number of redis shards */
   public int getNumberOfRedisShards();
 
@@ -104,6 +174,14 @@ public interface CQSMonitorMBean {
    */
   public Map<String, AtomicLong> getCallFailureStats();
 
+  /**
+   * Get latency percentiles (p50, p90, p99, p999, max) for total, redis, cassandra, auth and async
+   * queue time of each api action over the last few minutes
+   *
+   * @return
+   */
+  public Map<String, Map<String, Long>> getCallLatencyPercentiles();
+
   /** Reset all in memory call stats */
   public void resetCallStats();
 
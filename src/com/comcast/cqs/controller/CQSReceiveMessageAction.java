@@ -168,6 +168,8 @@ public class CQSReceiveMessageAction extends CQSAction {
         request.setIsQueuedForProcessing(true);
       }
 
+      CQSLongPollReceiver.registerInterest(queue.getArn());
+
     } else {
 
       CQSMonitor.getInstance()
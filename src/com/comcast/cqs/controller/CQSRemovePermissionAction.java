@@ -17,6 +17,7 @@ import com.comcast.cmb.common.model.CMBPolicy;
 import com.comcast.cmb.common.model.User;
 import com.comcast.cmb.common.persistence.PersistenceFactory;
 import com.comcast.cmb.common.util.CMBException;
+import com.comcast.cmb.common.util.CMBPolicyCache;
 import com.comcast.cmb.common.util.CMBProperties;
 import com.comcast.cqs.io.CQSQueuePopulator;
 import com.comcast.cqs.model.CQSQueue;
@@ -63,6 +64,7 @@ public class CQSRemovePermissionAction extends CQSAction {
       String policyStr = policy.toString();
       PersistenceFactory.getQueuePersistence().updatePolicy(queue.getRelativeUrl(), policyStr);
       queue.setPolicy(policyStr);
+      CMBPolicyCache.invalidate(queue.getArn());
     }
 
     String out = CQSQueuePopulator.getRemovePermissionResponse();
@@ -18,6 +18,7 @@ import com.comcast.cmb.common.model.User;
 import com.comcast.cmb.common.persistence.PersistenceFactory;
 import com.comcast.cmb.common.util.CMBErrorCodes;
 import com.comcast.cmb.common.util.CMBException;
+import com.comcast.cmb.common.util.CMBPolicyCache;
 import com.comcast.cmb.common.util.CMBProperties;
 import com.comcast.cns.controller.CNSCreateTopicAction;
 import com.comcast.cqs.io.CQSQueuePopulator;
@@ -234,6 +235,24 @@ public class CQSSetQueueAttributesAction extends CQSAction {
         queue.setCompressed(isCompressed);
         postVars.put(CQSConstants.COL_COMPRESSED, value);
 
+      } else if (attributeName.equals(CQSConstants.MESSAGE_ENCODING)) {
+
+        // existing messages keep their encoding, readers handle both formats
+
+        if (!value.equals(CQSConstants.MESSAGE_ENCODING_JSON)
+            && !value.equals(CQSConstants.MESSAGE_ENCODING_BINARY)) {
+          throw new CMBException(
+              CMBErrorCodes.InvalidParameterValue,
+              CQSConstants.MESSAGE_ENCODING
+                  + " should be "
+                  + CQSConstants.MESSAGE_ENCODING_JSON
+                  + " or "
+                  + CQSConstants.MESSAGE_ENCODING_BINARY);
+        }
+
+        queue.setMessageEncoding(value);
+        postVars.put(CQSConstants.COL_MESSAGE_ENCODING, value);
+
       } else {
         throw new CMBException(
             CMBErrorCodes.InvalidAttributeName,
@@ -243,6 +262,10 @@ public class CQSSetQueueAttributesAction extends CQSAction {
 
     PersistenceFactory.getQueuePersistence().updateQueueAttribute(queue.getRelativeUrl(), postVars);
 
+    if (postVars.containsKey(CQSConstants.COL_POLICY)) {
+      CMBPolicyCache.invalidate(queue.getArn());
+    }
+
     String out = CQSQueuePopulator.setQueueAttributesResponse();
     writeResponse(out, response);
 
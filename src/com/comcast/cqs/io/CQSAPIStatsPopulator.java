@@ -15,6 +15,7 @@ package com.comcast.cqs.io;
 
 import com.comcast.cqs.model.CQSAPIStats;
 import java.util.List;
+import java.util.Map;
 
 public class CQSAPIStatsPopulator {
 
@@ -91,6 +92,22 @@ public class CQSAPIStatsPopulator {
 
       out += "\t\t\t</CallFailureStats>\n";
 
+      if (stats.getCallLatencyStats() != null) {
+
+        out += "\t\t\t<CallLatencyStats>\n";
+
+        for (String action : stats.getCallLatencyStats().keySet()) {
+          out += "\t\t\t\t<" + action + ">\n";
+          Map<String, Long> percentiles = stats.getCallLatencyStats().get(action);
+          for (String name : percentiles.keySet()) {
+            out += "\t\t\t\t\t<" + name + ">" + percentiles.get(name) + "</" + name + ">\n";
+          }
+          out += "\t\t\t\t</" + action + ">\n";
+        }
+
+        out += "\t\t\t</CallLatencyStats>\n";
+      }
+
       out += "\t\t</Stats>\n";
     }
 
@@ -143,6 +143,9 @@ public class CQSQueuePopulator extends CQSPopulator {
       out.append("\t\t")
           .append(fillAttribute(CQSConstants.IS_COMPRESSED, "" + queue.isCompressed()))
           .append("\n");
+      out.append("\t\t")
+          .append(fillAttribute(CQSConstants.MESSAGE_ENCODING, queue.getMessageEncoding()))
+          .append("\n");
 
     } else {
 
@@ -225,6 +228,11 @@ public class CQSQueuePopulator extends CQSPopulator {
               .append(fillAttribute(attributeName, "" + queue.isCompressed()))
               .append("\n");
         }
+        if (attributeName.equals(CQSConstants.MESSAGE_ENCODING)) {
+          out.append("\t\t")
+              .append(fillAttribute(attributeName, queue.getMessageEncoding()))
+              .append("\n");
+        }
       }
     }
 
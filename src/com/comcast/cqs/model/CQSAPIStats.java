@@ -38,6 +38,8 @@ public class CQSAPIStats {
 
   private Map<String, AtomicLong> callFailureStats;
 
+  private Map<String, Map<String, Long>> callLatencyStats;
+
   private String serviceUrl;
 
   private String redisServerList;
@@ -109,6 +111,14 @@ public class CQSAPIStats {
     this.callFailureStats = callFailureStats;
   }
 
+  public Map<String, Map<String, Long>> getCallLatencyStats() {
+    return callLatencyStats;
+  }
+
+  public void setCallLatencyStats(Map<String, Map<String, Long>> callLatencyStats) {
+    this.callLatencyStats = callLatencyStats;
+  }
+
   public int getNumberOfRedisShards() {
     return numberOfRedisShards;
   }
@@ -14,6 +14,7 @@
 package com.comcast.cqs.model;
 
 import com.comcast.cmb.common.util.CMBProperties;
+import com.comcast.cqs.util.CQSConstants;
 import com.comcast.cqs.util.Util;
 import org.apache.log4j.Logger;
 
@@ -46,6 +47,7 @@ public class CQSQueue {
   private int numberOfPartitions = 100;
   private int numberOfShards = 1;
   private boolean compressed = false;
+  private String messageEncoding = CQSConstants.MESSAGE_ENCODING_JSON;
 
   public CQSQueue(String name, String ownerId) {
 
@@ -71,6 +73,18 @@ public class CQSQueue {
     this.compressed = compressed;
   }
 
+  public String getMessageEncoding() {
+    return messageEncoding;
+  }
+
+  public void setMessageEncoding(String messageEncoding) {
+    this.messageEncoding = messageEncoding;
+  }
+
+  public boolean isBinaryEncoded() {
+    return CQSConstants.MESSAGE_ENCODING_BINARY.equals(messageEncoding);
+  }
+
   @Override
   public Object clone() throws CloneNotSupportedException {
     CQSQueue queue = (CQSQueue) super.clone();
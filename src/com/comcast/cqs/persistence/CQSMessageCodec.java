@@ -0,0 +1,211 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cqs.persistence;
+
+import com.comcast.cqs.model.CQSMessage;
+import com.comcast.cqs.model.CQSMessageAttribute;
+import com.comcast.cqs.util.CQSConstants;
+import com.comcast.cqs.util.Util;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary column format for messages in CQSPartitionedQueueMessages. A column starts with
+ * a version byte followed by a flags byte and length prefixed fields:
+ *
+ * <pre>
+ * version(1) flags(1) messageId md5OfBody body
+ * numAttributes(int) { name value }
+ * md5OfMessageAttributes numMessageAttributes(int) { name value dataType }
+ * </pre>
+ *
+ * Strings are an int length (-1 for null) followed by utf-8 bytes. The body of a compressed queue
+ * is stored as raw gzip bytes. JSON columns always start with '{', which is how readers tell the
+ * two formats apart.
+ */
+public class CQSMessageCodec {
+
+  public static final byte VERSION_1 = 1;
+
+  private static final byte FLAG_COMPRESSED_BODY = 0x01;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  // message level attributes kept in the column, matching what the json reader restores
+
+  private static final String[] STORED_ATTRIBUTES = {
+    CQSConstants.SENT_TIMESTAMP, CQSConstants.APPROXIMATE_RECEIVE_COUNT, CQSConstants.SENDER_ID
+  };
+
+  /**
+   * @param value raw column value
+   * @return true if the column is in a binary format, false if it is json
+   */
+  public static boolean isBinary(byte[] value) {
+    return value != null && value.length > 0 && value[0] != '{';
+  }
+
+  public static byte[] encode(CQSMessage message, boolean compressBody) throws IOException {
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    out.writeByte(VERSION_1);
+    out.writeByte(compressBody ? FLAG_COMPRESSED_BODY : 0);
+    writeString(out, message.getMessageId());
+    writeString(out, message.getMD5OfBody());
+
+    if (compressBody) {
+      writeBytes(out, Util.compressToBytes(message.getBody()));
+    } else {
+      writeString(out, message.getBody());
+    }
+
+    Map<String, String> attributes = message.getAttributes();
+    int numAttributes = 0;
+
+    for (String name : STORED_ATTRIBUTES) {
+      if (attributes != null && attributes.containsKey(name)) {
+        numAttributes++;
+      }
+    }
+
+    out.writeInt(numAttributes);
+
+    for (String name : STORED_ATTRIBUTES) {
+      if (attributes != null && attributes.containsKey(name)) {
+        String value = attributes.get(name);
+        writeString(out, name);
+        writeString(out, value == null ? "" : value);
+      }
+    }
+
+    Map<String, CQSMessageAttribute> messageAttributes = message.getMessageAttributes();
+
+    if (messageAttributes != null && messageAttributes.size() > 0) {
+      writeString(out, message.getMD5OfMessageAttributes());
+      out.writeInt(messageAttributes.size());
+      for (Map.Entry<String, CQSMessageAttribute> entry : messageAttributes.entrySet()) {
+        writeString(out, entry.getKey());
+        writeString(out, entry.getValue().getStringValue());
+        writeString(out, entry.getValue().getDataType());
+      }
+    } else {
+      writeString(out, null);
+      out.writeInt(0);
+    }
+
+    out.close();
+
+    return bytes.toByteArray();
+  }
+
+  public static CQSMessage decode(byte[] value) throws IOException {
+
+    ByteBuffer in = ByteBuffer.wrap(value);
+
+    try {
+
+      byte version = in.get();
+
+      if (version != VERSION_1) {
+        throw new IOException("Unsupported message column version " + version);
+      }
+
+      byte flags = in.get();
+      CQSMessage m = new CQSMessage();
+
+      m.setMessageId(readString(in));
+      m.setReceiptHandle(m.getMessageId());
+      m.setMD5OfBody(readString(in));
+
+      if ((flags & FLAG_COMPRESSED_BODY) != 0) {
+        m.setBody(Util.decompressFromBytes(readBytes(in)));
+      } else {
+        m.setBody(readString(in));
+      }
+
+      int numAttributes = in.getInt();
+      Map<String, String> attributes = new HashMap<String, String>();
+
+      for (int i = 0; i < numAttributes; i++) {
+        String name = readString(in);
+        attributes.put(name, readString(in));
+      }
+
+      m.setAttributes(attributes);
+
+      String md5OfMessageAttributes = readString(in);
+      int numMessageAttributes = in.getInt();
+
+      if (numMessageAttributes > 0) {
+        Map<String, CQSMessageAttribute> messageAttributes =
+            new HashMap<String, CQSMessageAttribute>();
+        for (int i = 0; i < numMessageAttributes; i++) {
+          String name = readString(in);
+          String attributeValue = readString(in);
+          messageAttributes.put(name, new CQSMessageAttribute(attributeValue, readString(in)));
+        }
+        m.setMD5OfMessageAttributes(md5OfMessageAttributes);
+        m.setMessageAttributes(messageAttributes);
+      }
+
+      return m;
+
+    } catch (BufferUnderflowException ex) {
+      throw new IOException("Truncated message column of length " + value.length);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    writeBytes(out, s == null ? null : s.getBytes(UTF8));
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] b) throws IOException {
+    if (b == null) {
+      out.writeInt(-1);
+    } else {
+      out.writeInt(b.length);
+      out.write(b);
+    }
+  }
+
+  private static String readString(ByteBuffer in) {
+    int length = in.getInt();
+    if (length < 0) {
+      return null;
+    } else if (length > in.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    String s = new String(in.array(), in.position(), length, UTF8);
+    in.position(in.position() + length);
+    return s;
+  }
+
+  private static byte[] readBytes(ByteBuffer in) {
+    int length = in.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] b = new byte[length];
+    in.get(b);
+    return b;
+  }
+}
@@ -18,6 +18,7 @@ import com.comcast.cmb.common.persistence.AbstractDurablePersistence.CMB_SERIALI
 import com.comcast.cmb.common.persistence.AbstractDurablePersistence.CmbColumn;
 import com.comcast.cmb.common.persistence.AbstractDurablePersistence.CmbColumnSlice;
 import com.comcast.cmb.common.persistence.AbstractDurablePersistence.CmbComposite;
+import com.comcast.cmb.common.persistence.AbstractDurablePersistence.CmbSerializer;
 import com.comcast.cmb.common.persistence.DurablePersistenceFactory;
 import com.comcast.cmb.common.util.CMBErrorCodes;
 import com.comcast.cmb.common.util.CMBProperties;
@@ -97,10 +98,6 @@ public class CQSMessagePartitionedCassandraPersistence implements ICQSMessagePer
     int partition = rand.nextInt(queue.getNumberOfPartitions());
     String key = Util.hashQueueUrl(queue.getRelativeUrl()) + "_" + shard + "_" + partition;
 
-    if (queue.isCompressed()) {
-      message.setBody(Util.compress(message.getBody()));
-    }
-
     message.setMessageId(key + ":" + columnName.get(0) + ":" + columnName.get(1));
 
     logger.debug(
@@ -120,10 +117,10 @@ public class CQSMessagePartitionedCassandraPersistence implements ICQSMessagePer
         COLUMN_FAMILY_PARTITIONED_QUEUE_MESSAGES,
         key,
         columnName,
-        getMessageJSON(message),
+        getMessageColumnValue(queue, message),
         CMB_SERIALIZER.STRING_SERIALIZER,
         CMB_SERIALIZER.COMPOSITE_SERIALIZER,
-        CMB_SERIALIZER.STRING_SERIALIZER,
+        getMessageColumnSerializer(queue),
         ttl);
 
     return message.getMessageId();
@@ -153,11 +150,15 @@ public class CQSMessagePartitionedCassandraPersistence implements ICQSMessagePer
             || (nextHandle != null && columnName.compareTo(nextHandle) == 0)) {
           noMatch = false;
           continue;
-        } else if (column.getValue() == null || column.getValue().length() == 0) {
+        }
+
+        byte[] value = column.getValueBytes();
+
+        if (value == null || value.length == 0) {
           continue;
         }
 
-        CQSMessage message = extractMessageFromJSON(queueUrl, column);
+        CQSMessage message = extractMessageFromColumn(queueUrl, columnName, value);
         messageList.add(message);
       }
 
@@ -169,11 +170,11 @@ public class CQSMessagePartitionedCassandraPersistence implements ICQSMessagePer
     return messageList;
   }
 
-  private CQSMessage extractMessageFromJSON(String queueUrl, CmbColumn column)
+  private CQSMessage extractMessageFromColumn(
+      String queueUrl, CmbComposite columnName, byte[] value)
       throws JSONException, IOException, PersistenceException {
 
     CQSQueue queue = null;
-    CQSMessage m = new CQSMessage();
 
     try {
       queue = CQSCache.getCachedQueue(queueUrl);
@@ -185,7 +186,17 @@ public class CQSMessagePartitionedCassandraPersistence implements ICQSMessagePer
       throw new PersistenceException(CMBErrorCodes.InternalError, "Unknown queue " + queueUrl);
     }
 
-    JSONObject json = new JSONObject((String) column.getValue());
+    // columns are json or binary depending on the queue's encoding at the time the message was
+    // sent, so the format is detected per column rather than taken from the queue
+
+    if (CQSMessageCodec.isBinary(value)) {
+      CQSMessage m = CQSMessageCodec.decode(value);
+      m.setTimebasedId(columnName);
+      return m;
+    }
+
+    CQSMessage m = new CQSMessage();
+    JSONObject json = new JSONObject(new String(value, "UTF-8"));
 
     m.setMessageId(json.getString("MessageId"));
     m.setReceiptHandle(json.getString("MessageId"));
@@ -228,7 +239,7 @@ public class CQSMessagePartitionedCassandraPersistence implements ICQSMessagePer
       m.setMessageAttributes(ma);
     }
 
-    m.setTimebasedId(column.getName());
+    m.setTimebasedId(columnName);
 
     if (queue.isCompressed()) {
       m.setBody(Util.decompress(m.getBody()));
@@ -237,15 +248,28 @@ public class CQSMessagePartitionedCassandraPersistence implements ICQSMessagePer
     return m;
   }
 
-  private String getMessageJSON(CQSMessage message) throws JSONException {
+  private Object getMessageColumnValue(CQSQueue queue, CQSMessage message)
+      throws JSONException, IOException {
 
-    Writer writer = new StringWriter();
-    JSONWriter jw = new JSONWriter(writer);
+    if (queue.isBinaryEncoded()) {
+      setDefaultAttributes(message);
+      return CQSMessageCodec.encode(message, queue.isCompressed());
+    }
 
-    jw = jw.object();
-    jw.key("MessageId").value(message.getMessageId());
-    jw.key("MD5OfBody").value(message.getMD5OfBody());
-    jw.key("Body").value(message.getBody());
+    if (queue.isCompressed()) {
+      message.setBody(Util.compress(message.getBody()));
+    }
+
+    return getMessageJSON(message);
+  }
+
+  private CmbSerializer getMessageColumnSerializer(CQSQueue queue) {
+    return queue.isBinaryEncoded()
+        ? CMB_SERIALIZER.BYTES_SERIALIZER
+        : CMB_SERIALIZER.STRING_SERIALIZER;
+  }
+
+  private void setDefaultAttributes(CQSMessage message) {
 
     if (message.getAttributes() == null) {
       message.setAttributes(new HashMap<String, String>());
@@ -258,6 +282,19 @@ public class CQSMessagePartitionedCassandraPersistence implements ICQSMessagePer
     if (!message.getAttributes().containsKey(CQSConstants.APPROXIMATE_RECEIVE_COUNT)) {
       message.getAttributes().put(CQSConstants.APPROXIMATE_RECEIVE_COUNT, "0");
     }
+  }
+
+  private String getMessageJSON(CQSMessage message) throws JSONException {
+
+    Writer writer = new StringWriter();
+    JSONWriter jw = new JSONWriter(writer);
+
+    jw = jw.object();
+    jw.key("MessageId").value(message.getMessageId());
+    jw.key("MD5OfBody").value(message.getMD5OfBody());
+    jw.key("Body").value(message.getBody());
+
+    setDefaultAttributes(message);
 
     if (message.getAttributes() != null) {
       for (String key : message.getAttributes().keySet()) {
@@ -308,7 +345,7 @@ public class CQSMessagePartitionedCassandraPersistence implements ICQSMessagePer
           CQSErrorCodes.InvalidQueryParameter, "No messages are supplied.");
     }
 
-    Map<CmbComposite, String> messageDataMap = new HashMap<CmbComposite, String>();
+    Map<CmbComposite, Object> messageDataMap = new HashMap<CmbComposite, Object>();
     Map<String, String> ret = new HashMap<String, String>();
     int ttl = queue.getMsgRetentionPeriod();
     String key =
@@ -325,10 +362,6 @@ public class CQSMessagePartitionedCassandraPersistence implements ICQSMessagePer
             CQSErrorCodes.InvalidMessageContents, "The supplied message is invalid");
       }
 
-      if (queue.isCompressed()) {
-        message.setBody(Util.compress(message.getBody()));
-      }
-
       int delaySeconds = 0;
 
       if (message.getAttributes().containsKey(CQSConstants.DELAY_SECONDS)) {
@@ -354,8 +387,7 @@ public class CQSMessagePartitionedCassandraPersistence implements ICQSMessagePer
               + " col="
               + columnName);
 
-      String messageJson = getMessageJSON(message);
-      messageDataMap.put(columnName, messageJson);
+      messageDataMap.put(columnName, getMessageColumnValue(queue, message));
       ret.put(message.getSuppliedMessageId(), message.getMessageId());
     }
 
@@ -366,7 +398,7 @@ public class CQSMessagePartitionedCassandraPersistence implements ICQSMessagePer
         messageDataMap,
         CMB_SERIALIZER.STRING_SERIALIZER,
         CMB_SERIALIZER.COMPOSITE_SERIALIZER,
-        CMB_SERIALIZER.STRING_SERIALIZER,
+        getMessageColumnSerializer(queue),
         ttl);
 
     return ret;
@@ -414,6 +446,66 @@ public class CQSMessagePartitionedCassandraPersistence implements ICQSMessagePer
     }
   }
 
+  @Override
+  public void deleteMessageBatch(String queueUrl, List<String> receiptHandles)
+      throws PersistenceException {
+
+    List<String> keys = new ArrayList<String>();
+    List<CmbComposite> columnNames = new ArrayList<CmbComposite>();
+
+    for (String receiptHandle : receiptHandles) {
+
+      String[] receiptHandleParts = receiptHandle == null ? null : receiptHandle.split(":");
+
+      if (receiptHandleParts == null || receiptHandleParts.length != 3) {
+        logger.error(
+            "event=delete_message_batch error_code=invalid_receipt_handle queue_url="
+                + queueUrl
+                + " receipt_handle="
+                + receiptHandle);
+        continue;
+      }
+
+      CmbComposite columnName;
+
+      try {
+        columnName =
+            cassandraHandler.getCmbComposite(
+                Arrays.asList(
+                    Long.parseLong(receiptHandleParts[1]),
+                    Long.parseLong(receiptHandleParts[2])));
+      } catch (NumberFormatException ex) {
+        logger.error(
+            "event=delete_message_batch error_code=invalid_receipt_handle queue_url="
+                + queueUrl
+                + " receipt_handle="
+                + receiptHandle);
+        continue;
+      }
+
+      if (columnName != null) {
+        keys.add(receiptHandleParts[0]);
+        columnNames.add(columnName);
+      }
+    }
+
+    if (keys.size() == 0) {
+      return;
+    }
+
+    // one mutation for all messages regardless of the partitions they live in
+
+    logger.debug(
+        "event=delete_message_batch queue_url=" + queueUrl + " num_messages=" + keys.size());
+    cassandraHandler.deleteBatch(
+        AbstractDurablePersistence.CQS_KEYSPACE,
+        COLUMN_FAMILY_PARTITIONED_QUEUE_MESSAGES,
+        keys,
+        columnNames,
+        CMB_SERIALIZER.STRING_SERIALIZER,
+        CMB_SERIALIZER.COMPOSITE_SERIALIZER);
+  }
+
   @Override
   public List<CQSMessage> receiveMessage(CQSQueue queue, Map<String, String> receiveAttributes)
       throws PersistenceException, IOException, NoSuchAlgorithmException, InterruptedException {
@@ -427,6 +519,13 @@ public class CQSMessagePartitionedCassandraPersistence implements ICQSMessagePer
     throw new UnsupportedOperationException("ChangeMessageVisibility is not supported");
   }
 
+  @Override
+  public Set<String> changeMessageVisibilityBatch(
+      CQSQueue queue, Map<String, Integer> visibilityTOs)
+      throws PersistenceException, IOException, NoSuchAlgorithmException, InterruptedException {
+    throw new UnsupportedOperationException("ChangeMessageVisibilityBatch is not supported");
+  }
+
   @Override
   public List<CQSMessage> peekQueue(
       String queueUrl,
@@ -578,6 +677,73 @@ public class CQSMessagePartitionedCassandraPersistence implements ICQSMessagePer
     return messageList;
   }
 
+  @Override
+  public List<String> peekQueueIds(
+      String queueUrl, int shard, int partition, String previousMessageId, int length)
+      throws PersistenceException, NoSuchAlgorithmException, UnsupportedEncodingException {
+
+    String key = Util.hashQueueUrl(queueUrl) + "_" + shard + "_" + partition;
+    CmbComposite previousHandle = null;
+
+    if (previousMessageId != null) {
+
+      String[] idParts = previousMessageId.split(":");
+
+      if (idParts.length != 3) {
+        logger.error("event=peek_queue_ids error_code=corrupt_message_id id=" + previousMessageId);
+        throw new IllegalArgumentException("Corrupt message id " + previousMessageId);
+      }
+
+      previousHandle =
+          cassandraHandler.getCmbComposite(
+              Arrays.asList(Long.parseLong(idParts[1]), Long.parseLong(idParts[2])));
+    }
+
+    CmbColumnSlice<CmbComposite, String> columnSlice =
+        cassandraHandler.readColumnSlice(
+            AbstractDurablePersistence.CQS_KEYSPACE,
+            COLUMN_FAMILY_PARTITIONED_QUEUE_MESSAGES,
+            key,
+            previousHandle,
+            null,
+            length + 1,
+            CMB_SERIALIZER.STRING_SERIALIZER,
+            CMB_SERIALIZER.COMPOSITE_SERIALIZER,
+            CMB_SERIALIZER.STRING_SERIALIZER);
+
+    List<String> ids = new ArrayList<String>();
+
+    if (columnSlice == null || columnSlice.getColumns() == null) {
+      return ids;
+    }
+
+    // the message id is made of the row key and the column name, so the message itself is
+    // never decoded
+
+    for (CmbColumn<CmbComposite, String> column : columnSlice.getColumns()) {
+
+      CmbComposite columnName = column.getName();
+
+      if (previousHandle != null && columnName.compareTo(previousHandle) == 0) {
+        continue;
+      }
+
+      byte[] value = column.getValueBytes();
+
+      if (value == null || value.length == 0) {
+        continue;
+      }
+
+      ids.add(key + ":" + columnName.get(0) + ":" + columnName.get(1));
+
+      if (ids.size() == length) {
+        break;
+      }
+    }
+
+    return ids;
+  }
+
   @Override
   public void clearQueue(String queueUrl, int shard)
       throws PersistenceException, NoSuchAlgorithmException, UnsupportedEncodingException {
@@ -614,6 +780,11 @@ public class CQSMessagePartitionedCassandraPersistence implements ICQSMessagePer
       return getMessagesBulk(queueUrl, ids);
     }
 
+    // group the requested columns by row key (<hash>_<shard>_<partition>) so each row is read
+    // with a single query and all row queries are issued concurrently
+
+    Map<String, List<CmbComposite>> columnNames = new HashMap<String, List<CmbComposite>>();
+
     for (String id : ids) {
 
       String[] idParts = id.split(":");
@@ -627,23 +798,37 @@ public class CQSMessagePartitionedCassandraPersistence implements ICQSMessagePer
           cassandraHandler.getCmbComposite(
               Arrays.asList(Long.parseLong(idParts[1]), Long.parseLong(idParts[2])));
 
-      CmbColumn<CmbComposite, String> column =
-          cassandraHandler.readColumn(
-              AbstractDurablePersistence.CQS_KEYSPACE,
-              COLUMN_FAMILY_PARTITIONED_QUEUE_MESSAGES,
-              idParts[0],
-              columnName,
-              CMB_SERIALIZER.STRING_SERIALIZER,
-              CMB_SERIALIZER.COMPOSITE_SERIALIZER,
-              CMB_SERIALIZER.STRING_SERIALIZER);
-
-      CQSMessage message = null;
+      List<CmbComposite> rowColumnNames = columnNames.get(idParts[0]);
 
-      if (column != null) {
-        message = extractMessageFromJSON(queueUrl, column);
+      if (rowColumnNames == null) {
+        rowColumnNames = new ArrayList<CmbComposite>();
+        columnNames.put(idParts[0], rowColumnNames);
       }
 
-      messageMap.put(id, message);
+      rowColumnNames.add(columnName);
+      messageMap.put(id, null);
+    }
+
+    Map<String, CmbColumnSlice<CmbComposite, String>> slices =
+        cassandraHandler.readColumnsByName(
+            AbstractDurablePersistence.CQS_KEYSPACE,
+            COLUMN_FAMILY_PARTITIONED_QUEUE_MESSAGES,
+            columnNames,
+            CMB_SERIALIZER.STRING_SERIALIZER,
+            CMB_SERIALIZER.COMPOSITE_SERIALIZER,
+            CMB_SERIALIZER.STRING_SERIALIZER);
+
+    for (Map.Entry<String, CmbColumnSlice<CmbComposite, String>> slice : slices.entrySet()) {
+
+      for (CmbColumn<CmbComposite, String> column : slice.getValue().getColumns()) {
+
+        String id = slice.getKey() + ":" + column.getName().get(0) + ":" + column.getName().get(1);
+        byte[] value = column.getValueBytes();
+
+        if (messageMap.containsKey(id) && value != null && value.length > 0) {
+          messageMap.put(id, extractMessageFromColumn(queueUrl, column.getName(), value));
+        }
+      }
     }
 
     return messageMap;
@@ -76,6 +76,7 @@ public class CQSQueueCassandraPersistence implements ICQSQueuePersistence {
         CQSConstants.COL_NUMBER_PARTITIONS, (new Long(queue.getNumberOfPartitions())).toString());
     queueData.put(CQSConstants.COL_NUMBER_SHARDS, (new Long(queue.getNumberOfShards())).toString());
     queueData.put(CQSConstants.COL_COMPRESSED, (new Boolean(queue.isCompressed())).toString());
+    queueData.put(CQSConstants.COL_MESSAGE_ENCODING, queue.getMessageEncoding());
 
     cassandraHandler.insertRow(
         AbstractDurablePersistence.CQS_KEYSPACE,
@@ -306,6 +307,10 @@ public class CQSQueueCassandraPersistence implements ICQSQueuePersistence {
               ? false
               : (new Boolean(slice.getColumnByName(CQSConstants.COL_COMPRESSED).getValue()))
                   .booleanValue();
+      String messageEncoding =
+          slice.getColumnByName(CQSConstants.COL_MESSAGE_ENCODING) == null
+              ? CQSConstants.MESSAGE_ENCODING_JSON
+              : slice.getColumnByName(CQSConstants.COL_MESSAGE_ENCODING).getValue();
       CQSQueue queue = new CQSQueue(name, ownerUserId);
       queue.setRelativeUrl(url);
       queue.setServiceEndpoint(hostName);
@@ -321,6 +326,7 @@ public class CQSQueueCassandraPersistence implements ICQSQueuePersistence {
       queue.setNumberOfShards(numShards);
       queue.setCreatedTime(createdTime);
       queue.setCompressed(isCompressed);
+      queue.setMessageEncoding(messageEncoding);
       return queue;
     } catch (Exception ex) {
       return null;
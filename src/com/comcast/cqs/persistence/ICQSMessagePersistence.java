@@ -21,6 +21,7 @@ import java.io.UnsupportedEncodingException;
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.json.JSONException;
 
 /**
@@ -109,6 +110,16 @@ public interface ICQSMessagePersistence {
    */
   public void deleteMessage(String queueUrl, String receiptHandle) throws PersistenceException;
 
+  /**
+   * Delete several messages of a queue at once
+   *
+   * @param queueUrl The URL of the Queue
+   * @param receiptHandles The receipt handles of the messages
+   * @throws PersistenceException
+   */
+  public void deleteMessageBatch(String queueUrl, List<String> receiptHandles)
+      throws PersistenceException;
+
   /**
    * Receive the next set of messages from the Queue. Receives from random shard and random
    * partition.
@@ -142,6 +153,21 @@ public interface ICQSMessagePersistence {
   public boolean changeMessageVisibility(CQSQueue queue, String receiptHandle, int visibilityTO)
       throws PersistenceException, IOException, NoSuchAlgorithmException, InterruptedException;
 
+  /**
+   * Change the message visibility timeout of several messages at once
+   *
+   * @param queue The queue which contains the messages.
+   * @param visibilityTOs the new visibility timeout by receipt handle
+   * @throws PersistenceException
+   * @throws IOException
+   * @throws NoSuchAlgorithmException
+   * @throws InterruptedException
+   * @return the receipt handles whose visibility timeout was changed
+   */
+  public Set<String> changeMessageVisibilityBatch(
+      CQSQueue queue, Map<String, Integer> visibilityTOs)
+      throws PersistenceException, IOException, NoSuchAlgorithmException, InterruptedException;
+
   /**
    * Peek the queue with the given Queue URL for the next set of messages
    *
@@ -178,6 +204,24 @@ public interface ICQSMessagePersistence {
   public List<CQSMessage> peekQueueRandom(String queueUrl, int shard, int length)
       throws PersistenceException, IOException, NoSuchAlgorithmException, JSONException;
 
+  /**
+   * Read the ids of the messages stored in one partition of a queue shard without decoding the
+   * messages, used to warm up the cache
+   *
+   * @param queueUrl The URL of the Queue
+   * @param shard The shard to be used
+   * @param partition The partition to read
+   * @param previousMessageId id to continue after or null to start at the beginning
+   * @param length max number of ids to return
+   * @return message ids in storage order, empty when the partition is exhausted
+   * @throws PersistenceException
+   * @throws NoSuchAlgorithmException
+   * @throws UnsupportedEncodingException
+   */
+  public List<String> peekQueueIds(
+      String queueUrl, int shard, int partition, String previousMessageId, int length)
+      throws PersistenceException, NoSuchAlgorithmException, UnsupportedEncodingException;
+
   /**
    * Clear a specific shard of a queue
    *
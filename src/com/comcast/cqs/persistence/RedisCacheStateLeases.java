@@ -0,0 +1,255 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cqs.persistence;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.ShardedJedis;
+
+/**
+ * Short lived, in-jvm leases on the OK cache state of queue shards. While a lease is held the
+ * cache state does not have to be read from redis before every operation. Whoever changes a
+ * cache state ends the local lease and publishes the change on a redis channel, which ends the
+ * lease on every other api server subscribed to it. Leases are only handed out while this server
+ * is subscribed on all redis shards, and are all dropped when a subscription is lost, so a missed
+ * notification can at worst extend a stale lease until it expires.
+ *
+ * <p>Class is thread-safe
+ */
+public class RedisCacheStateLeases {
+
+  private static final Logger logger = Logger.getLogger(RedisCacheStateLeases.class);
+
+  private static final long RECONNECT_DELAY_MS = 1000;
+
+  private final String channel;
+  private final List<JedisShardInfo> shardInfos;
+  private final long leaseMillis;
+
+  // lease expiration keyed by queue shard
+
+  private final ConcurrentHashMap<String, Long> leases = new ConcurrentHashMap<String, Long>();
+
+  // bumped on every state change seen, a state read that overlapped a change grants no lease
+
+  private final AtomicLong version = new AtomicLong();
+  private final AtomicInteger subscribedShards = new AtomicInteger();
+  private final AtomicLong leaseHits = new AtomicLong();
+
+  /**
+   * @param channel redis channel state changes are published on
+   * @param shardInfos redis shards to subscribe to
+   * @param leaseMillis how long an OK state is trusted, 0 or less to disable leases
+   */
+  public RedisCacheStateLeases(String channel, List<JedisShardInfo> shardInfos, long leaseMillis) {
+    this.channel = channel;
+    this.shardInfos = shardInfos;
+    this.leaseMillis = leaseMillis;
+  }
+
+  /** Start listening for state changes of other api servers, one daemon thread per shard */
+  public void start() {
+
+    if (leaseMillis <= 0) {
+      return;
+    }
+
+    for (final JedisShardInfo shardInfo : shardInfos) {
+
+      Thread t =
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  listen(shardInfo);
+                }
+              },
+              "RedisCacheStateListener-" + shardInfo.getHost() + ":" + shardInfo.getPort());
+
+      t.setDaemon(true);
+      t.start();
+    }
+  }
+
+  /**
+   * @param queueUrl
+   * @param shard
+   * @return true if the cache state of the queue shard is known to be OK
+   */
+  public boolean isLeased(String queueUrl, int shard) {
+
+    Long expiration = leases.get(getKey(queueUrl, shard));
+
+    if (expiration != null && System.currentTimeMillis() < expiration) {
+      leaseHits.incrementAndGet();
+      return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Call before reading the cache state from redis and pass the result to grant()
+   *
+   * @return current version
+   */
+  public long beginRead() {
+    return version.get();
+  }
+
+  /**
+   * Lease an OK cache state that was just read from redis
+   *
+   * @param queueUrl
+   * @param shard
+   * @param readVersion value of beginRead() taken before the state was read
+   */
+  public void grant(String queueUrl, int shard, long readVersion) {
+
+    if (leaseMillis <= 0 || subscribedShards.get() < shardInfos.size()) {
+      return;
+    }
+
+    String key = getKey(queueUrl, shard);
+    leases.put(key, System.currentTimeMillis() + leaseMillis);
+
+    if (version.get() != readVersion) {
+      leases.remove(key);
+    }
+  }
+
+  /**
+   * End the local lease of a queue shard whose cache state is about to change
+   *
+   * @param queueUrl
+   * @param shard
+   */
+  public void revoke(String queueUrl, int shard) {
+    version.incrementAndGet();
+    leases.remove(getKey(queueUrl, shard));
+  }
+
+  /**
+   * Tell the other api servers that the cache state of a queue shard changed. Failures are only
+   * logged, the leases of other servers then run out on their own.
+   *
+   * @param queueUrl
+   * @param shard
+   * @param jedis
+   */
+  public void publishChange(String queueUrl, int shard, ShardedJedis jedis) {
+
+    if (leaseMillis <= 0) {
+      return;
+    }
+
+    try {
+      jedis.getShard(getKey(queueUrl, shard)).publish(channel, getKey(queueUrl, shard));
+    } catch (Exception ex) {
+      logger.warn("event=publish_cache_state_change_failed queue_url=" + queueUrl, ex);
+    }
+  }
+
+  /** @return number of cache state reads saved by leases */
+  public long getLeaseHitCount() {
+    return leaseHits.get();
+  }
+
+  private void listen(JedisShardInfo shardInfo) {
+
+    while (true) {
+
+      // no read timeout, the connection is idle while nothing changes
+
+      JedisShardInfo listenerInfo =
+          new JedisShardInfo(shardInfo.getHost(), shardInfo.getPort(), 0);
+      listenerInfo.setPassword(shardInfo.getPassword());
+      Jedis jedis = new Jedis(listenerInfo);
+      final AtomicInteger subscribed = new AtomicInteger();
+
+      try {
+
+        jedis.subscribe(
+            new JedisPubSub() {
+
+              @Override
+              public void onMessage(String channel, String key) {
+                version.incrementAndGet();
+                leases.remove(key);
+              }
+
+              @Override
+              public void onSubscribe(String channel, int subscribedChannels) {
+                if (subscribed.compareAndSet(0, 1)) {
+                  subscribedShards.incrementAndGet();
+                }
+              }
+
+              @Override
+              public void onUnsubscribe(String channel, int subscribedChannels) {}
+
+              @Override
+              public void onPMessage(String pattern, String channel, String message) {}
+
+              @Override
+              public void onPUnsubscribe(String pattern, int subscribedChannels) {}
+
+              @Override
+              public void onPSubscribe(String pattern, int subscribedChannels) {}
+            },
+            channel);
+
+      } catch (Exception ex) {
+        logger.warn(
+            "event=cache_state_listener_failed host="
+                + shardInfo.getHost()
+                + " port="
+                + shardInfo.getPort(),
+            ex);
+      } finally {
+
+        // changes may have been missed, stop trusting any lease
+
+        if (subscribed.get() == 1) {
+          subscribedShards.decrementAndGet();
+        }
+
+        version.incrementAndGet();
+        leases.clear();
+
+        try {
+          jedis.disconnect();
+        } catch (Exception ex) {
+          logger.debug("event=failed_to_disconnect", ex);
+        }
+      }
+
+      try {
+        Thread.sleep(RECONNECT_DELAY_MS);
+      } catch (InterruptedException ex) {
+        return;
+      }
+    }
+  }
+
+  private static String getKey(String queueUrl, int shard) {
+    return queueUrl + "-" + shard;
+  }
+}
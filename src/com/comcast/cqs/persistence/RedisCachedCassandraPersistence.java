@@ -20,6 +20,7 @@ import com.comcast.cmb.common.util.ValueAccumulator.AccumulatorName;
 import com.comcast.cqs.controller.CQSCache;
 import com.comcast.cqs.controller.CQSControllerServlet;
 import com.comcast.cqs.controller.CQSMonitor;
+import com.comcast.cqs.controller.CQSMonitor.CacheFillProgress;
 import com.comcast.cqs.controller.CQSMonitor.CacheType;
 import com.comcast.cqs.model.CQSMessage;
 import com.comcast.cqs.model.CQSQueue;
@@ -33,14 +34,19 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -50,7 +56,11 @@ import org.json.JSONException;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
 import redis.clients.jedis.ShardedJedis;
+import redis.clients.jedis.ShardedJedisPipeline;
 import redis.clients.jedis.ShardedJedisPool;
 import redis.clients.jedis.Transaction;
 import redis.clients.jedis.exceptions.JedisConnectionException;
@@ -73,7 +83,12 @@ public class RedisCachedCassandraPersistence implements ICQSMessagePersistence {
 
   private static RedisCachedCassandraPersistence Inst;
 
+  // number of message ids read from cassandra and added to redis at once by the cache filler
+
+  private static final int CACHE_FILL_PAGE_SIZE = 1000;
+
   public static ExecutorService executor;
+  public static ExecutorService fillerScanExecutor;
   public static ExecutorService revisibilityExecutor;
 
   public final TestInterface testInterface = new TestInterface();
@@ -88,6 +103,7 @@ public class RedisCachedCassandraPersistence implements ICQSMessagePersistence {
   private static volatile AtomicLong lastCheckMS = new AtomicLong(0);
   private static volatile AtomicBoolean redisDown = new AtomicBoolean(false);
   private static final long redisCheckFrequencyMS = 5000;
+  private static RedisCacheStateLeases cacheStateLeases;
 
   static {
     initializeInstance();
@@ -133,7 +149,15 @@ public class RedisCachedCassandraPersistence implements ICQSMessagePersistence {
     }
 
     pool = new ShardedJedisPool(cfg, shardInfos);
+    cacheStateLeases =
+        new RedisCacheStateLeases(
+            CQSConstants.REDIS_STATE_CHANNEL,
+            shardInfos,
+            CMBProperties.getInstance().getRedisCacheStateLeaseMS());
+    cacheStateLeases.start();
     executor = Executors.newFixedThreadPool(CMBProperties.getInstance().getRedisFillerThreads());
+    fillerScanExecutor =
+        Executors.newFixedThreadPool(CMBProperties.getInstance().getRedisFillerScanThreads());
     revisibilityExecutor =
         Executors.newFixedThreadPool(CMBProperties.getInstance().getRedisRevisibleThreads());
     logger.info(
@@ -183,6 +207,7 @@ public class RedisCachedCassandraPersistence implements ICQSMessagePersistence {
     public void resetTestQueue() {
       ShardedJedis jedis = getResource();
       try {
+        cacheStateLeases.revoke("testQueue", 0);
         jedis.del("testQueue-0-" + CQSConstants.REDIS_STATE);
         jedis.del("testQueue-0-Q");
         jedis.del("testQueue-0-H");
@@ -293,6 +318,7 @@ public class RedisCachedCassandraPersistence implements ICQSMessagePersistence {
 
     long ts1 = System.currentTimeMillis();
     boolean brokenJedis = false;
+    cacheStateLeases.revoke(queueUrl, shard);
     ShardedJedis jedis = getResource();
     try {
       Jedis j = jedis.getShard(queueUrl + "-" + shard + "-" + CQSConstants.REDIS_STATE);
@@ -324,6 +350,7 @@ public class RedisCachedCassandraPersistence implements ICQSMessagePersistence {
       if (resp == null) {
         throw new SetFailedException();
       }
+      cacheStateLeases.publishChange(queueUrl, shard, jedis);
     } catch (JedisException e) {
       brokenJedis = true;
       throw e;
@@ -620,23 +647,7 @@ public class RedisCachedCassandraPersistence implements ICQSMessagePersistence {
         jedis.del(queueUrl + "-" + shard + "-Q");
         jedis.del(queueUrl + "-" + shard + "-H");
         jedis.del(queueUrl + "-" + shard + "-R");
-        String previousReceiptHandle = null;
-        List<CQSMessage> messages = persistenceStorage.peekQueue(queueUrl, shard, null, null, 1000);
-        int totalCached = 0;
-        while (messages.size() != 0) {
-          for (CQSMessage message : messages) {
-            addMessageToCache(queueUrl, shard, message, jedis);
-            totalCached++;
-          }
-          previousReceiptHandle = messages.get(messages.size() - 1).getMessageId();
-          messages =
-              persistenceStorage.peekQueue(
-                  queueUrl,
-                  shard,
-                  previousReceiptHandle,
-                  null,
-                  1000); // note: shard parameter should be in sync with receipt handle here
-        }
+        long totalCached = fillFromStorage(queueUrl, shard);
         setCacheState(queueUrl, shard, QCacheState.OK, null, false);
         setCacheFillerProcessing(queueUrl, shard, 0);
         long ts3 = System.currentTimeMillis();
@@ -706,54 +717,64 @@ public class RedisCachedCassandraPersistence implements ICQSMessagePersistence {
       }
       boolean brokenJedis = false;
       ShardedJedis jedis = null;
-      List<String> memIds = new LinkedList<String>();
+      String hiddenKey = queueUrl + "-" + shard + "-H";
+      int batchSize = CMBProperties.getInstance().getRedisRevisibleBatchSize();
+      long numScanned = 0;
+      long numMadeRevisible = 0;
       try {
         jedis = getResource();
         updateExpire(queueUrl, shard, jedis);
-        long ts1 = System.currentTimeMillis();
-        Set<String> keys = jedis.hkeys(queueUrl + "-" + shard + "-H");
-        long ts2 = System.currentTimeMillis();
-        CQSControllerServlet.valueAccumulator.addToCounter(AccumulatorName.RedisTime, (ts2 - ts1));
-        log.debug(
-            "event=revisibility_check queue_url="
-                + queueUrl
-                + " shard="
-                + shard
-                + " invisible_set_size="
-                + keys.size());
-        for (String key : keys) {
-          long ts3 = System.currentTimeMillis();
-          String val = jedis.hget(queueUrl + "-" + shard + "-H", key);
-          long ts4 = System.currentTimeMillis();
-          CQSControllerServlet.valueAccumulator.addToCounter(
-              AccumulatorName.RedisTime, (ts4 - ts3));
-          if (val == null) {
-            continue;
+        // walk the hidden set in pages of batchSize using hscan, which returns the visibility
+        // timeouts along with the mem-ids, and move the expired mem-ids of each page back to the
+        // queue in a single pipelined round trip
+        // hscan may return a field more than once, each mem-id is moved at most once per sweep
+        Jedis j = jedis.getShard(hiddenKey);
+        ScanParams params = new ScanParams().count(batchSize);
+        String cursor = ScanParams.SCAN_POINTER_START;
+        Set<String> moved = new HashSet<String>();
+        do {
+          long ts1 = System.currentTimeMillis();
+          ScanResult<Entry<String, String>> page = j.hscan(hiddenKey, cursor, params);
+          cursor = page.getStringCursor();
+          List<String> memIds = new ArrayList<String>();
+          long now = System.currentTimeMillis();
+          for (Entry<String, String> entry : page.getResult()) {
+            numScanned++;
+            if (entry.getValue() != null
+                && Long.parseLong(entry.getValue()) < now
+                && moved.add(entry.getKey())) {
+              memIds.add(entry.getKey());
+            }
           }
-          long visibilityTo = Long.parseLong(val);
-          if (visibilityTo < System.currentTimeMillis()) {
-            memIds.add(key);
+          if (memIds.size() > 0) {
+            // process memIds that should be re-visible
+            ShardedJedisPipeline pipeline = jedis.pipelined();
+            for (String memId : memIds) {
+              pipeline.rpush(queueUrl + "-" + shard + "-Q", memId);
+              pipeline.hdel(hiddenKey, memId);
+            }
+            pipeline.sync();
+            numMadeRevisible += memIds.size();
           }
-        }
-        // process memIds that should be re-visible
-        for (String memId : memIds) {
-          jedis.rpush(queueUrl + "-" + shard + "-Q", memId);
-          jedis.hdel(queueUrl + "-" + shard + "-H", memId);
-        }
+          long ts2 = System.currentTimeMillis();
+          CQSControllerServlet.valueAccumulator.addToCounter(
+              AccumulatorName.RedisTime, (ts2 - ts1));
+        } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
         long ts3 = System.currentTimeMillis();
+        CQSMonitor.getInstance().registerRevisibilitySweep(queueUrl, numMadeRevisible, ts3 - ts0);
         log.debug(
             "event=revisibility_check queue_url="
                 + queueUrl
                 + " shard="
                 + shard
                 + " num_made_revisible="
-                + memIds.size()
+                + numMadeRevisible
                 + " redisTime="
                 + CQSControllerServlet.valueAccumulator.getCounter(AccumulatorName.RedisTime)
                 + " responseTimeMS="
                 + (ts3 - ts0)
                 + " hidden_set_size="
-                + keys.size());
+                + numScanned);
       } catch (Exception e) {
         if (e instanceof JedisException) {
           brokenJedis = true;
@@ -778,6 +799,9 @@ public class RedisCachedCassandraPersistence implements ICQSMessagePersistence {
    * @return true if the cache is good for use. false if it is unavailable
    */
   public boolean checkCacheConsistency(String queueUrl, int shard, boolean trueOnFiller) {
+    if (cacheStateLeases.isLeased(queueUrl, shard)) {
+      return true;
+    }
     try {
       // check if cache's state exists, if not return false and initialize cache
       // if cache's state is not OK, return false
@@ -787,6 +811,7 @@ public class RedisCachedCassandraPersistence implements ICQSMessagePersistence {
         return false;
       }
       lastCheckMS.set(System.currentTimeMillis());
+      long leaseVersion = cacheStateLeases.beginRead();
       QCacheState state = getCacheState(queueUrl, shard);
       redisDown.set(false);
       if (state == null || state == QCacheState.Unavailable) {
@@ -847,6 +872,7 @@ public class RedisCachedCassandraPersistence implements ICQSMessagePersistence {
         }
         return false;
       }
+      cacheStateLeases.grant(queueUrl, shard, leaseVersion);
       return true;
     } catch (JedisConnectionException e) {
       logger.warn(
@@ -858,23 +884,115 @@ public class RedisCachedCassandraPersistence implements ICQSMessagePersistence {
   }
 
   /**
-   * Add message to in-memory-queue. creationTS is now
+   * Load the ids of all messages of a queue shard from cassandra into the in-memory-queue. The
+   * partitions of the shard are scanned in parallel on the filler scan pool and each page of ids is
+   * added to redis in a single command.
    *
    * @param queueUrl
-   * @param message
+   * @param shard
+   * @return number of message ids cached
+   * @throws Exception
+   */
+  private long fillFromStorage(final String queueUrl, final int shard) throws Exception {
+
+    int numberOfPartitions = CMBProperties.getInstance().getCQSNumberOfQueuePartitions();
+    CQSQueue queue = CQSCache.getCachedQueue(queueUrl);
+
+    if (queue != null) {
+      numberOfPartitions = queue.getNumberOfPartitions();
+    }
+
+    final CacheFillProgress progress =
+        CQSMonitor.getInstance().registerCacheFillStarted(queueUrl, shard, numberOfPartitions);
+    List<Future<Long>> scans = new ArrayList<Future<Long>>();
+
+    try {
+
+      for (int i = 0; i < numberOfPartitions; i++) {
+
+        final int partition = i;
+
+        scans.add(
+            fillerScanExecutor.submit(
+                new Callable<Long>() {
+                  @Override
+                  public Long call() throws Exception {
+                    return fillPartitionFromStorage(queueUrl, shard, partition, progress);
+                  }
+                }));
+      }
+
+      long totalCached = 0;
+
+      for (Future<Long> scan : scans) {
+        totalCached += scan.get();
+      }
+
+      return totalCached;
+
+    } catch (ExecutionException ex) {
+      throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+    } finally {
+
+      // stop the remaining scans if one of them failed
+
+      for (Future<Long> scan : scans) {
+        scan.cancel(true);
+      }
+
+      CQSMonitor.getInstance().registerCacheFillFinished(queueUrl, shard);
+    }
+  }
+
+  private long fillPartitionFromStorage(
+      String queueUrl, int shard, int partition, CacheFillProgress progress) throws Exception {
+
+    long numCached = 0;
+    List<String> messageIds =
+        persistenceStorage.peekQueueIds(queueUrl, shard, partition, null, CACHE_FILL_PAGE_SIZE);
+
+    while (messageIds.size() > 0 && !Thread.currentThread().isInterrupted()) {
+      addMessageIdsToCache(queueUrl, shard, messageIds);
+      numCached += messageIds.size();
+      progress.addIdsLoaded(messageIds.size());
+      String previousMessageId = messageIds.get(messageIds.size() - 1);
+      messageIds =
+          persistenceStorage.peekQueueIds(
+              queueUrl, shard, partition, previousMessageId, CACHE_FILL_PAGE_SIZE);
+    }
+
+    progress.partitionDone();
+    return numCached;
+  }
+
+  /**
+   * Add message ids to in-memory-queue in one command. creationTS is now
+   *
+   * @param queueUrl
+   * @param shard
+   * @param messageIds
    */
-  private void addMessageToCache(
-      String queueUrl, int shard, CQSMessage message, ShardedJedis jedis) {
+  private void addMessageIdsToCache(String queueUrl, int shard, List<String> messageIds) {
     long ts1 = System.currentTimeMillis();
-    Long newLen =
-        jedis.rpush(
-            queueUrl + "-" + shard + "-Q",
-            getMemQueueMessage(message.getMessageId())); // TODO: currently initialDelay is always 0
-    if (newLen.longValue() == 0) {
-      throw new IllegalStateException("Could not add memId to queue");
+    boolean brokenJedis = false;
+    ShardedJedis jedis = getResource();
+    try {
+      String[] memIds = new String[messageIds.size()];
+      for (int i = 0; i < memIds.length; i++) {
+        memIds[i] = getMemQueueMessage(messageIds.get(i)); // TODO: initialDelay is always 0
+      }
+      Long newLen = jedis.rpush(queueUrl + "-" + shard + "-Q", memIds);
+      if (newLen.longValue() == 0) {
+        throw new IllegalStateException("Could not add memIds to queue");
+      }
+    } catch (JedisException e) {
+      brokenJedis = true;
+      throw e;
+    } finally {
+      returnResource(jedis, brokenJedis);
+      long ts2 = System.currentTimeMillis();
+      CQSControllerServlet.valueAccumulator.addToCounter(AccumulatorName.RedisTime, (ts2 - ts1));
     }
-    long ts2 = System.currentTimeMillis();
-    CQSControllerServlet.valueAccumulator.addToCounter(AccumulatorName.RedisTime, (ts2 - ts1));
   }
 
   /**
@@ -1086,7 +1204,7 @@ public class RedisCachedCassandraPersistence implements ICQSMessagePersistence {
         long numDeleted = jedis.hdel(queueUrl + "-" + shard + "-H", receiptHandle);
         if (numDeleted != 1) {
           logger.warn(
-              "event=delete_message error_code=could_not_delelete_hidden_set queue_url="
+              "event=delete_message error_code=could_not_delete_hidden_set queue_url="
                   + queueUrl
                   + " shard="
                   + shard
@@ -1123,6 +1241,113 @@ public class RedisCachedCassandraPersistence implements ICQSMessagePersistence {
     persistenceStorage.deleteMessage(queueUrl, messageId);
   }
 
+  @Override
+  public void deleteMessageBatch(String queueUrl, List<String> receiptHandles)
+      throws PersistenceException {
+
+    String queueUrlHash = Util.getQueueUrlHashFromCache(queueUrl);
+    List<String> messageIds = new ArrayList<String>();
+    Map<String, Integer> shardsByHandle = Util.getShardsByReceiptHandle(queueUrl, receiptHandles);
+
+    // receiptHandle is memId
+
+    for (String receiptHandle : shardsByHandle.keySet()) {
+      messageIds.add(getMemQueueMessageMessageId(queueUrlHash, receiptHandle));
+    }
+
+    Map<String, Integer> cachedHandles = getCachedReceiptHandles(queueUrl, shardsByHandle);
+
+    if (cachedHandles.size() > 0) {
+      ShardedJedis jedis = null;
+      boolean brokenJedis = false;
+      try {
+        jedis = getResource();
+        long ts1 = System.currentTimeMillis();
+        ShardedJedisPipeline pipeline = jedis.pipelined();
+        List<Response<Long>> removed = new ArrayList<Response<Long>>();
+        List<Response<Long>> deleted = new ArrayList<Response<Long>>();
+        for (Map.Entry<String, Integer> entry : cachedHandles.entrySet()) {
+          String receiptHandle = entry.getKey();
+          int shard = entry.getValue();
+          removed.add(pipeline.hdel(queueUrl + "-" + shard + "-H", receiptHandle));
+          deleted.add(pipeline.del(queueUrl + "-" + shard + "-A-" + receiptHandle));
+        }
+        pipeline.sync();
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : cachedHandles.entrySet()) {
+          if (removed.get(i).get().longValue() != 1) {
+            logger.warn(
+                "event=delete_message_batch error_code=could_not_delete_hidden_set queue_url="
+                    + queueUrl
+                    + " shard="
+                    + entry.getValue()
+                    + " mem_id="
+                    + entry.getKey());
+          }
+          if (deleted.get(i).get().longValue() == 0) {
+            logger.warn(
+                "event=delete_message_batch error_code=could_not_delete_attributes queue_url="
+                    + queueUrl
+                    + " shard="
+                    + entry.getValue()
+                    + " mem_id="
+                    + entry.getKey());
+          }
+          i++;
+        }
+        long ts2 = System.currentTimeMillis();
+        CQSControllerServlet.valueAccumulator.addToCounter(AccumulatorName.RedisTime, (ts2 - ts1));
+      } catch (JedisConnectionException e) {
+        logger.error(
+            "event=delete_message_batch error_code=redis_unavailable num_connections="
+                + numRedisConnections.get());
+        brokenJedis = true;
+        for (int shard : new HashSet<Integer>(cachedHandles.values())) {
+          trySettingCacheState(queueUrl, shard, QCacheState.Unavailable);
+        }
+      } finally {
+        if (jedis != null) {
+          returnResource(jedis, brokenJedis);
+        }
+      }
+    }
+
+    // delete from underlying persistence layer
+
+    persistenceStorage.deleteMessageBatch(queueUrl, messageIds);
+  }
+
+  /**
+   * Check the cache state of each queue shard the receipt handles belong to only once
+   *
+   * @param queueUrl
+   * @param shardsByHandle shard by receipt handle, see Util.getShardsByReceiptHandle()
+   * @return shard by receipt handle for all receipt handles of shards with an available cache
+   * @throws PersistenceException
+   */
+  private Map<String, Integer> getCachedReceiptHandles(
+      String queueUrl, Map<String, Integer> shardsByHandle) throws PersistenceException {
+
+    Map<Integer, Boolean> cacheAvailable = new HashMap<Integer, Boolean>();
+    Map<String, Integer> cachedHandles = new LinkedHashMap<String, Integer>();
+
+    for (Map.Entry<String, Integer> entry : shardsByHandle.entrySet()) {
+
+      Boolean available = cacheAvailable.get(entry.getValue());
+
+      if (available == null) {
+        available = checkCacheConsistency(queueUrl, entry.getValue(), false);
+        cacheAvailable.put(entry.getValue(), available);
+      }
+
+      if (available) {
+        cachedHandles.put(entry.getKey(), entry.getValue());
+      }
+    }
+
+    return cachedHandles;
+  }
+
   /**
    * @param queue
    * @param message
@@ -1138,6 +1363,130 @@ public class RedisCachedCassandraPersistence implements ICQSMessagePersistence {
     }
   }
 
+  /**
+   * Get up to num mem-ids from the head of the in-memory queue. If visibilityTO is greater than 0
+   * the mem-ids are popped, otherwise they are only peeked at. In pipelined mode all pops are sent
+   * to Redis in a single round trip.
+   *
+   * @return list of mem-ids in queue order, empty if the queue is empty
+   */
+  private List<String> getMemIdsForReceive(
+      String queueUrl, int shard, int num, int visibilityTO, ShardedJedis jedis) {
+
+    List<String> memIds = new LinkedList<String>();
+    String key = queueUrl + "-" + shard + "-Q";
+    long ts1 = System.currentTimeMillis();
+
+    if (visibilityTO <= 0) {
+      memIds.addAll(jedis.lrange(key, 0, num - 1));
+    } else if (CMBProperties.getInstance().isRedisPipelinedReceive()) {
+      ShardedJedisPipeline pipeline = jedis.pipelined();
+      List<Response<String>> responses = new ArrayList<Response<String>>(num);
+      for (int i = 0; i < num; i++) {
+        responses.add(pipeline.lpop(key));
+      }
+      pipeline.sync();
+      for (Response<String> response : responses) {
+        String memId = response.get();
+        if (memId != null && !memId.equals("nil")) {
+          memIds.add(memId);
+        }
+      }
+    } else {
+      for (int i = 0; i < num; i++) {
+        String memId = jedis.lpop(key);
+        if (memId == null || memId.equals("nil")) {
+          break;
+        }
+        memIds.add(memId);
+      }
+    }
+
+    long ts2 = System.currentTimeMillis();
+    CQSControllerServlet.valueAccumulator.addToCounter(AccumulatorName.RedisTime, (ts2 - ts1));
+    return memIds;
+  }
+
+  /**
+   * Hide received messages (if visibilityTO is greater than 0) and update their approximate first
+   * receive timestamp and receive count. The first receive timestamp is only set if absent and the
+   * receive count is incremented on the server so concurrent receivers do not lose updates. In
+   * pipelined mode all commands for all messages are sent to Redis in a single round trip.
+   *
+   * @param messages received messages, message ids must already be mem-ids
+   */
+  private void updateReceivedMessages(
+      String queueUrl, int shard, List<CQSMessage> messages, int visibilityTO, ShardedJedis jedis) {
+
+    if (messages.size() == 0) {
+      return;
+    }
+
+    long ts1 = System.currentTimeMillis();
+    String firstRecvTS = Long.toString(ts1);
+    String visibilityTS = Long.toString(ts1 + (visibilityTO * 1000));
+    boolean pipelined = CMBProperties.getInstance().isRedisPipelinedReceive();
+    ShardedJedisPipeline pipeline = pipelined ? jedis.pipelined() : null;
+    List<Response<String>> firstRecvResponses = new ArrayList<Response<String>>(messages.size());
+    List<Response<Long>> recvCountResponses = new ArrayList<Response<Long>>(messages.size());
+
+    for (CQSMessage message : messages) {
+
+      String memId = message.getMessageId();
+      String attrKey = queueUrl + "-" + shard + "-A-" + memId;
+      Map<String, String> msgAttrs =
+          (message.getAttributes() != null)
+              ? message.getAttributes()
+              : new HashMap<String, String>();
+
+      if (pipelined) {
+        if (visibilityTO > 0) {
+          pipeline.hset(queueUrl + "-" + shard + "-H", memId, visibilityTS);
+        }
+        pipeline.hsetnx(
+            attrKey, CQSConstants.REDIS_APPROXIMATE_FIRST_RECEIVE_TIMESTAMP, firstRecvTS);
+        recvCountResponses.add(
+            pipeline.hincrBy(attrKey, CQSConstants.REDIS_APPROXIMATE_RECEIVE_COUNT, 1));
+        pipeline.expire(attrKey, 3600 * 24 * 14); // 14 days expiration if not deleted
+        firstRecvResponses.add(
+            pipeline.hget(attrKey, CQSConstants.REDIS_APPROXIMATE_FIRST_RECEIVE_TIMESTAMP));
+      } else {
+        if (visibilityTO > 0) {
+          jedis.hset(queueUrl + "-" + shard + "-H", memId, visibilityTS);
+        }
+        jedis.hsetnx(attrKey, CQSConstants.REDIS_APPROXIMATE_FIRST_RECEIVE_TIMESTAMP, firstRecvTS);
+        long recvCount = jedis.hincrBy(attrKey, CQSConstants.REDIS_APPROXIMATE_RECEIVE_COUNT, 1);
+        jedis.expire(attrKey, 3600 * 24 * 14); // 14 days expiration if not deleted
+        String ts = jedis.hget(attrKey, CQSConstants.REDIS_APPROXIMATE_FIRST_RECEIVE_TIMESTAMP);
+        msgAttrs.put(
+            CQSConstants.APPROXIMATE_FIRST_RECEIVE_TIMESTAMP, ts != null ? ts : firstRecvTS);
+        msgAttrs.put(CQSConstants.APPROXIMATE_RECEIVE_COUNT, Long.toString(recvCount));
+      }
+
+      message.setAttributes(msgAttrs);
+    }
+
+    if (pipelined) {
+      pipeline.sync();
+      int i = 0;
+      for (CQSMessage message : messages) {
+        String ts = firstRecvResponses.get(i).get();
+        message
+            .getAttributes()
+            .put(CQSConstants.APPROXIMATE_FIRST_RECEIVE_TIMESTAMP, ts != null ? ts : firstRecvTS);
+        message
+            .getAttributes()
+            .put(
+                CQSConstants.APPROXIMATE_RECEIVE_COUNT,
+                Long.toString(recvCountResponses.get(i).get()));
+        i++;
+      }
+    }
+
+    long ts2 = System.currentTimeMillis();
+    CQSControllerServlet.valueAccumulator.addToCounter(AccumulatorName.RedisTime, (ts2 - ts1));
+  }
+
   @Override
   public List<CQSMessage> receiveMessage(CQSQueue queue, Map<String, String> receiveAttributes)
       throws IOException, NoSuchAlgorithmException, InterruptedException, JSONException,
@@ -1192,32 +1541,16 @@ public class RedisCachedCassandraPersistence implements ICQSMessagePersistence {
 
         while (!done) {
 
-          boolean emptyQueue = false;
           HashMap<String, String> messageIdToMemId = new HashMap<String, String>();
           List<String> messageIds = new LinkedList<String>();
-
-          for (int i = 0; i < maxNumberOfMessages && !emptyQueue; i++) {
-
-            long ts1 = System.currentTimeMillis();
-            String memId;
-
-            if (visibilityTO > 0) {
-              memId = jedis.lpop(queue.getRelativeUrl() + "-" + shard + "-Q");
-            } else {
-              memId = jedis.lindex(queue.getRelativeUrl() + "-" + shard + "-Q", i);
-            }
-
-            long ts2 = System.currentTimeMillis();
-            CQSControllerServlet.valueAccumulator.addToCounter(
-                AccumulatorName.RedisTime, (ts2 - ts1));
-
-            if (memId == null || memId.equals("nil")) { // done
-              emptyQueue = true;
-            } else {
-              String messageId = getMemQueueMessageMessageId(queue.getRelativeUrlHash(), memId);
-              messageIds.add(messageId);
-              messageIdToMemId.put(messageId, memId);
-            }
+          List<String> memIds =
+              getMemIdsForReceive(
+                  queue.getRelativeUrl(), shard, maxNumberOfMessages, visibilityTO, jedis);
+
+          for (String memId : memIds) {
+            String messageId = getMemQueueMessageMessageId(queue.getRelativeUrlHash(), memId);
+            messageIds.add(messageId);
+            messageIdToMemId.put(messageId, memId);
           }
 
           if (messageIds.size() == 0) {
@@ -1274,62 +1607,15 @@ public class RedisCachedCassandraPersistence implements ICQSMessagePersistence {
                 continue;
               }
 
-              // hide message if visibilityTO is greater than 0
-
-              if (visibilityTO > 0) {
-                long ts1 = System.currentTimeMillis();
-                jedis.hset(
-                    queue.getRelativeUrl() + "-" + shard + "-H",
-                    memId,
-                    Long.toString(System.currentTimeMillis() + (visibilityTO * 1000)));
-                long ts2 = System.currentTimeMillis();
-                CQSControllerServlet.valueAccumulator.addToCounter(
-                    AccumulatorName.RedisTime, (ts2 - ts1));
-              }
-
               message.setMessageId(memId);
               message.setReceiptHandle(memId);
-
-              // get message-attributes and populate in message
-              Map<String, String> msgAttrs =
-                  (message.getAttributes() != null)
-                      ? message.getAttributes()
-                      : new HashMap<String, String>();
-              List<String> attrs =
-                  jedis.hmget(
-                      queue.getRelativeUrl() + "-" + shard + "-A-" + memId,
-                      CQSConstants.REDIS_APPROXIMATE_FIRST_RECEIVE_TIMESTAMP,
-                      CQSConstants.REDIS_APPROXIMATE_RECEIVE_COUNT);
-
-              if (attrs.get(0) == null) {
-                String firstRecvTS = Long.toString(System.currentTimeMillis());
-                jedis.hset(
-                    queue.getRelativeUrl() + "-" + shard + "-A-" + memId,
-                    CQSConstants.REDIS_APPROXIMATE_FIRST_RECEIVE_TIMESTAMP,
-                    firstRecvTS);
-                msgAttrs.put(CQSConstants.APPROXIMATE_FIRST_RECEIVE_TIMESTAMP, firstRecvTS);
-              } else {
-                msgAttrs.put(CQSConstants.APPROXIMATE_FIRST_RECEIVE_TIMESTAMP, attrs.get(0));
-              }
-
-              int recvCount = 1;
-
-              if (attrs.get(1) != null) {
-                recvCount = Integer.parseInt(attrs.get(1)) + 1;
-              }
-
-              jedis.hset(
-                  queue.getRelativeUrl() + "-" + shard + "-A-" + memId,
-                  CQSConstants.REDIS_APPROXIMATE_RECEIVE_COUNT,
-                  Integer.toString(recvCount));
-              jedis.expire(
-                  queue.getRelativeUrl() + "-" + shard + "-A-" + memId,
-                  3600 * 24 * 14); // 14 days expiration if not deleted
-              msgAttrs.put(CQSConstants.APPROXIMATE_RECEIVE_COUNT, Integer.toString(recvCount));
-              message.setAttributes(msgAttrs);
               ret.add(message);
             }
 
+            // hide messages if visibilityTO is greater than 0 and update receive attributes
+
+            updateReceivedMessages(queue.getRelativeUrl(), shard, ret, visibilityTO, jedis);
+
             if (ret.size()
                 > 0) { // There may be cases where the underlying persistent message has two memIds
                        // while
@@ -1467,6 +1753,63 @@ public class RedisCachedCassandraPersistence implements ICQSMessagePersistence {
     }
   }
 
+  @Override
+  public Set<String> changeMessageVisibilityBatch(
+      CQSQueue queue, Map<String, Integer> visibilityTOs)
+      throws PersistenceException, IOException, NoSuchAlgorithmException, InterruptedException {
+
+    Map<String, Integer> cachedHandles =
+        getCachedReceiptHandles(
+            queue.getRelativeUrl(),
+            Util.getShardsByReceiptHandle(queue.getRelativeUrl(), visibilityTOs.keySet()));
+    Set<String> changed = new HashSet<String>();
+
+    if (cachedHandles.size() == 0) {
+      return changed;
+    }
+
+    ShardedJedis jedis = null;
+    boolean brokenJedis = false;
+
+    try {
+
+      jedis = getResource();
+      long ts1 = System.currentTimeMillis();
+      ShardedJedisPipeline pipeline = jedis.pipelined();
+
+      for (Map.Entry<String, Integer> entry : cachedHandles.entrySet()) {
+        String receiptHandle = entry.getKey();
+        int visibilityTO = visibilityTOs.get(receiptHandle);
+        if (visibilityTO == 0) { // make immediately visible
+          pipeline.rpush(queue.getRelativeUrl() + "-" + entry.getValue() + "-Q", receiptHandle);
+          pipeline.hdel(queue.getRelativeUrl() + "-" + entry.getValue() + "-H", receiptHandle);
+        } else { // update new visibilityTO
+          pipeline.hset(
+              queue.getRelativeUrl() + "-" + entry.getValue() + "-H",
+              receiptHandle,
+              Long.toString(System.currentTimeMillis() + (visibilityTO * 1000)));
+        }
+      }
+
+      pipeline.sync();
+      changed.addAll(cachedHandles.keySet());
+      long ts2 = System.currentTimeMillis();
+      CQSControllerServlet.valueAccumulator.addToCounter(AccumulatorName.RedisTime, (ts2 - ts1));
+
+    } catch (JedisConnectionException e) {
+      logger.error(
+          "event=change_message_visibility_batch reason=redis_unavailable num_connections="
+              + numRedisConnections.get());
+      brokenJedis = true;
+    } finally {
+      if (jedis != null) {
+        returnResource(jedis, brokenJedis);
+      }
+    }
+
+    return changed;
+  }
+
   /**
    * Note: If cache is unavailable, we will return different id for a message than when the cache is
    * available, so we will have duplicates in that case. Also, we currently don't respect
@@ -1597,7 +1940,9 @@ public class RedisCachedCassandraPersistence implements ICQSMessagePersistence {
       try {
         long ts1 = System.currentTimeMillis();
         jedis = getResource();
+        cacheStateLeases.revoke(queueUrl, shard);
         Long num = jedis.del(queueUrl + "-" + shard + "-" + CQSConstants.REDIS_STATE);
+        cacheStateLeases.publishChange(queueUrl, shard, jedis);
         logger.debug("num removed=" + num);
         num = jedis.del(queueUrl + "-" + shard + "-Q");
         logger.debug("num removed=" + num);
@@ -1982,6 +2327,14 @@ public class RedisCachedCassandraPersistence implements ICQSMessagePersistence {
     return persistenceStorage.peekQueueRandom(queueUrl, shard, length);
   }
 
+  @Override
+  public List<String> peekQueueIds(
+      String queueUrl, int shard, int partition, String previousMessageId, int length)
+      throws PersistenceException, NoSuchAlgorithmException, UnsupportedEncodingException {
+    return persistenceStorage.peekQueueIds(
+        queueUrl, shard, partition, previousMessageId, length);
+  }
+
   /**
    * Get all redis shard infos
    *
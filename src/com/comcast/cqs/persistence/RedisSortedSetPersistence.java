@@ -20,6 +20,7 @@ import com.comcast.cmb.common.util.ValueAccumulator.AccumulatorName;
 import com.comcast.cqs.controller.CQSCache;
 import com.comcast.cqs.controller.CQSControllerServlet;
 import com.comcast.cqs.controller.CQSMonitor;
+import com.comcast.cqs.controller.CQSMonitor.CacheFillProgress;
 import com.comcast.cqs.controller.CQSMonitor.CacheType;
 import com.comcast.cqs.model.CQSMessage;
 import com.comcast.cqs.model.CQSQueue;
@@ -33,14 +34,18 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -49,7 +54,9 @@ import org.json.JSONException;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.ShardedJedis;
+import redis.clients.jedis.ShardedJedisPipeline;
 import redis.clients.jedis.ShardedJedisPool;
 import redis.clients.jedis.Transaction;
 import redis.clients.jedis.Tuple;
@@ -63,7 +70,12 @@ public class RedisSortedSetPersistence implements ICQSMessagePersistence {
   private static final Random rand = new Random();
   private static RedisSortedSetPersistence instance;
 
+  // number of message ids read from cassandra and added to redis at once by the cache filler
+
+  private static final int CACHE_FILL_PAGE_SIZE = 1000;
+
   public static ExecutorService executor;
+  public static ExecutorService fillerScanExecutor;
 
   public final TestInterface testInterface = new TestInterface();
 
@@ -101,11 +113,17 @@ public class RedisSortedSetPersistence implements ICQSMessagePersistence {
     return instance;
   }
 
+  /** @return number of cache state reads saved by cache state leases since startup */
+  public static long getCacheStateLeaseHitCount() {
+    return cacheStateLeases == null ? 0 : cacheStateLeases.getLeaseHitCount();
+  }
+
   private static JedisPoolConfig config = new JedisPoolConfig();
   private static ShardedJedisPool pool;
   private static volatile AtomicLong lastCheckMS = new AtomicLong(0);
   private static volatile AtomicBoolean redisDown = new AtomicBoolean(false);
   private static final long redisCheckFrequencyMS = 5000;
+  private static RedisCacheStateLeases cacheStateLeases;
 
   static {
     initializeInstance();
@@ -154,7 +172,15 @@ public class RedisSortedSetPersistence implements ICQSMessagePersistence {
     }
 
     pool = new ShardedJedisPool(config, shardInfos);
+    cacheStateLeases =
+        new RedisCacheStateLeases(
+            CQSConstants.REDIS_STATE_CHANNEL,
+            shardInfos,
+            CMBProperties.getInstance().getRedisCacheStateLeaseMS());
+    cacheStateLeases.start();
     executor = Executors.newFixedThreadPool(CMBProperties.getInstance().getRedisFillerThreads());
+    fillerScanExecutor =
+        Executors.newFixedThreadPool(CMBProperties.getInstance().getRedisFillerScanThreads());
     logger.info(
         "event=initialize_redis pools_size="
             + shardInfos.size()
@@ -201,6 +227,7 @@ public class RedisSortedSetPersistence implements ICQSMessagePersistence {
     public void resetTestQueue() {
       ShardedJedis jedis = getResource();
       try {
+        cacheStateLeases.revoke("testQueue", 0);
         jedis.del("testQueue-0-" + CQSConstants.REDIS_STATE);
         jedis.del("testQueue-0-Q");
         jedis.del("testQueue-0-F");
@@ -302,6 +329,7 @@ public class RedisSortedSetPersistence implements ICQSMessagePersistence {
 
     long ts1 = System.currentTimeMillis();
     boolean brokenJedis = false;
+    cacheStateLeases.revoke(queueUrl, shard);
     ShardedJedis jedis = getResource();
     try {
       Jedis j = jedis.getShard(queueUrl + "-" + shard + "-" + CQSConstants.REDIS_STATE);
@@ -333,6 +361,7 @@ public class RedisSortedSetPersistence implements ICQSMessagePersistence {
       if (resp == null) {
         throw new SetFailedException();
       }
+      cacheStateLeases.publishChange(queueUrl, shard, jedis);
     } catch (JedisException e) {
       brokenJedis = true;
       throw e;
@@ -473,23 +502,7 @@ public class RedisSortedSetPersistence implements ICQSMessagePersistence {
       try {
         logger.info("event=cache_filler_started queue_url=" + queueUrl + " shard=" + shard);
         jedis.del(queueUrl + "-" + shard + "-Q");
-        String previousReceiptHandle = null;
-        List<CQSMessage> messages = persistenceStorage.peekQueue(queueUrl, shard, null, null, 1000);
-        int totalCached = 0;
-        while (messages.size() != 0) {
-          for (CQSMessage message : messages) {
-            addMessageToCache(queueUrl, shard, message, jedis);
-            totalCached++;
-          }
-          previousReceiptHandle = messages.get(messages.size() - 1).getMessageId();
-          messages =
-              persistenceStorage.peekQueue(
-                  queueUrl,
-                  shard,
-                  previousReceiptHandle,
-                  null,
-                  1000); // note: shard parameter should be in sync with receipt handle here
-        }
+        long totalCached = fillFromStorage(queueUrl, shard);
         setCacheState(queueUrl, shard, QCacheState.OK, null, false);
         setCacheFillerProcessing(queueUrl, shard, 0);
         long ts3 = System.currentTimeMillis();
@@ -532,6 +545,9 @@ public class RedisSortedSetPersistence implements ICQSMessagePersistence {
    * @return true if the cache is good for use. false if it is unavailable
    */
   public boolean checkCacheConsistency(String queueUrl, int shard, boolean trueOnFiller) {
+    if (cacheStateLeases.isLeased(queueUrl, shard)) {
+      return true;
+    }
     try {
       // check if cache's state exists, if not return false and initialize cache
       // if cache's state is not OK, return false
@@ -541,6 +557,7 @@ public class RedisSortedSetPersistence implements ICQSMessagePersistence {
         return false;
       }
       lastCheckMS.set(System.currentTimeMillis());
+      long leaseVersion = cacheStateLeases.beginRead();
       QCacheState state = getCacheState(queueUrl, shard);
       redisDown.set(false);
       if (state == null || state == QCacheState.Unavailable) {
@@ -601,6 +618,7 @@ public class RedisSortedSetPersistence implements ICQSMessagePersistence {
         }
         return false;
       }
+      cacheStateLeases.grant(queueUrl, shard, leaseVersion);
       return true;
     } catch (JedisConnectionException e) {
       logger.warn(
@@ -1126,7 +1144,7 @@ public class RedisSortedSetPersistence implements ICQSMessagePersistence {
         long numDeleted = jedis.zrem(queueUrl + "-" + shard + "-Q", receiptHandle);
         if (numDeleted != 1) {
           logger.warn(
-              "event=delete_message error_code=could_not_delelete_hidden_set queue_url="
+              "event=delete_message error_code=could_not_delete_hidden_set queue_url="
                   + queueUrl
                   + " shard="
                   + shard
@@ -1163,6 +1181,113 @@ public class RedisSortedSetPersistence implements ICQSMessagePersistence {
     persistenceStorage.deleteMessage(queueUrl, messageId);
   }
 
+  @Override
+  public void deleteMessageBatch(String queueUrl, List<String> receiptHandles)
+      throws PersistenceException {
+
+    String queueUrlHash = Util.getQueueUrlHashFromCache(queueUrl);
+    List<String> messageIds = new ArrayList<String>();
+    Map<String, Integer> shardsByHandle = Util.getShardsByReceiptHandle(queueUrl, receiptHandles);
+
+    // receiptHandle is memId
+
+    for (String receiptHandle : shardsByHandle.keySet()) {
+      messageIds.add(getMemQueueMessageMessageId(queueUrlHash, receiptHandle));
+    }
+
+    Map<String, Integer> cachedHandles = getCachedReceiptHandles(queueUrl, shardsByHandle);
+
+    if (cachedHandles.size() > 0) {
+      ShardedJedis jedis = null;
+      boolean brokenJedis = false;
+      try {
+        jedis = getResource();
+        long ts1 = System.currentTimeMillis();
+        ShardedJedisPipeline pipeline = jedis.pipelined();
+        List<Response<Long>> removed = new ArrayList<Response<Long>>();
+        List<Response<Long>> deleted = new ArrayList<Response<Long>>();
+        for (Map.Entry<String, Integer> entry : cachedHandles.entrySet()) {
+          String receiptHandle = entry.getKey();
+          int shard = entry.getValue();
+          removed.add(pipeline.zrem(queueUrl + "-" + shard + "-Q", receiptHandle));
+          deleted.add(pipeline.del(queueUrl + "-" + shard + "-A-" + receiptHandle));
+        }
+        pipeline.sync();
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : cachedHandles.entrySet()) {
+          if (removed.get(i).get().longValue() != 1) {
+            logger.warn(
+                "event=delete_message_batch error_code=could_not_delete_hidden_set queue_url="
+                    + queueUrl
+                    + " shard="
+                    + entry.getValue()
+                    + " mem_id="
+                    + entry.getKey());
+          }
+          if (deleted.get(i).get().longValue() == 0) {
+            logger.warn(
+                "event=delete_message_batch error_code=could_not_delete_attributes queue_url="
+                    + queueUrl
+                    + " shard="
+                    + entry.getValue()
+                    + " mem_id="
+                    + entry.getKey());
+          }
+          i++;
+        }
+        long ts2 = System.currentTimeMillis();
+        CQSControllerServlet.valueAccumulator.addToCounter(AccumulatorName.RedisTime, (ts2 - ts1));
+      } catch (JedisConnectionException e) {
+        logger.warn(
+            "event=delete_message_batch error_code=redis_unavailable num_connections="
+                + numRedisConnections.get());
+        brokenJedis = true;
+        for (int shard : new HashSet<Integer>(cachedHandles.values())) {
+          trySettingCacheState(queueUrl, shard, QCacheState.Unavailable);
+        }
+      } finally {
+        if (jedis != null) {
+          returnResource(jedis, brokenJedis);
+        }
+      }
+    }
+
+    // delete from underlying persistence layer
+
+    persistenceStorage.deleteMessageBatch(queueUrl, messageIds);
+  }
+
+  /**
+   * Check the cache state of each queue shard the receipt handles belong to only once
+   *
+   * @param queueUrl
+   * @param shardsByHandle shard by receipt handle, see Util.getShardsByReceiptHandle()
+   * @return shard by receipt handle for all receipt handles of shards with an available cache
+   * @throws PersistenceException
+   */
+  private Map<String, Integer> getCachedReceiptHandles(
+      String queueUrl, Map<String, Integer> shardsByHandle) throws PersistenceException {
+
+    Map<Integer, Boolean> cacheAvailable = new HashMap<Integer, Boolean>();
+    Map<String, Integer> cachedHandles = new LinkedHashMap<String, Integer>();
+
+    for (Map.Entry<String, Integer> entry : shardsByHandle.entrySet()) {
+
+      Boolean available = cacheAvailable.get(entry.getValue());
+
+      if (available == null) {
+        available = checkCacheConsistency(queueUrl, entry.getValue(), false);
+        cacheAvailable.put(entry.getValue(), available);
+      }
+
+      if (available) {
+        cachedHandles.put(entry.getKey(), entry.getValue());
+      }
+    }
+
+    return cachedHandles;
+  }
+
   @Override
   public List<CQSMessage> receiveMessage(CQSQueue queue, Map<String, String> receiveAttributes)
       throws PersistenceException, IOException, NoSuchAlgorithmException, InterruptedException,
@@ -1458,6 +1583,58 @@ public class RedisSortedSetPersistence implements ICQSMessagePersistence {
     }
   }
 
+  @Override
+  public Set<String> changeMessageVisibilityBatch(
+      CQSQueue queue, Map<String, Integer> visibilityTOs)
+      throws PersistenceException, IOException, NoSuchAlgorithmException, InterruptedException {
+
+    Map<String, Integer> cachedHandles =
+        getCachedReceiptHandles(
+            queue.getRelativeUrl(),
+            Util.getShardsByReceiptHandle(queue.getRelativeUrl(), visibilityTOs.keySet()));
+    Set<String> changed = new HashSet<String>();
+
+    if (cachedHandles.size() == 0) {
+      return changed;
+    }
+
+    ShardedJedis jedis = null;
+    boolean brokenJedis = false;
+
+    try {
+
+      jedis = getResource();
+      long ts1 = System.currentTimeMillis();
+      ShardedJedisPipeline pipeline = jedis.pipelined();
+
+      for (Map.Entry<String, Integer> entry : cachedHandles.entrySet()) {
+        String receiptHandle = entry.getKey();
+        int visibilityTO = visibilityTOs.get(receiptHandle);
+        pipeline.zadd(
+            queue.getRelativeUrl() + "-" + entry.getValue() + "-Q",
+            System.currentTimeMillis() + (visibilityTO * 1000),
+            receiptHandle); // insert or update already existing
+      }
+
+      pipeline.sync();
+      changed.addAll(cachedHandles.keySet());
+      long ts2 = System.currentTimeMillis();
+      CQSControllerServlet.valueAccumulator.addToCounter(AccumulatorName.RedisTime, (ts2 - ts1));
+
+    } catch (JedisConnectionException e) {
+      logger.warn(
+          "event=change_message_visibility_batch reason=redis_unavailable num_connections="
+              + numRedisConnections.get());
+      brokenJedis = true;
+    } finally {
+      if (jedis != null) {
+        returnResource(jedis, brokenJedis);
+      }
+    }
+
+    return changed;
+  }
+
   /**
    * Note: If cache is unavailable, we will return different id for a message than when the cache is
    * available, so we will have duplicates in that case. Also, we currently don't respect
@@ -1581,6 +1758,14 @@ public class RedisSortedSetPersistence implements ICQSMessagePersistence {
     return persistenceStorage.peekQueueRandom(queueUrl, shard, length);
   }
 
+  @Override
+  public List<String> peekQueueIds(
+      String queueUrl, int shard, int partition, String previousMessageId, int length)
+      throws PersistenceException, NoSuchAlgorithmException, UnsupportedEncodingException {
+    return persistenceStorage.peekQueueIds(
+        queueUrl, shard, partition, previousMessageId, length);
+  }
+
   @Override
   public void clearQueue(String queueUrl, int shard)
       throws PersistenceException, NoSuchAlgorithmException, UnsupportedEncodingException {
@@ -1595,7 +1780,9 @@ public class RedisSortedSetPersistence implements ICQSMessagePersistence {
       try {
         long ts1 = System.currentTimeMillis();
         jedis = getResource();
+        cacheStateLeases.revoke(queueUrl, shard);
         Long num = jedis.del(queueUrl + "-" + shard + "-" + CQSConstants.REDIS_STATE);
+        cacheStateLeases.publishChange(queueUrl, shard, jedis);
         logger.debug("num removed=" + num);
         num = jedis.del(queueUrl + "-" + shard + "-Q");
         logger.debug("num removed=" + num);
@@ -1656,20 +1843,113 @@ public class RedisSortedSetPersistence implements ICQSMessagePersistence {
   }
 
   /**
-   * Add message to in-memory-queue. creationTS is now
+   * Load the ids of all messages of a queue shard from cassandra into the in-memory-queue. The
+   * partitions of the shard are scanned in parallel on the filler scan pool and each page of ids is
+   * added to redis in a single command.
+   *
+   * @param queueUrl
+   * @param shard
+   * @return number of message ids cached
+   * @throws Exception
+   */
+  private long fillFromStorage(final String queueUrl, final int shard) throws Exception {
+
+    int numberOfPartitions = CMBProperties.getInstance().getCQSNumberOfQueuePartitions();
+    CQSQueue queue = CQSCache.getCachedQueue(queueUrl);
+
+    if (queue != null) {
+      numberOfPartitions = queue.getNumberOfPartitions();
+    }
+
+    final CacheFillProgress progress =
+        CQSMonitor.getInstance().registerCacheFillStarted(queueUrl, shard, numberOfPartitions);
+    List<Future<Long>> scans = new ArrayList<Future<Long>>();
+
+    try {
+
+      for (int i = 0; i < numberOfPartitions; i++) {
+
+        final int partition = i;
+
+        scans.add(
+            fillerScanExecutor.submit(
+                new Callable<Long>() {
+                  @Override
+                  public Long call() throws Exception {
+                    return fillPartitionFromStorage(queueUrl, shard, partition, progress);
+                  }
+                }));
+      }
+
+      long totalCached = 0;
+
+      for (Future<Long> scan : scans) {
+        totalCached += scan.get();
+      }
+
+      return totalCached;
+
+    } catch (ExecutionException ex) {
+      throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+    } finally {
+
+      // stop the remaining scans if one of them failed
+
+      for (Future<Long> scan : scans) {
+        scan.cancel(true);
+      }
+
+      CQSMonitor.getInstance().registerCacheFillFinished(queueUrl, shard);
+    }
+  }
+
+  private long fillPartitionFromStorage(
+      String queueUrl, int shard, int partition, CacheFillProgress progress) throws Exception {
+
+    long numCached = 0;
+    List<String> messageIds =
+        persistenceStorage.peekQueueIds(queueUrl, shard, partition, null, CACHE_FILL_PAGE_SIZE);
+
+    while (messageIds.size() > 0 && !Thread.currentThread().isInterrupted()) {
+      addMessageIdsToCache(queueUrl, shard, messageIds);
+      numCached += messageIds.size();
+      progress.addIdsLoaded(messageIds.size());
+      String previousMessageId = messageIds.get(messageIds.size() - 1);
+      messageIds =
+          persistenceStorage.peekQueueIds(
+              queueUrl, shard, partition, previousMessageId, CACHE_FILL_PAGE_SIZE);
+    }
+
+    progress.partitionDone();
+    return numCached;
+  }
+
+  /**
+   * Add message ids to in-memory-queue in one command. creationTS is now
    *
    * @param queueUrl
-   * @param message
+   * @param shard
+   * @param messageIds
    */
-  private void addMessageToCache(
-      String queueUrl, int shard, CQSMessage message, ShardedJedis jedis) {
+  private void addMessageIdsToCache(String queueUrl, int shard, List<String> messageIds) {
     long ts1 = System.currentTimeMillis();
-    jedis.zadd(
-        queueUrl + "-" + shard + "-Q",
-        getMemQueueMessageCreatedTS(getMemQueueMessage(message.getMessageId())),
-        getMemQueueMessage(message.getMessageId()));
-    long ts2 = System.currentTimeMillis();
-    CQSControllerServlet.valueAccumulator.addToCounter(AccumulatorName.RedisTime, (ts2 - ts1));
+    boolean brokenJedis = false;
+    ShardedJedis jedis = getResource();
+    try {
+      Map<String, Double> scoreMembers = new HashMap<String, Double>();
+      for (String messageId : messageIds) {
+        String memId = getMemQueueMessage(messageId);
+        scoreMembers.put(memId, (double) getMemQueueMessageCreatedTS(memId));
+      }
+      jedis.zadd(queueUrl + "-" + shard + "-Q", scoreMembers);
+    } catch (JedisException e) {
+      brokenJedis = true;
+      throw e;
+    } finally {
+      returnResource(jedis, brokenJedis);
+      long ts2 = System.currentTimeMillis();
+      CQSControllerServlet.valueAccumulator.addToCounter(AccumulatorName.RedisTime, (ts2 - ts1));
+    }
   }
 
   /**
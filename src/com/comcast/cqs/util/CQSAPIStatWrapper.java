@@ -13,10 +13,9 @@
  */
 package com.comcast.cqs.util;
 
+import com.comcast.cmb.common.controller.CMBHeartbeatService;
 import com.comcast.cmb.common.persistence.AbstractDurablePersistence;
-import com.comcast.cmb.common.persistence.AbstractDurablePersistence.CMB_SERIALIZER;
 import com.comcast.cmb.common.persistence.AbstractDurablePersistence.CmbRow;
-import com.comcast.cmb.common.persistence.DurablePersistenceFactory;
 import com.comcast.cmb.common.util.CMBProperties;
 import com.comcast.cmb.common.util.PersistenceException;
 import com.comcast.cqs.model.CQSAPIStats;
@@ -29,20 +28,12 @@ public class CQSAPIStatWrapper {
 
   public static final String CNS_API_SERVERS = "CNSAPIServers";
   public static final String CQS_API_SERVERS = "CQSAPIServers";
-  public static final AbstractDurablePersistence cassandraHandler =
-      DurablePersistenceFactory.getInstance();
 
   public static List<CQSAPIStats> getCNSAPIStats() throws PersistenceException {
 
     List<CmbRow<String, String, String>> rows =
-        cassandraHandler.readAllRows(
-            AbstractDurablePersistence.CNS_KEYSPACE,
-            CNS_API_SERVERS,
-            1000,
-            10,
-            CMB_SERIALIZER.STRING_SERIALIZER,
-            CMB_SERIALIZER.STRING_SERIALIZER,
-            CMB_SERIALIZER.STRING_SERIALIZER);
+        CMBHeartbeatService.getClusterView(
+            AbstractDurablePersistence.CNS_KEYSPACE, CNS_API_SERVERS);
     List<CQSAPIStats> statsList = new ArrayList<CQSAPIStats>();
 
     if (rows != null) {
@@ -148,14 +139,8 @@ public class CQSAPIStatWrapper {
   public static List<CQSAPIStats> getCQSAPIStats() throws PersistenceException {
 
     List<CmbRow<String, String, String>> rows =
-        cassandraHandler.readAllRows(
-            AbstractDurablePersistence.CQS_KEYSPACE,
-            CQS_API_SERVERS,
-            1000,
-            10,
-            CMB_SERIALIZER.STRING_SERIALIZER,
-            CMB_SERIALIZER.STRING_SERIALIZER,
-            CMB_SERIALIZER.STRING_SERIALIZER);
+        CMBHeartbeatService.getClusterView(
+            AbstractDurablePersistence.CQS_KEYSPACE, CQS_API_SERVERS);
     List<CQSAPIStats> statsList = new ArrayList<CQSAPIStats>();
 
     if (rows != null) {
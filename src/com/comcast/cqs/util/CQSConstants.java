@@ -52,6 +52,9 @@ public class CQSConstants {
   public static final String NUMBER_OF_PARTITIONS = "NumberOfPartitions";
   public static final String NUMBER_OF_SHARDS = "NumberOfShards";
   public static final String IS_COMPRESSED = "IsCompressed";
+  public static final String MESSAGE_ENCODING = "MessageEncoding";
+  public static final String MESSAGE_ENCODING_JSON = "json";
+  public static final String MESSAGE_ENCODING_BINARY = "binary";
   public static final String MESSAGE_ATTRIBUTE = "MessageAttribute";
   public static final String MESSAGE_ATTRIBUTES = "MessageAttributes";
 
@@ -59,6 +62,7 @@ public class CQSConstants {
   public static final String REDIS_APPROXIMATE_RECEIVE_COUNT = "ARC";
   public static final String REDIS_APPROXIMATE_NUMBER_OF_MESSAGES = "ANM";
   public static final String REDIS_STATE = "S";
+  public static final String REDIS_STATE_CHANNEL = "CQSCacheStateChanged";
 
   public static final String COL_ARN = "arn";
   public static final String COL_NAME = "name";
@@ -75,4 +79,5 @@ public class CQSConstants {
   public static final String COL_NUMBER_PARTITIONS = "numPartitions";
   public static final String COL_NUMBER_SHARDS = "numShards";
   public static final String COL_COMPRESSED = "compressed";
+  public static final String COL_MESSAGE_ENCODING = "messageEncoding";
 }
@@ -34,7 +34,9 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -692,6 +694,49 @@ public class Util {
     return Integer.parseInt(keyParts[1]);
   }
 
+  /**
+   * Map the receipt handles of a batch to the queue shards they belong to. Malformed receipt
+   * handles are logged and left out so that they don't fail the rest of the batch.
+   *
+   * @param queueUrl
+   * @param receiptHandles
+   * @return shard by receipt handle for all well formed receipt handles, in batch order
+   */
+  public static Map<String, Integer> getShardsByReceiptHandle(
+      String queueUrl, Collection<String> receiptHandles) {
+
+    Map<String, Integer> shards = new LinkedHashMap<String, Integer>();
+
+    for (String receiptHandle : receiptHandles) {
+
+      // receipt handles look like 0:0:<queue hash>_<shard>_<partition>:<timestamp>:<random>
+
+      String handleParts[] = receiptHandle == null ? null : receiptHandle.split(":");
+
+      if (handleParts == null || handleParts.length < 3 || handleParts[2].indexOf('_') < 0) {
+        logger.warn(
+            "event=invalid_receipt_handle queue_url="
+                + queueUrl
+                + " receipt_handle="
+                + receiptHandle);
+        continue;
+      }
+
+      try {
+        shards.put(receiptHandle, getShardFromReceiptHandle(receiptHandle));
+      } catch (Exception ex) {
+        logger.warn(
+            "event=invalid_receipt_handle queue_url="
+                + queueUrl
+                + " receipt_handle="
+                + receiptHandle,
+            ex);
+      }
+    }
+
+    return shards;
+  }
+
   public static String compress(String decompressed) throws IOException {
     if (decompressed == null || decompressed.equals("")) {
       return decompressed;
@@ -742,4 +787,34 @@ public class Util {
     logger.info("event=decompressed from=" + compressed.length() + " to=" + decompressed.length());
     return decompressed;
   }
+
+  /**
+   * Gzip a message body without the Base64 step of compress(), for column formats that can hold
+   * raw bytes
+   *
+   * @param decompressed message body
+   * @return gzipped utf-8 bytes of the body
+   */
+  public static byte[] compressToBytes(String decompressed) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(decompressed.length());
+    GZIPOutputStream gzip = new GZIPOutputStream(out);
+    gzip.write(decompressed.getBytes("UTF-8"));
+    gzip.close();
+    out.close();
+    return out.toByteArray();
+  }
+
+  public static String decompressFromBytes(byte[] compressed) throws IOException {
+    GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed));
+    ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+    try {
+      byte[] buffer = new byte[10240];
+      for (int length = 0; (length = gzip.read(buffer)) > 0; ) {
+        out.write(buffer, 0, length);
+      }
+    } finally {
+      gzip.close();
+    }
+    return out.toString("UTF-8");
+  }
 }
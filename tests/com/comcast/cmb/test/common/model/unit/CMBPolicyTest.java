@@ -27,6 +27,8 @@ import org.junit.Test;
 import com.comcast.cmb.common.controller.CMBControllerServlet;
 import com.comcast.cmb.common.model.CMBPolicy;
 import com.comcast.cmb.common.model.CMBStatement;
+import com.comcast.cmb.common.model.User;
+import com.comcast.cmb.common.util.CMBPolicyCache;
 import com.comcast.cmb.common.util.Util;
 
 public class CMBPolicyTest {
@@ -67,6 +69,55 @@ public class CMBPolicyTest {
 		}
     }
     
+    @Test
+    public void testIsAllowed() throws Exception {
+
+        User alice = new User("1234567", "alice", "", "", "");
+        User bob = new User("345678", "bob", "", "", "");
+        User eve = new User("6789", "eve", "", "", "");
+
+        CMBPolicy policy = new CMBPolicy();
+        policy.addStatement(CMBPolicy.SERVICE.CQS, "unittest1", "Allow", Arrays.asList("1234567"), Arrays.asList("SendMessage"), "arn:cmb:cqs:ccp:331770435817:MyQueue123456789", null);
+        policy.addStatement(CMBPolicy.SERVICE.CQS, "unittest2", "Allow", Arrays.asList("*"), Arrays.asList("*"), "arn:cmb:cqs:ccp:331770435817:MyQueue123456789", null);
+
+        CMBPolicy policy2 = new CMBPolicy(policy.toString());
+
+        assertTrue(policy2.isAllowed(alice, "CQS:SendMessage"));
+        assertTrue(policy2.isAllowed(bob, "CQS:ReceiveMessage"));
+        assertFalse(policy2.isAllowed(bob, "CNS:Publish"));
+
+        // lookup tables must be rebuilt when statements change
+
+        CMBPolicy policy3 = new CMBPolicy();
+        policy3.addStatement(CMBPolicy.SERVICE.CQS, "unittest1", "Allow", Arrays.asList("*"), Arrays.asList("SendMessage"), "arn:cmb:cqs:ccp:331770435817:MyQueue123456789", null);
+        assertTrue(policy3.isAllowed(eve, "CQS:SendMessage"));
+        policy3.addStatement(CMBPolicy.SERVICE.CQS, "unittest2", "Deny", Arrays.asList("6789"), Arrays.asList("*"), "arn:cmb:cqs:ccp:331770435817:MyQueue123456789", null);
+        assertFalse(policy3.isAllowed(eve, "CQS:SendMessage"));
+        assertTrue(policy3.isAllowed(alice, "CQS:SendMessage"));
+        policy3.removeStatement("unittest2");
+        assertTrue(policy3.isAllowed(eve, "CQS:SendMessage"));
+    }
+
+    @Test
+    public void testPolicyCache() throws Exception {
+
+        String arn = "arn:cmb:cqs:ccp:331770435817:MyQueue123456789";
+        CMBPolicy policy = new CMBPolicy();
+        policy.addStatement(CMBPolicy.SERVICE.CQS, "unittest1", "Allow", Arrays.asList("1234567"), Arrays.asList("SendMessage"), arn, null);
+        String policyStr = policy.toString();
+
+        CMBPolicy cached = CMBPolicyCache.getPolicy(arn, policyStr);
+        assertSame(cached, CMBPolicyCache.getPolicy(arn, new String(policyStr)));
+
+        policy.addStatement(CMBPolicy.SERVICE.CQS, "unittest2", "Allow", Arrays.asList("345678"), Arrays.asList("SendMessage"), arn, null);
+        CMBPolicy updated = CMBPolicyCache.getPolicy(arn, policy.toString());
+        assertNotSame(cached, updated);
+        assertEquals(2, updated.getStatements().size());
+
+        CMBPolicyCache.invalidate(arn);
+        assertNotSame(updated, CMBPolicyCache.getPolicy(arn, policy.toString()));
+    }
+
     @After    
     public void tearDown() {
         CMBControllerServlet.valueAccumulator.deleteAllCounters();
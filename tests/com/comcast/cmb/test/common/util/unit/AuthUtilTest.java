@@ -18,15 +18,24 @@ package com.comcast.cmb.test.common.util.unit;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.auth.AWS4Signer;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.http.HttpMethodName;
+import com.amazonaws.util.HttpUtils;
 import com.comcast.cmb.common.controller.CMBControllerServlet;
 import com.comcast.cmb.common.util.AuthUtil;
 import com.comcast.cmb.common.util.AuthenticationException;
 import com.comcast.cmb.common.util.CMBErrorCodes;
 import com.comcast.cmb.common.util.Util;
+import com.comcast.cmb.test.tools.SimpleHttpServletRequest;
 
+import java.net.URI;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Map;
 import java.util.TimeZone;
+import java.util.TreeMap;
 
 import static org.junit.Assert.*;
 
@@ -101,4 +110,55 @@ public class AuthUtilTest {
             assertEquals(ex.getCMBCode(), CMBErrorCodes.RequestExpired.getCMBCode());
         }
     }
+
+    @Test
+    public void testSignatureV4() throws Exception {
+
+        String accessKey = AuthUtil.generateRandomAccessKey();
+        String accessSecret = AuthUtil.generateRandomAccessSecret();
+
+        // sign a request the same way the aws sdk client does
+
+        DefaultRequest<Void> sdkRequest = new DefaultRequest<Void>("AmazonSQS");
+        sdkRequest.setEndpoint(new URI("http://localhost:6059"));
+        sdkRequest.setResourcePath("/");
+        sdkRequest.setHttpMethod(HttpMethodName.POST);
+        sdkRequest.addParameter("Action", "SendMessage");
+        sdkRequest.addParameter("MessageBody", "hello  world");
+
+        AWS4Signer signer = new AWS4Signer();
+        signer.setServiceName("sqs");
+        signer.setRegionName("us-east-1");
+        signer.sign(sdkRequest, new BasicAWSCredentials(accessKey, accessSecret));
+
+        final Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        headers.putAll(sdkRequest.getHeaders());
+        headers.put("Host", "localhost:6059");
+
+        SimpleHttpServletRequest request = new SimpleHttpServletRequest() {
+            @Override
+            public String getHeader(String key) {
+                return headers.get(key);
+            }
+            @Override
+            public String getRequestURI() {
+                return "/";
+            }
+        };
+        request.setMethod("POST");
+
+        String authorizationHeader = headers.get("Authorization");
+        String expected = authorizationHeader.substring(authorizationHeader.indexOf("Signature=") + "Signature=".length());
+        String payload = HttpUtils.encodeParameters(sdkRequest);
+
+        assertEquals(expected, AuthUtil.generateSignatureV4(request, payload, "HMAC-SHA256", accessKey, accessSecret));
+
+        // second call is served from the signing key cache
+
+        assertEquals(expected, AuthUtil.generateSignatureV4(request, payload, "HMAC-SHA256", accessKey, accessSecret));
+
+        // changed secret must not reuse the cached signing key
+
+        assertFalse(expected.equals(AuthUtil.generateSignatureV4(request, payload, "HMAC-SHA256", accessKey, accessSecret + "x")));
+    }
 }
@@ -0,0 +1,178 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cmb.test.common.util.unit;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.comcast.cmb.common.util.BoundedCache;
+import com.comcast.cmb.common.util.Util;
+
+public class BoundedCacheTest {
+
+    @Before
+    public void setup() throws Exception {
+        Util.initLog4jTest();
+    }
+
+    static class TestCallable implements Callable<Integer> {
+
+        final AtomicInteger numTimesCalled = new AtomicInteger();
+        volatile long sleepMS = 0;
+
+        @Override
+        public Integer call() throws Exception {
+            if (sleepMS > 0) {
+                Thread.sleep(sleepMS);
+            }
+            return numTimesCalled.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void testSetGetCache() throws Exception {
+
+        BoundedCache<String, Integer> cache = new BoundedCache<String, Integer>(1000, 0);
+        TestCallable c = new TestCallable();
+
+        assertEquals(1, cache.getAndSetIfNotPresent("test", c, 500).intValue());
+        assertEquals(1, cache.getAndSetIfNotPresent("test", c, 500).intValue());
+        assertEquals(1, c.numTimesCalled.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // check expiration
+        Thread.sleep(501);
+        assertFalse(cache.containsKey("test"));
+        assertEquals(2, cache.getAndSetIfNotPresent("test", c, 500).intValue());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+
+        BoundedCache<Integer, Integer> cache = new BoundedCache<Integer, Integer>(3, 0);
+        TestCallable c = new TestCallable();
+
+        cache.getAndSetIfNotPresent(1, c, 60000);
+        cache.getAndSetIfNotPresent(2, c, 60000);
+        cache.getAndSetIfNotPresent(3, c, 60000);
+
+        // touch 1 so 2 becomes the least recently used key
+
+        cache.getAndSetIfNotPresent(1, c, 60000);
+        cache.getAndSetIfNotPresent(4, c, 60000);
+
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(cache.containsKey(1));
+        assertFalse(cache.containsKey(2));
+        assertTrue(cache.containsKey(3));
+        assertTrue(cache.containsKey(4));
+    }
+
+    @Test
+    public void testNeverFull() throws Exception {
+
+        BoundedCache<Integer, Integer> cache = new BoundedCache<Integer, Integer>(100, 0);
+        TestCallable c = new TestCallable();
+
+        for (int i = 0; i < 10000; i++) {
+            cache.getAndSetIfNotPresent(i, c, 60000);
+        }
+
+        assertEquals(100, cache.size());
+        assertEquals(9900, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testRefreshAhead() throws Exception {
+
+        BoundedCache<String, Integer> cache = new BoundedCache<String, Integer>(1000, 50);
+        TestCallable c = new TestCallable();
+
+        assertEquals(1, cache.getAndSetIfNotPresent("test", c, 1000).intValue());
+        Thread.sleep(600);
+
+        // past the refresh point the current value is returned and a reload starts
+
+        assertEquals(1, cache.getAndSetIfNotPresent("test", c, 1000).intValue());
+
+        long start = System.currentTimeMillis();
+
+        while (cache.getRefreshCount() == 0 && System.currentTimeMillis() - start < 5000) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, cache.getRefreshCount());
+        assertEquals(2, cache.getAndSetIfNotPresent("test", c, 1000).intValue());
+        assertEquals(2, c.numTimesCalled.get());
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws Exception {
+
+        BoundedCache<String, Integer> cache = new BoundedCache<String, Integer>(1000, 0);
+
+        try {
+            cache.getAndSetIfNotPresent("test", new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    throw new IllegalArgumentException("load failed");
+                }
+            }, 60000);
+            fail("Expected load failure");
+        } catch (IllegalStateException ex) {
+            assertTrue(ex.getCause() instanceof ExecutionException);
+            assertTrue(ex.getCause().getCause() instanceof IllegalArgumentException);
+        }
+
+        assertEquals(1, cache.getAndSetIfNotPresent("test", new TestCallable(), 60000).intValue());
+    }
+
+    @Test
+    public void testConcurrentMissesLoadOnce() throws Exception {
+
+        final BoundedCache<String, Integer> cache = new BoundedCache<String, Integer>(1000, 0);
+        final TestCallable c = new TestCallable();
+        c.sleepMS = 200;
+
+        ExecutorService e = Executors.newFixedThreadPool(10);
+
+        for (int i = 0; i < 10; i++) {
+            e.submit(new Runnable() {
+                @Override
+                public void run() {
+                    cache.getAndSetIfNotPresent("test", c, 60000);
+                }
+            });
+        }
+
+        e.shutdown();
+        e.awaitTermination(10, TimeUnit.SECONDS);
+
+        assertEquals(1, c.numTimesCalled.get());
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cmb.test.common.util.unit;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.comcast.cmb.common.util.ApiLatencyStats;
+import com.comcast.cmb.common.util.ApiLatencyStats.LatencyType;
+import com.comcast.cmb.common.util.LatencyHistogram;
+import com.comcast.cmb.common.util.RollingLatencyHistogram;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentiles() {
+
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getValueAtPercentile(99));
+
+        for (long i = 1; i <= 10000; i++) {
+            h.record(i);
+        }
+
+        assertEquals(10000, h.getCount());
+        assertEquals(10000, h.getMax());
+        assertEquals(5000.5, h.getMean(), 0.001);
+
+        // every reported value is within 1/16 of the exact one
+
+        double[] percentiles = {50, 90, 99, 99.9, 100};
+
+        for (double p : percentiles) {
+            long exact = (long) Math.ceil(p / 100 * 10000);
+            long reported = h.getValueAtPercentile(p);
+            assertTrue("p" + p + "=" + reported, reported >= exact);
+            assertTrue("p" + p + "=" + reported, reported <= exact + exact / 16);
+        }
+
+        // small values are exact
+
+        LatencyHistogram small = new LatencyHistogram();
+        small.record(3);
+        small.record(7);
+        small.record(-5);
+        assertEquals(0, small.getValueAtPercentile(10));
+        assertEquals(3, small.getValueAtPercentile(50));
+        assertEquals(7, small.getValueAtPercentile(99.9));
+    }
+
+    @Test
+    public void testOutlierAndMerge() {
+
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+
+        for (int i = 0; i < 999; i++) {
+            a.record(2);
+        }
+
+        b.record(LatencyHistogram.MAX_TRACKABLE_VALUE * 10);
+        a.add(b);
+
+        assertEquals(1000, a.getCount());
+        assertEquals(2, a.getValueAtPercentile(99.9));
+        assertEquals(LatencyHistogram.MAX_TRACKABLE_VALUE * 10, a.getMax());
+        assertEquals(LatencyHistogram.MAX_TRACKABLE_VALUE * 10, a.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testRollingMinutes() {
+
+        RollingLatencyHistogram r = new RollingLatencyHistogram();
+        long now = System.currentTimeMillis();
+        long minute = now / 60000;
+
+        r.record(10, now);
+        r.record(20, now - 60000);
+        r.record(30, now - 60 * 60000);
+
+        assertEquals(1, r.getMinute(minute).getCount());
+        assertEquals(1, r.getMinute(minute - 1).getCount());
+        assertNull(r.getMinute(minute - 60));
+        assertEquals(2, r.getWindow(RollingLatencyHistogram.NUM_MINUTES).getCount());
+        assertEquals(1, r.getWindow(1).getCount());
+
+        // a full hour later the slot is recycled lazily on the next record
+
+        r.record(40, now + 60 * 60000);
+        assertNull(r.getMinute(minute));
+        assertEquals(40, r.getMinute(minute + 60).getMax());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+
+        final ApiLatencyStats stats = new ApiLatencyStats();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        for (int t = 0; t < 8; t++) {
+            executor.submit(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        stats.record(i % 100, 1, 2, 3, 4);
+                    }
+                }
+            });
+        }
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(80000, stats.get(LatencyType.Total).getWindow(1).getCount());
+        assertEquals(80000, (long) stats.getPercentiles(1).get("Count"));
+        assertEquals(99, (long) stats.getPercentiles(1).get("TotalMax"));
+        assertEquals(3, (long) stats.getPercentiles(1).get("AuthP999"));
+    }
+}
@@ -81,6 +81,33 @@ public class RollingWindowCaptureTest {
     }
     
 
+    @Test
+    public void testConcurrentAdds() throws Exception {
+        final RollingWindowCapture<SimplePayload> c = new RollingWindowCapture<SimplePayload>(60,1000);
+        ExecutorService e = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 8; i++) {
+            e.submit(new Runnable() {
+                
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        c.addNow(new SimplePayload());
+                    }
+                }
+            });
+        }
+        e.shutdown();
+        e.awaitTermination(10, TimeUnit.SECONDS);
+        CountingVisitor countingV = new CountingVisitor();
+        c.visitAllNodes(countingV);
+        if (countingV.count != 80000) {
+            fail("Expected to find count 80000. Got:" + countingV.count);
+        }
+        if (c.getLatestPayload() == null) {
+            fail("Expected latest payload");
+        }
+    }
+
     @Test
     public void testRWThroughput() throws Exception {
         ExecutorService e = Executors.newFixedThreadPool(5);
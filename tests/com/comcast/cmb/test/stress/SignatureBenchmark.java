@@ -0,0 +1,165 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cmb.test.stress;
+
+import java.net.URI;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.auth.AWS4Signer;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.http.HttpMethodName;
+import com.amazonaws.util.HttpUtils;
+import com.comcast.cmb.common.util.AuthUtil;
+import com.comcast.cmb.common.util.Util;
+import com.comcast.cmb.test.tools.SimpleHttpServletRequest;
+
+/**
+ * JMH benchmark for signature verification throughput. Covers version 2 signatures and version 4
+ * signatures with the cached signing key, plus the previous per-request version 4 key derivation
+ * as a baseline. Run main() from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignatureBenchmark {
+
+	private static final int[] THREAD_COUNTS = {1, 4, 16};
+
+	private String accessKey;
+	private String accessSecret;
+
+	private URL url;
+	private Map<String, String> v2Parameters;
+
+	private SimpleHttpServletRequest v4Request;
+	private String v4Payload;
+	private String v4Scope;
+
+	@Setup
+	public void setup() throws Exception {
+
+		Util.initLog4jTest();
+
+		accessKey = AuthUtil.generateRandomAccessKey();
+		accessSecret = AuthUtil.generateRandomAccessSecret();
+
+		url = new URL("http://localhost:6059/123456789012/testQueue");
+		v2Parameters = new HashMap<String, String>();
+		v2Parameters.put("Action", "SendMessage");
+		v2Parameters.put("MessageBody", "benchmark message");
+		v2Parameters.put("AWSAccessKeyId", accessKey);
+		v2Parameters.put("SignatureVersion", "2");
+		v2Parameters.put("Timestamp", "2014-01-01T00:00:00.000Z");
+
+		DefaultRequest<Void> sdkRequest = new DefaultRequest<Void>("AmazonSQS");
+		sdkRequest.setEndpoint(new URI("http://localhost:6059"));
+		sdkRequest.setResourcePath("/123456789012/testQueue");
+		sdkRequest.setHttpMethod(HttpMethodName.POST);
+		sdkRequest.addParameter("Action", "SendMessage");
+		sdkRequest.addParameter("MessageBody", "benchmark message");
+
+		AWS4Signer signer = new AWS4Signer();
+		signer.setServiceName("sqs");
+		signer.setRegionName("us-east-1");
+		signer.sign(sdkRequest, new BasicAWSCredentials(accessKey, accessSecret));
+
+		final Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+		headers.putAll(sdkRequest.getHeaders());
+		headers.put("Host", "localhost:6059");
+
+		v4Request = new SimpleHttpServletRequest() {
+			@Override
+			public String getHeader(String key) {
+				return headers.get(key);
+			}
+			@Override
+			public String getRequestURI() {
+				return "/123456789012/testQueue";
+			}
+		};
+		v4Request.setMethod("POST");
+		v4Payload = HttpUtils.encodeParameters(sdkRequest);
+
+		String authorizationHeader = headers.get("Authorization");
+		int scopeStart = authorizationHeader.indexOf('/') + 1;
+		v4Scope = authorizationHeader.substring(scopeStart, authorizationHeader.indexOf(',', scopeStart));
+	}
+
+	@Benchmark
+	public String verifyV2() throws Exception {
+		return AuthUtil.generateSignature(url, new HashMap<String, String>(v2Parameters), "2", "HmacSHA256", accessSecret);
+	}
+
+	@Benchmark
+	public String verifyV4() {
+		return AuthUtil.generateSignatureV4(v4Request, v4Payload, "HMAC-SHA256", accessKey, accessSecret);
+	}
+
+	// previous implementation derived the signing key with four fresh Mac instances per request
+
+	@Benchmark
+	public byte[] deriveV4SigningKeyUncached() throws Exception {
+		String[] scopeParts = v4Scope.split("/");
+		byte[] date = hmac(scopeParts[0], ("AWS4" + accessSecret).getBytes());
+		byte[] region = hmac(scopeParts[1], date);
+		byte[] service = hmac(scopeParts[2], region);
+		return hmac("aws4_request", service);
+	}
+
+	private static byte[] hmac(String data, byte[] key) throws Exception {
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(key, "HmacSHA256"));
+		return mac.doFinal(data.getBytes("UTF-8"));
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		for (int threads : THREAD_COUNTS) {
+
+			Options opt = new OptionsBuilder()
+				.include(SignatureBenchmark.class.getSimpleName())
+				.threads(threads)
+				.build();
+
+			new Runner(opt).run();
+		}
+	}
+}
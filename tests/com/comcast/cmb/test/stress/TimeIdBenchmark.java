@@ -0,0 +1,93 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cmb.test.stress;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.comcast.cmb.common.persistence.AbstractDurablePersistence;
+
+/**
+ * JMH benchmark comparing the lock-free time id generator in AbstractDurablePersistence with the
+ * previous synchronized implementation. Run main() from the test classpath to measure throughput
+ * at 1 to 64 threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeIdBenchmark {
+
+	private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+
+	// previous implementation, kept here as the baseline
+
+	private static long counter = 0;
+
+	private static synchronized long newTimeSynchronized(long t, boolean isHidden) {
+
+		t = t << 21;
+
+		if (isHidden) {
+			t |= 0x0000000000100000L;
+		}
+
+		if (counter == 1048575) {
+			counter = 0;
+		}
+
+		t += counter++;
+
+		return t;
+	}
+
+	@Benchmark
+	public long synchronizedNewTime() {
+		return newTimeSynchronized(System.currentTimeMillis(), false);
+	}
+
+	@Benchmark
+	public long lockFreeNewTime() {
+		return AbstractDurablePersistence.newTime(System.currentTimeMillis(), false);
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		for (int threads : THREAD_COUNTS) {
+
+			Options opt = new OptionsBuilder()
+				.include(TimeIdBenchmark.class.getSimpleName())
+				.threads(threads)
+				.build();
+
+			new Runner(opt).run();
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cmb.test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.comcast.cmb.common.persistence.AbstractDurablePersistence;
+import com.comcast.cmb.common.util.Util;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimeIdTest {
+
+    @Before
+    public void setup() throws Exception {
+        Util.initLog4jTest();
+    }
+
+    @Test
+    public void testBitLayout() {
+
+        long t = System.currentTimeMillis();
+
+        long visible = AbstractDurablePersistence.newTime(t, false);
+        long hidden = AbstractDurablePersistence.newTime(t, true);
+
+        assertEquals(t, AbstractDurablePersistence.getTimestampFromHash(visible));
+        assertEquals(t, AbstractDurablePersistence.getTimestampFromHash(hidden));
+        assertEquals(0, visible & 0x0000000000100000L);
+        assertEquals(0x0000000000100000L, hidden & 0x0000000000100000L);
+        assertTrue("expected visible id " + visible + " to be non-negative", visible >= 0);
+    }
+
+    @Test
+    public void testOrderedAcrossSequenceWrapAround() {
+
+        // far enough in the future not to be affected by other callers
+
+        long t = System.currentTimeMillis() + 3600000;
+        long last = AbstractDurablePersistence.newTime(t, false);
+
+        for (int i = 0; i < 1048575 + 10; i++) {
+            long next = AbstractDurablePersistence.newTime(t, false);
+            assertTrue("expected id " + next + " to be greater than " + last, next > last);
+            last = next;
+        }
+
+        assertEquals(t + 1, AbstractDurablePersistence.getTimestampFromHash(last));
+    }
+
+    @Test
+    public void testUniqueAcrossThreads() throws Exception {
+
+        final int numThreads = 16;
+        final int numIds = 20000;
+        final long t = System.currentTimeMillis() + 7200000;
+        final Set<Long> ids = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+
+        for (int i = 0; i < numThreads; i++) {
+            executor.submit(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    Set<Long> local = new HashSet<Long>();
+                    for (int j = 0; j < numIds; j++) {
+                        local.add(AbstractDurablePersistence.newTime(t, false));
+                    }
+                    ids.addAll(local);
+                }
+            });
+        }
+
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+        assertEquals(numThreads * numIds, ids.size());
+    }
+}
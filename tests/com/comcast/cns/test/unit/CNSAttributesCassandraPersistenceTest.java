@@ -24,6 +24,7 @@ import com.comcast.cmb.common.persistence.PersistenceFactory;
 import com.comcast.cmb.common.persistence.UserCassandraPersistence;
 import com.comcast.cmb.common.util.Util;
 import com.comcast.cmb.test.tools.CMBTestingConstants;
+import com.comcast.cns.controller.CNSCache;
 import com.comcast.cns.model.CNSRetryPolicy;
 import com.comcast.cns.model.CNSSubscription;
 import com.comcast.cns.model.CNSSubscriptionAttributes;
@@ -42,6 +43,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 public class CNSAttributesCassandraPersistenceTest {
 
@@ -152,4 +154,48 @@ public class CNSAttributesCassandraPersistenceTest {
 		assertEquals("Subscription attributes do not match", subscriptionAttributes2.getTopicArn(), subscriptionAttributes.getTopicArn());
 		assertEquals("Subscription attributes do not match", subscriptionAttributes2.getUserId(), subscriptionAttributes.getUserId());
 	}
+
+	@Test
+	public void testEffectiveDeliveryPolicyCacheInvalidation() throws Exception {
+
+		CNSSubscriptionAttributes subscriptionAttributes = new CNSSubscriptionAttributes();
+		subscriptionAttributes.setSubscriptionArn(subscription.getArn());
+		subscriptionAttributes.setTopicArn(subscription.getTopicArn());
+		subscriptionAttributes.setUserId(user.getUserId());
+		attributeHandler.setSubscriptionAttributes(subscriptionAttributes, subscription.getArn());
+
+		setTopicThrottlePolicy(5);
+		assertEquals(5, (int) CNSCache.getEffectiveDeliveryPolicy(subscription.getArn()).getThrottlePolicy().getMaxReceivesPerSecond());
+
+		// a new topic delivery policy replaces the cached effective policy of the subscription
+
+		setTopicThrottlePolicy(7);
+		assertEquals(7, (int) CNSCache.getEffectiveDeliveryPolicy(subscription.getArn()).getThrottlePolicy().getMaxReceivesPerSecond());
+
+		// and so does unsubscribing
+
+		subscriptionHandler.unsubscribe(subscription.getArn());
+
+		try {
+			CNSCache.getEffectiveDeliveryPolicy(subscription.getArn());
+			fail("Effective delivery policy still cached after unsubscribe");
+		} catch (Exception ex) {
+		}
+	}
+
+	private void setTopicThrottlePolicy(int maxReceivesPerSecond) throws Exception {
+
+		CNSTopicAttributes topicAttributes = new CNSTopicAttributes();
+		topicAttributes.setTopicArn(topic.getArn());
+		topicAttributes.setUserId(user.getUserId());
+
+		CNSTopicDeliveryPolicy deliveryPolicy = new CNSTopicDeliveryPolicy();
+		CNSThrottlePolicy throttlePolicy = new CNSThrottlePolicy();
+		throttlePolicy.setMaxReceivesPerSecond(maxReceivesPerSecond);
+		deliveryPolicy.setDefaultThrottlePolicy(throttlePolicy);
+		deliveryPolicy.setDisableSubscriptionOverrides(true);
+		topicAttributes.setDeliveryPolicy(deliveryPolicy);
+
+		attributeHandler.setTopicAttributes(topicAttributes, topic.getArn());
+	}
 }
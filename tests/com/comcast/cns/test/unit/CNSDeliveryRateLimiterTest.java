@@ -0,0 +1,61 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cns.test.unit;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.comcast.cns.tools.CNSDeliveryRateLimiter;
+
+public class CNSDeliveryRateLimiterTest {
+
+    @Test
+    public void testBurstThenDefer() {
+
+        CNSDeliveryRateLimiter limiter = new CNSDeliveryRateLimiter();
+
+        // one second worth of deliveries goes out right away
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, limiter.reserve("sub1", 10));
+        }
+
+        // the next ones are spread out at the configured rate
+
+        long first = limiter.reserve("sub1", 10);
+        long second = limiter.reserve("sub1", 10);
+
+        assertTrue(first > 0 && first <= 101);
+        assertTrue(second > first && second <= 201);
+
+        // buckets are independent
+
+        assertEquals(0, limiter.reserve("sub2", 10));
+    }
+
+    @Test
+    public void testNoLimit() {
+
+        CNSDeliveryRateLimiter limiter = new CNSDeliveryRateLimiter();
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, limiter.reserve("sub1", 0));
+        }
+
+        assertEquals(0, limiter.size());
+    }
+}
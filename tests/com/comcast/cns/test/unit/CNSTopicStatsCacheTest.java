@@ -0,0 +1,96 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cns.test.unit;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.comcast.cns.persistence.CNSTopicStatsCache;
+
+public class CNSTopicStatsCacheTest {
+
+    private Map<String, Long> counters(long confirmed, long pending, long deleted) {
+        Map<String, Long> counters = new HashMap<String, Long>();
+        counters.put(CNSTopicStatsCache.SUBSCRIPTION_CONFIRMED, confirmed);
+        counters.put(CNSTopicStatsCache.SUBSCRIPTION_PENDING, pending);
+        counters.put(CNSTopicStatsCache.SUBSCRIPTION_DELETED, deleted);
+        return counters;
+    }
+
+    @Test
+    public void testWriteThrough() {
+
+        String topicArn = "arn:cmb:cns:ccp:344284593534:testWriteThrough";
+
+        assertNull(CNSTopicStatsCache.get(topicArn));
+
+        CNSTopicStatsCache.put(topicArn, counters(2, 1, 0), CNSTopicStatsCache.beginLoad());
+
+        long changeVersion = CNSTopicStatsCache.beginChange();
+        CNSTopicStatsCache.add(topicArn, CNSTopicStatsCache.SUBSCRIPTION_PENDING, -1, changeVersion);
+        CNSTopicStatsCache.add(topicArn, CNSTopicStatsCache.SUBSCRIPTION_CONFIRMED, 1, changeVersion);
+
+        Map<String, Long> cached = CNSTopicStatsCache.get(topicArn);
+        assertEquals(3L, (long) cached.get(CNSTopicStatsCache.SUBSCRIPTION_CONFIRMED));
+        assertEquals(0L, (long) cached.get(CNSTopicStatsCache.SUBSCRIPTION_PENDING));
+        assertEquals(0L, (long) cached.get(CNSTopicStatsCache.SUBSCRIPTION_DELETED));
+
+        CNSTopicStatsCache.remove(topicArn);
+        assertNull(CNSTopicStatsCache.get(topicArn));
+    }
+
+    @Test
+    public void testLoadOverlappingChangeIsNotCached() {
+
+        String topicArn = "arn:cmb:cns:ccp:344284593534:testLoadOverlappingChange";
+
+        long loadVersion = CNSTopicStatsCache.beginLoad();
+        long changeVersion = CNSTopicStatsCache.beginChange();
+        CNSTopicStatsCache.add(topicArn, CNSTopicStatsCache.SUBSCRIPTION_CONFIRMED, 1, changeVersion);
+        CNSTopicStatsCache.put(topicArn, counters(0, 0, 0), loadVersion);
+
+        assertNull(CNSTopicStatsCache.get(topicArn));
+    }
+
+    @Test
+    public void testLoadBetweenWriteAndAddIsNotCountedTwice() {
+
+        String topicArn = "arn:cmb:cns:ccp:344284593534:testLoadBetweenWriteAndAdd";
+
+        // the counter write happens after beginChange(), a load starting right after the write
+        // already reads the new count and completes before the delta is applied
+
+        long changeVersion = CNSTopicStatsCache.beginChange();
+        long loadVersion = CNSTopicStatsCache.beginLoad();
+        CNSTopicStatsCache.put(topicArn, counters(1, 0, 0), loadVersion);
+        CNSTopicStatsCache.add(topicArn, CNSTopicStatsCache.SUBSCRIPTION_CONFIRMED, 1, changeVersion);
+
+        assertNull(CNSTopicStatsCache.get(topicArn));
+
+        // a load that started before the change gets the delta
+
+        loadVersion = CNSTopicStatsCache.beginLoad();
+        CNSTopicStatsCache.put(topicArn, counters(1, 0, 0), loadVersion);
+        changeVersion = CNSTopicStatsCache.beginChange();
+        CNSTopicStatsCache.add(topicArn, CNSTopicStatsCache.SUBSCRIPTION_CONFIRMED, 1, changeVersion);
+
+        assertEquals(2L, (long) CNSTopicStatsCache.get(topicArn).get(CNSTopicStatsCache.SUBSCRIPTION_CONFIRMED));
+    }
+}
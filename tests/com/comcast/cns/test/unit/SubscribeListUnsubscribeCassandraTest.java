@@ -40,6 +40,7 @@ import com.comcast.cns.model.CNSSubscription.CnsSubscriptionProtocol;
 import com.comcast.cns.persistence.CNSSubscriptionCassandraPersistence;
 import com.comcast.cns.persistence.CNSTopicCassandraPersistence;
 import com.comcast.cns.persistence.ICNSAttributesPersistence;
+import com.comcast.cns.persistence.ICNSSubscriptionCursor;
 import com.comcast.cns.persistence.ICNSSubscriptionPersistence;
 import com.comcast.cns.persistence.ICNSTopicPersistence;
 
@@ -338,6 +339,75 @@ public class SubscribeListUnsubscribeCassandraTest {
         }
 	}
 	
+	@Test
+	public void testConfirmedSubscriptionCursor() throws Exception {
+
+		ICNSTopicPersistence topicHandler = new CNSTopicCassandraPersistence();
+
+		String topicArn = null;
+
+		try {
+
+			String userId1 = user1.getUserId();
+
+			String topicName = "T" + rand.nextLong();
+			CNSTopic t = topicHandler.createTopic(topicName, topicName, userId1);
+			topicArn = t.getArn();
+
+			ICNSSubscriptionPersistence subscriptionHandler = new CNSSubscriptionCassandraPersistence();
+			List<String> endpoints = new ArrayList<String>();
+
+			// endpoints sort in the order they are created, the third one stays pending
+
+			for (int i = 0; i < 5; i++) {
+
+				String endpoint = CMBTestingConstants.HTTP_ENDPOINT_BASE_URL + "recv/cursor" + i;
+				CNSSubscription s = subscriptionHandler.subscribe(endpoint, CnsSubscriptionProtocol.http, topicArn, userId1);
+
+				if (i != 2) {
+					subscriptionHandler.confirmSubscription(false, s.getToken(), topicArn);
+					endpoints.add(endpoint);
+				}
+			}
+
+			ICNSSubscriptionCursor cursor = subscriptionHandler.getConfirmedSubscriptionCursor(topicArn, 2);
+
+			assertNull("Expected no position before the first page", cursor.getPosition());
+
+			List<CNSSubscription> page = cursor.nextPage();
+
+			assertEquals(2, page.size());
+			assertEquals(endpoints.get(0), page.get(0).getEndpoint());
+			assertEquals(endpoints.get(1), page.get(1).getEndpoint());
+
+			// endpoints contain ':' themselves, the position must still parse back
+
+			String position = cursor.getPosition();
+
+			assertEquals("http:" + endpoints.get(1), position);
+
+			ICNSSubscriptionCursor resumed = subscriptionHandler.getConfirmedSubscriptionCursor(topicArn, 2, position);
+
+			for (ICNSSubscriptionCursor c : new ICNSSubscriptionCursor[] {cursor, resumed}) {
+
+				page = c.nextPage();
+
+				assertEquals("Expected the pending subscription to be skipped", 2, page.size());
+				assertEquals(endpoints.get(2), page.get(0).getEndpoint());
+				assertEquals(endpoints.get(3), page.get(1).getEndpoint());
+				assertEquals(0, c.nextPage().size());
+			}
+
+		} finally {
+
+			if (topicArn != null) {
+				try {
+					topicHandler.deleteTopic(topicArn);
+				} catch (Exception e) { }
+			}
+		}
+	}
+
 	@After    
     public void tearDown() throws PersistenceException {
 	    CMBControllerServlet.valueAccumulator.deleteAllCounters();
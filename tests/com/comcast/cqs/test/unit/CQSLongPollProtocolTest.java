@@ -0,0 +1,125 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cqs.test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.junit.Test;
+
+import com.comcast.cqs.controller.CQSLongPollProtocol;
+import com.comcast.cqs.controller.CQSLongPollProtocol.Entry;
+
+public class CQSLongPollProtocolTest {
+
+    private static final String ARN1 = "cmb:cqs:ccp:390328612038:test1";
+    private static final String ARN2 = "cmb:cqs:ccp:390328612038:test2";
+
+    @Test
+    public void testFramesSplitAcrossReads() {
+
+        List<Entry> entries = new ArrayList<Entry>();
+        entries.add(new Entry(CQSLongPollProtocol.NOTIFY, ARN1, 3));
+        entries.add(new Entry(CQSLongPollProtocol.NOTIFY, ARN2, 1));
+
+        ChannelBuffer first = CQSLongPollProtocol.encode(entries);
+        ChannelBuffer second =
+            CQSLongPollProtocol.encode(new Entry(CQSLongPollProtocol.INTEREST_REMOVED, ARN1, 0));
+        ChannelBuffer stream = ChannelBuffers.wrappedBuffer(first, second);
+
+        DecoderEmbedder<List<Entry>> decoder = newReceiverDecoder();
+
+        // feed the stream in 7 byte pieces to exercise partial frames
+
+        while (stream.readable()) {
+            decoder.offer(stream.readBytes(Math.min(7, stream.readableBytes())));
+        }
+
+        List<Entry> decoded = decoder.poll();
+        assertEquals(2, decoded.size());
+        assertEquals(ARN1, decoded.get(0).getQueueArn());
+        assertEquals(3, decoded.get(0).getCount());
+        assertEquals(CQSLongPollProtocol.NOTIFY, decoded.get(1).getType());
+        assertEquals(ARN2, decoded.get(1).getQueueArn());
+
+        decoded = decoder.poll();
+        assertEquals(1, decoded.size());
+        assertEquals(CQSLongPollProtocol.INTEREST_REMOVED, decoded.get(0).getType());
+        assertNull(decoder.poll());
+    }
+
+    @Test
+    public void testLargeSnapshotSplitIntoFrames() {
+
+        List<Entry> entries = new ArrayList<Entry>();
+        entries.add(new Entry(CQSLongPollProtocol.HELLO, "", 0));
+
+        for (int i = 0; i < 40000; i++) {
+            entries.add(new Entry(CQSLongPollProtocol.INTEREST_ADDED, ARN1 + i, 0));
+        }
+
+        DecoderEmbedder<List<Entry>> decoder = newReceiverDecoder();
+        decoder.offer(CQSLongPollProtocol.encodeFrames(entries));
+
+        int numFrames = 0;
+        List<Entry> decoded = new ArrayList<Entry>();
+        List<Entry> frame;
+
+        while ((frame = decoder.poll()) != null) {
+            assertTrue(frame.size() <= CQSLongPollProtocol.MAX_ENTRIES_PER_FRAME);
+            decoded.addAll(frame);
+            numFrames++;
+        }
+
+        assertEquals(41, numFrames);
+        assertEquals(entries.size(), decoded.size());
+        assertEquals(CQSLongPollProtocol.HELLO, decoded.get(0).getType());
+        assertEquals(ARN1 + 39999, decoded.get(40000).getQueueArn());
+    }
+
+    @Test
+    public void testLegacySender() {
+
+        DecoderEmbedder<List<Entry>> decoder = newReceiverDecoder();
+        decoder.offer(CQSLongPollProtocol.encodeLegacy(Arrays.asList(ARN1, ARN2)));
+        decoder.offer(ChannelBuffers.copiedBuffer(ARN1.getBytes()));
+        decoder.offer(ChannelBuffers.copiedBuffer(";".getBytes()));
+
+        String[] expected = { ARN1, ARN2, ARN1 };
+
+        for (String arn : expected) {
+            List<Entry> decoded = decoder.poll();
+            assertEquals(1, decoded.size());
+            assertEquals(CQSLongPollProtocol.NOTIFY, decoded.get(0).getType());
+            assertEquals(arn, decoded.get(0).getQueueArn());
+            assertEquals(1, decoded.get(0).getCount());
+        }
+
+        assertNull(decoder.poll());
+    }
+
+    private DecoderEmbedder<List<Entry>> newReceiverDecoder() {
+        return new DecoderEmbedder<List<Entry>>(new CQSLongPollProtocol.ProtocolDetector());
+    }
+}
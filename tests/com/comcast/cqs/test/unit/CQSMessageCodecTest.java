@@ -0,0 +1,130 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cqs.test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.comcast.cmb.common.util.Util;
+import com.comcast.cqs.model.CQSMessage;
+import com.comcast.cqs.model.CQSMessageAttribute;
+import com.comcast.cqs.persistence.CQSMessageCodec;
+import com.comcast.cqs.util.CQSConstants;
+
+public class CQSMessageCodecTest {
+
+    @Before
+    public void setup() throws Exception {
+        Util.initLog4jTest();
+    }
+
+    private CQSMessage getMessage(String body) throws Exception {
+
+        Map<String, String> attributes = new HashMap<String, String>();
+        attributes.put(CQSConstants.SENT_TIMESTAMP, "1400000000000");
+        attributes.put(CQSConstants.APPROXIMATE_RECEIVE_COUNT, "0");
+        attributes.put(CQSConstants.SENDER_ID, "342126204596");
+        attributes.put(CQSConstants.DELAY_SECONDS, "10");
+
+        Map<String, CQSMessageAttribute> messageAttributes = new HashMap<String, CQSMessageAttribute>();
+        messageAttributes.put("color", new CQSMessageAttribute("blue", "String"));
+        messageAttributes.put("count", new CQSMessageAttribute("42", "Number"));
+
+        CQSMessage message = new CQSMessage(body, attributes, messageAttributes);
+        message.setMessageId("6d9b0e2ac3ac1a4cd1ff5bb2a7d2f9e1_0_7:6125948474408960000:-9028337223640662272");
+
+        return message;
+    }
+
+    private void assertRoundTrip(CQSMessage message, boolean compressBody) throws Exception {
+
+        byte[] value = CQSMessageCodec.encode(message, compressBody);
+        assertTrue(CQSMessageCodec.isBinary(value));
+
+        CQSMessage decoded = CQSMessageCodec.decode(value);
+
+        assertEquals(message.getMessageId(), decoded.getMessageId());
+        assertEquals(message.getMessageId(), decoded.getReceiptHandle());
+        assertEquals(message.getMD5OfBody(), decoded.getMD5OfBody());
+        assertEquals(message.getBody(), decoded.getBody());
+        assertEquals(3, decoded.getAttributes().size());
+        assertEquals("1400000000000", decoded.getAttributes().get(CQSConstants.SENT_TIMESTAMP));
+        assertEquals("0", decoded.getAttributes().get(CQSConstants.APPROXIMATE_RECEIVE_COUNT));
+        assertEquals("342126204596", decoded.getAttributes().get(CQSConstants.SENDER_ID));
+        assertEquals(message.getMD5OfMessageAttributes(), decoded.getMD5OfMessageAttributes());
+        assertEquals(2, decoded.getMessageAttributes().size());
+        assertEquals("blue", decoded.getMessageAttributes().get("color").getStringValue());
+        assertEquals("Number", decoded.getMessageAttributes().get("count").getDataType());
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        assertRoundTrip(getMessage("hello wörld ☃"), false);
+    }
+
+    @Test
+    public void testRoundTripCompressed() throws Exception {
+
+        char[] chars = new char[20000];
+        Arrays.fill(chars, 'x');
+        CQSMessage message = getMessage(new String(chars));
+
+        assertRoundTrip(message, true);
+        assertTrue(CQSMessageCodec.encode(message, true).length < 1000);
+    }
+
+    @Test
+    public void testNoMessageAttributes() throws Exception {
+
+        CQSMessage message = new CQSMessage("body", new HashMap<String, String>());
+        message.setMessageId("6d9b0e2ac3ac1a4cd1ff5bb2a7d2f9e1_0_7:1:2");
+
+        CQSMessage decoded = CQSMessageCodec.decode(CQSMessageCodec.encode(message, false));
+
+        assertEquals("body", decoded.getBody());
+        assertNull(decoded.getMD5OfMessageAttributes());
+        assertEquals(0, decoded.getMessageAttributes().size());
+    }
+
+    @Test
+    public void testJsonIsNotBinary() throws Exception {
+        assertFalse(CQSMessageCodec.isBinary("{\"MessageId\":\"a\"}".getBytes("UTF-8")));
+        assertFalse(CQSMessageCodec.isBinary(new byte[0]));
+    }
+
+    @Test
+    public void testTruncatedColumn() throws Exception {
+
+        byte[] value = CQSMessageCodec.encode(getMessage("body"), false);
+
+        try {
+            CQSMessageCodec.decode(Arrays.copyOf(value, value.length / 2));
+            fail("Expected truncated column to be rejected");
+        } catch (IOException ex) {
+        }
+    }
+}
@@ -173,6 +173,29 @@ public class CQSMessagePartitionedCassandraPersistenceTest {
 		}
 	}
 	
+	@Test
+	public void testDeleteMessageBatchWithInvalidReceiptHandles() throws Exception {
+
+		List<String> receiptHandles = new ArrayList<String>();
+
+		for (int i=0; i<10; i++) {
+			CQSMessage message = new CQSMessage("This is a test message id=" + i, attributes);
+			receiptHandles.add(persistence.sendMessage(queue, 0, message));
+		}
+
+		assertEquals(receiptHandles.size(), getQueueMessageCount(queue.getRelativeUrl()));
+
+		// malformed handles in between must not keep the others from being deleted
+
+		receiptHandles.add(3, "not_a_receipt_handle");
+		receiptHandles.add(5, "key:not_a_number:1");
+		receiptHandles.add(null);
+
+		persistence.deleteMessageBatch(queue.getRelativeUrl(), receiptHandles);
+
+		assertEquals(0, getQueueMessageCount(queue.getRelativeUrl()));
+	}
+
 	private boolean compareMessages(CQSMessage message1, CQSMessage message2) {
 		
 		return 
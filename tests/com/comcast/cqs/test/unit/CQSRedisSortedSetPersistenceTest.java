@@ -15,5 +15,106 @@
  */
 package com.comcast.cqs.test.unit;
 
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.comcast.cmb.common.controller.CMBControllerServlet;
+import com.comcast.cmb.common.model.User;
+import com.comcast.cmb.common.persistence.IUserPersistence;
+import com.comcast.cmb.common.persistence.PersistenceFactory;
+import com.comcast.cmb.common.persistence.UserCassandraPersistence;
+import com.comcast.cmb.common.util.CMBProperties;
+import com.comcast.cmb.common.util.Util;
+import com.comcast.cqs.model.CQSMessage;
+import com.comcast.cqs.model.CQSQueue;
+import com.comcast.cqs.persistence.CQSQueueCassandraPersistence;
+import com.comcast.cqs.persistence.ICQSMessagePersistence;
+import com.comcast.cqs.persistence.RedisSortedSetPersistence;
+import com.comcast.cqs.util.CQSConstants;
+
 public class CQSRedisSortedSetPersistenceTest {
+
+    private ICQSMessagePersistence persistence;
+    private CQSQueueCassandraPersistence queuePersistence = new CQSQueueCassandraPersistence();
+    private CQSQueue queue = null;
+    private HashMap<String, String> attributes = null;
+    private Random randomGenerator = new Random();
+
+    @Before
+    public void setup() throws Exception {
+
+        Util.initLog4jTest();
+        CMBControllerServlet.valueAccumulator.initializeAllCounters();
+        PersistenceFactory.reset();
+        persistence = RedisSortedSetPersistence.getInstance();
+
+        IUserPersistence userPersistence = new UserCassandraPersistence();
+        User user = userPersistence.getUserByName("cqs_unit_test");
+
+        if (user == null) {
+            user = userPersistence.createUser("cqs_unit_test", "cqs_unit_test");
+        }
+
+        attributes = new HashMap<String, String>();
+        attributes.put("SenderId", user.getUserId());
+        attributes.put("ApproximateReceiveCount", "0");
+        attributes.put("ApproximateFirstReceiveTimestamp", "");
+
+        queue = new CQSQueue("TSTQ_" + randomGenerator.nextLong(), user.getUserId());
+        queue.setRegion(CMBProperties.getInstance().getRegion());
+        queuePersistence.createQueue(queue);
+    }
+
+    @Test
+    public void testDeleteMessageBatchWithInvalidReceiptHandles() throws Exception {
+
+        for (int i=0; i<5; i++) {
+            persistence.sendMessage(queue, 0, new CQSMessage("This is a test message id=" + i, attributes));
+        }
+
+        Map<String, String> receiveAttributes = new HashMap<String, String>();
+        receiveAttributes.put(CQSConstants.MAX_NUMBER_OF_MESSAGES, "10");
+        receiveAttributes.put(CQSConstants.VISIBILITY_TIMEOUT, "60");
+
+        List<String> receiptHandles = new ArrayList<String>();
+
+        // the first receives may go to cassandra while the cache is still being filled
+
+        for (int i=0; i<10 && receiptHandles.size() < 5; i++) {
+
+            for (CQSMessage message : persistence.receiveMessage(queue, receiveAttributes)) {
+                receiptHandles.add(message.getReceiptHandle());
+            }
+
+            Thread.sleep(500);
+        }
+
+        assertEquals(5, receiptHandles.size());
+
+        // malformed handles in between must not keep the others from being deleted
+
+        receiptHandles.add(2, "not_a_receipt_handle");
+        receiptHandles.add(4, "0:0:queue_x_0:1:1");
+        receiptHandles.add(null);
+
+        persistence.deleteMessageBatch(queue.getRelativeUrl(), receiptHandles);
+
+        assertEquals(0, persistence.getQueueMessageCount(queue.getRelativeUrl()));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CMBControllerServlet.valueAccumulator.deleteAllCounters();
+        persistence.clearQueue(queue.getRelativeUrl(), 0);
+        queuePersistence.deleteQueue(queue.getRelativeUrl());
+    }
 }
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2012 Comcast Corporation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.comcast.cqs.test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import redis.clients.jedis.JedisShardInfo;
+
+import com.comcast.cqs.persistence.RedisCacheStateLeases;
+
+public class RedisCacheStateLeasesTest {
+
+    private static final String QUEUE_URL = "http://localhost:6059/390328612038/testQueue";
+
+    // no shards to subscribe to, so leases are handed out without a redis connection
+
+    private RedisCacheStateLeases newLeases(long leaseMillis) {
+        return new RedisCacheStateLeases("testChannel", new ArrayList<JedisShardInfo>(), leaseMillis);
+    }
+
+    @Test
+    public void testGrantAndRevoke() {
+
+        RedisCacheStateLeases leases = newLeases(60000);
+
+        assertFalse(leases.isLeased(QUEUE_URL, 0));
+
+        leases.grant(QUEUE_URL, 0, leases.beginRead());
+
+        assertTrue(leases.isLeased(QUEUE_URL, 0));
+        assertFalse(leases.isLeased(QUEUE_URL, 1));
+        assertEquals(1, leases.getLeaseHitCount());
+
+        leases.revoke(QUEUE_URL, 0);
+
+        assertFalse(leases.isLeased(QUEUE_URL, 0));
+        assertEquals(1, leases.getLeaseHitCount());
+    }
+
+    @Test
+    public void testReadOverlappingChangeGrantsNoLease() {
+
+        RedisCacheStateLeases leases = newLeases(60000);
+
+        long readVersion = leases.beginRead();
+        leases.revoke(QUEUE_URL, 1);
+        leases.grant(QUEUE_URL, 0, readVersion);
+
+        assertFalse(leases.isLeased(QUEUE_URL, 0));
+
+        leases.grant(QUEUE_URL, 0, leases.beginRead());
+
+        assertTrue(leases.isLeased(QUEUE_URL, 0));
+    }
+
+    @Test
+    public void testLeaseExpires() throws InterruptedException {
+
+        RedisCacheStateLeases leases = newLeases(50);
+
+        leases.grant(QUEUE_URL, 0, leases.beginRead());
+        assertTrue(leases.isLeased(QUEUE_URL, 0));
+
+        Thread.sleep(100);
+
+        assertFalse(leases.isLeased(QUEUE_URL, 0));
+    }
+
+    @Test
+    public void testNoLeaseWhenDisabledOrNotSubscribed() {
+
+        RedisCacheStateLeases disabled = newLeases(0);
+        disabled.grant(QUEUE_URL, 0, disabled.beginRead());
+
+        assertFalse(disabled.isLeased(QUEUE_URL, 0));
+
+        // never started, so not subscribed on the shard and unaware of changes made elsewhere
+
+        RedisCacheStateLeases unsubscribed =
+                new RedisCacheStateLeases("testChannel", Arrays.asList(new JedisShardInfo("localhost", 6379)), 60000);
+        unsubscribed.grant(QUEUE_URL, 0, unsubscribed.beginRead());
+
+        assertFalse(unsubscribed.isLeased(QUEUE_URL, 0));
+    }
+}